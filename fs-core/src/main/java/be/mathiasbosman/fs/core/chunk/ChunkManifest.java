@@ -0,0 +1,92 @@
+package be.mathiasbosman.fs.core.chunk;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * The chunks a file consists of, in order.
+ *
+ * @param size   Size of the content
+ * @param chunks The chunks
+ */
+record ChunkManifest(long size, List<Chunk> chunks) {
+
+  static final int MAGIC = 0x46534D01;
+  static final int DIGEST_LENGTH = 32;
+  /**
+   * Length of the magic number, the content size and the amount of chunks a manifest starts with.
+   */
+  static final int HEADER_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES;
+  private static final int CHUNK_ENTRY_SIZE = DIGEST_LENGTH + Integer.BYTES;
+  private static final HexFormat HEX = HexFormat.of();
+
+  /**
+   * A chunk of content.
+   *
+   * @param digest Hexadecimal SHA-256 digest of the chunk
+   * @param length Length of the chunk
+   */
+  record Chunk(String digest, int length) {
+
+  }
+
+  void write(OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(MAGIC);
+    data.writeLong(size);
+    data.writeInt(chunks.size());
+    for (Chunk chunk : chunks) {
+      data.write(HEX.parseHex(chunk.digest()));
+      data.writeInt(chunk.length());
+    }
+    data.flush();
+  }
+
+  /**
+   * Read the content size from the header of a manifest, or return -1 when content of the given
+   * length is not a manifest.
+   */
+  static long readSize(InputStream in, long length) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    try {
+      if (data.readInt() != MAGIC) {
+        return -1;
+      }
+      long size = data.readLong();
+      int count = data.readInt();
+      return length == HEADER_SIZE + (long) count * CHUNK_ENTRY_SIZE ? size : -1;
+    } catch (EOFException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Read a manifest, or return null when the content is not a manifest.
+   */
+  static ChunkManifest read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    try {
+      if (data.readInt() != MAGIC) {
+        return null;
+      }
+      long size = data.readLong();
+      int count = data.readInt();
+      List<Chunk> chunks = new ArrayList<>(count);
+      byte[] digest = new byte[DIGEST_LENGTH];
+      for (int i = 0; i < count; i++) {
+        data.readFully(digest);
+        chunks.add(new Chunk(HEX.formatHex(digest), data.readInt()));
+      }
+      return new ChunkManifest(size, chunks);
+    } catch (EOFException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package be.mathiasbosman.fs.core.chunk;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+
+/**
+ * Splits content into chunks whose boundaries depend on the content itself, so an insertion or
+ * removal only changes the chunks around it. A gear rolling hash is updated for every byte and a
+ * boundary is placed where the hash matches a mask. A stricter mask is used before the average
+ * chunk size is reached and a looser one after, which keeps chunk sizes close to the average
+ * (normalized chunking as in FastCDC).
+ */
+public class Chunker implements Iterator<byte[]> {
+
+  private static final long[] GEAR = new long[256];
+
+  static {
+    // the seed is fixed: boundaries, and thus deduplication, have to be stable between runs
+    SplittableRandom random = new SplittableRandom(0x46534348554E4B53L);
+    Arrays.setAll(GEAR, i -> random.nextLong());
+  }
+
+  private final InputStream in;
+  private final int minSize;
+  private final int averageSize;
+  private final long strictMask;
+  private final long looseMask;
+  private final byte[] buffer;
+  private int filled;
+  private boolean eof;
+
+  /**
+   * Create a chunker.
+   *
+   * @param in          The content to split
+   * @param minSize     Minimum size of a chunk, except for the last one
+   * @param averageSize Targeted average size of a chunk, a power of two
+   * @param maxSize     Maximum size of a chunk
+   */
+  public Chunker(InputStream in, int minSize, int averageSize, int maxSize) {
+    if (Integer.bitCount(averageSize) != 1 || averageSize < 64) {
+      throw new IllegalArgumentException("Average chunk size should be a power of two >= 64");
+    }
+    if (minSize < 1 || minSize > averageSize || averageSize > maxSize) {
+      throw new IllegalArgumentException("Chunk sizes should satisfy 0 < min <= average <= max");
+    }
+    this.in = in;
+    this.minSize = minSize;
+    this.averageSize = averageSize;
+    int bits = Integer.numberOfTrailingZeros(averageSize);
+    this.strictMask = highBits(bits + 1);
+    this.looseMask = highBits(bits - 1);
+    this.buffer = new byte[maxSize];
+  }
+
+  private static long highBits(int bits) {
+    // the high bits of the hash depend on the most bytes
+    return -1L << (Long.SIZE - bits);
+  }
+
+  @Override
+  public boolean hasNext() {
+    fill();
+    return filled > 0;
+  }
+
+  @Override
+  public byte[] next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    int cut = cut();
+    byte[] chunk = Arrays.copyOf(buffer, cut);
+    System.arraycopy(buffer, cut, buffer, 0, filled - cut);
+    filled -= cut;
+    return chunk;
+  }
+
+  private void fill() {
+    try {
+      while (!eof && filled < buffer.length) {
+        int read = in.read(buffer, filled, buffer.length - filled);
+        if (read < 0) {
+          eof = true;
+        } else {
+          filled += read;
+        }
+      }
+    } catch (IOException e) {
+      throw new FileServiceException(e);
+    }
+  }
+
+  private int cut() {
+    if (filled <= minSize) {
+      return filled;
+    }
+    long hash = 0;
+    int normal = Math.min(averageSize, filled);
+    int i = minSize;
+    for (; i < normal; i++) {
+      hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+      if ((hash & strictMask) == 0) {
+        return i + 1;
+      }
+    }
+    for (; i < filled; i++) {
+      hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+      if ((hash & looseMask) == 0) {
+        return i + 1;
+      }
+    }
+    return filled;
+  }
+}
@@ -0,0 +1,336 @@
+package be.mathiasbosman.fs.core.chunk;
+
+import be.mathiasbosman.fs.core.chunk.ChunkManifest.Chunk;
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.service.DelegatingFileService;
+import be.mathiasbosman.fs.core.service.FileNodeVisitor;
+import be.mathiasbosman.fs.core.service.FileService;
+import be.mathiasbosman.fs.core.util.FileServiceUtils;
+import be.mathiasbosman.fs.core.util.ParallelTasks;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * A {@link FileService} that deduplicates content. Content is split into chunks with a
+ * {@link Chunker}, every chunk is stored once in the wrapped file service under its SHA-256
+ * digest and a file becomes a small manifest listing its chunks. Saving a new version of a file
+ * only uploads the chunks that changed.
+ *
+ * <p>The chunks are stored in {@link ChunkingOptions#getChunkDirectory()}, which is hidden from
+ * listings. Deleting or overwriting a file leaves its chunks in place as they may be shared,
+ * {@link #collectGarbage()} removes the chunks no manifest refers to anymore. Files that are not a
+ * manifest are read as is. Listed files read the size of their content from the header of the
+ * manifest when it is first asked for, with a ranged read.
+ */
+public class ChunkingFileService extends DelegatingFileService {
+
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+  private static final HexFormat HEX = HexFormat.of();
+  private static final ExecutorService PREFETCHERS = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "fs-chunk");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final ChunkingOptions options;
+  private final String chunkDirectory;
+  private final Set<String> knownChunks = ConcurrentHashMap.newKeySet();
+
+  public ChunkingFileService(FileService delegate, ChunkingOptions options) {
+    super(delegate);
+    if (options.getParallelism() < 1 || options.getPrefetch() < 1) {
+      throw new IllegalArgumentException("Parallelism and prefetch should be at least 1");
+    }
+    this.options = options;
+    this.chunkDirectory = FileServiceUtils.combine(options.getChunkDirectory());
+  }
+
+  public ChunkingFileService(FileService delegate) {
+    this(delegate, ChunkingOptions.builder().build());
+  }
+
+  @Override
+  protected void save(InputStream is, String path, long size) {
+    if (isChunkPath(path)) {
+      throw new IllegalArgumentException("Cannot save in the chunk directory: " + path);
+    }
+    Chunker chunker = new Chunker(is, options.getMinChunkSize(), options.getAverageChunkSize(),
+        options.getMaxChunkSize());
+    List<Chunk> chunks = ParallelTasks.map(chunker, this::storeChunk, options.getParallelism());
+    long total = chunks.stream().mapToLong(Chunk::length).sum();
+    ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+    try {
+      new ChunkManifest(total, chunks).write(manifest);
+    } catch (IOException e) {
+      throw new FileServiceException(e);
+    }
+    delegate.save(manifest.toByteArray(), path);
+  }
+
+  private Chunk storeChunk(byte[] content) {
+    String digest = digest(content);
+    if (!knownChunks.contains(digest)) {
+      String chunkPath = chunkPath(digest);
+      if (!delegate.exists(chunkPath)) {
+        delegate.save(content, chunkPath);
+      }
+      knownChunks.add(digest);
+    }
+    return new Chunk(digest, content.length);
+  }
+
+  private static String digest(byte[] content) {
+    try {
+      return HEX.formatHex(MessageDigest.getInstance(DIGEST_ALGORITHM).digest(content));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private String chunkPath(String digest) {
+    return FileServiceUtils.combine(chunkDirectory, digest.substring(0, 2), digest);
+  }
+
+  private boolean isChunkPath(String path) {
+    return path.equals(chunkDirectory) || path.startsWith(chunkDirectory + File.separatorChar);
+  }
+
+  @Override
+  public InputStream open(FileSystemNode node) {
+    InputStream raw = delegate.open(node);
+    try {
+      BufferedInputStream in = new BufferedInputStream(raw);
+      in.mark(Integer.BYTES);
+      ChunkManifest manifest = ChunkManifest.read(in);
+      if (manifest == null) {
+        in.reset();
+        return in;
+      }
+      raw.close();
+      return new ChunkInputStream(manifest.chunks());
+    } catch (IOException e) {
+      throw new FileServiceException(e);
+    }
+  }
+
+  @Override
+  protected long getSize(String path) {
+    return contentSize(delegate.getFileNode(path));
+  }
+
+  private long contentSize(FileSystemNode node) {
+    long size = manifestSize(node);
+    return size >= 0 ? size : node.getSize();
+  }
+
+  /**
+   * The content size of a manifest, or -1 when the file is not a manifest. Only the header is
+   * read, so files that are not a manifest are not downloaded.
+   */
+  private long manifestSize(FileSystemNode node) {
+    long length = node.getSize();
+    if (length < ChunkManifest.HEADER_SIZE) {
+      return -1;
+    }
+    try (InputStream in = delegate.open(node, 0, ChunkManifest.HEADER_SIZE)) {
+      return ChunkManifest.readSize(in, length);
+    } catch (IOException e) {
+      throw new FileServiceException(e);
+    }
+  }
+
+  private ChunkManifest readManifest(FileSystemNode node) {
+    try (InputStream in = new BufferedInputStream(delegate.open(node))) {
+      return ChunkManifest.read(in);
+    } catch (IOException e) {
+      throw new FileServiceException(e);
+    }
+  }
+
+  @Override
+  public List<FileSystemNode> list(FileSystemNode root) {
+    return super.list(root).stream()
+        .filter(node -> !isChunkPath(node.getPath()))
+        .map(this::withContentSize)
+        .toList();
+  }
+
+  @Override
+  public Stream<FileSystemNode> streamDirectory(FileSystemNode root) {
+    return super.streamDirectory(root)
+        .filter(node -> !isChunkPath(node.getPath()))
+        .map(this::withContentSize);
+  }
+
+  private FileSystemNode withContentSize(FileSystemNode node) {
+    return node.isDirectory() ? node : withSize(node, () -> contentSize(node));
+  }
+
+  @Override
+  public void delete(FileSystemNode node, boolean recursive) {
+    super.delete(node, recursive);
+    String path = node.getPath();
+    if (path.isEmpty() || isChunkPath(path)
+        || chunkDirectory.startsWith(path + File.separatorChar)) {
+      knownChunks.clear();
+    }
+  }
+
+  /**
+   * Delete the chunks no manifest refers to. Should not run while files are being saved, as the
+   * chunks of a manifest that is not yet saved would be deleted.
+   *
+   * @return the amount of chunks deleted
+   */
+  public int collectGarbage() {
+    if (!delegate.exists(chunkDirectory)) {
+      return 0;
+    }
+    Set<String> referenced = new HashSet<>();
+    forEachManifest(delegate.getFileNode(""),
+        manifest -> manifest.chunks().forEach(chunk -> referenced.add(chunk.digest())));
+    List<FileSystemNode> unreferenced = new ArrayList<>();
+    forEachFile(delegate, delegate.getFileNode(chunkDirectory), chunk -> {
+      if (!referenced.contains(chunk.getName())) {
+        unreferenced.add(chunk);
+      }
+    });
+    for (FileSystemNode chunk : unreferenced) {
+      delegate.delete(chunk, false);
+      knownChunks.remove(chunk.getName());
+    }
+    return unreferenced.size();
+  }
+
+  /**
+   * Reads the manifests below a directory of the wrapped file service, files that are not a
+   * manifest are only sniffed.
+   */
+  private void forEachManifest(FileSystemNode directory, Consumer<ChunkManifest> consumer) {
+    for (FileSystemNode node : delegate.list(directory)) {
+      if (isChunkPath(node.getPath())) {
+        continue;
+      }
+      if (node.isDirectory()) {
+        forEachManifest(node, consumer);
+      } else if (manifestSize(node) >= 0) {
+        consumer.accept(readManifest(node));
+      }
+    }
+  }
+
+  private static void forEachFile(FileService fileService, FileSystemNode root,
+      Consumer<FileSystemNode> consumer) {
+    fileService.walk(root, new FileNodeVisitor() {
+      @Override
+      public void on(FileSystemNode node) {
+        consumer.accept(node);
+      }
+
+      @Override
+      public void pre(FileSystemNode node) {
+        // only files are of interest
+      }
+
+      @Override
+      public void post(FileSystemNode node) {
+        // only files are of interest
+      }
+    });
+  }
+
+  /**
+   * Reassembles the content of a manifest, fetching chunks ahead of the reader.
+   */
+  private class ChunkInputStream extends InputStream {
+
+    private final List<Chunk> chunks;
+    private final Deque<CompletableFuture<byte[]>> fetching = new ArrayDeque<>();
+    private int next;
+    private byte[] current = new byte[0];
+    private int position;
+
+    private ChunkInputStream(List<Chunk> chunks) {
+      this.chunks = chunks;
+      prefetch();
+    }
+
+    private void prefetch() {
+      while (next < chunks.size() && fetching.size() < options.getPrefetch()) {
+        Chunk chunk = chunks.get(next++);
+        fetching.add(CompletableFuture.supplyAsync(() -> fetch(chunk), PREFETCHERS));
+      }
+    }
+
+    private byte[] fetch(Chunk chunk) {
+      byte[] content = delegate.getBytes(chunkPath(chunk.digest()));
+      if (content.length != chunk.length()) {
+        throw new FileServiceException("Chunk " + chunk.digest() + " is corrupt");
+      }
+      return content;
+    }
+
+    private boolean advance() throws IOException {
+      while (position == current.length) {
+        CompletableFuture<byte[]> chunk = fetching.poll();
+        if (chunk == null) {
+          return false;
+        }
+        prefetch();
+        try {
+          current = chunk.join();
+        } catch (CompletionException e) {
+          throw new IOException(e.getCause());
+        }
+        position = 0;
+      }
+      return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return advance() ? current[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!advance()) {
+        return -1;
+      }
+      int read = Math.min(len, current.length - position);
+      System.arraycopy(current, position, b, off, read);
+      position += read;
+      return read;
+    }
+
+    @Override
+    public void close() {
+      fetching.forEach(chunk -> chunk.cancel(true));
+      fetching.clear();
+      next = chunks.size();
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package be.mathiasbosman.fs.core.chunk;
+
+import be.mathiasbosman.fs.core.service.AbstractFileService;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Options of a {@link ChunkingFileService}. The chunk sizes determine the deduplication: smaller
+ * chunks find more duplicates, larger chunks need fewer requests and smaller manifests.
+ */
+@Getter
+@Builder
+public class ChunkingOptions {
+
+  @Builder.Default
+  private final int minChunkSize = 64 * 1024;
+  /**
+   * Targeted average chunk size, a power of two.
+   */
+  @Builder.Default
+  private final int averageChunkSize = 256 * 1024;
+  @Builder.Default
+  private final int maxChunkSize = 1024 * 1024;
+  /**
+   * Directory of the wrapped file service the chunks are stored in.
+   */
+  @Builder.Default
+  private final String chunkDirectory = ".chunks";
+  /**
+   * Maximum amount of chunks uploaded at the same time by a single save.
+   */
+  @Builder.Default
+  private final int parallelism = AbstractFileService.DEFAULT_BULK_PARALLELISM;
+  /**
+   * Amount of chunks fetched ahead of the reader.
+   */
+  @Builder.Default
+  private final int prefetch = 4;
+}
@@ -0,0 +1,110 @@
+package be.mathiasbosman.fs.core.coalesce;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.domain.NodeMetadata;
+import be.mathiasbosman.fs.core.service.DelegatingFileService;
+import be.mathiasbosman.fs.core.service.FileService;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent identical reads into one call on the wrapped file service. Metadata
+ * lookups, listings and the content of small files requested by several threads at the same time
+ * are fetched once, every waiting thread gets the result or the failure of that call. Results are
+ * not cached: a read that starts after the shared call finished makes a new call.
+ */
+public class CoalescingFileService extends DelegatingFileService {
+
+  /**
+   * Default size up to which the content of files is shared.
+   */
+  public static final long DEFAULT_MAX_CONTENT_SIZE = 1024 * 1024;
+
+  private final long maxContentSize;
+  private final SingleFlight<Key> flights = new SingleFlight<>();
+
+  /**
+   * A call on the wrapped file service.
+   *
+   * @param operation Name of the operation
+   * @param path      The path the operation is called for
+   */
+  private record Key(String operation, String path) {
+
+  }
+
+  public CoalescingFileService(FileService delegate) {
+    this(delegate, DEFAULT_MAX_CONTENT_SIZE);
+  }
+
+  /**
+   * Creates a coalescing file service.
+   *
+   * @param delegate       The wrapped file service
+   * @param maxContentSize Size up to which the content of files is read once and shared, larger
+   *                       files are always opened separately
+   */
+  public CoalescingFileService(FileService delegate, long maxContentSize) {
+    super(delegate);
+    this.maxContentSize = maxContentSize;
+  }
+
+  /**
+   * The amount of calls that were answered by a call of another thread.
+   *
+   * @return the amount of coalesced calls
+   */
+  public long getCoalescedCount() {
+    return flights.getCoalesced();
+  }
+
+  private <V> V coalesce(String operation, String path, Supplier<V> call) {
+    return flights.execute(new Key(operation, path), call);
+  }
+
+  @Override
+  public InputStream open(FileSystemNode node) {
+    if (node.isDirectory() || node.getSize() > maxContentSize) {
+      return super.open(node);
+    }
+    byte[] content = coalesce("content", node.getPath(), () -> {
+      try (InputStream inputStream = super.open(node)) {
+        return inputStream.readAllBytes();
+      } catch (IOException e) {
+        throw new FileServiceException(e);
+      }
+    });
+    return new ByteArrayInputStream(content);
+  }
+
+  @Override
+  public List<FileSystemNode> list(FileSystemNode root) {
+    // every caller gets its own copy of the shared listing
+    return new ArrayList<>(coalesce("list", root.getPath(), () -> super.list(root)));
+  }
+
+  @Override
+  protected long getSize(String path) {
+    return coalesce("size", path, () -> super.getSize(path));
+  }
+
+  @Override
+  protected boolean exists(String path) {
+    return coalesce("exists", path, () -> super.exists(path));
+  }
+
+  @Override
+  protected boolean isDirectory(String path) {
+    return coalesce("isDirectory", path, () -> super.isDirectory(path));
+  }
+
+  @Override
+  protected NodeMetadata getNodeMetadata(String path) {
+    return coalesce("metadata", path, () -> super.getNodeMetadata(path));
+  }
+}
@@ -0,0 +1,73 @@
+package be.mathiasbosman.fs.core.coalesce;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Executes a call at most once at a time per key. Callers that arrive while the call for their key
+ * is running wait for it and get its result, or its failure. Nothing is remembered once the call
+ * is done.
+ *
+ * @param <K> Type of the keys
+ */
+class SingleFlight<K> {
+
+  private final Map<K, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+  private final LongAdder coalesced = new LongAdder();
+
+  /**
+   * Execute a call, or wait for the running call with the same key.
+   *
+   * @param key  The key of the call
+   * @param call The call
+   * @param <V>  Type of the result
+   * @return the result of the call
+   */
+  @SuppressWarnings("unchecked")
+  <V> V execute(K key, Supplier<V> call) {
+    CompletableFuture<Object> flight = new CompletableFuture<>();
+    CompletableFuture<Object> running = inFlight.putIfAbsent(key, flight);
+    if (running != null) {
+      coalesced.increment();
+      return (V) join(running);
+    }
+    try {
+      V result = call.get();
+      flight.complete(result);
+      return result;
+    } catch (RuntimeException | Error e) {
+      flight.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, flight);
+    }
+  }
+
+  /**
+   * The amount of calls that were answered by a call of another caller.
+   *
+   * @return the amount of coalesced calls
+   */
+  long getCoalesced() {
+    return coalesced.sum();
+  }
+
+  private static Object join(CompletableFuture<Object> flight) {
+    try {
+      return flight.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      if (e.getCause() instanceof Error error) {
+        throw error;
+      }
+      throw new FileServiceException(e.getCause());
+    }
+  }
+}
@@ -0,0 +1,369 @@
+package be.mathiasbosman.fs.core.codec;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.service.DelegatingFileService;
+import be.mathiasbosman.fs.core.service.FileNodeVisitor;
+import be.mathiasbosman.fs.core.service.FileService;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+/**
+ * A {@link FileService} that compresses content on its way to another file service and
+ * decompresses it when it is read. Which codec is used is decided per path by a
+ * {@link CompressionPolicy}; content that is already compressed is stored as is.
+ *
+ * <p>Compressed content starts with a header holding a magic number, the id of the codec and the
+ * original size when it was known on saving. Otherwise the original size is counted while
+ * compressing and follows the compressed content in a trailer. Content without the header is
+ * returned as is, so existing uncompressed files stay readable. Nodes looked up by path carry the
+ * original size, files returned by listings and walks read it with ranged reads of the header and
+ * trailer when it is first asked for.
+ *
+ * <p>Compression runs on a separate thread that feeds the save of the underlying file service, so
+ * compressing and uploading overlap.
+ */
+public class CompressingFileService extends DelegatingFileService {
+
+  static final int MAGIC = 0x46535A01;
+  static final int HEADER_SIZE = Integer.BYTES + 1 + Long.BYTES;
+  static final int TRAILER_SIZE = Long.BYTES;
+  private static final int PIPE_SIZE = 256 * 1024;
+  private static final ExecutorService COMPRESSORS = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "fs-compress");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final CompressionPolicy policy;
+  private final Map<Integer, CompressionCodec> codecs = new HashMap<>();
+
+  public CompressingFileService(FileService delegate, CompressionPolicy policy) {
+    super(delegate);
+    this.policy = policy;
+    register(new DeflateCodec());
+    register(new GzipCodec());
+    policy.getCodecs().forEach(this::register);
+  }
+
+  public CompressingFileService(FileService delegate) {
+    this(delegate, CompressionPolicy.builder().build());
+  }
+
+  private void register(CompressionCodec codec) {
+    if (codec.getId() < 1 || codec.getId() > 255) {
+      throw new IllegalArgumentException("Codec id should be between 1 and 255");
+    }
+    codecs.put(codec.getId(), codec);
+  }
+
+  @Override
+  public InputStream open(FileSystemNode node) {
+    InputStream in = delegate.open(node);
+    try {
+      return decode(in);
+    } catch (IOException | RuntimeException e) {
+      closeQuietly(in);
+      throw e instanceof RuntimeException runtimeException
+          ? runtimeException : new FileServiceException(e);
+    }
+  }
+
+  private InputStream decode(InputStream raw) throws IOException {
+    BufferedInputStream in = new BufferedInputStream(raw);
+    in.mark(HEADER_SIZE);
+    Header header = Header.read(in);
+    if (header == null) {
+      in.reset();
+      return in;
+    }
+    CompressionCodec codec = codecs.get(header.codec());
+    if (codec == null) {
+      throw new FileServiceException("Unknown compression codec " + header.codec());
+    }
+    return codec.decompress(header.size() < 0 ? new WithoutTrailer(in) : in);
+  }
+
+  @Override
+  protected void save(InputStream is, String path, long size) {
+    CompressionCodec codec = policy.select(path);
+    if (codec == null) {
+      super.save(is, path, size);
+      return;
+    }
+    try {
+      PipedInputStream pipe = new PipedInputStream(PIPE_SIZE);
+      PipedOutputStream sink = new PipedOutputStream(pipe);
+      Future<Void> compression = COMPRESSORS.submit(() -> {
+        try (OutputStream out = sink) {
+          new Header(codec.getId(), size).write(out);
+          long original;
+          try (OutputStream compressed = codec.compress(CloseShieldOutputStream.wrap(out))) {
+            original = is.transferTo(compressed);
+          }
+          if (size < 0) {
+            DataOutputStream trailer = new DataOutputStream(out);
+            trailer.writeLong(original);
+            trailer.flush();
+          }
+        }
+        return null;
+      });
+      try (InputStream compressed = new CompressedSource(pipe, compression)) {
+        delegate.save(compressed, path);
+      } finally {
+        compression.cancel(true);
+      }
+    } catch (IOException e) {
+      throw new FileServiceException(e);
+    }
+  }
+
+  /**
+   * Get the original size of a file or the sum of the original sizes of all files in a directory.
+   */
+  @Override
+  public long getSize(FileSystemNode node) {
+    if (!node.isDirectory()) {
+      return getSize(node.getPath());
+    }
+    return delegate.streamDirectory(node)
+        .filter(child -> !child.isDirectory())
+        .mapToLong(this::originalSize)
+        .sum();
+  }
+
+  /**
+   * Get the original size of a file from its header or trailer.
+   */
+  @Override
+  protected long getSize(String path) {
+    return originalSize(delegate.getFileNode(path));
+  }
+
+  /**
+   * Get the original size of a file of the underlying file service with ranged reads, so only the
+   * header and the trailer are transferred.
+   */
+  private long originalSize(FileSystemNode node) {
+    try {
+      Header header;
+      try (InputStream in = delegate.open(node, 0, HEADER_SIZE)) {
+        header = Header.read(in);
+      }
+      if (header == null) {
+        return node.getSize();
+      }
+      if (header.size() >= 0) {
+        return header.size();
+      }
+      try (DataInputStream in = new DataInputStream(
+          delegate.open(node, node.getSize() - TRAILER_SIZE, TRAILER_SIZE))) {
+        return in.readLong();
+      }
+    } catch (IOException e) {
+      throw new FileServiceException(e);
+    }
+  }
+
+  @Override
+  public List<FileSystemNode> list(FileSystemNode root) {
+    return delegate.list(root).stream().map(this::withOriginalSize).toList();
+  }
+
+  @Override
+  public Stream<FileSystemNode> streamDirectory(FileSystemNode root) {
+    return delegate.streamDirectory(root).map(this::withOriginalSize);
+  }
+
+  @Override
+  public void walk(FileSystemNode node, FileNodeVisitor visitor) {
+    delegate.walk(node, new FileNodeVisitor() {
+      @Override
+      public void on(FileSystemNode file) {
+        visitor.on(withOriginalSize(file));
+      }
+
+      @Override
+      public void pre(FileSystemNode directory) {
+        visitor.pre(directory);
+      }
+
+      @Override
+      public void post(FileSystemNode directory) {
+        visitor.post(directory);
+      }
+    });
+  }
+
+  private FileSystemNode withOriginalSize(FileSystemNode node) {
+    return node.isDirectory() ? node : withSize(node, () -> originalSize(node));
+  }
+
+  private static void closeQuietly(InputStream in) {
+    try {
+      in.close();
+    } catch (IOException e) {
+      // the original failure is more relevant
+    }
+  }
+
+  /**
+   * The header of compressed content.
+   *
+   * @param codec The codec id
+   * @param size  The original size, -1 if unknown
+   */
+  private record Header(int codec, long size) {
+
+    private void write(OutputStream out) throws IOException {
+      DataOutputStream data = new DataOutputStream(out);
+      data.writeInt(MAGIC);
+      data.writeByte(codec);
+      data.writeLong(size);
+      data.flush();
+    }
+
+    /**
+     * Read the header, or return null when the content does not start with one.
+     */
+    private static Header read(InputStream in) throws IOException {
+      DataInputStream data = new DataInputStream(in);
+      try {
+        if (data.readInt() != MAGIC) {
+          return null;
+        }
+        return new Header(data.readUnsignedByte(), data.readLong());
+      } catch (EOFException e) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Compressed content without the trailer that follows it, so a codec never reads the trailer as
+   * compressed data. The last bytes read are held back until the end of the content is reached.
+   */
+  private static class WithoutTrailer extends FilterInputStream {
+
+    private byte[] held = new byte[TRAILER_SIZE];
+    private int heldCount;
+
+    private WithoutTrailer(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      while (heldCount < TRAILER_SIZE) {
+        int read = in.read(held, heldCount, TRAILER_SIZE - heldCount);
+        if (read < 0) {
+          return -1;
+        }
+        heldCount += read;
+      }
+      int read = in.read(b, off, len);
+      if (read < 0) {
+        return -1;
+      }
+      // the held bytes followed by the bytes read: return the first ones, hold the last ones
+      byte[] tail = new byte[TRAILER_SIZE];
+      if (read >= TRAILER_SIZE) {
+        System.arraycopy(b, off + read - TRAILER_SIZE, tail, 0, TRAILER_SIZE);
+        System.arraycopy(b, off, b, off + TRAILER_SIZE, read - TRAILER_SIZE);
+        System.arraycopy(held, 0, b, off, TRAILER_SIZE);
+      } else {
+        System.arraycopy(held, read, tail, 0, TRAILER_SIZE - read);
+        System.arraycopy(b, off, tail, TRAILER_SIZE - read, read);
+        System.arraycopy(held, 0, b, off, read);
+      }
+      held = tail;
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      // skipping the underlying stream would pass the held bytes
+      return Math.max(0, read(new byte[(int) Math.max(0, Math.min(n, 8192))]));
+    }
+
+    @Override
+    public int available() {
+      return 0;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
+
+  /**
+   * The reading end of the pipe fed by a compression task. Failures of the task are rethrown when
+   * the end of the content is reached, so a failed compression never looks like complete content.
+   */
+  private static class CompressedSource extends FilterInputStream {
+
+    private final Future<Void> compression;
+
+    private CompressedSource(InputStream in, Future<Void> compression) {
+      super(in);
+      this.compression = compression;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int read = super.read();
+      if (read < 0) {
+        awaitCompression();
+      }
+      return read;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      if (read < 0) {
+        awaitCompression();
+      }
+      return read;
+    }
+
+    private void awaitCompression() throws IOException {
+      try {
+        compression.get();
+      } catch (ExecutionException e) {
+        throw new IOException("Compression failed", e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      }
+    }
+  }
+}
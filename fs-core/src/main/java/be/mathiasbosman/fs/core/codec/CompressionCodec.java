@@ -0,0 +1,38 @@
+package be.mathiasbosman.fs.core.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A compression format used by the {@link CompressingFileService}. The id is stored with the
+ * compressed content so it can be read back regardless of the policy in use at that time.
+ */
+public interface CompressionCodec {
+
+  /**
+   * Get the id stored with content compressed by this codec.
+   *
+   * @return the id, between 1 and 255
+   */
+  int getId();
+
+  /**
+   * Wrap a stream in a stream that compresses what is written to it. Closing the returned stream
+   * closes the wrapped one.
+   *
+   * @param out The stream receiving the compressed content
+   * @return the compressing stream
+   * @throws IOException when the stream could not be created
+   */
+  OutputStream compress(OutputStream out) throws IOException;
+
+  /**
+   * Wrap a stream of compressed content in a stream returning the original content.
+   *
+   * @param in The compressed content
+   * @return the decompressing stream
+   * @throws IOException when the stream could not be created
+   */
+  InputStream decompress(InputStream in) throws IOException;
+}
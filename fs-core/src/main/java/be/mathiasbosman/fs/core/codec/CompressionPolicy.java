@@ -0,0 +1,112 @@
+package be.mathiasbosman.fs.core.codec;
+
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Decides which {@link CompressionCodec}, if any, is used for a path. In order: the codec
+ * configured for the extension of the path, no codec when the extension or the content type
+ * guessed from it is known to be compressed already, the codec configured for the content type
+ * (prefix) and finally the default codec.
+ */
+@Getter
+@Builder
+public class CompressionPolicy {
+
+  public static final Set<String> COMPRESSED_EXTENSIONS = Set.of("7z", "avi", "br", "bz2",
+      "docx", "flac", "gif", "gz", "heic", "jar", "jpeg", "jpg", "lz4", "mkv", "mov", "mp3",
+      "mp4", "ogg", "pdf", "png", "pptx", "rar", "tgz", "webm", "webp", "xlsx", "xz", "zip",
+      "zst");
+  public static final Set<String> COMPRESSED_CONTENT_TYPES = Set.of("image/", "video/",
+      "audio/", "application/zip", "application/gzip", "application/x-gzip",
+      "application/java-archive", "application/pdf");
+
+  /**
+   * Codec used when no other rule applies, null to only compress what is configured explicitly.
+   */
+  @Builder.Default
+  private final CompressionCodec defaultCodec = new DeflateCodec();
+  /**
+   * Codecs per lower case file extension (without dot).
+   */
+  @Singular
+  private final Map<String, CompressionCodec> extensions;
+  /**
+   * Codecs per content type prefix, e.g. {@code text/}.
+   */
+  @Singular
+  private final Map<String, CompressionCodec> contentTypes;
+  @Builder.Default
+  private final Set<String> compressedExtensions = COMPRESSED_EXTENSIONS;
+  @Builder.Default
+  private final Set<String> compressedContentTypes = COMPRESSED_CONTENT_TYPES;
+
+  /**
+   * Select the codec for a path.
+   *
+   * @param path The path being saved
+   * @return the codec or null to store the content as is
+   */
+  public CompressionCodec select(String path) {
+    String extension = getExtension(path);
+    if (extensions.containsKey(extension)) {
+      return extensions.get(extension);
+    }
+    if (isCompressed(path)) {
+      return null;
+    }
+    String contentType = URLConnection.guessContentTypeFromName(path);
+    if (contentType != null) {
+      for (Map.Entry<String, CompressionCodec> entry : contentTypes.entrySet()) {
+        if (contentType.startsWith(entry.getKey())) {
+          return entry.getValue();
+        }
+      }
+    }
+    return defaultCodec;
+  }
+
+  /**
+   * Check if the content of a path is known to be compressed already, judging by its extension or
+   * the content type guessed from it.
+   *
+   * @param path The path
+   * @return true if compressing the content would not pay off
+   */
+  public boolean isCompressed(String path) {
+    if (compressedExtensions.contains(getExtension(path))) {
+      return true;
+    }
+    String contentType = URLConnection.guessContentTypeFromName(path);
+    return contentType != null
+        && compressedContentTypes.stream().anyMatch(contentType::startsWith);
+  }
+
+  private static String getExtension(String path) {
+    return StringUtils.lowerCase(StringUtils.substringAfterLast(
+        StringUtils.substringAfterLast("/" + path, "/"), "."), Locale.ROOT);
+  }
+
+  /**
+   * All codecs this policy can select.
+   *
+   * @return the codecs
+   */
+  Collection<CompressionCodec> getCodecs() {
+    List<CompressionCodec> codecs = new ArrayList<>(extensions.values());
+    codecs.addAll(contentTypes.values());
+    if (defaultCodec != null) {
+      codecs.add(defaultCodec);
+    }
+    return codecs;
+  }
+}
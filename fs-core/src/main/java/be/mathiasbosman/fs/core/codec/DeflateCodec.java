@@ -0,0 +1,67 @@
+package be.mathiasbosman.fs.core.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Raw deflate using the JDK {@link Deflater}, without the framing and checksum of GZIP.
+ */
+public class DeflateCodec implements CompressionCodec {
+
+  public static final int ID = 1;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final int level;
+
+  public DeflateCodec(int level) {
+    if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("Invalid compression level " + level);
+    }
+    this.level = level;
+  }
+
+  public DeflateCodec() {
+    this(Deflater.DEFAULT_COMPRESSION);
+  }
+
+  @Override
+  public int getId() {
+    return ID;
+  }
+
+  @Override
+  public OutputStream compress(OutputStream out) {
+    Deflater deflater = new Deflater(level, true);
+    return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          // a deflater passed in is not ended by the stream
+          deflater.end();
+        }
+      }
+    };
+  }
+
+  @Override
+  public InputStream decompress(InputStream in) {
+    Inflater inflater = new Inflater(true);
+    return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          inflater.end();
+        }
+      }
+    };
+  }
+}
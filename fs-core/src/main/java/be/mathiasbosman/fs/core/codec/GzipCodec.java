@@ -0,0 +1,50 @@
+package be.mathiasbosman.fs.core.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * GZIP using the JDK streams. Slightly larger than {@link DeflateCodec} but the content is
+ * checksummed.
+ */
+public class GzipCodec implements CompressionCodec {
+
+  public static final int ID = 2;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final int level;
+
+  public GzipCodec(int level) {
+    if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("Invalid compression level " + level);
+    }
+    this.level = level;
+  }
+
+  public GzipCodec() {
+    this(Deflater.DEFAULT_COMPRESSION);
+  }
+
+  @Override
+  public int getId() {
+    return ID;
+  }
+
+  @Override
+  public OutputStream compress(OutputStream out) throws IOException {
+    return new GZIPOutputStream(out, BUFFER_SIZE) {
+      {
+        def.setLevel(level);
+      }
+    };
+  }
+
+  @Override
+  public InputStream decompress(InputStream in) throws IOException {
+    return new GZIPInputStream(in, BUFFER_SIZE);
+  }
+}
@@ -0,0 +1,196 @@
+package be.mathiasbosman.fs.core.domain;
+
+import be.mathiasbosman.fs.core.util.FileServiceUtils;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.io.File;
+
+/**
+ * Immutable, normalised path on a file system. A path is a chain of interned segments, so deriving
+ * the parent, a child or the name does not require any string manipulation. The string form is
+ * built once on first use and the hash is computed on creation.
+ *
+ * <p>Segments are separated by {@link File#separatorChar}. Leading and trailing separators and
+ * spaces are stripped from every part, empty segments are dropped.
+ */
+public final class FilePath implements Comparable<FilePath> {
+
+  public static final FilePath ROOT = new FilePath(null, "");
+
+  private static final char SEPARATOR = File.separatorChar;
+  private static final Interner<String> SEGMENTS = Interners.newWeakInterner();
+
+  private final FilePath parent;
+  private final String name;
+  private final int depth;
+  private final int hash;
+  private String path;
+
+  private FilePath(FilePath parent, String name) {
+    this.parent = parent;
+    this.name = name;
+    this.depth = parent == null ? 0 : parent.depth + 1;
+    this.hash = parent == null ? 0 : 31 * parent.hash + name.hashCode();
+    this.path = parent == null ? "" : null;
+  }
+
+  /**
+   * Create a path from the given parts. Each part may contain several segments.
+   *
+   * @param parts Path parts
+   * @return The normalised path
+   */
+  public static FilePath of(String... parts) {
+    FilePath result = ROOT;
+    if (parts != null) {
+      for (String part : parts) {
+        result = result.resolve(part);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Resolve a relative path, possibly containing several segments, against this path.
+   *
+   * @param relative The relative path
+   * @return The resolved path
+   */
+  public FilePath resolve(String relative) {
+    String stripped = FileServiceUtils.strip(relative);
+    if (stripped == null || stripped.isEmpty()) {
+      return this;
+    }
+    FilePath result = this;
+    int length = stripped.length();
+    int start = 0;
+    while (start < length) {
+      int end = stripped.indexOf(SEPARATOR, start);
+      if (end < 0) {
+        end = length;
+      }
+      if (start < end) {
+        result = new FilePath(result, SEGMENTS.intern(stripped.substring(start, end)));
+      }
+      start = end + 1;
+    }
+    return result;
+  }
+
+  /**
+   * Returns the direct child with the given name. Names containing a separator are resolved as a
+   * relative path.
+   *
+   * @param childName Name of the child
+   * @return The child path
+   */
+  public FilePath child(String childName) {
+    if (childName == null || childName.isEmpty()) {
+      return this;
+    }
+    if (childName.indexOf(SEPARATOR) >= 0 || childName.charAt(0) == ' '
+        || childName.charAt(childName.length() - 1) == ' ') {
+      return resolve(childName);
+    }
+    return new FilePath(this, SEGMENTS.intern(childName));
+  }
+
+  /**
+   * Returns the parent path.
+   *
+   * @return The parent or null for the root
+   */
+  public FilePath getParent() {
+    return parent;
+  }
+
+  /**
+   * Returns the parent path as {@link String} in the way {@link FileSystemNode#getParentPath()}
+   * expects it: null for the root and for its direct children.
+   *
+   * @return The parent path or null
+   */
+  public String getParentPath() {
+    return parent == null || parent.isRoot() ? null : parent.toString();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getDepth() {
+    return depth;
+  }
+
+  public boolean isRoot() {
+    return parent == null;
+  }
+
+  /**
+   * Checks if this path equals or is a descendant of the given path.
+   *
+   * @param ancestor The possible ancestor
+   * @return True if this path starts with the given path
+   */
+  public boolean startsWith(FilePath ancestor) {
+    FilePath current = this;
+    while (current != null && current.depth > ancestor.depth) {
+      current = current.parent;
+    }
+    return ancestor.equals(current);
+  }
+
+  @Override
+  public String toString() {
+    String result = path;
+    if (result == null) {
+      int length = depth - 1;
+      for (FilePath current = this; current.parent != null; current = current.parent) {
+        length += current.name.length();
+      }
+      char[] chars = new char[length];
+      int end = length;
+      for (FilePath current = this; current.parent != null; current = current.parent) {
+        int start = end - current.name.length();
+        current.name.getChars(0, current.name.length(), chars, start);
+        if (start > 0) {
+          chars[start - 1] = SEPARATOR;
+        }
+        end = start - 1;
+      }
+      result = new String(chars);
+      path = result;
+    }
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof FilePath other) || hash != other.hash || depth != other.depth) {
+      return false;
+    }
+    FilePath left = this;
+    FilePath right = other;
+    while (left != right) {
+      if (!left.name.equals(right.name)) {
+        return false;
+      }
+      left = left.parent;
+      right = right.parent;
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public int compareTo(FilePath o) {
+    return toString().compareTo(o.toString());
+  }
+}
@@ -12,4 +12,8 @@ public class FileServiceException extends RuntimeException {
   public FileServiceException(Throwable cause) {
     super(cause);
   }
+
+  public FileServiceException(String message, Throwable cause) {
+    super(message, cause);
+  }
 }
@@ -29,6 +29,15 @@ public interface FileSystemNode {
    */
   String getParentPath();
 
+  /**
+   * Get the normalised {@link FilePath} of the node.
+   *
+   * @return The path of the node
+   */
+  default FilePath getFilePath() {
+    return FilePath.of(getPath());
+  }
+
   /**
    * Get size.
    *
@@ -1,6 +1,5 @@
 package be.mathiasbosman.fs.core.domain;
 
-import be.mathiasbosman.fs.core.util.FileServiceUtils;
 import java.util.Date;
 import lombok.Getter;
 
@@ -10,9 +9,7 @@ import lombok.Getter;
 @Getter
 public class FileSystemNodeImpl implements FileSystemNode {
 
-  private final String parentPath;
-  private final String path;
-  private final String name;
+  private final FilePath filePath;
   private final boolean isDirectory;
   private final long size;
   private final Date lastModified;
@@ -20,23 +17,49 @@ public class FileSystemNodeImpl implements FileSystemNode {
   /**
    * Create a File node.
    *
-   * @param parentPath   The parent path (optional)
-   * @param name         Name of the node
+   * @param filePath     The path of the node
    * @param isDirectory  Indicator of directory
    * @param size         Size of the node
    * @param lastModified Date of last modification
    */
-  public FileSystemNodeImpl(String parentPath, String name, boolean isDirectory, long size,
+  public FileSystemNodeImpl(FilePath filePath, boolean isDirectory, long size,
       Date lastModified) {
-    this.parentPath = parentPath;
-    this.path = FileServiceUtils.combine(parentPath, name);
-    this.name = name;
+    this.filePath = filePath;
     this.isDirectory = isDirectory;
     this.size = size;
     this.lastModified = lastModified;
   }
 
+  /**
+   * Create a File node.
+   *
+   * @param parentPath   The parent path (optional)
+   * @param name         Name of the node
+   * @param isDirectory  Indicator of directory
+   * @param size         Size of the node
+   * @param lastModified Date of last modification
+   */
+  public FileSystemNodeImpl(String parentPath, String name, boolean isDirectory, long size,
+      Date lastModified) {
+    this(FilePath.of(parentPath, name), isDirectory, size, lastModified);
+  }
+
   public FileSystemNodeImpl(String parentPath, String name, boolean isDirectory, long size) {
     this(parentPath, name, isDirectory, size, new Date());
   }
+
+  @Override
+  public String getName() {
+    return filePath.getName();
+  }
+
+  @Override
+  public String getPath() {
+    return filePath.toString();
+  }
+
+  @Override
+  public String getParentPath() {
+    return filePath.getParentPath();
+  }
 }
@@ -0,0 +1,280 @@
+package be.mathiasbosman.fs.core.domain;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.RandomAccess;
+
+/**
+ * Compact, read-only list of the children of a single directory. Instead of one object per entry
+ * the names are kept in a shared character arena and the sizes, timestamps and types in primitive
+ * columns. {@link #get(int)} returns a lightweight {@link FileSystemNode} view on a row.
+ *
+ * <p>Entries are sorted by name. Use a {@link Builder} to create an instance.
+ */
+public final class FileSystemNodeList extends AbstractList<FileSystemNode> implements
+    RandomAccess {
+
+  private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+  private final FilePath parent;
+  private final char[] names;
+  private final int[] offsets;
+  private final long[] sizes;
+  private final long[] lastModified;
+  private final boolean[] directories;
+
+  private FileSystemNodeList(FilePath parent, char[] names, int[] offsets, long[] sizes,
+      long[] lastModified, boolean[] directories) {
+    this.parent = parent;
+    this.names = names;
+    this.offsets = offsets;
+    this.sizes = sizes;
+    this.lastModified = lastModified;
+    this.directories = directories;
+  }
+
+  /**
+   * Start building a listing of the given directory.
+   *
+   * @param parent The path of the listed directory
+   * @return a new {@link Builder}
+   */
+  public static Builder builder(FilePath parent) {
+    return new Builder(parent);
+  }
+
+  @Override
+  public FileSystemNode get(int index) {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for " + size());
+    }
+    return new Row(index);
+  }
+
+  @Override
+  public int size() {
+    return sizes.length;
+  }
+
+  public FilePath getParent() {
+    return parent;
+  }
+
+  public String getName(int index) {
+    return new String(names, offsets[index], offsets[index + 1] - offsets[index]);
+  }
+
+  public long getSize(int index) {
+    return sizes[index];
+  }
+
+  public boolean isDirectory(int index) {
+    return directories[index];
+  }
+
+  /**
+   * Returns the last modification of the given row in milliseconds since the epoch.
+   *
+   * @param index The row
+   * @return The timestamp or {@link Long#MIN_VALUE} if unknown
+   */
+  public long getLastModifiedMillis(int index) {
+    return lastModified[index];
+  }
+
+  private static int compare(char[] names, int[] offsets, int left, int right) {
+    int leftStart = offsets[left];
+    int leftLength = offsets[left + 1] - leftStart;
+    int rightStart = offsets[right];
+    int rightLength = offsets[right + 1] - rightStart;
+    int length = Math.min(leftLength, rightLength);
+    for (int i = 0; i < length; i++) {
+      char l = names[leftStart + i];
+      char r = names[rightStart + i];
+      if (l != r) {
+        return l - r;
+      }
+    }
+    return leftLength - rightLength;
+  }
+
+  /**
+   * Flyweight view on a single row.
+   */
+  private final class Row implements FileSystemNode {
+
+    private final int index;
+
+    private Row(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public String getName() {
+      return FileSystemNodeList.this.getName(index);
+    }
+
+    @Override
+    public String getPath() {
+      return getFilePath().toString();
+    }
+
+    @Override
+    public String getParentPath() {
+      return parent.isRoot() ? null : parent.toString();
+    }
+
+    @Override
+    public FilePath getFilePath() {
+      return parent.child(getName());
+    }
+
+    @Override
+    public long getSize() {
+      return sizes[index];
+    }
+
+    @Override
+    public boolean isDirectory() {
+      return directories[index];
+    }
+
+    @Override
+    public Date getLastModified() {
+      long millis = lastModified[index];
+      return millis == NO_TIMESTAMP ? null : new Date(millis);
+    }
+
+    @Override
+    public String toString() {
+      return getPath();
+    }
+  }
+
+  /**
+   * Builder for a {@link FileSystemNodeList}. Entries can be added in any order.
+   */
+  public static final class Builder {
+
+    private final FilePath parent;
+    private char[] names = new char[256];
+    private int[] offsets = new int[17];
+    private long[] sizes = new long[16];
+    private long[] lastModified = new long[16];
+    private boolean[] directories = new boolean[16];
+    private int count;
+    private int nameLength;
+
+    private Builder(FilePath parent) {
+      this.parent = parent;
+    }
+
+    public Builder add(String name, boolean directory, long size, Date lastModified) {
+      return add(name, directory, size, lastModified != null ? lastModified.getTime()
+          : NO_TIMESTAMP);
+    }
+
+    /**
+     * Add an entry.
+     *
+     * @param name               Name of the node
+     * @param directory          Indicator of directory
+     * @param size               Size of the node
+     * @param lastModifiedMillis Last modification in milliseconds, {@link Long#MIN_VALUE} if
+     *                           unknown
+     * @return this builder
+     */
+    public Builder add(String name, boolean directory, long size, long lastModifiedMillis) {
+      if (count == sizes.length) {
+        int capacity = count + (count >> 1);
+        offsets = Arrays.copyOf(offsets, capacity + 1);
+        sizes = Arrays.copyOf(sizes, capacity);
+        lastModified = Arrays.copyOf(lastModified, capacity);
+        directories = Arrays.copyOf(directories, capacity);
+      }
+      int length = name.length();
+      if (nameLength + length > names.length) {
+        names = Arrays.copyOf(names, Math.max(nameLength + length, names.length << 1));
+      }
+      name.getChars(0, length, names, nameLength);
+      nameLength += length;
+      sizes[count] = size;
+      lastModified[count] = lastModifiedMillis;
+      directories[count] = directory;
+      count++;
+      offsets[count] = nameLength;
+      return this;
+    }
+
+    public int size() {
+      return count;
+    }
+
+    /**
+     * Sort the entries by name and create the list. The arrays are trimmed to their used size.
+     *
+     * @return the {@link FileSystemNodeList}
+     */
+    public FileSystemNodeList build() {
+      int[] order = new int[count];
+      for (int i = 0; i < count; i++) {
+        order[i] = i;
+      }
+      if (!isSorted()) {
+        mergeSort(order, new int[count], 0, count);
+      }
+      char[] sortedNames = new char[nameLength];
+      int[] sortedOffsets = new int[count + 1];
+      long[] sortedSizes = new long[count];
+      long[] sortedLastModified = new long[count];
+      boolean[] sortedDirectories = new boolean[count];
+      int position = 0;
+      for (int i = 0; i < count; i++) {
+        int row = order[i];
+        int start = offsets[row];
+        int length = offsets[row + 1] - start;
+        System.arraycopy(names, start, sortedNames, position, length);
+        position += length;
+        sortedOffsets[i + 1] = position;
+        sortedSizes[i] = sizes[row];
+        sortedLastModified[i] = lastModified[row];
+        sortedDirectories[i] = directories[row];
+      }
+      return new FileSystemNodeList(parent, sortedNames, sortedOffsets, sortedSizes,
+          sortedLastModified, sortedDirectories);
+    }
+
+    private boolean isSorted() {
+      for (int i = 1; i < count; i++) {
+        if (compare(names, offsets, i - 1, i) > 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void mergeSort(int[] order, int[] buffer, int from, int to) {
+      if (to - from < 2) {
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      mergeSort(order, buffer, from, middle);
+      mergeSort(order, buffer, middle, to);
+      if (compare(names, offsets, order[middle - 1], order[middle]) <= 0) {
+        return;
+      }
+      System.arraycopy(order, from, buffer, from, to - from);
+      int left = from;
+      int right = middle;
+      for (int i = from; i < to; i++) {
+        if (right >= to
+            || (left < middle && compare(names, offsets, buffer[left], buffer[right]) <= 0)) {
+          order[i] = buffer[left++];
+        } else {
+          order[i] = buffer[right++];
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,11 @@
+package be.mathiasbosman.fs.core.domain;
+
+/**
+ * Content to be saved at a path.
+ *
+ * @param path    The path to save at
+ * @param content The content
+ */
+public record PathContent(String path, byte[] content) {
+
+}
@@ -0,0 +1,37 @@
+package be.mathiasbosman.fs.core.domain;
+
+/**
+ * Outcome of a bulk operation for a single path: either a value (which can be null, for example
+ * for a path that does not exist) or the error the operation failed with.
+ *
+ * @param path  The requested path
+ * @param value The value, null on failure
+ * @param error The error, null on success
+ * @param <T>   Type of the value
+ */
+public record PathResult<T>(String path, T value, RuntimeException error) {
+
+  public static <T> PathResult<T> success(String path, T value) {
+    return new PathResult<>(path, value, null);
+  }
+
+  public static <T> PathResult<T> failure(String path, RuntimeException error) {
+    return new PathResult<>(path, null, error);
+  }
+
+  public boolean isSuccess() {
+    return error == null;
+  }
+
+  /**
+   * Returns the value or throws the error of a failed operation.
+   *
+   * @return the value
+   */
+  public T getOrThrow() {
+    if (error != null) {
+      throw error;
+    }
+    return value;
+  }
+}
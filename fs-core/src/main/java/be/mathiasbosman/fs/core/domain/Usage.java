@@ -0,0 +1,127 @@
+package be.mathiasbosman.fs.core.domain;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Usage of a subtree: the total size and amount of files, the amount of directories below the root
+ * and the newest modification of a file. Optionally broken down per direct child of the root.
+ *
+ * @param size         Total size of the files in bytes
+ * @param files        Amount of files
+ * @param directories  Amount of directories, the root itself is not counted
+ * @param lastModified Newest modification of a file, null if there are no files
+ * @param children     Usage per direct child by name, empty unless a breakdown was requested
+ */
+public record Usage(long size, long files, long directories, Date lastModified,
+                    Map<String, Usage> children) {
+
+  public static final Usage EMPTY = new Usage(0, 0, 0, null, Collections.emptyMap());
+
+  /**
+   * The usage of a single file.
+   *
+   * @param size         Size of the file
+   * @param lastModified Modification of the file (optional)
+   * @return the usage
+   */
+  public static Usage ofFile(long size, Date lastModified) {
+    return new Usage(size, 1, 0, lastModified, Collections.emptyMap());
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Accumulates a usage. Not thread safe.
+   */
+  public static final class Builder {
+
+    private long size;
+    private long files;
+    private long directories;
+    private long lastModified = Long.MIN_VALUE;
+    private Map<String, Usage> children;
+
+    private Builder() {
+    }
+
+    /**
+     * Counts a file.
+     *
+     * @param size         Size of the file
+     * @param lastModified Modification of the file (optional)
+     * @return this builder
+     */
+    public Builder addFile(long size, Date lastModified) {
+      return addFile(size, lastModified != null ? lastModified.getTime() : Long.MIN_VALUE);
+    }
+
+    /**
+     * Counts a file.
+     *
+     * @param size               Size of the file
+     * @param lastModifiedMillis Modification of the file in milliseconds since the epoch
+     * @return this builder
+     */
+    public Builder addFile(long size, long lastModifiedMillis) {
+      this.size += size;
+      this.files++;
+      this.lastModified = Math.max(this.lastModified, lastModifiedMillis);
+      return this;
+    }
+
+    public Builder addDirectory() {
+      directories++;
+      return this;
+    }
+
+    /**
+     * Counts the usage of a subtree.
+     *
+     * @param usage The usage
+     * @return this builder
+     */
+    public Builder add(Usage usage) {
+      size += usage.size();
+      files += usage.files();
+      directories += usage.directories();
+      if (usage.lastModified() != null) {
+        lastModified = Math.max(lastModified, usage.lastModified().getTime());
+      }
+      return this;
+    }
+
+    /**
+     * Counts a direct child of the root, remembering its usage for the breakdown.
+     *
+     * @param name      Name of the child
+     * @param directory If the child is a directory
+     * @param usage     Usage of the child, for a directory without counting the directory itself
+     * @param breakdown If the usage of the child should be kept
+     * @return this builder
+     */
+    public Builder addChild(String name, boolean directory, Usage usage, boolean breakdown) {
+      if (directory) {
+        addDirectory();
+      }
+      add(usage);
+      if (breakdown) {
+        if (children == null) {
+          children = new TreeMap<>();
+        }
+        children.put(name, usage);
+      }
+      return this;
+    }
+
+    public Usage build() {
+      return new Usage(size, files, directories,
+          lastModified == Long.MIN_VALUE ? null : new Date(lastModified),
+          children == null ? Collections.emptyMap() : Collections.unmodifiableMap(children));
+    }
+  }
+}
@@ -0,0 +1,16 @@
+package be.mathiasbosman.fs.core.schedule;
+
+/**
+ * Priority classes of operations scheduled by a {@link SchedulingFileService}.
+ */
+public enum IoClass {
+  /**
+   * Operations someone is waiting for. Served first.
+   */
+  INTERACTIVE,
+  /**
+   * Bulk operations such as copies, archives and synchronisations. Served when no interactive
+   * operation is waiting.
+   */
+  BATCH
+}
@@ -0,0 +1,222 @@
+package be.mathiasbosman.fs.core.schedule;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Admits operations within a global and a per-class concurrency limit. When a slot frees up,
+ * waiting interactive operations go first. Within a class waiting operations are served
+ * round-robin per tenant, so one tenant with a deep queue does not hold back the others.
+ *
+ * <p>Operations nested in a running operation on the same thread are admitted right away, a
+ * copy that opens its source within its own slot cannot dead-lock on the limits. An opened stream
+ * holds its slot until it is closed, operations of the thread that opened it are admitted right
+ * away in the meantime for the same reason.
+ */
+class IoScheduler {
+
+  private final int maxConcurrency;
+  private final Map<IoClass, ClassQueue> queues = new EnumMap<>(IoClass.class);
+  private final ThreadLocal<Boolean> admitted = ThreadLocal.withInitial(() -> Boolean.FALSE);
+  private final Map<Thread, Integer> streamHolders = new ConcurrentHashMap<>();
+  private int running;
+
+  IoScheduler(SchedulingOptions options) {
+    if (options.getMaxConcurrency() < 1 || options.getInteractiveConcurrency() < 1
+        || options.getBatchConcurrency() < 1) {
+      throw new IllegalArgumentException("Concurrency should be at least 1");
+    }
+    this.maxConcurrency = options.getMaxConcurrency();
+    queues.put(IoClass.INTERACTIVE, new ClassQueue(options.getInteractiveConcurrency()));
+    queues.put(IoClass.BATCH, new ClassQueue(options.getBatchConcurrency()));
+  }
+
+  /**
+   * Runs an operation once it is admitted.
+   *
+   * @param ioClass   Class of the operation
+   * @param tenant    Tenant of the operation
+   * @param operation The operation
+   * @param <T>       Type of the result
+   * @return the result of the operation
+   */
+  <T> T run(IoClass ioClass, String tenant, Supplier<T> operation) {
+    if (isAdmitted()) {
+      return operation.get();
+    }
+    acquire(ioClass, tenant);
+    admitted.set(Boolean.TRUE);
+    try {
+      return operation.get();
+    } finally {
+      admitted.remove();
+      release(ioClass);
+    }
+  }
+
+  /**
+   * Opens a stream once it is admitted. The stream holds its slot until it is closed.
+   *
+   * @param ioClass   Class of the operation
+   * @param tenant    Tenant of the operation
+   * @param operation Opens the stream
+   * @return the opened stream
+   */
+  InputStream open(IoClass ioClass, String tenant, Supplier<InputStream> operation) {
+    if (isAdmitted()) {
+      return operation.get();
+    }
+    acquire(ioClass, tenant);
+    admitted.set(Boolean.TRUE);
+    InputStream inputStream;
+    try {
+      inputStream = operation.get();
+    } catch (RuntimeException e) {
+      release(ioClass);
+      throw e;
+    } finally {
+      admitted.remove();
+    }
+    Thread holder = Thread.currentThread();
+    streamHolders.merge(holder, 1, Integer::sum);
+    return new SlotInputStream(inputStream, () -> {
+      streamHolders.computeIfPresent(holder, (thread, count) -> count > 1 ? count - 1 : null);
+      release(ioClass);
+    });
+  }
+
+  synchronized IoStatistics getStatistics(IoClass ioClass) {
+    ClassQueue queue = queues.get(ioClass);
+    return new IoStatistics(queue.running, queue.queued, queue.completed,
+        Duration.ofNanos(queue.waitNanos), Duration.ofNanos(queue.maxWaitNanos));
+  }
+
+  private boolean isAdmitted() {
+    return Boolean.TRUE.equals(admitted.get()) || streamHolders.containsKey(Thread.currentThread());
+  }
+
+  private void acquire(IoClass ioClass, String tenant) {
+    long start = System.nanoTime();
+    CompletableFuture<Void> turn;
+    synchronized (this) {
+      ClassQueue queue = queues.get(ioClass);
+      if (queue.queued == 0 && canRun(queue)) {
+        admit(queue, 0);
+        return;
+      }
+      turn = new CompletableFuture<>();
+      queue.add(tenant, turn);
+    }
+    try {
+      turn.get();
+    } catch (InterruptedException e) {
+      synchronized (this) {
+        // give the slot back if it was handed over in the meantime
+        if (!queues.get(ioClass).remove(tenant, turn)) {
+          release(ioClass);
+        }
+      }
+      Thread.currentThread().interrupt();
+      throw new FileServiceException(e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e);
+    }
+    synchronized (this) {
+      queues.get(ioClass).recordWait(System.nanoTime() - start);
+    }
+  }
+
+  private synchronized void release(IoClass ioClass) {
+    ClassQueue queue = queues.get(ioClass);
+    queue.running--;
+    queue.completed++;
+    running--;
+    for (ClassQueue next : queues.values()) {
+      while (next.queued > 0 && canRun(next)) {
+        admit(next, -1);
+        next.poll().complete(null);
+      }
+    }
+  }
+
+  private boolean canRun(ClassQueue queue) {
+    return running < maxConcurrency && queue.running < queue.limit;
+  }
+
+  private void admit(ClassQueue queue, long waitNanos) {
+    running++;
+    queue.running++;
+    if (waitNanos >= 0) {
+      queue.recordWait(waitNanos);
+    }
+  }
+
+  /**
+   * Operations of a class, waiting per tenant.
+   */
+  private static class ClassQueue {
+
+    private final int limit;
+    private final Map<String, Deque<CompletableFuture<Void>>> tenants = new LinkedHashMap<>();
+    private int running;
+    private int queued;
+    private long completed;
+    private long waitNanos;
+    private long maxWaitNanos;
+
+    private ClassQueue(int limit) {
+      this.limit = limit;
+    }
+
+    private void add(String tenant, CompletableFuture<Void> turn) {
+      tenants.computeIfAbsent(tenant, k -> new ArrayDeque<>()).add(turn);
+      queued++;
+    }
+
+    /**
+     * Takes the next operation of the tenant that was served longest ago.
+     */
+    private CompletableFuture<Void> poll() {
+      Iterator<Entry<String, Deque<CompletableFuture<Void>>>> iterator =
+          tenants.entrySet().iterator();
+      Entry<String, Deque<CompletableFuture<Void>>> first = iterator.next();
+      iterator.remove();
+      CompletableFuture<Void> turn = first.getValue().poll();
+      if (!first.getValue().isEmpty()) {
+        // move the tenant to the back of the line
+        tenants.put(first.getKey(), first.getValue());
+      }
+      queued--;
+      return turn;
+    }
+
+    private boolean remove(String tenant, CompletableFuture<Void> turn) {
+      Deque<CompletableFuture<Void>> waiting = tenants.get(tenant);
+      if (waiting == null || !waiting.remove(turn)) {
+        return false;
+      }
+      if (waiting.isEmpty()) {
+        tenants.remove(tenant);
+      }
+      queued--;
+      return true;
+    }
+
+    private void recordWait(long nanos) {
+      waitNanos += nanos;
+      maxWaitNanos = Math.max(maxWaitNanos, nanos);
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package be.mathiasbosman.fs.core.schedule;
+
+import java.time.Duration;
+
+/**
+ * Statistics of the operations of a priority class.
+ *
+ * @param running       Operations running now
+ * @param queued        Operations waiting for their turn now
+ * @param completed     Operations that finished
+ * @param totalWait     Time all started operations spent waiting
+ * @param maxWait       Longest time an operation spent waiting
+ */
+public record IoStatistics(int running, int queued, long completed, Duration totalWait,
+                           Duration maxWait) {
+
+  /**
+   * The average time an operation waited before it started.
+   *
+   * @return the average wait
+   */
+  public Duration getAverageWait() {
+    long started = completed + running;
+    return started == 0 ? Duration.ZERO : totalWait.dividedBy(started);
+  }
+}
@@ -0,0 +1,190 @@
+package be.mathiasbosman.fs.core.schedule;
+
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.domain.NodeMetadata;
+import be.mathiasbosman.fs.core.service.DelegatingFileService;
+import be.mathiasbosman.fs.core.service.FileService;
+import java.io.File;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Schedules the operations on a file service so bulk work does not starve interactive work. Every
+ * operation belongs to a {@link IoClass}: operations on this file service are interactive,
+ * operations on {@link #batch()} are batch operations. Each class has its own concurrency limit
+ * below a global one, waiting interactive operations are admitted first and waiting operations of
+ * a class are served round-robin per tenant, the leading segments of their path.
+ *
+ * <p>An operation holds its slot while the wrapped file service executes it: until a save is
+ * stored and until an opened stream is closed, as the connection behind the stream stays in use
+ * until then. Reading the stream is also limited by the bandwidth of the class, as is the content
+ * of saves.
+ */
+public class SchedulingFileService extends DelegatingFileService {
+
+  private final IoScheduler scheduler;
+  private final Map<IoClass, TokenBucket> bandwidths;
+  private final SchedulingOptions options;
+  private final IoClass ioClass;
+  private final SchedulingFileService batch;
+
+  public SchedulingFileService(FileService delegate) {
+    this(delegate, SchedulingOptions.builder().build());
+  }
+
+  public SchedulingFileService(FileService delegate, SchedulingOptions options) {
+    super(delegate);
+    if (options.getTenantDepth() < 0) {
+      throw new IllegalArgumentException("Tenant depth should not be negative");
+    }
+    this.scheduler = new IoScheduler(options);
+    this.bandwidths = new EnumMap<>(IoClass.class);
+    if (options.getInteractiveBandwidth() > 0) {
+      bandwidths.put(IoClass.INTERACTIVE, new TokenBucket(options.getInteractiveBandwidth()));
+    }
+    if (options.getBatchBandwidth() > 0) {
+      bandwidths.put(IoClass.BATCH, new TokenBucket(options.getBatchBandwidth()));
+    }
+    this.options = options;
+    this.ioClass = IoClass.INTERACTIVE;
+    this.batch = new SchedulingFileService(this, IoClass.BATCH);
+  }
+
+  private SchedulingFileService(SchedulingFileService interactive, IoClass ioClass) {
+    super(interactive.delegate);
+    this.scheduler = interactive.scheduler;
+    this.bandwidths = interactive.bandwidths;
+    this.options = interactive.options;
+    this.ioClass = ioClass;
+    this.batch = this;
+  }
+
+  /**
+   * A view on the same file service of which all operations, including bulk operations such as
+   * {@link #copy(String, String)} and {@link #zip(String, java.io.OutputStream)}, are scheduled
+   * as batch operations.
+   *
+   * @return the batch view
+   */
+  public FileService batch() {
+    return batch;
+  }
+
+  /**
+   * Statistics of a priority class, shared by this file service and its batch view.
+   *
+   * @param ioClass The class
+   * @return the statistics
+   */
+  public IoStatistics getStatistics(IoClass ioClass) {
+    return scheduler.getStatistics(ioClass);
+  }
+
+  private <T> T schedule(String path, Supplier<T> operation) {
+    return scheduler.run(ioClass, getTenant(path), operation);
+  }
+
+  private void schedule(String path, Runnable operation) {
+    scheduler.run(ioClass, getTenant(path), () -> {
+      operation.run();
+      return null;
+    });
+  }
+
+  private InputStream scheduleOpen(String path, Supplier<InputStream> operation) {
+    return scheduler.open(ioClass, getTenant(path), operation);
+  }
+
+  private String getTenant(String path) {
+    String[] segments = StringUtils.split(StringUtils.defaultString(path), File.separatorChar);
+    int depth = Math.min(options.getTenantDepth(), segments.length);
+    return String.join(File.separator, List.of(segments).subList(0, depth));
+  }
+
+  private InputStream throttle(InputStream inputStream) {
+    TokenBucket bucket = bandwidths.get(ioClass);
+    return bucket != null ? new ThrottledInputStream(inputStream, bucket) : inputStream;
+  }
+
+  @Override
+  public InputStream open(FileSystemNode node) {
+    return throttle(scheduleOpen(node.getPath(), () -> super.open(node)));
+  }
+
+  @Override
+  public InputStream open(FileSystemNode node, long offset, long length) {
+    return throttle(scheduleOpen(node.getPath(), () -> delegate.open(node, offset, length)));
+  }
+
+  @Override
+  protected void save(InputStream is, String path, long size) {
+    schedule(path, () -> super.save(throttle(is), path, size));
+  }
+
+  @Override
+  protected long getSize(String path) {
+    return schedule(path, () -> super.getSize(path));
+  }
+
+  @Override
+  public void delete(FileSystemNode node, boolean recursive) {
+    schedule(node.getPath(), () -> super.delete(node, recursive));
+  }
+
+  @Override
+  public LocalDateTime getCreationTime(FileSystemNode node, ZoneId zoneId) {
+    return schedule(node.getPath(), () -> super.getCreationTime(node, zoneId));
+  }
+
+  @Override
+  public LocalDateTime getLastModifiedTime(FileSystemNode node, ZoneId zoneId) {
+    return schedule(node.getPath(), () -> super.getLastModifiedTime(node, zoneId));
+  }
+
+  @Override
+  public List<FileSystemNode> list(FileSystemNode root) {
+    return schedule(root.getPath(), () -> super.list(root));
+  }
+
+  @Override
+  public Stream<FileSystemNode> streamDirectory(FileSystemNode root) {
+    return schedule(root.getPath(), () -> super.streamDirectory(root));
+  }
+
+  @Override
+  public void move(String from, String to) {
+    schedule(from, () -> super.move(from, to));
+  }
+
+  @Override
+  protected void copyContent(FileSystemNode source, String to) {
+    schedule(to, () -> super.copyContent(source, to));
+  }
+
+  @Override
+  protected boolean exists(String path) {
+    return schedule(path, () -> super.exists(path));
+  }
+
+  @Override
+  protected boolean isDirectory(String path) {
+    return schedule(path, () -> super.isDirectory(path));
+  }
+
+  @Override
+  protected void mkDirectories(String path) {
+    schedule(path, () -> super.mkDirectories(path));
+  }
+
+  @Override
+  protected NodeMetadata getNodeMetadata(String path) {
+    return schedule(path, () -> super.getNodeMetadata(path));
+  }
+}
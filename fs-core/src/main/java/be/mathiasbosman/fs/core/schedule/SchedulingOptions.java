@@ -0,0 +1,45 @@
+package be.mathiasbosman.fs.core.schedule;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Options of a {@link SchedulingFileService}. Bandwidths are in bytes per second, 0 means
+ * unlimited.
+ */
+@Getter
+@Builder
+public class SchedulingOptions {
+
+  /**
+   * Maximum amount of operations running at the same time, usually the size of the connection
+   * pool of the wrapped file service.
+   */
+  @Builder.Default
+  private final int maxConcurrency = 50;
+  /**
+   * Maximum amount of interactive operations running at the same time.
+   */
+  @Builder.Default
+  private final int interactiveConcurrency = 50;
+  /**
+   * Maximum amount of batch operations running at the same time. Keep it below the maximum
+   * concurrency to leave room for interactive operations.
+   */
+  @Builder.Default
+  private final int batchConcurrency = 10;
+  /**
+   * Bandwidth of the content read and written by interactive operations.
+   */
+  private final long interactiveBandwidth;
+  /**
+   * Bandwidth of the content read and written by batch operations.
+   */
+  private final long batchBandwidth;
+  /**
+   * Amount of leading path segments that identify a tenant. Waiting operations of a class are
+   * served round-robin per tenant.
+   */
+  @Builder.Default
+  private final int tenantDepth = 1;
+}
@@ -0,0 +1,31 @@
+package be.mathiasbosman.fs.core.schedule;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Gives the scheduling slot of an opened stream back once the stream is closed.
+ */
+class SlotInputStream extends FilterInputStream {
+
+  private final Runnable release;
+  private final AtomicBoolean released = new AtomicBoolean();
+
+  SlotInputStream(InputStream in, Runnable release) {
+    super(in);
+    this.release = release;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      super.close();
+    } finally {
+      if (released.compareAndSet(false, true)) {
+        release.run();
+      }
+    }
+  }
+}
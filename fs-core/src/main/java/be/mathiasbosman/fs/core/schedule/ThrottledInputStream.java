@@ -0,0 +1,45 @@
+package be.mathiasbosman.fs.core.schedule;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Takes every byte read from a {@link TokenBucket}.
+ */
+class ThrottledInputStream extends FilterInputStream {
+
+  private final TokenBucket bucket;
+
+  ThrottledInputStream(InputStream in, TokenBucket bucket) {
+    super(in);
+    this.bucket = bucket;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = super.read();
+    if (b != -1) {
+      bucket.take(1);
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int read = super.read(b, off, len);
+    if (read > 0) {
+      bucket.take(read);
+    }
+    return read;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = super.skip(n);
+    if (skipped > 0) {
+      bucket.take(skipped);
+    }
+    return skipped;
+  }
+}
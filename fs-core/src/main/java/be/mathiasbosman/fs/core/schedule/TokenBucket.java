@@ -0,0 +1,51 @@
+package be.mathiasbosman.fs.core.schedule;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits a rate of bytes per second, allowing bursts of one second. Taking more bytes than
+ * available puts the bucket in debt, the caller and the callers after it wait until the debt is
+ * paid off.
+ */
+class TokenBucket {
+
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final long rate;
+  private double available;
+  private long refilled;
+
+  TokenBucket(long rate) {
+    if (rate < 1) {
+      throw new IllegalArgumentException("Rate should be at least 1");
+    }
+    this.rate = rate;
+    this.available = rate;
+    this.refilled = System.nanoTime();
+  }
+
+  /**
+   * Takes bytes from the bucket, waiting if there are not enough.
+   *
+   * @param bytes Amount of bytes
+   */
+  void take(long bytes) {
+    long waitNanos;
+    synchronized (this) {
+      long now = System.nanoTime();
+      available = Math.min(rate, available + (double) (now - refilled) * rate / NANOS_PER_SECOND);
+      refilled = now;
+      available -= bytes;
+      waitNanos = available < 0 ? (long) (-available * NANOS_PER_SECOND / rate) : 0;
+    }
+    if (waitNanos > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new FileServiceException(e);
+      }
+    }
+  }
+}
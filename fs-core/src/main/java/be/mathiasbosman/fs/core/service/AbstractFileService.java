@@ -1,36 +1,68 @@
 package be.mathiasbosman.fs.core.service;
 
+import be.mathiasbosman.fs.core.domain.FilePath;
 import be.mathiasbosman.fs.core.domain.FileServiceException;
 import be.mathiasbosman.fs.core.domain.FileSystemNode;
 import be.mathiasbosman.fs.core.domain.FileSystemNodeImpl;
 import be.mathiasbosman.fs.core.domain.FileSystemNodeType;
 import be.mathiasbosman.fs.core.domain.NodeMetadata;
+import be.mathiasbosman.fs.core.domain.PathContent;
+import be.mathiasbosman.fs.core.domain.PathResult;
+import be.mathiasbosman.fs.core.domain.Usage;
+import be.mathiasbosman.fs.core.tar.TarArchiver;
+import be.mathiasbosman.fs.core.tar.TarEntry;
+import be.mathiasbosman.fs.core.tar.TarOptions;
+import be.mathiasbosman.fs.core.tar.TarReader;
+import be.mathiasbosman.fs.core.util.BufferPool;
 import be.mathiasbosman.fs.core.util.FileServiceUtils;
+import be.mathiasbosman.fs.core.util.ParallelTasks;
 import be.mathiasbosman.fs.core.util.ZipEntryInputStream;
+import be.mathiasbosman.fs.core.watch.ChangeFeedOptions;
+import be.mathiasbosman.fs.core.watch.FileChangeListener;
+import be.mathiasbosman.fs.core.watch.Subscription;
+import be.mathiasbosman.fs.core.watch.WalkingChangeFeed;
+import be.mathiasbosman.fs.core.zip.ZipArchive;
+import be.mathiasbosman.fs.core.zip.ZipArchiveEntry;
+import be.mathiasbosman.fs.core.zip.ZipArchiver;
+import be.mathiasbosman.fs.core.zip.ZipOptions;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 import lombok.NonNull;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.tuple.Pair;
 
 /**
  * Abstract implementation of {@link FileService} for path manipulation.
  */
 public abstract class AbstractFileService implements FileService {
 
+  public static final int DEFAULT_BULK_PARALLELISM = 16;
+  /**
+   * Minimum amount of requested paths in one directory for them to be resolved with a listing.
+   */
+  protected static final int DEFAULT_COALESCE_THRESHOLD = 8;
+
   protected abstract FileSystemNodeType getFileNodeType(String path);
 
   protected abstract void copyContent(FileSystemNode source, String to);
@@ -39,16 +71,20 @@ public abstract class AbstractFileService implements FileService {
 
   @Override
   public void copy(FileSystemNode source, String target) {
-    String targetPath = FileServiceUtils.strip(target);
+    copy(source, FilePath.of(target));
+  }
+
+  protected void copy(FileSystemNode source, FilePath target) {
     if (!exists(source.getPath())) {
       throw new IllegalArgumentException("File " + source.getPath() + " does not exist.");
     }
+    String targetPath = target.toString();
     if (source.isDirectory()) {
       List<FileSystemNode> list = list(source);
       if (CollectionUtils.isEmpty(list)) {
         mkDirectories(targetPath);
       } else {
-        list.forEach(node -> copy(node, FileServiceUtils.combine(targetPath, node.getName())));
+        list.forEach(node -> copy(node, target.child(node.getName())));
       }
       return;
     }
@@ -61,13 +97,13 @@ public abstract class AbstractFileService implements FileService {
   @Override
   @SuppressWarnings("ConstantConditions")
   public void copy(String source, String target) {
-    copy(getForPath(source, true), target);
+    copy(getForPath(FilePath.of(source), true), target);
   }
 
   @Override
   public byte[] getBytes(FileSystemNode node) {
     try (InputStream inputStream = open(node)) {
-      return IOUtils.toByteArray(inputStream);
+      return BufferPool.shared().toByteArray(inputStream, node.getSize());
     } catch (IOException e) {
       throw new IllegalStateException(e);
     }
@@ -80,22 +116,113 @@ public abstract class AbstractFileService implements FileService {
 
   @Override
   public FileSystemNode getFileNode(String... parts) {
-    return getForPath(FileServiceUtils.combine(parts), true);
+    return getForPath(FilePath.of(parts), true);
   }
 
   @Override
   public FileSystemNode getOptionalFileNode(String... parts) {
-    return getForPath(FileServiceUtils.combine(parts), false);
+    return getForPath(FilePath.of(parts), false);
+  }
+
+  @Override
+  public Map<String, PathResult<FileSystemNode>> getFileNodes(Collection<String> paths) {
+    return getFileNodes(paths, DEFAULT_BULK_PARALLELISM);
+  }
+
+  @Override
+  public Map<String, PathResult<FileSystemNode>> getFileNodes(Collection<String> paths,
+      int parallelism) {
+    Map<FilePath, List<String>> byParent = new LinkedHashMap<>();
+    List<Callable<List<PathResult<FileSystemNode>>>> tasks = new ArrayList<>();
+    for (String path : new LinkedHashSet<>(paths)) {
+      FilePath parent = FilePath.of(path).getParent();
+      if (parent == null) {
+        tasks.add(() -> List.of(getFileNodeResult(path)));
+      } else {
+        byParent.computeIfAbsent(parent, k -> new ArrayList<>()).add(path);
+      }
+    }
+    byParent.forEach((parent, children) -> {
+      if (children.size() >= getCoalesceThreshold()) {
+        tasks.add(() -> getFileNodesFromListing(parent, children));
+      } else {
+        children.forEach(path -> tasks.add(() -> List.of(getFileNodeResult(path))));
+      }
+    });
+    return collect(paths, ParallelTasks.invokeAll(tasks, parallelism));
+  }
+
+  /**
+   * Minimum amount of requested paths in one directory for them to be resolved with a single
+   * listing instead of a lookup per path.
+   *
+   * @return the threshold
+   */
+  protected int getCoalesceThreshold() {
+    return DEFAULT_COALESCE_THRESHOLD;
+  }
+
+  private PathResult<FileSystemNode> getFileNodeResult(String path) {
+    try {
+      return PathResult.success(path, getOptionalFileNode(path));
+    } catch (RuntimeException e) {
+      return PathResult.failure(path, e);
+    }
+  }
+
+  private List<PathResult<FileSystemNode>> getFileNodesFromListing(FilePath parent,
+      List<String> children) {
+    List<PathResult<FileSystemNode>> results = new ArrayList<>(children.size());
+    try {
+      Map<String, FileSystemNode> byName = new HashMap<>();
+      list(parent.toString()).forEach(node -> byName.put(node.getName(), node));
+      children.forEach(path -> results.add(
+          PathResult.success(path, byName.get(FilePath.of(path).getName()))));
+    } catch (RuntimeException e) {
+      children.forEach(path -> results.add(PathResult.failure(path, e)));
+    }
+    return results;
+  }
+
+  @Override
+  public Map<String, PathResult<byte[]>> readAll(Collection<String> paths) {
+    return readAll(paths, DEFAULT_BULK_PARALLELISM);
+  }
+
+  @Override
+  public Map<String, PathResult<byte[]>> readAll(Collection<String> paths, int parallelism) {
+    List<Callable<List<PathResult<byte[]>>>> tasks = new ArrayList<>();
+    for (String path : new LinkedHashSet<>(paths)) {
+      tasks.add(() -> {
+        try {
+          return List.of(PathResult.success(path, getBytes(path)));
+        } catch (RuntimeException e) {
+          return List.of(PathResult.failure(path, e));
+        }
+      });
+    }
+    return collect(paths, ParallelTasks.invokeAll(tasks, parallelism));
+  }
+
+  private static <T> Map<String, PathResult<T>> collect(Collection<String> paths,
+      List<List<PathResult<T>>> results) {
+    Map<String, PathResult<T>> byPath = new HashMap<>();
+    results.forEach(list -> list.forEach(result -> byPath.put(result.path(), result)));
+    Map<String, PathResult<T>> ordered = new LinkedHashMap<>();
+    paths.forEach(path -> ordered.put(path, byPath.get(path)));
+    return ordered;
   }
 
   @Override
   public FileSystemNode getParent(FileSystemNode node) {
-    return StringUtils.isEmpty(node.getPath()) ? null : getFileNode(node.getParentPath());
+    FilePath parent = node.getFilePath().getParent();
+    return parent == null ? null : getForPath(parent, true);
   }
 
   @Override
   public FileSystemNode getParent(String... path) {
-    return getForPath(FileServiceUtils.getParentPath(path), false);
+    FilePath parent = FilePath.of(path).getParent();
+    return getForPath(parent != null ? parent : FilePath.ROOT, false);
   }
 
   @Override
@@ -118,6 +245,29 @@ public abstract class AbstractFileService implements FileService {
     return node != null ? list(node) : Collections.emptyList();
   }
 
+  /**
+   * Open a range by skipping the content before it. Implementations that can read ranges directly
+   * should override this.
+   */
+  @Override
+  public InputStream open(FileSystemNode node, long offset, long length) {
+    checkRange(offset, length);
+    InputStream in = open(node);
+    try {
+      IOUtils.skip(in, offset);
+      return BoundedInputStream.builder().setInputStream(in).setMaxCount(length).get();
+    } catch (IOException e) {
+      IOUtils.closeQuietly(in);
+      throw new FileServiceException(e);
+    }
+  }
+
+  protected static void checkRange(long offset, long length) {
+    if (offset < 0 || length < 0) {
+      throw new IllegalArgumentException("Offset and length of a range should not be negative");
+    }
+  }
+
   @Override
   public InputStream open(String... parts) {
     checkPath(parts);
@@ -139,6 +289,64 @@ public abstract class AbstractFileService implements FileService {
     save(new ByteArrayInputStream(bytes), FileServiceUtils.combine(parts), bytes.length);
   }
 
+  @Override
+  public List<PathResult<Void>> saveAll(Stream<PathContent> items) {
+    return saveAll(items, getSaveParallelism());
+  }
+
+  @Override
+  public List<PathResult<Void>> saveAll(Stream<PathContent> items, int parallelism) {
+    Map<FilePath, Boolean> preparedDirectories = new ConcurrentHashMap<>();
+    try (items) {
+      return ParallelTasks.map(items.iterator(), item -> {
+        try {
+          FilePath path = FilePath.of(item.path());
+          FilePath parent = path.getParent();
+          if (parent != null && !parent.isRoot()) {
+            // concurrent savers of the same directory wait for the first one to create it
+            preparedDirectories.computeIfAbsent(parent, directory -> {
+              prepareDirectory(directory);
+              return Boolean.TRUE;
+            });
+          }
+          saveBulk(path, item.content());
+          return PathResult.<Void>success(item.path(), null);
+        } catch (RuntimeException e) {
+          return PathResult.<Void>failure(item.path(), e);
+        }
+      }, parallelism);
+    }
+  }
+
+  /**
+   * Default amount of concurrent writes of {@link #saveAll(Stream)}.
+   *
+   * @return the parallelism
+   */
+  protected int getSaveParallelism() {
+    return DEFAULT_BULK_PARALLELISM;
+  }
+
+  /**
+   * Prepares a directory before {@link #saveAll(Stream)} saves files in it. Called once per
+   * directory per batch. Does nothing by default.
+   *
+   * @param directory The directory
+   */
+  protected void prepareDirectory(FilePath directory) {
+    // no op
+  }
+
+  /**
+   * Saves a single item of {@link #saveAll(Stream)}. The parent directory has been prepared.
+   *
+   * @param path    The path to save at
+   * @param content The content
+   */
+  protected void saveBulk(FilePath path, byte[] content) {
+    save(new ByteArrayInputStream(content), path.toString(), content.length);
+  }
+
   @Override
   public void saveText(String content, String... parts) {
     save(content.getBytes(Charset.defaultCharset()), parts);
@@ -200,6 +408,74 @@ public abstract class AbstractFileService implements FileService {
 
   protected abstract long getSize(String path);
 
+  @Override
+  public Usage usage(FileSystemNode node) {
+    return usage(node, false);
+  }
+
+  @Override
+  public Usage usage(FileSystemNode node, boolean breakdown) {
+    if (!node.isDirectory()) {
+      return Usage.ofFile(node.getSize(), node.getLastModified());
+    }
+    List<FileSystemNode> children = list(node);
+    List<Usage> usages = ParallelTasks.invokeAll(children.stream()
+        .<Callable<Usage>>map(child -> () -> child.isDirectory() ? directoryUsage(child)
+            : Usage.ofFile(child.getSize(), child.getLastModified()))
+        .toList(), DEFAULT_BULK_PARALLELISM);
+    Usage.Builder usage = Usage.builder();
+    for (int i = 0; i < children.size(); i++) {
+      FileSystemNode child = children.get(i);
+      usage.addChild(child.getName(), child.isDirectory(), usages.get(i), breakdown);
+    }
+    return usage.build();
+  }
+
+  /**
+   * Gathers the usage of a directory below the node of {@link #usage(FileSystemNode, boolean)},
+   * without counting the directory itself. Walks the directory by default.
+   *
+   * @param directory The directory
+   * @return the usage of the directory
+   */
+  protected Usage directoryUsage(FileSystemNode directory) {
+    Usage.Builder usage = Usage.builder();
+    walk(directory, new FileNodeVisitor() {
+      @Override
+      public void on(FileSystemNode node) {
+        usage.addFile(node.getSize(), node.getLastModified());
+      }
+
+      @Override
+      public void pre(FileSystemNode node) {
+        if (!node.getPath().equals(directory.getPath())) {
+          usage.addDirectory();
+        }
+      }
+
+      @Override
+      public void post(FileSystemNode node) {
+        // counted in pre()
+      }
+    });
+    return usage.build();
+  }
+
+  @Override
+  public Subscription subscribe(String path, FileChangeListener listener) {
+    return subscribe(path, listener, ChangeFeedOptions.builder().build());
+  }
+
+  /**
+   * Subscribe to changes by periodically walking the directory. Backends that can detect changes
+   * more cheaply override this.
+   */
+  @Override
+  public Subscription subscribe(String path, FileChangeListener listener,
+      ChangeFeedOptions options) {
+    return new WalkingChangeFeed(this, path, listener, options).start();
+  }
+
   @Override
   public void walk(FileSystemNode node, FileNodeVisitor visitor) {
     if (node.isDirectory()) {
@@ -218,46 +494,12 @@ public abstract class AbstractFileService implements FileService {
 
   @Override
   public void zip(String path, OutputStream outputStream, String prefix) {
-    try (final ZipOutputStream zipStream = new ZipOutputStream(outputStream)) {
-      walk(getFileNode(path), new FileNodeVisitor() {
-        @Override
-        public void on(FileSystemNode node) {
-          add(node, true);
-        }
-
-        private void add(FileSystemNode node, boolean file) {
-          final String nodePath = node.getPath();
-          try {
-            String inZipPath = FileServiceUtils.combine(prefix,
-                StringUtils.substringAfter(nodePath, path));
-            if (StringUtils.isEmpty(inZipPath)) {
-              return;
-            }
-            String path = file ? inZipPath : FileServiceUtils.appendSeparator(inZipPath);
-            zipStream.putNextEntry(new ZipEntry(path));
-            if (file) {
-              try (InputStream stream = open(node)) {
-                IOUtils.copy(stream, zipStream);
-              }
-            }
-          } catch (Exception e) {
-            throw new FileServiceException("Problem while zipping node " + nodePath);
-          }
-        }
-
-        @Override
-        public void pre(FileSystemNode node) {
-          add(node, false);
-        }
+    zip(path, outputStream, prefix, ZipOptions.DEFAULT);
+  }
 
-        @Override
-        public void post(FileSystemNode node) {
-          // no op
-        }
-      });
-    } catch (Exception e) {
-      throw new FileServiceException(e);
-    }
+  @Override
+  public void zip(String path, OutputStream outputStream, String prefix, ZipOptions options) {
+    new ZipArchiver(this, options).zip(path, outputStream, prefix);
   }
 
   @Override
@@ -279,12 +521,90 @@ public abstract class AbstractFileService implements FileService {
     FileServiceUtils.walk(input, predicate, consumer, fileConsumer, folderConsumer);
   }
 
+  @Override
+  public void unzip(FileSystemNode archive, String target, Predicate<ZipEntry> entryPredicate) {
+    unzip(archive, target, entryPredicate, getSaveParallelism());
+  }
+
+  @Override
+  public void unzip(FileSystemNode archive, String target, Predicate<ZipEntry> entryPredicate,
+      int parallelism) {
+    ZipArchive zipArchive = ZipArchive.open(this, archive);
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for (ZipArchiveEntry entry : zipArchive.getEntries()) {
+      if (StringUtils.isBlank(entry.name())) {
+        throw new IllegalArgumentException("Zip file corrupt: contains entry with empty name.");
+      }
+      if (!entryPredicate.test(entry.toZipEntry())) {
+        continue;
+      }
+      if (entry.isDirectory()) {
+        mkDirectories(target, entry.name());
+        continue;
+      }
+      String path = FileServiceUtils.combine(target, entry.name());
+      tasks.add(() -> {
+        try (InputStream inputStream = zipArchive.open(entry)) {
+          save(inputStream, path, entry.size());
+        } catch (IOException e) {
+          throw new FileServiceException(e);
+        }
+        return null;
+      });
+    }
+    ParallelTasks.invokeAll(tasks, parallelism);
+  }
+
+  @Override
+  public void tar(String path, OutputStream outputStream, String prefix) {
+    tar(path, outputStream, prefix, TarOptions.DEFAULT);
+  }
+
+  @Override
+  public void tar(String path, OutputStream outputStream, String prefix, TarOptions options) {
+    new TarArchiver(this, options).tar(path, outputStream, prefix);
+  }
+
+  @Override
+  public void untar(InputStream input, String target) {
+    untar(input, target, entry -> true, entry -> {
+    });
+  }
+
+  @Override
+  public void untar(InputStream input, String target, Predicate<TarEntry> predicate,
+      Consumer<TarEntry> consumer) {
+    try {
+      TarReader reader = new TarReader(input);
+      TarEntry entry;
+      while (null != (entry = reader.getNextEntry())) {
+        String name = StringUtils.removeStart(entry.name(), "./");
+        if (StringUtils.isBlank(entry.name())) {
+          throw new IllegalArgumentException("Tar file corrupt: contains entry with empty name.");
+        }
+        if (name.isEmpty() || !predicate.test(entry)) {
+          continue;
+        }
+        consumer.accept(entry);
+        if (entry.isDirectory()) {
+          mkDirectories(target, name);
+        } else {
+          save(reader.getContent(), FileServiceUtils.combine(target, name), entry.size());
+        }
+      }
+    } catch (IOException e) {
+      throw new FileServiceException(e);
+    }
+  }
+
   protected FileSystemNode createFileNode(String path, boolean isDirectory, long size,
       Date lastModified) {
-    Pair<String, String> dirAndName = FileServiceUtils.split(path);
-    String parentDir = dirAndName.getLeft();
-    String name = dirAndName.getRight();
-    return new FileSystemNodeImpl(parentDir, name, isDirectory, size, lastModified);
+    return createFileNode(FilePath.of(path), isDirectory, size, lastModified);
+  }
+
+  protected FileSystemNode createFileNode(FilePath path, boolean isDirectory, long size,
+      Date lastModified) {
+    return new FileSystemNodeImpl(path, isDirectory, size, lastModified);
   }
 
   protected FileSystemNode createDirectoryNode(String path, Date lastModified) {
@@ -306,11 +626,11 @@ public abstract class AbstractFileService implements FileService {
     return list(node).stream().filter(fileNode -> !fileNode.isDirectory()).count();
   }
 
-  private FileSystemNode getForPath(String parts, boolean shouldExist) {
-    if (StringUtils.isBlank(parts)) {
-      return new FileSystemNodeImpl(null, "", true, 0, null);
+  protected FileSystemNode getForPath(FilePath filePath, boolean shouldExist) {
+    if (filePath.isRoot()) {
+      return new FileSystemNodeImpl(FilePath.ROOT, true, 0, null);
     }
-    String path = FileServiceUtils.strip(parts);
+    String path = filePath.toString();
     NodeMetadata nodeMetadata = getNodeMetadata(path);
     if (nodeMetadata == null) {
       if (!shouldExist) {
@@ -319,7 +639,7 @@ public abstract class AbstractFileService implements FileService {
       throw new IllegalArgumentException("Path does not exist on filesystem: " + path);
     }
     boolean directory = nodeMetadata.isDirectory();
-    return createFileNode(path, directory, directory ? 0 : getSize(path),
+    return createFileNode(filePath, directory, directory ? 0 : getSize(path),
         nodeMetadata.getLastModified());
   }
 
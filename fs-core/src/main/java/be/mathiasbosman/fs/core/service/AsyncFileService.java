@@ -0,0 +1,73 @@
+package be.mathiasbosman.fs.core.service;
+
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking variants of the most common {@link FileService} operations. Implementations
+ * complete the returned futures from their I/O threads, so callers should not block inside the
+ * callbacks they attach.
+ */
+public interface AsyncFileService {
+
+  /**
+   * Checks if given path exists.
+   *
+   * @param parts Path parts
+   * @return future completed with true or false if none-existing
+   */
+  CompletableFuture<Boolean> existsAsync(String... parts);
+
+  /**
+   * Get the {@link FileSystemNode} on the given path.
+   *
+   * @param parts Path parts
+   * @return future completed with the node found or null
+   */
+  CompletableFuture<FileSystemNode> getOptionalFileNodeAsync(String... parts);
+
+  /**
+   * List all file nodes that are children of the given {@link FileSystemNode}.
+   *
+   * @param root The {@link FileSystemNode} that is the root
+   * @return future completed with the children nodes
+   */
+  CompletableFuture<List<FileSystemNode>> listAsync(FileSystemNode root);
+
+  /**
+   * Open a given {@link FileSystemNode}. The future completes as soon as the response starts,
+   * reading the stream blocks until the content arrives.
+   *
+   * @param node The {@link FileSystemNode} to open
+   * @return future completed with the content as stream
+   */
+  CompletableFuture<InputStream> openAsync(FileSystemNode node);
+
+  /**
+   * Get the content as byte array from a given {@link FileSystemNode}.
+   *
+   * @param node The {@link FileSystemNode} to get byte array from
+   * @return future completed with the content
+   */
+  CompletableFuture<byte[]> getBytesAsync(FileSystemNode node);
+
+  /**
+   * Save a {@link Byte} array to the given path.
+   *
+   * @param bytes The array of {@link Byte}s to save
+   * @param parts Path parts
+   * @return future completed when saved
+   */
+  CompletableFuture<Void> saveAsync(byte[] bytes, String... parts);
+
+  /**
+   * Delete a {@link FileSystemNode}.
+   *
+   * @param node      {@link FileSystemNode} to delete
+   * @param recursive Flag to delete recursively or not
+   * @return future completed when deleted
+   */
+  CompletableFuture<Void> deleteAsync(FileSystemNode node, boolean recursive);
+}
@@ -0,0 +1,186 @@
+package be.mathiasbosman.fs.core.service;
+
+import be.mathiasbosman.fs.core.domain.FilePath;
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.domain.FileSystemNodeType;
+import be.mathiasbosman.fs.core.domain.NodeMetadata;
+import be.mathiasbosman.fs.core.watch.ChangeFeedOptions;
+import be.mathiasbosman.fs.core.watch.FileChangeListener;
+import be.mathiasbosman.fs.core.watch.Subscription;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+/**
+ * Base of file services that add behaviour to another file service. Every operation is forwarded
+ * to the wrapped file service, subclasses override the operations they change. Walking is not
+ * forwarded but done with {@link #list(FileSystemNode)}, so subclasses that hide nodes only have to
+ * filter listings.
+ */
+public abstract class DelegatingFileService extends AbstractFileService {
+
+  protected final FileService delegate;
+
+  protected DelegatingFileService(FileService delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public InputStream open(FileSystemNode node) {
+    return delegate.open(node);
+  }
+
+  @Override
+  protected void save(InputStream is, String path, long size) {
+    if (delegate instanceof AbstractFileService service) {
+      service.save(is, path, size);
+    } else {
+      delegate.save(is, path);
+    }
+  }
+
+  @Override
+  protected long getSize(String path) {
+    return delegate.getSize(delegate.getFileNode(path));
+  }
+
+  @Override
+  public void delete(FileSystemNode node, boolean recursive) {
+    delegate.delete(node, recursive);
+  }
+
+  @Override
+  public LocalDateTime getCreationTime(FileSystemNode node, ZoneId zoneId) {
+    return delegate.getCreationTime(node, zoneId);
+  }
+
+  @Override
+  public LocalDateTime getLastModifiedTime(FileSystemNode node, ZoneId zoneId) {
+    return delegate.getLastModifiedTime(node, zoneId);
+  }
+
+  @Override
+  public List<FileSystemNode> list(FileSystemNode root) {
+    return delegate.list(root);
+  }
+
+  @Override
+  public Stream<FileSystemNode> streamDirectory(FileSystemNode root) {
+    return delegate.streamDirectory(root);
+  }
+
+  @Override
+  public void move(String from, String to) {
+    delegate.move(from, to);
+  }
+
+  @Override
+  public Subscription subscribe(String path, FileChangeListener listener,
+      ChangeFeedOptions options) {
+    return delegate.subscribe(path, listener, options);
+  }
+
+  @Override
+  protected void copyContent(FileSystemNode source, String to) {
+    delegate.copy(source, to);
+  }
+
+  @Override
+  protected boolean exists(String path) {
+    return delegate.exists(path);
+  }
+
+  @Override
+  protected boolean isDirectory(String path) {
+    return delegate.isDirectory(path);
+  }
+
+  @Override
+  protected void mkDirectories(String path) {
+    delegate.mkDirectories(path);
+  }
+
+  @Override
+  protected FileSystemNodeType getFileNodeType(String path) {
+    NodeMetadata metadata = getNodeMetadata(path);
+    return metadata != null ? metadata.getType() : null;
+  }
+
+  @Override
+  protected NodeMetadata getNodeMetadata(String path) {
+    FileSystemNode node = delegate.getOptionalFileNode(path);
+    if (node == null) {
+      return null;
+    }
+    return new NodeMetadata(
+        node.isDirectory() ? FileSystemNodeType.DIRECTORY : FileSystemNodeType.FILE,
+        node.getSize(), node.getLastModified());
+  }
+
+  /**
+   * A view on a node with another size, for subclasses that store files with a size that differs
+   * from the size they present. The size is computed when it is first asked for.
+   *
+   * @param node The node of the wrapped file service
+   * @param size Supplies the size of the node
+   * @return the node with the supplied size
+   */
+  protected static FileSystemNode withSize(FileSystemNode node, LongSupplier size) {
+    return new SizedNode(node, size);
+  }
+
+  private static final class SizedNode implements FileSystemNode {
+
+    private final FileSystemNode node;
+    private LongSupplier sizeSupplier;
+    private long size;
+
+    private SizedNode(FileSystemNode node, LongSupplier sizeSupplier) {
+      this.node = node;
+      this.sizeSupplier = sizeSupplier;
+    }
+
+    @Override
+    public String getName() {
+      return node.getName();
+    }
+
+    @Override
+    public String getPath() {
+      return node.getPath();
+    }
+
+    @Override
+    public String getParentPath() {
+      return node.getParentPath();
+    }
+
+    @Override
+    public FilePath getFilePath() {
+      return node.getFilePath();
+    }
+
+    @Override
+    public synchronized long getSize() {
+      if (sizeSupplier != null) {
+        size = sizeSupplier.getAsLong();
+        sizeSupplier = null;
+      }
+      return size;
+    }
+
+    @Override
+    public boolean isDirectory() {
+      return node.isDirectory();
+    }
+
+    @Override
+    public Date getLastModified() {
+      return node.getLastModified();
+    }
+  }
+}
@@ -1,11 +1,22 @@
 package be.mathiasbosman.fs.core.service;
 
 import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.domain.PathContent;
+import be.mathiasbosman.fs.core.domain.PathResult;
+import be.mathiasbosman.fs.core.domain.Usage;
+import be.mathiasbosman.fs.core.tar.TarEntry;
+import be.mathiasbosman.fs.core.tar.TarOptions;
+import be.mathiasbosman.fs.core.watch.ChangeFeedOptions;
+import be.mathiasbosman.fs.core.watch.FileChangeListener;
+import be.mathiasbosman.fs.core.watch.Subscription;
+import be.mathiasbosman.fs.core.zip.ZipOptions;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
@@ -105,6 +116,25 @@ public interface FileService {
    */
   FileSystemNode getFileNode(String... parts);
 
+  /**
+   * Get the {@link FileSystemNode}s of many paths at once. Lookups run concurrently and paths that
+   * share a parent directory can be resolved with a single listing.
+   *
+   * @param paths The paths to look up
+   * @return per path (in the given order) the node found, null if not found, or the error
+   */
+  Map<String, PathResult<FileSystemNode>> getFileNodes(Collection<String> paths);
+
+  /**
+   * Get the {@link FileSystemNode}s of many paths at once.
+   *
+   * @param paths       The paths to look up
+   * @param parallelism Maximum amount of concurrent lookups
+   * @return per path (in the given order) the node found, null if not found, or the error
+   * @see #getFileNodes(Collection)
+   */
+  Map<String, PathResult<FileSystemNode>> getFileNodes(Collection<String> paths, int parallelism);
+
   /**
    * Get the last modified time.
    *
@@ -146,6 +176,24 @@ public interface FileService {
    */
   long getSize(FileSystemNode node);
 
+  /**
+   * Returns the usage of a subtree: its total size, amount of files and directories and newest
+   * file modification, gathered in one pass.
+   *
+   * @param node The {@link FileSystemNode} to query
+   * @return The usage of the node
+   */
+  Usage usage(FileSystemNode node);
+
+  /**
+   * Returns the usage of a subtree, the direct children of a directory are gathered concurrently.
+   *
+   * @param node      The {@link FileSystemNode} to query
+   * @param breakdown If the usage of every direct child should be returned as well
+   * @return The usage of the node
+   */
+  Usage usage(FileSystemNode node, boolean breakdown);
+
   /**
    * Checks a given path for being a directory.
    *
@@ -193,6 +241,17 @@ public interface FileService {
    */
   InputStream open(FileSystemNode node);
 
+  /**
+   * Open a range of a given {@link FileSystemNode}. Only the requested bytes are read where the
+   * file system supports it.
+   *
+   * @param node   The {@link FileSystemNode} to open
+   * @param offset Position of the first byte
+   * @param length Maximum amount of bytes to read
+   * @return content of the range as stream, shorter if the file ends before the range does
+   */
+  InputStream open(FileSystemNode node, long offset, long length);
+
   /**
    * Open a given path.
    *
@@ -209,6 +268,23 @@ public interface FileService {
    */
   String read(FileSystemNode node);
 
+  /**
+   * Get the content of many paths at once. Reads run concurrently.
+   *
+   * @param paths The paths to read
+   * @return per path (in the given order) the content or the error
+   */
+  Map<String, PathResult<byte[]>> readAll(Collection<String> paths);
+
+  /**
+   * Get the content of many paths at once.
+   *
+   * @param paths       The paths to read
+   * @param parallelism Maximum amount of concurrent reads
+   * @return per path (in the given order) the content or the error
+   */
+  Map<String, PathResult<byte[]>> readAll(Collection<String> paths, int parallelism);
+
   /**
    * Read the contents of a given path as text.
    *
@@ -233,6 +309,26 @@ public interface FileService {
    */
   void save(byte[] bytes, String... parts);
 
+  /**
+   * Save many items. Items are taken from the stream while earlier ones are being written, with at
+   * most a backend specific amount of writes in flight. Parent directories are created once per
+   * directory.
+   *
+   * @param items The items to save
+   * @return per item (in the order of the stream) the path and the error if saving failed
+   */
+  List<PathResult<Void>> saveAll(Stream<PathContent> items);
+
+  /**
+   * Save many items.
+   *
+   * @param items       The items to save
+   * @param parallelism Maximum amount of concurrent writes
+   * @return per item (in the order of the stream) the path and the error if saving failed
+   * @see #saveAll(Stream)
+   */
+  List<PathResult<Void>> saveAll(Stream<PathContent> items, int parallelism);
+
   /**
    * Save plain text to a given path.
    *
@@ -249,6 +345,26 @@ public interface FileService {
    */
   Stream<FileSystemNode> streamDirectory(FileSystemNode root);
 
+  /**
+   * Subscribe to the changes below a directory using the default {@link ChangeFeedOptions}.
+   *
+   * @param path     The directory to watch
+   * @param listener The {@link FileChangeListener} receiving batches of changes
+   * @return the {@link Subscription}, to be closed when no longer needed
+   */
+  Subscription subscribe(String path, FileChangeListener listener);
+
+  /**
+   * Subscribe to the changes below a directory. Only changes made after this method returns are
+   * guaranteed to be reported, unless a snapshot of a previous subscription is passed.
+   *
+   * @param path     The directory to watch
+   * @param listener The {@link FileChangeListener} receiving batches of changes
+   * @param options  The {@link ChangeFeedOptions}
+   * @return the {@link Subscription}, to be closed when no longer needed
+   */
+  Subscription subscribe(String path, FileChangeListener listener, ChangeFeedOptions options);
+
   /**
    * Walk all objects in given {@link FileSystemNode}.
    *
@@ -268,6 +384,17 @@ public interface FileService {
    */
   void zip(String root, OutputStream outputStream, String prefix);
 
+  /**
+   * Will create a zipped stream to outputStream containing all bitstreams under path, compressed
+   * according to the given {@link ZipOptions}.
+   *
+   * @param root         The path at which to start zipping
+   * @param outputStream the {@link OutputStream}
+   * @param prefix       Optionally used to have the effect of a root folder inside the zip
+   * @param options      The {@link ZipOptions}
+   */
+  void zip(String root, OutputStream outputStream, String prefix, ZipOptions options);
+
   /**
    * Zips a file and outputs the stream
    *
@@ -305,4 +432,68 @@ public interface FileService {
    */
   void unzip(ZipInputStream input, String target, Predicate<ZipEntry> entryPredicate,
       Consumer<ZipEntry> consumer);
+
+  /**
+   * Unzips a zip file on this filesystem to a given target. The central directory is read first
+   * and the predicate is tested before any content is read, the matching entries are then
+   * inflated concurrently using range reads on the archive.
+   *
+   * @param archive        The zip file to unzip
+   * @param target         The target path
+   * @param entryPredicate The predicate too match
+   */
+  void unzip(FileSystemNode archive, String target, Predicate<ZipEntry> entryPredicate);
+
+  /**
+   * Unzips a zip file on this filesystem to a given target with at most {@code parallelism}
+   * entries being inflated at the same time.
+   *
+   * @param archive        The zip file to unzip
+   * @param target         The target path
+   * @param entryPredicate The predicate too match
+   * @param parallelism    Maximum amount of entries unzipped at the same time
+   */
+  void unzip(FileSystemNode archive, String target, Predicate<ZipEntry> entryPredicate,
+      int parallelism);
+
+  /**
+   * Write a path as a tar archive to an {@link OutputStream}.
+   *
+   * @param path         The path to archive
+   * @param outputStream The {@link OutputStream} to write to
+   * @param prefix       Optional root folder inside the archive
+   */
+  void tar(String path, OutputStream outputStream, String prefix);
+
+  /**
+   * Write a path as a tar archive to an {@link OutputStream} according to the given options.
+   *
+   * @param path         The path to archive
+   * @param outputStream The {@link OutputStream} to write to
+   * @param prefix       Optional root folder inside the archive
+   * @param options      The {@link TarOptions}
+   */
+  void tar(String path, OutputStream outputStream, String prefix, TarOptions options);
+
+  /**
+   * Extract a tar archive, gzip compressed or not, to a target path on the filesystem. Entries are
+   * extracted as they are read, so the archive does not need to be complete when extracting
+   * starts.
+   *
+   * @param input  The archive
+   * @param target the target path to extract to
+   */
+  void untar(InputStream input, String target);
+
+  /**
+   * Extract a tar archive to a given target. Only entries that match the given predicate will be
+   * extracted. The entries that are extracted will be consumed by the given consumer.
+   *
+   * @param input          The archive
+   * @param target         The target path
+   * @param entryPredicate The predicate too match
+   * @param consumer       The consumer for the entries
+   */
+  void untar(InputStream input, String target, Predicate<TarEntry> entryPredicate,
+      Consumer<TarEntry> consumer);
 }
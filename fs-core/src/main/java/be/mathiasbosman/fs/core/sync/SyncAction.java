@@ -0,0 +1,21 @@
+package be.mathiasbosman.fs.core.sync;
+
+/**
+ * A single change needed to bring the target in line with the source.
+ *
+ * @param type   The kind of change
+ * @param path   The path relative to the synchronised roots
+ * @param reason Why the change is needed
+ */
+public record SyncAction(Type type, String path, String reason) {
+
+  /**
+   * Kinds of changes, in the order they are executed.
+   */
+  public enum Type {
+    DELETE,
+    CREATE_DIRECTORY,
+    COPY,
+    REPLACE
+  }
+}
@@ -0,0 +1,29 @@
+package be.mathiasbosman.fs.core.sync;
+
+import be.mathiasbosman.fs.core.service.AbstractFileService;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Options of a {@link TreeSync}.
+ */
+@Getter
+@Builder
+public class SyncOptions {
+
+  /**
+   * Delete files and directories of the target that do not exist in the source.
+   */
+  @Builder.Default
+  private final boolean deleteExtraneous = true;
+  /**
+   * Compare the content hash of files whose size and modification date do not differ.
+   */
+  @Builder.Default
+  private final boolean verifyContent = false;
+  /**
+   * Maximum amount of concurrent listings and transfers.
+   */
+  @Builder.Default
+  private final int parallelism = AbstractFileService.DEFAULT_BULK_PARALLELISM;
+}
@@ -0,0 +1,39 @@
+package be.mathiasbosman.fs.core.sync;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import lombok.Getter;
+
+/**
+ * The changes a {@link TreeSync} would make. A plan can be inspected (a dry run) before it is
+ * executed.
+ */
+@Getter
+public class SyncPlan {
+
+  private final String sourceRoot;
+  private final String targetRoot;
+  /**
+   * The actions, sorted on path.
+   */
+  private final List<SyncAction> actions;
+  /**
+   * Amount of directories skipped because their digest did not change since the last sync.
+   */
+  private final int skippedDirectories;
+  private final Map<String, String> sourceDigests;
+
+  SyncPlan(String sourceRoot, String targetRoot, List<SyncAction> actions,
+      int skippedDirectories, Map<String, String> sourceDigests) {
+    this.sourceRoot = sourceRoot;
+    this.targetRoot = targetRoot;
+    this.actions = Collections.unmodifiableList(actions);
+    this.skippedDirectories = skippedDirectories;
+    this.sourceDigests = sourceDigests;
+  }
+
+  public boolean isEmpty() {
+    return actions.isEmpty();
+  }
+}
@@ -0,0 +1,59 @@
+package be.mathiasbosman.fs.core.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The digests of the source directories as they were at the last successful sync. A directory
+ * whose digest did not change since is skipped entirely, target included. The state can be stored
+ * between runs with {@link #write(OutputStream)} and {@link #read(InputStream)}.
+ */
+public class SyncState {
+
+  private final Map<String, String> digests = new ConcurrentHashMap<>();
+
+  String getDigest(String path) {
+    return digests.get(path);
+  }
+
+  void update(Map<String, String> newDigests) {
+    digests.clear();
+    digests.putAll(newDigests);
+  }
+
+  public int size() {
+    return digests.size();
+  }
+
+  /**
+   * Write the state.
+   *
+   * @param out The stream to write to
+   * @throws IOException when writing fails
+   */
+  public void write(OutputStream out) throws IOException {
+    Properties properties = new Properties();
+    properties.putAll(digests);
+    properties.store(out, null);
+  }
+
+  /**
+   * Read a state written by {@link #write(OutputStream)}.
+   *
+   * @param in The stream to read from
+   * @return the state
+   * @throws IOException when reading fails
+   */
+  public static SyncState read(InputStream in) throws IOException {
+    Properties properties = new Properties();
+    properties.load(in);
+    SyncState state = new SyncState();
+    properties.stringPropertyNames()
+        .forEach(key -> state.digests.put(key, properties.getProperty(key)));
+    return state;
+  }
+}
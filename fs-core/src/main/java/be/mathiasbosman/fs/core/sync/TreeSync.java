@@ -0,0 +1,381 @@
+package be.mathiasbosman.fs.core.sync;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.domain.PathResult;
+import be.mathiasbosman.fs.core.service.FileNodeVisitor;
+import be.mathiasbosman.fs.core.service.FileService;
+import be.mathiasbosman.fs.core.sync.SyncAction.Type;
+import be.mathiasbosman.fs.core.util.FileServiceUtils;
+import be.mathiasbosman.fs.core.util.ParallelTasks;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Incrementally synchronises a directory of one {@link FileService} to a directory of another
+ * (or the same) file service. Only the differences are transferred: files missing in the target
+ * are copied, changed files are replaced and, optionally, files missing in the source are
+ * deleted.
+ *
+ * <p>Both trees are walked at the same time. Per directory the listings of source and target are
+ * sorted on name and merged, subdirectories are compared in parallel. A file is considered changed
+ * when its size differs or the source is more recent than the target and, if
+ * {@link SyncOptions#isVerifyContent()} is set, when the content hashes differ.
+ *
+ * <p>When a {@link SyncState} is given, a digest of every source directory is computed from the
+ * names, sizes and modification dates of everything below it. Directories whose digest equals the
+ * one of the last successful sync are skipped without listing either side. Changes made directly
+ * to the target inside such a directory are therefore not detected.
+ */
+public class TreeSync {
+
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+  private static final Comparator<FileSystemNode> BY_NAME =
+      Comparator.comparing(FileSystemNode::getName);
+
+  private final FileService source;
+  private final FileService target;
+  private final SyncOptions options;
+
+  public TreeSync(FileService source, FileService target, SyncOptions options) {
+    if (options.getParallelism() < 1) {
+      throw new IllegalArgumentException("Parallelism should be at least 1");
+    }
+    this.source = source;
+    this.target = target;
+    this.options = options;
+  }
+
+  public TreeSync(FileService source, FileService target) {
+    this(source, target, SyncOptions.builder().build());
+  }
+
+  /**
+   * Determine the changes needed without making them (a dry run).
+   *
+   * @param sourceRoot The directory to synchronise from
+   * @param targetRoot The directory to synchronise to
+   * @return the plan
+   */
+  public SyncPlan plan(String sourceRoot, String targetRoot) {
+    return plan(sourceRoot, targetRoot, null);
+  }
+
+  /**
+   * Determine the changes needed without making them (a dry run), skipping the directories that
+   * did not change since the state was recorded.
+   *
+   * @param sourceRoot The directory to synchronise from
+   * @param targetRoot The directory to synchronise to
+   * @param state      The state of the last successful sync (optional)
+   * @return the plan
+   */
+  public SyncPlan plan(String sourceRoot, String targetRoot, SyncState state) {
+    FileSystemNode sourceNode = source.getFileNode(sourceRoot);
+    if (!sourceNode.isDirectory()) {
+      throw new IllegalArgumentException("Source " + sourceRoot + " is not a directory");
+    }
+    FileSystemNode targetNode = target.getOptionalFileNode(targetRoot);
+    if (targetNode != null && !targetNode.isDirectory()) {
+      throw new IllegalArgumentException("Target " + targetRoot + " is not a directory");
+    }
+    Map<String, String> digests = state != null
+        ? digest(sourceNode) : Collections.emptyMap();
+    AtomicInteger skipped = new AtomicInteger();
+    ForkJoinPool pool = new ForkJoinPool(options.getParallelism());
+    try {
+      List<SyncAction> actions = new ArrayList<>(pool.invoke(
+          new CompareTask("", sourceNode, targetNode, state, digests, skipped)));
+      actions.sort(Comparator.comparing(SyncAction::path));
+      return new SyncPlan(sourceRoot, targetRoot, actions, skipped.get(), digests);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Make the changes of a plan. Deletions are executed first, then directories are created and
+   * finally files are transferred. A failing action does not stop the others.
+   *
+   * @param plan The plan to execute
+   * @return the result of every action, in the order of execution
+   */
+  public List<PathResult<SyncAction>> execute(SyncPlan plan) {
+    Map<Type, List<SyncAction>> byType = new HashMap<>();
+    plan.getActions().forEach(action ->
+        byType.computeIfAbsent(action.type(), k -> new ArrayList<>()).add(action));
+    List<PathResult<SyncAction>> results = new ArrayList<>();
+    results.addAll(ParallelTasks.map(byType.getOrDefault(Type.DELETE, List.of()).iterator(),
+        action -> apply(plan, action), options.getParallelism()));
+    // directories are created in path order, parents first
+    byType.getOrDefault(Type.CREATE_DIRECTORY, List.of())
+        .forEach(action -> results.add(apply(plan, action)));
+    List<SyncAction> transfers = new ArrayList<>(byType.getOrDefault(Type.COPY, List.of()));
+    transfers.addAll(byType.getOrDefault(Type.REPLACE, List.of()));
+    results.addAll(ParallelTasks.map(transfers.iterator(), action -> apply(plan, action),
+        options.getParallelism()));
+    return results;
+  }
+
+  /**
+   * Plan and execute a sync. The state is updated when all actions succeeded.
+   *
+   * @param sourceRoot The directory to synchronise from
+   * @param targetRoot The directory to synchronise to
+   * @param state      The state of the last successful sync (optional)
+   * @return the result of every action
+   */
+  public List<PathResult<SyncAction>> sync(String sourceRoot, String targetRoot,
+      SyncState state) {
+    SyncPlan plan = plan(sourceRoot, targetRoot, state);
+    List<PathResult<SyncAction>> results = execute(plan);
+    if (state != null && results.stream().allMatch(PathResult::isSuccess)) {
+      state.update(plan.getSourceDigests());
+    }
+    return results;
+  }
+
+  private PathResult<SyncAction> apply(SyncPlan plan, SyncAction action) {
+    String targetPath = FileServiceUtils.combine(plan.getTargetRoot(), action.path());
+    try {
+      switch (action.type()) {
+        case DELETE -> {
+          FileSystemNode node = target.getOptionalFileNode(targetPath);
+          if (node != null) {
+            target.delete(node, true);
+          }
+        }
+        case CREATE_DIRECTORY -> target.mkDirectories(targetPath);
+        case COPY, REPLACE -> {
+          try (InputStream in = source.open(
+              FileServiceUtils.combine(plan.getSourceRoot(), action.path()))) {
+            target.save(in, targetPath);
+          }
+        }
+      }
+      return PathResult.success(action.path(), action);
+    } catch (IOException e) {
+      return PathResult.failure(action.path(), new FileServiceException(e));
+    } catch (RuntimeException e) {
+      return PathResult.failure(action.path(), e);
+    }
+  }
+
+  /**
+   * Compute the digest of every directory below the root, keyed on the path relative to the root.
+   */
+  private Map<String, String> digest(FileSystemNode root) {
+    DigestVisitor visitor = new DigestVisitor(FileServiceUtils.combine(root.getPath()));
+    source.walk(root, visitor);
+    return visitor.digests;
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(DIGEST_ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private byte[] contentHash(FileService fileService, FileSystemNode node) {
+    MessageDigest digest = newDigest();
+    try (InputStream in = new DigestInputStream(fileService.open(node), digest)) {
+      in.transferTo(OutputStream.nullOutputStream());
+    } catch (IOException e) {
+      throw new FileServiceException(e);
+    }
+    return digest.digest();
+  }
+
+  private String changed(FileSystemNode sourceFile, FileSystemNode targetFile) {
+    if (sourceFile.getSize() != targetFile.getSize()) {
+      return "size differs";
+    }
+    if (sourceFile.getLastModified() != null && targetFile.getLastModified() != null
+        && sourceFile.getLastModified().after(targetFile.getLastModified())) {
+      return "source is more recent";
+    }
+    if (options.isVerifyContent()
+        && !Arrays.equals(contentHash(source, sourceFile), contentHash(target, targetFile))) {
+      return "content differs";
+    }
+    return null;
+  }
+
+  private static List<FileSystemNode> sorted(List<FileSystemNode> nodes) {
+    List<FileSystemNode> copy = new ArrayList<>(nodes);
+    copy.sort(BY_NAME);
+    return copy;
+  }
+
+  /**
+   * Compares a source directory with its target counterpart, forking a task per subdirectory.
+   */
+  private class CompareTask extends RecursiveTask<List<SyncAction>> {
+
+    private final String path;
+    private final FileSystemNode sourceDirectory;
+    private final FileSystemNode targetDirectory;
+    private final SyncState state;
+    private final Map<String, String> digests;
+    private final AtomicInteger skipped;
+
+    private CompareTask(String path, FileSystemNode sourceDirectory,
+        FileSystemNode targetDirectory, SyncState state, Map<String, String> digests,
+        AtomicInteger skipped) {
+      this.path = path;
+      this.sourceDirectory = sourceDirectory;
+      this.targetDirectory = targetDirectory;
+      this.state = state;
+      this.digests = digests;
+      this.skipped = skipped;
+    }
+
+    @Override
+    protected List<SyncAction> compute() {
+      if (state != null && targetDirectory != null && digests.get(path) != null
+          && digests.get(path).equals(state.getDigest(path))) {
+        skipped.incrementAndGet();
+        return List.of();
+      }
+      List<FileSystemNode> sources = sorted(source.list(sourceDirectory));
+      List<FileSystemNode> targets = targetDirectory != null
+          ? sorted(target.list(targetDirectory)) : List.of();
+      List<SyncAction> actions = new ArrayList<>();
+      List<CompareTask> subtasks = new ArrayList<>();
+      int s = 0;
+      int t = 0;
+      while (s < sources.size() || t < targets.size()) {
+        int order = s == sources.size() ? 1 : t == targets.size() ? -1
+            : sources.get(s).getName().compareTo(targets.get(t).getName());
+        if (order < 0) {
+          added(sources.get(s++), actions, subtasks);
+        } else if (order > 0) {
+          FileSystemNode extraneous = targets.get(t++);
+          if (options.isDeleteExtraneous()) {
+            actions.add(action(Type.DELETE, extraneous, "missing in source"));
+          }
+        } else {
+          compare(sources.get(s++), targets.get(t++), actions, subtasks);
+        }
+      }
+      subtasks.forEach(CompareTask::fork);
+      subtasks.forEach(task -> actions.addAll(task.join()));
+      return actions;
+    }
+
+    private void added(FileSystemNode node, List<SyncAction> actions,
+        List<CompareTask> subtasks) {
+      if (node.isDirectory()) {
+        actions.add(action(Type.CREATE_DIRECTORY, node, "missing in target"));
+        subtasks.add(subtask(node, null));
+      } else {
+        actions.add(action(Type.COPY, node, "missing in target"));
+      }
+    }
+
+    private void compare(FileSystemNode sourceNode, FileSystemNode targetNode,
+        List<SyncAction> actions, List<CompareTask> subtasks) {
+      if (sourceNode.isDirectory() != targetNode.isDirectory()) {
+        actions.add(action(Type.DELETE, targetNode, "type differs"));
+        added(sourceNode, actions, subtasks);
+      } else if (sourceNode.isDirectory()) {
+        subtasks.add(subtask(sourceNode, targetNode));
+      } else {
+        String reason = changed(sourceNode, targetNode);
+        if (reason != null) {
+          actions.add(action(Type.REPLACE, sourceNode, reason));
+        }
+      }
+    }
+
+    private CompareTask subtask(FileSystemNode sourceNode, FileSystemNode targetNode) {
+      return new CompareTask(FileServiceUtils.combine(path, sourceNode.getName()), sourceNode,
+          targetNode, state, digests, skipped);
+    }
+
+    private SyncAction action(Type type, FileSystemNode node, String reason) {
+      return new SyncAction(type, FileServiceUtils.combine(path, node.getName()), reason);
+    }
+  }
+
+  /**
+   * Computes an order independent digest per directory: the sum of the hashes of its entries. The
+   * hash of a file covers its name, size and modification date, the hash of a subdirectory covers
+   * its name and digest.
+   */
+  private static class DigestVisitor implements FileNodeVisitor {
+
+    private final Map<String, String> digests = new HashMap<>();
+    private final Deque<long[]> stack = new ArrayDeque<>();
+    private final String root;
+
+    private DigestVisitor(String root) {
+      this.root = root;
+    }
+
+    @Override
+    public void on(FileSystemNode file) {
+      long modified = file.getLastModified() != null ? file.getLastModified().getTime() : 0;
+      add(hash("f", file.getName(), file.getSize() + ":" + modified));
+    }
+
+    @Override
+    public void pre(FileSystemNode directory) {
+      stack.push(new long[2]);
+    }
+
+    @Override
+    public void post(FileSystemNode directory) {
+      long[] sum = stack.pop();
+      String digest = HexFormat.of().toHexDigits(sum[0]) + HexFormat.of().toHexDigits(sum[1]);
+      digests.put(relative(directory.getPath()), digest);
+      if (!stack.isEmpty()) {
+        add(hash("d", directory.getName(), digest));
+      }
+    }
+
+    private void add(long[] hash) {
+      long[] sum = stack.peek();
+      if (sum == null) {
+        throw new IllegalStateException("Walk did not start with a directory");
+      }
+      sum[0] += hash[0];
+      sum[1] += hash[1];
+    }
+
+    private String relative(String path) {
+      String stripped = FileServiceUtils.combine(path);
+      if (root.isEmpty()) {
+        return stripped;
+      }
+      return stripped.length() <= root.length() ? "" : stripped.substring(root.length() + 1);
+    }
+
+    private static long[] hash(String kind, String name, String value) {
+      ByteBuffer buffer = ByteBuffer.wrap(newDigest().digest(
+          (kind + '\0' + name + '\0' + value).getBytes(StandardCharsets.UTF_8)));
+      return new long[]{buffer.getLong(), buffer.getLong()};
+    }
+  }
+}
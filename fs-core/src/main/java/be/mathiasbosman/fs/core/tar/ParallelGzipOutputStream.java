@@ -0,0 +1,121 @@
+package be.mathiasbosman.fs.core.tar;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip compresses blocks of content concurrently. Every block becomes a separate gzip member,
+ * decompressors read the concatenated members as a single stream. The compressed blocks are
+ * written in order, at most two blocks per thread are pending.
+ */
+class ParallelGzipOutputStream extends OutputStream {
+
+  private final OutputStream out;
+  private final int level;
+  private final int parallelism;
+  private final ExecutorService executor;
+  private final Deque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+  private byte[] block;
+  private int count;
+
+  ParallelGzipOutputStream(OutputStream out, int level, int blockSize, int parallelism,
+      ExecutorService executor) {
+    this.out = out;
+    this.level = level;
+    this.parallelism = parallelism;
+    this.executor = executor;
+    this.block = new byte[blockSize];
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[]{(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      int chunk = Math.min(len, block.length - count);
+      System.arraycopy(b, off, block, count, chunk);
+      count += chunk;
+      off += chunk;
+      len -= chunk;
+      if (count == block.length) {
+        submit();
+      }
+    }
+  }
+
+  /**
+   * Compresses what is left and writes all pending blocks. Does not close the underlying stream.
+   */
+  void finish() throws IOException {
+    if (count > 0) {
+      submit();
+    }
+    while (!pending.isEmpty()) {
+      out.write(join(pending.poll()));
+    }
+    out.flush();
+  }
+
+  /**
+   * Releases the blocks that are still pending after a failure.
+   */
+  void abandon() {
+    pending.forEach(future -> future.cancel(false));
+    pending.clear();
+  }
+
+  private void submit() throws IOException {
+    byte[] content = block;
+    int length = count;
+    pending.add(CompletableFuture.supplyAsync(() -> compress(content, length), executor));
+    block = new byte[block.length];
+    count = 0;
+    while (pending.size() >= parallelism * 2) {
+      out.write(join(pending.poll()));
+    }
+  }
+
+  private byte[] compress(byte[] content, int length) {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2);
+    try (GZIPOutputStream gzip = new LeveledGzipOutputStream(compressed, level)) {
+      gzip.write(content, 0, length);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return compressed.toByteArray();
+  }
+
+  private static byte[] join(CompletableFuture<byte[]> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new FileServiceException(e.getCause());
+    }
+  }
+
+  /**
+   * A {@link GZIPOutputStream} with a compression level.
+   */
+  static class LeveledGzipOutputStream extends GZIPOutputStream {
+
+    LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+      super(out, 64 * 1024);
+      def.setLevel(level);
+    }
+  }
+}
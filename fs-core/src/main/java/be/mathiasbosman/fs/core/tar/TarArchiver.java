@@ -0,0 +1,332 @@
+package be.mathiasbosman.fs.core.tar;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.service.FileNodeVisitor;
+import be.mathiasbosman.fs.core.service.FileService;
+import be.mathiasbosman.fs.core.tar.ParallelGzipOutputStream.LeveledGzipOutputStream;
+import be.mathiasbosman.fs.core.util.BufferPool;
+import be.mathiasbosman.fs.core.util.FileServiceUtils;
+import be.mathiasbosman.fs.core.util.Spool;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Writes a directory of a {@link FileService} as a tar archive according to {@link TarOptions}.
+ *
+ * <p>With a parallelism of 1 the content is streamed on the calling thread, using the sizes the
+ * file service reports for the files. Otherwise a window of upcoming entries is read ahead on worker
+ * threads and gzip blocks are compressed concurrently, while the calling thread writes the
+ * entries in order. Entries are archived while the directory is walked and the archive is written
+ * as it goes, so a reader can start extracting before the archive is complete.
+ */
+public class TarArchiver {
+
+  private final FileService fileService;
+  private final TarOptions options;
+
+  public TarArchiver(FileService fileService, TarOptions options) {
+    if (options.getLevel() < Deflater.DEFAULT_COMPRESSION
+        || options.getLevel() > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("Invalid compression level " + options.getLevel());
+    }
+    if (options.getParallelism() < 1) {
+      throw new IllegalArgumentException("Parallelism should be at least 1");
+    }
+    if (options.getBlockSize() < 1) {
+      throw new IllegalArgumentException("Block size should be at least 1");
+    }
+    this.fileService = fileService;
+    this.options = options;
+  }
+
+  /**
+   * An entry to write.
+   *
+   * @param node The node
+   * @param name Name of the entry, ending with a slash for directories
+   */
+  private record Item(FileSystemNode node, String name) {
+
+    boolean isDirectory() {
+      return node.isDirectory();
+    }
+
+    long time() {
+      return node.getLastModified() != null ? node.getLastModified().getTime()
+          : System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * An entry of which the content has been read ahead.
+   *
+   * @param item The entry
+   * @param data The content, null for directories
+   */
+  private record Prefetched(Item item, Spool data) {
+
+    void discard() {
+      if (data != null) {
+        data.discard();
+      }
+    }
+  }
+
+  /**
+   * Write all nodes under a path as a tar archive. The output stream is flushed but not closed.
+   *
+   * @param path         The path to archive
+   * @param outputStream The stream to write the archive to
+   * @param prefix       Optional root folder inside the archive
+   */
+  public void tar(String path, OutputStream outputStream, String prefix) {
+    FileSystemNode root = fileService.getFileNode(path);
+    ExecutorService executor = options.getParallelism() > 1
+        ? Executors.newFixedThreadPool(options.getParallelism(), runnable -> {
+          Thread thread = new Thread(runnable, "fs-tar");
+          thread.setDaemon(true);
+          return thread;
+        }) : null;
+    ParallelGzipOutputStream parallelGzip = null;
+    try {
+      OutputStream out = outputStream;
+      if (options.isGzip() && executor != null) {
+        parallelGzip = new ParallelGzipOutputStream(outputStream, options.getLevel(),
+            options.getBlockSize(), options.getParallelism(), executor);
+        out = parallelGzip;
+      } else if (options.isGzip()) {
+        out = new LeveledGzipOutputStream(outputStream, options.getLevel());
+      }
+      TarWriter writer = new TarWriter(out);
+      try (Entries entries = executor == null ? new SerialEntries(writer)
+          : new ParallelEntries(writer, executor)) {
+        walk(root, path, prefix, entries);
+        entries.finish();
+      }
+      writer.finish();
+      if (parallelGzip != null) {
+        parallelGzip.finish();
+      } else if (out instanceof LeveledGzipOutputStream gzip) {
+        gzip.finish();
+        gzip.flush();
+      }
+    } catch (IOException e) {
+      throw new FileServiceException(e);
+    } catch (UncheckedIOException e) {
+      throw new FileServiceException(e.getCause());
+    } finally {
+      if (parallelGzip != null) {
+        parallelGzip.abandon();
+      }
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * Walk all nodes under a path, handing each to the archive as soon as it is found.
+   */
+  private void walk(FileSystemNode root, String path, String prefix, Entries entries) {
+    fileService.walk(root, new FileNodeVisitor() {
+      @Override
+      public void on(FileSystemNode node) {
+        add(node, true);
+      }
+
+      @Override
+      public void pre(FileSystemNode node) {
+        add(node, false);
+      }
+
+      @Override
+      public void post(FileSystemNode node) {
+        // no op
+      }
+
+      private void add(FileSystemNode node, boolean file) {
+        String inTarPath = FileServiceUtils.combine(prefix,
+            StringUtils.substringAfter(node.getPath(), path));
+        if (StringUtils.isEmpty(inTarPath)) {
+          return;
+        }
+        try {
+          entries.add(new Item(node,
+              file ? inTarPath : FileServiceUtils.appendSeparator(inTarPath)));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Writes the entries of the archive in the order they are added.
+   */
+  private interface Entries extends Closeable {
+
+    void add(Item item) throws IOException;
+
+    /**
+     * Write the entries that were added but not written yet.
+     */
+    void finish() throws IOException;
+
+    /**
+     * Release the resources, without writing the pending entries.
+     */
+    @Override
+    void close();
+  }
+
+  /**
+   * Streams the content of every entry on the calling thread.
+   */
+  private final class SerialEntries implements Entries {
+
+    private final TarWriter writer;
+    private final byte[] buffer = BufferPool.shared().acquireHeap();
+
+    private SerialEntries(TarWriter writer) {
+      this.writer = writer;
+    }
+
+    @Override
+    public void add(Item item) throws IOException {
+      long size = item.isDirectory() ? 0 : fileService.getSize(item.node());
+      writer.putEntry(new TarEntry(item.name(), size, item.time()));
+      if (item.isDirectory()) {
+        return;
+      }
+      long copied = 0;
+      try (InputStream in = fileService.open(item.node())) {
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          if (copied + read > size) {
+            throw new FileServiceException("Size of node " + item.name() + " changed");
+          }
+          writer.write(buffer, 0, read);
+          copied += read;
+        }
+      }
+      if (copied != size) {
+        throw new FileServiceException("Size of node " + item.name() + " changed");
+      }
+      writer.closeEntry(size);
+    }
+
+    @Override
+    public void finish() {
+      // every entry is written when it is added
+    }
+
+    @Override
+    public void close() {
+      BufferPool.shared().release(buffer);
+    }
+  }
+
+  /**
+   * Reads a window of upcoming entries ahead on worker threads and writes the oldest one when the
+   * window is full.
+   */
+  private final class ParallelEntries implements Entries {
+
+    private final TarWriter writer;
+    private final ExecutorService executor;
+    private final Deque<CompletableFuture<Prefetched>> window = new ArrayDeque<>();
+
+    private ParallelEntries(TarWriter writer, ExecutorService executor) {
+      this.writer = writer;
+      this.executor = executor;
+    }
+
+    @Override
+    public void add(Item item) throws IOException {
+      window.add(CompletableFuture.supplyAsync(() -> prefetch(item), executor));
+      if (window.size() >= options.getParallelism() * 2) {
+        writeNext();
+      }
+    }
+
+    @Override
+    public void finish() throws IOException {
+      while (!window.isEmpty()) {
+        writeNext();
+      }
+    }
+
+    private void writeNext() throws IOException {
+      Prefetched prefetched = join(window.poll());
+      try {
+        write(prefetched, writer);
+      } finally {
+        prefetched.discard();
+      }
+    }
+
+    @Override
+    public void close() {
+      // release content that was read in vain
+      window.forEach(future -> future.thenAccept(Prefetched::discard));
+      window.clear();
+    }
+  }
+
+  private Prefetched prefetch(Item item) {
+    if (item.isDirectory()) {
+      return new Prefetched(item, null);
+    }
+    Spool spool = new Spool(options.getSpoolThreshold());
+    try (InputStream in = fileService.open(item.node()); spool) {
+      BufferPool.shared().copy(in, spool);
+      return new Prefetched(item, spool);
+    } catch (IOException | RuntimeException e) {
+      spool.discard();
+      throw new FileServiceException("Problem while archiving node " + item.name(), e);
+    }
+  }
+
+  private static void write(Prefetched prefetched, TarWriter writer) throws IOException {
+    Item item = prefetched.item();
+    long size = prefetched.data() != null ? prefetched.data().size() : 0;
+    writer.putEntry(new TarEntry(item.name(), size, item.time()));
+    if (prefetched.data() != null) {
+      prefetched.data().writeTo(new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          writer.write(b, off, len);
+        }
+      });
+      writer.closeEntry(size);
+    }
+  }
+
+  private static Prefetched join(CompletableFuture<Prefetched> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new FileServiceException(e.getCause());
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package be.mathiasbosman.fs.core.tar;
+
+/**
+ * An entry of a tar archive.
+ *
+ * @param name Name of the entry, ending with a slash for directories
+ * @param size Size of the content
+ * @param time Modification time in milliseconds since the epoch
+ */
+public record TarEntry(String name, long size, long time) {
+
+  public boolean isDirectory() {
+    return name.endsWith("/");
+  }
+}
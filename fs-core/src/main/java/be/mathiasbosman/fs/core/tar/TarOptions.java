@@ -0,0 +1,43 @@
+package be.mathiasbosman.fs.core.tar;
+
+import java.util.zip.Deflater;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Options for writing a directory as a tar archive. The defaults write an uncompressed archive on
+ * the calling thread.
+ */
+@Getter
+@Builder
+public class TarOptions {
+
+  public static final TarOptions DEFAULT = TarOptions.builder().build();
+
+  /**
+   * Compress the archive with gzip.
+   */
+  private final boolean gzip;
+  /**
+   * Gzip level from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}.
+   */
+  @Builder.Default
+  private final int level = Deflater.DEFAULT_COMPRESSION;
+  /**
+   * Amount of threads used. Above 1 the content of upcoming entries is read ahead on worker threads
+   * and gzip blocks are compressed concurrently.
+   */
+  @Builder.Default
+  private final int parallelism = 1;
+  /**
+   * Size of the blocks that are compressed concurrently. Every block is written as a separate gzip
+   * member.
+   */
+  @Builder.Default
+  private final int blockSize = 1024 * 1024;
+  /**
+   * Size above which content that is read ahead is kept in a temporary file instead of in memory.
+   */
+  @Builder.Default
+  private final int spoolThreshold = 8 * 1024 * 1024;
+}
@@ -0,0 +1,258 @@
+package be.mathiasbosman.fs.core.tar;
+
+import static be.mathiasbosman.fs.core.tar.TarWriter.BLOCK_SIZE;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Reads a tar archive entry by entry, as {@link java.util.zip.ZipInputStream} does for zip files.
+ * Gzip compressed archives are detected and decompressed. Ustar, pax and GNU long names are
+ * supported, entries other than files and directories (links, devices, ...) are skipped.
+ */
+public class TarReader implements Closeable {
+
+  private static final int GZIP_MAGIC = 0x8b1f;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final InputStream in;
+  private final byte[] header = new byte[BLOCK_SIZE];
+  private EntryInputStream current;
+
+  public TarReader(InputStream input) throws IOException {
+    BufferedInputStream buffered = new BufferedInputStream(input, BUFFER_SIZE);
+    buffered.mark(2);
+    int magic = buffered.read() | buffered.read() << 8;
+    buffered.reset();
+    this.in = magic == GZIP_MAGIC ? new GZIPInputStream(buffered, BUFFER_SIZE) : buffered;
+  }
+
+  /**
+   * Moves to the next entry, skipping what was left of the current one.
+   *
+   * @return the next entry or null at the end of the archive
+   */
+  public TarEntry getNextEntry() throws IOException {
+    closeEntry();
+    Map<String, String> extended = new HashMap<>();
+    while (true) {
+      if (!readHeader()) {
+        return null;
+      }
+      byte type = header[156];
+      long size = parseNumber(124, 12);
+      switch (type) {
+        case 'x' -> extended.putAll(parsePaxRecords(readContent(size)));
+        case 'L' -> extended.put("path", trim(readContent(size)));
+        case '0', 0, '5' -> {
+          String name = extended.getOrDefault("path", parseName());
+          if (type == '5' && !name.endsWith("/")) {
+            name += "/";
+          }
+          if (extended.containsKey("size")) {
+            size = Long.parseLong(extended.get("size"));
+          }
+          long time = extended.containsKey("mtime")
+              ? (long) (Double.parseDouble(extended.get("mtime")) * 1000)
+              : parseNumber(136, 12) * 1000;
+          TarEntry entry = new TarEntry(name, type == '5' ? 0 : size, time);
+          current = new EntryInputStream(entry.size());
+          return entry;
+        }
+        default -> {
+          // global headers, links, devices, ...
+          skip(padded(size));
+          extended.clear();
+        }
+      }
+    }
+  }
+
+  /**
+   * The content of the current entry. Closing the stream does not close the archive.
+   *
+   * @return the content
+   */
+  public InputStream getContent() {
+    if (current == null) {
+      throw new IllegalStateException("No current entry");
+    }
+    return current;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  private void closeEntry() throws IOException {
+    if (current != null) {
+      skip(current.remaining + padding(current.size));
+      current = null;
+    }
+  }
+
+  private boolean readHeader() throws IOException {
+    int read = IOUtils.read(in, header);
+    if (read == 0) {
+      // some writers omit the end of archive marker
+      return false;
+    }
+    if (read < BLOCK_SIZE) {
+      throw new IllegalArgumentException("Tar file corrupt: truncated header.");
+    }
+    boolean empty = true;
+    for (byte b : header) {
+      if (b != 0) {
+        empty = false;
+        break;
+      }
+    }
+    if (empty) {
+      return false;
+    }
+    long checksum = 0;
+    for (int i = 0; i < BLOCK_SIZE; i++) {
+      checksum += i >= 148 && i < 156 ? ' ' : header[i] & 0xff;
+    }
+    if (checksum != parseNumber(148, 8)) {
+      throw new IllegalArgumentException("Tar file corrupt: invalid header checksum.");
+    }
+    return true;
+  }
+
+  private String parseName() {
+    String name = parseString(0, 100);
+    String prefix = new String(header, 257, 5, StandardCharsets.US_ASCII).equals("ustar")
+        ? parseString(345, 155) : "";
+    return prefix.isEmpty() ? name : prefix + "/" + name;
+  }
+
+  private String parseString(int offset, int length) {
+    int end = offset;
+    while (end < offset + length && header[end] != 0) {
+      end++;
+    }
+    return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+  }
+
+  private long parseNumber(int offset, int length) {
+    if ((header[offset] & 0x80) != 0) {
+      // GNU base-256 encoding of large numbers
+      long value = header[offset] & 0x7f;
+      for (int i = offset + 1; i < offset + length; i++) {
+        value = value << 8 | header[i] & 0xff;
+      }
+      return value;
+    }
+    long value = 0;
+    for (int i = offset; i < offset + length; i++) {
+      byte b = header[i];
+      if (b >= '0' && b <= '7') {
+        value = value * 8 + b - '0';
+      } else if (b == 0 || (b == ' ' && value > 0)) {
+        break;
+      }
+    }
+    return value;
+  }
+
+  private byte[] readContent(long size) throws IOException {
+    if (size > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Tar file corrupt: extended header too large.");
+    }
+    byte[] content = new byte[(int) size];
+    IOUtils.readFully(in, content);
+    skip(padding(size));
+    return content;
+  }
+
+  private static Map<String, String> parsePaxRecords(byte[] content) {
+    Map<String, String> records = new HashMap<>();
+    int position = 0;
+    while (position < content.length) {
+      int space = position;
+      while (space < content.length && content[space] != ' ') {
+        space++;
+      }
+      int length = Integer.parseInt(
+          new String(content, position, space - position, StandardCharsets.US_ASCII));
+      String record = new String(content, space + 1, length - (space - position) - 2,
+          StandardCharsets.UTF_8);
+      int equals = record.indexOf('=');
+      records.put(record.substring(0, equals), record.substring(equals + 1));
+      position += length;
+    }
+    return records;
+  }
+
+  private static String trim(byte[] content) {
+    int end = content.length;
+    while (end > 0 && content[end - 1] == 0) {
+      end--;
+    }
+    return new String(content, 0, end, StandardCharsets.UTF_8);
+  }
+
+  private void skip(long bytes) throws IOException {
+    IOUtils.skipFully(in, bytes);
+  }
+
+  private static long padding(long size) {
+    return padded(size) - size;
+  }
+
+  private static long padded(long size) {
+    return (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+  }
+
+  /**
+   * The content of an entry, ending at the size of the entry.
+   */
+  private class EntryInputStream extends InputStream {
+
+    private final long size;
+    private long remaining;
+
+    private EntryInputStream(long size) {
+      this.size = size;
+      this.remaining = size;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining == 0) {
+        return -1;
+      }
+      int read = in.read(b, off, (int) Math.min(len, remaining));
+      if (read == -1) {
+        throw new IllegalArgumentException("Tar file corrupt: truncated entry.");
+      }
+      remaining -= read;
+      return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int) Math.min(in.available(), remaining);
+    }
+
+    @Override
+    public void close() {
+      // the archive stays open
+    }
+  }
+}
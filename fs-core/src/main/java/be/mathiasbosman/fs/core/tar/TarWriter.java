@@ -0,0 +1,172 @@
+package be.mathiasbosman.fs.core.tar;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Writes a POSIX (pax) tar archive. Names and sizes that do not fit a ustar header are written in
+ * an extended header, so any name length and entry size is supported.
+ */
+class TarWriter {
+
+  static final int BLOCK_SIZE = 512;
+  static final long MAX_OCTAL_SIZE = 077777777777L;
+  private static final int NAME_LENGTH = 100;
+  private static final int PREFIX_LENGTH = 155;
+  private static final byte[] PADDING = new byte[BLOCK_SIZE];
+
+  private final OutputStream out;
+  private long remaining;
+
+  TarWriter(OutputStream out) {
+    this.out = out;
+  }
+
+  /**
+   * Writes the header of an entry. For files exactly {@link TarEntry#size()} bytes of content
+   * should be written next.
+   *
+   * @param entry The entry
+   */
+  void putEntry(TarEntry entry) throws IOException {
+    if (remaining != 0) {
+      throw new IllegalStateException("Previous entry is missing " + remaining + " bytes");
+    }
+    Map<String, String> extended = new LinkedHashMap<>();
+    String[] split = split(entry.name());
+    if (split == null) {
+      extended.put("path", entry.name());
+      split = new String[]{"", truncate(entry.name())};
+    }
+    if (entry.size() > MAX_OCTAL_SIZE) {
+      extended.put("size", Long.toString(entry.size()));
+    }
+    if (!extended.isEmpty()) {
+      byte[] records = paxRecords(extended);
+      out.write(header("", truncate("PaxHeaders/" + split[1]), records.length, entry.time(),
+          (byte) 'x'));
+      out.write(records);
+      pad(records.length);
+    }
+    out.write(header(split[0], split[1], entry.isDirectory() ? 0 : entry.size(), entry.time(),
+        entry.isDirectory() ? (byte) '5' : (byte) '0'));
+    remaining = entry.isDirectory() ? 0 : entry.size();
+  }
+
+  /**
+   * Writes content of the current entry.
+   */
+  void write(byte[] b, int off, int len) throws IOException {
+    if (len > remaining) {
+      throw new IllegalStateException("Content exceeds the size of the entry");
+    }
+    out.write(b, off, len);
+    remaining -= len;
+  }
+
+  /**
+   * Pads the content of the current entry to a full block.
+   *
+   * @param size Size of the content
+   */
+  void closeEntry(long size) throws IOException {
+    if (remaining != 0) {
+      throw new IllegalStateException("Entry is missing " + remaining + " bytes");
+    }
+    pad(size);
+  }
+
+  /**
+   * Writes the end of archive marker.
+   */
+  void finish() throws IOException {
+    out.write(PADDING);
+    out.write(PADDING);
+    out.flush();
+  }
+
+  private void pad(long size) throws IOException {
+    int rest = (int) (size % BLOCK_SIZE);
+    if (rest != 0) {
+      out.write(PADDING, 0, BLOCK_SIZE - rest);
+    }
+  }
+
+  /**
+   * Splits a name in a ustar prefix and name.
+   *
+   * @return the prefix and name, or null if the name does not fit a ustar header
+   */
+  private static String[] split(String name) {
+    if (!StandardCharsets.US_ASCII.newEncoder().canEncode(name)) {
+      return null;
+    }
+    if (name.length() <= NAME_LENGTH) {
+      return new String[]{"", name};
+    }
+    // the separator between prefix and name is not stored
+    int index = name.indexOf('/', name.length() - NAME_LENGTH - 1);
+    if (index <= 0 || index > PREFIX_LENGTH || index == name.length() - 1) {
+      return null;
+    }
+    return new String[]{name.substring(0, index), name.substring(index + 1)};
+  }
+
+  private static String truncate(String name) {
+    String ascii = name.replaceAll("[^\\x20-\\x7e]", "_");
+    return StringUtils.right(ascii, NAME_LENGTH);
+  }
+
+  private static byte[] paxRecords(Map<String, String> records) {
+    StringBuilder builder = new StringBuilder();
+    records.forEach((key, value) -> {
+      // a record starts with its own length in bytes, including the length itself
+      int length = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+      int total = length + Integer.toString(length).length();
+      if (Integer.toString(total).length() != Integer.toString(length).length()) {
+        total++;
+      }
+      builder.append(total).append(' ').append(key).append('=').append(value).append('\n');
+    });
+    return builder.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] header(String prefix, String name, long size, long time, byte type) {
+    byte[] header = new byte[BLOCK_SIZE];
+    put(header, 0, NAME_LENGTH, name);
+    octal(header, 100, 8, type == '5' ? 0755 : 0644);
+    octal(header, 108, 8, 0);
+    octal(header, 116, 8, 0);
+    octal(header, 124, 12, Math.min(size, MAX_OCTAL_SIZE));
+    octal(header, 136, 12, Math.max(0, time / 1000));
+    header[156] = type;
+    put(header, 257, 6, "ustar");
+    put(header, 263, 2, "00");
+    put(header, 345, PREFIX_LENGTH, prefix);
+    // the checksum is calculated with the checksum field filled with spaces
+    for (int i = 148; i < 156; i++) {
+      header[i] = ' ';
+    }
+    long checksum = 0;
+    for (byte b : header) {
+      checksum += b & 0xff;
+    }
+    octal(header, 148, 7, checksum);
+    return header;
+  }
+
+  private static void put(byte[] header, int offset, int length, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+    System.arraycopy(bytes, 0, header, offset, Math.min(bytes.length, length));
+  }
+
+  private static void octal(byte[] header, int offset, int length, long value) {
+    String octal = StringUtils.leftPad(Long.toOctalString(value), length - 1, '0');
+    put(header, offset, length - 1, octal);
+    header[offset + length - 1] = 0;
+  }
+}
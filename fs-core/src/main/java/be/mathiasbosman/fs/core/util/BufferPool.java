@@ -0,0 +1,335 @@
+package be.mathiasbosman.fs.core.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of equally sized copy buffers, both on the heap and direct. Every thread keeps one
+ * buffer of each kind for itself, other released buffers are kept on a shared lock-free stack up to
+ * a maximum, buffers beyond that are left to the garbage collector.
+ *
+ * <p>Besides handing out buffers the pool copies content with them, going through
+ * {@link FileChannel} transfers when both ends allow it.
+ */
+public final class BufferPool {
+
+  /**
+   * Size of the buffers of the shared pool.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Amount of buffers of each kind the shared pool keeps besides the thread-local ones.
+   */
+  public static final int DEFAULT_MAX_POOLED = 64;
+
+  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+  private static final BufferPool SHARED = new BufferPool(DEFAULT_BUFFER_SIZE,
+      DEFAULT_MAX_POOLED);
+
+  private final int bufferSize;
+  private final ThreadLocal<byte[]> localHeap = new ThreadLocal<>();
+  private final ThreadLocal<ByteBuffer> localDirect = new ThreadLocal<>();
+  private final Stack<byte[]> heap;
+  private final Stack<ByteBuffer> direct;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Statistics of a buffer pool.
+   *
+   * @param hits   Amount of buffers handed out from the pool
+   * @param misses Amount of buffers that had to be allocated
+   * @param pooled Amount of buffers currently on the shared stacks
+   */
+  public record Statistics(long hits, long misses, int pooled) {
+
+  }
+
+  /**
+   * Creates a buffer pool.
+   *
+   * @param bufferSize Size of every buffer
+   * @param maxPooled  Amount of buffers of each kind kept on the shared stacks
+   */
+  public BufferPool(int bufferSize, int maxPooled) {
+    if (bufferSize <= 0 || maxPooled < 0) {
+      throw new IllegalArgumentException("Invalid buffer pool size");
+    }
+    this.bufferSize = bufferSize;
+    this.heap = new Stack<>(maxPooled);
+    this.direct = new Stack<>(maxPooled);
+  }
+
+  /**
+   * The pool used by the file services.
+   *
+   * @return the shared pool
+   */
+  public static BufferPool shared() {
+    return SHARED;
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  public Statistics getStatistics() {
+    return new Statistics(hits.sum(), misses.sum(), heap.size() + direct.size());
+  }
+
+  /**
+   * Take a heap buffer from the pool. It should be handed back with {@link #release(byte[])}.
+   *
+   * @return a buffer of {@link #getBufferSize()} bytes
+   */
+  public byte[] acquireHeap() {
+    byte[] buffer = localHeap.get();
+    if (buffer != null) {
+      localHeap.remove();
+    } else {
+      buffer = heap.pop();
+    }
+    if (buffer == null) {
+      misses.increment();
+      return new byte[bufferSize];
+    }
+    hits.increment();
+    return buffer;
+  }
+
+  /**
+   * Hand a heap buffer back to the pool. Buffers of another size are ignored.
+   *
+   * @param buffer The buffer, it should not be used anymore by the caller
+   */
+  public void release(byte[] buffer) {
+    if (buffer == null || buffer.length != bufferSize) {
+      return;
+    }
+    if (localHeap.get() == null) {
+      localHeap.set(buffer);
+    } else {
+      heap.push(buffer);
+    }
+  }
+
+  /**
+   * Take a direct buffer from the pool. It should be handed back with
+   * {@link #release(ByteBuffer)}.
+   *
+   * @return a cleared direct buffer with a capacity of {@link #getBufferSize()} bytes
+   */
+  public ByteBuffer acquireDirect() {
+    ByteBuffer buffer = localDirect.get();
+    if (buffer != null) {
+      localDirect.remove();
+    } else {
+      buffer = direct.pop();
+    }
+    if (buffer == null) {
+      misses.increment();
+      return ByteBuffer.allocateDirect(bufferSize);
+    }
+    hits.increment();
+    return buffer.clear();
+  }
+
+  /**
+   * Hand a direct buffer back to the pool. Heap buffers and buffers of another size are ignored.
+   *
+   * @param buffer The buffer, it should not be used anymore by the caller
+   */
+  public void release(ByteBuffer buffer) {
+    if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferSize) {
+      return;
+    }
+    if (localDirect.get() == null) {
+      localDirect.set(buffer);
+    } else {
+      direct.push(buffer);
+    }
+  }
+
+  /**
+   * Copy a stream. Neither stream is closed.
+   *
+   * @param in  The stream to read
+   * @param out The stream to write to
+   * @return the amount of bytes copied
+   * @throws IOException if reading or writing fails
+   */
+  public long copy(InputStream in, OutputStream out) throws IOException {
+    byte[] buffer = acquireHeap();
+    try {
+      long count = 0;
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+        count += read;
+      }
+      return count;
+    } finally {
+      release(buffer);
+    }
+  }
+
+  /**
+   * Copy a stream to a channel. The content of a {@link FileInputStream} is transferred to a
+   * {@link FileChannel} without passing through the heap. Neither end is closed.
+   *
+   * @param in  The stream to read
+   * @param out The channel to write to
+   * @return the amount of bytes copied
+   * @throws IOException if reading or writing fails
+   */
+  public long copy(InputStream in, WritableByteChannel out) throws IOException {
+    if (in instanceof FileInputStream fileInputStream && out instanceof FileChannel) {
+      return copy(fileInputStream.getChannel(), out);
+    }
+    byte[] buffer = acquireHeap();
+    try {
+      ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+      long count = 0;
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        wrapped.clear().limit(read);
+        while (wrapped.hasRemaining()) {
+          out.write(wrapped);
+        }
+        count += read;
+      }
+      return count;
+    } finally {
+      release(buffer);
+    }
+  }
+
+  /**
+   * Copy a channel to another from its current position. File channels are transferred directly,
+   * other channels through a direct buffer. Neither channel is closed.
+   *
+   * @param in  The channel to read
+   * @param out The channel to write to
+   * @return the amount of bytes copied
+   * @throws IOException if reading or writing fails
+   */
+  public long copy(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+    if (in instanceof FileChannel fileChannel) {
+      long position = fileChannel.position();
+      long count = 0;
+      long transferred;
+      while ((transferred = fileChannel.transferTo(position + count, Long.MAX_VALUE, out)) > 0) {
+        count += transferred;
+      }
+      fileChannel.position(position + count);
+      return count;
+    }
+    ByteBuffer buffer = acquireDirect();
+    try {
+      long count = 0;
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          out.write(buffer);
+        }
+        buffer.clear();
+        count += read;
+      }
+      return count;
+    } finally {
+      release(buffer);
+    }
+  }
+
+  /**
+   * Read a stream completely. The stream is not closed.
+   *
+   * @param in       The stream to read
+   * @param sizeHint The expected amount of bytes, or a negative value if unknown. When it is right
+   *                 the content is read into an array of that size without copying.
+   * @return the content of the stream
+   * @throws IOException if reading fails
+   */
+  public byte[] toByteArray(InputStream in, long sizeHint) throws IOException {
+    if (sizeHint == 0 || sizeHint > MAX_ARRAY_SIZE) {
+      sizeHint = -1;
+    }
+    byte[] content = new byte[0];
+    if (sizeHint > 0) {
+      content = new byte[(int) sizeHint];
+      int read = in.readNBytes(content, 0, content.length);
+      if (read < content.length) {
+        return Arrays.copyOf(content, read);
+      }
+      int next = in.read();
+      if (next == -1) {
+        return content;
+      }
+      content = Arrays.copyOf(content, content.length + 1);
+      content[content.length - 1] = (byte) next;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream(
+        (int) Math.min(MAX_ARRAY_SIZE, Math.max(2L * content.length, bufferSize)));
+    out.write(content);
+    copy(in, out);
+    return out.toByteArray();
+  }
+
+  /**
+   * A bounded Treiber stack.
+   */
+  private static final class Stack<T> {
+
+    private final AtomicReference<Node<T>> head = new AtomicReference<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+
+    private record Node<T>(T value, Node<T> next) {
+
+    }
+
+    private Stack(int capacity) {
+      this.capacity = capacity;
+    }
+
+    private void push(T value) {
+      if (size.incrementAndGet() > capacity) {
+        size.decrementAndGet();
+        return;
+      }
+      Node<T> current;
+      do {
+        current = head.get();
+      } while (!head.compareAndSet(current, new Node<>(value, current)));
+    }
+
+    private T pop() {
+      Node<T> current;
+      do {
+        current = head.get();
+        if (current == null) {
+          return null;
+        }
+      } while (!head.compareAndSet(current, current.next()));
+      size.decrementAndGet();
+      return current.value();
+    }
+
+    private int size() {
+      return Math.max(0, size.get());
+    }
+  }
+}
@@ -1,19 +1,17 @@
 package be.mathiasbosman.fs.core.util;
 
 import be.mathiasbosman.fs.core.domain.FileServiceException;
+import be.mathiasbosman.fs.core.domain.FilePath;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import org.apache.commons.lang3.StringUtils;
@@ -105,11 +103,20 @@ public class FileServiceUtils {
   }
 
   public static String combine(String... parts) {
-    return Arrays.stream(parts).map(input -> {
-          String stripped = strip(input);
-          return StringUtils.isEmpty(stripped) ? null : stripped;
-        }).filter(Objects::nonNull)
-        .collect(Collectors.joining(File.separator));
+    if (parts.length == 1) {
+      return StringUtils.defaultString(strip(parts[0]));
+    }
+    StringBuilder builder = new StringBuilder();
+    for (String part : parts) {
+      String stripped = strip(part);
+      if (StringUtils.isNotEmpty(stripped)) {
+        if (builder.length() > 0) {
+          builder.append(File.separatorChar);
+        }
+        builder.append(stripped);
+      }
+    }
+    return builder.toString();
   }
 
   /**
@@ -119,7 +126,7 @@ public class FileServiceUtils {
    * @return Path of the parent
    */
   public static String getParentPath(String... path) {
-    return FileServiceUtils.split(FileServiceUtils.combine(path)).getLeft();
+    return FilePath.of(path).getParentPath();
   }
 
   public static String appendSeparator(String path) {
@@ -0,0 +1,78 @@
+package be.mathiasbosman.fs.core.util;
+
+import be.mathiasbosman.fs.core.domain.FilePath;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.function.Consumer;
+
+/**
+ * A bounded, concurrent set of directories known to exist, so file services create every
+ * directory they write to once instead of on every save. When the set is full the least recently
+ * used directories are forgotten, which only means they are created again.
+ *
+ * <p>The set only knows about changes made through the file service that owns it. Directories
+ * deleted by others are still considered to exist until they are invalidated.
+ */
+public class KnownDirectories {
+
+  /**
+   * Default amount of directories that are remembered.
+   */
+  public static final int DEFAULT_CAPACITY = 10_000;
+
+  private final Cache<FilePath, Boolean> directories;
+
+  public KnownDirectories() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates the set.
+   *
+   * @param capacity Maximum amount of directories remembered, 0 disables remembering
+   */
+  public KnownDirectories(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Capacity should not be negative");
+    }
+    this.directories = CacheBuilder.newBuilder()
+        .maximumSize(capacity)
+        .concurrencyLevel(Runtime.getRuntime().availableProcessors())
+        .build();
+  }
+
+  public boolean contains(FilePath directory) {
+    return directories.getIfPresent(directory) != null;
+  }
+
+  /**
+   * Creates a directory unless it is known to exist already.
+   *
+   * @param directory The directory
+   * @param creator   Creates the directory, its failures are not remembered
+   */
+  public void ensure(FilePath directory, Consumer<FilePath> creator) {
+    if (contains(directory)) {
+      return;
+    }
+    creator.accept(directory);
+    directories.put(directory, Boolean.TRUE);
+  }
+
+  /**
+   * Forgets a path and every directory below it, after it was deleted or moved.
+   *
+   * @param path The path
+   */
+  public void invalidate(FilePath path) {
+    directories.asMap().keySet().removeIf(directory -> directory.startsWith(path));
+  }
+
+  public void invalidateAll() {
+    directories.invalidateAll();
+  }
+
+  public long size() {
+    return directories.size();
+  }
+}
@@ -0,0 +1,139 @@
+package be.mathiasbosman.fs.core.util;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs blocking tasks with a bounded amount of threads. The threads only live for the duration of
+ * a single call.
+ */
+public class ParallelTasks {
+
+  private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+  private ParallelTasks() {
+  }
+
+  /**
+   * Runs all tasks, at most {@code parallelism} at the same time, and returns their results in
+   * the order of the tasks. Tasks are expected to handle their own failures, the first failure
+   * that escapes a task is rethrown after all tasks have finished.
+   *
+   * @param tasks       The tasks to run
+   * @param parallelism Maximum amount of tasks running at the same time
+   * @param <T>         Type of the results
+   * @return the results
+   */
+  public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks, int parallelism) {
+    checkParallelism(parallelism);
+    int threads = Math.min(parallelism, tasks.size());
+    if (threads <= 1) {
+      List<T> results = new ArrayList<>(tasks.size());
+      for (Callable<T> task : tasks) {
+        results.add(call(task));
+      }
+      return results;
+    }
+    ExecutorService executor = newExecutor(threads);
+    try {
+      return getAll(executor.invokeAll(tasks));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new FileServiceException(e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Applies the function to all items, at most {@code parallelism} at the same time, and returns
+   * the results in the order of the items. Items are only taken from the iterator when a slot
+   * frees up, so a lazily produced source is never read far ahead of the running tasks.
+   *
+   * @param items       The items
+   * @param function    The function to apply, expected to handle its own failures
+   * @param parallelism Maximum amount of items processed at the same time
+   * @param <T>         Type of the items
+   * @param <R>         Type of the results
+   * @return the results
+   */
+  public static <T, R> List<R> map(Iterator<T> items, Function<T, R> function,
+      int parallelism) {
+    checkParallelism(parallelism);
+    if (parallelism == 1) {
+      List<R> results = new ArrayList<>();
+      items.forEachRemaining(item -> results.add(function.apply(item)));
+      return results;
+    }
+    ExecutorService executor = newExecutor(parallelism);
+    // allow one queued item per thread so threads do not wait for the producer
+    Semaphore permits = new Semaphore(parallelism * 2);
+    List<Future<R>> futures = new ArrayList<>();
+    try {
+      while (items.hasNext()) {
+        T item = items.next();
+        permits.acquire();
+        futures.add(executor.submit(() -> {
+          try {
+            return function.apply(item);
+          } finally {
+            permits.release();
+          }
+        }));
+      }
+      return getAll(futures);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new FileServiceException(e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void checkParallelism(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism should be at least 1");
+    }
+  }
+
+  private static ExecutorService newExecutor(int threads) {
+    return Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "fs-bulk-" + THREAD_COUNTER.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  private static <T> List<T> getAll(List<Future<T>> futures) throws InterruptedException {
+    List<T> results = new ArrayList<>(futures.size());
+    try {
+      for (Future<T> future : futures) {
+        results.add(future.get());
+      }
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof RuntimeException runtimeException
+          ? runtimeException : new FileServiceException(e.getCause());
+    }
+    return results;
+  }
+
+  private static <T> T call(Callable<T> task) {
+    try {
+      return task.call();
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new FileServiceException(e);
+    }
+  }
+}
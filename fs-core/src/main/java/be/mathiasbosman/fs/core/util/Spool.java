@@ -0,0 +1,76 @@
+package be.mathiasbosman.fs.core.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Buffers content in memory, moving it to a temporary file once it exceeds a threshold. Closing
+ * the spool ends writing, {@link #discard()} releases the content.
+ */
+public class Spool extends OutputStream {
+
+  private final int threshold;
+  private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+  private Path file;
+  private OutputStream fileStream;
+  private long size;
+
+  public Spool(int threshold) {
+    this.threshold = threshold;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[]{(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (fileStream == null && memory.size() + len > threshold) {
+      file = Files.createTempFile("fs-spool", ".tmp");
+      fileStream = Files.newOutputStream(file);
+      memory.writeTo(fileStream);
+      memory = null;
+    }
+    if (fileStream != null) {
+      fileStream.write(b, off, len);
+    } else {
+      memory.write(b, off, len);
+    }
+    size += len;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (fileStream != null) {
+      fileStream.close();
+    }
+  }
+
+  public long size() {
+    return size;
+  }
+
+  public void writeTo(OutputStream out) throws IOException {
+    if (file != null) {
+      Files.copy(file, out);
+    } else {
+      memory.writeTo(out);
+    }
+  }
+
+  public void discard() {
+    memory = null;
+    if (file != null) {
+      try {
+        close();
+        Files.deleteIfExists(file);
+      } catch (IOException e) {
+        file.toFile().deleteOnExit();
+      }
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package be.mathiasbosman.fs.core.watch;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Options of a change feed.
+ */
+@Getter
+@Builder
+public class ChangeFeedOptions {
+
+  /**
+   * Time between two scans of feeds that detect changes by polling.
+   */
+  @Builder.Default
+  private final Duration pollInterval = Duration.ofSeconds(5);
+  /**
+   * Time changes are collected before a batch is delivered.
+   */
+  @Builder.Default
+  private final Duration batchWindow = Duration.ofMillis(100);
+  /**
+   * Maximum amount of events in a batch.
+   */
+  @Builder.Default
+  private final int maxBatchSize = 1000;
+  /**
+   * File to persist the last known state in (optional). Polling feeds that find it on start
+   * report the changes made while they were not running.
+   */
+  private final Path snapshot;
+}
@@ -0,0 +1,137 @@
+package be.mathiasbosman.fs.core.watch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * The known state of the nodes below a watched directory, sorted on path. Polling feeds replace
+ * ranges of it with freshly listed entries and report the differences.
+ */
+public class ChangeSnapshot {
+
+  private static final String SEPARATOR = "|";
+
+  /**
+   * The state of a node.
+   *
+   * @param directory    If the node is a directory
+   * @param size         The size of the node
+   * @param lastModified The modification date in milliseconds since the epoch
+   * @param tag          A content tag such as an ETag (optional)
+   */
+  public record Entry(boolean directory, long size, long lastModified, String tag) {
+
+  }
+
+  private final NavigableMap<String, Entry> entries = new TreeMap<>();
+
+  public int size() {
+    return entries.size();
+  }
+
+  public Entry get(String path) {
+    return entries.get(path);
+  }
+
+  /**
+   * Replace the entries with a path in the given range and report the differences in path order.
+   *
+   * @param fresh         The current entries of the range
+   * @param fromExclusive Lower bound of the range (null for unbounded)
+   * @param toInclusive   Upper bound of the range (null for unbounded)
+   * @param events        Consumer of the differences
+   */
+  public void replace(NavigableMap<String, Entry> fresh, String fromExclusive,
+      String toInclusive, Consumer<FileChangeEvent> events) {
+    NavigableMap<String, Entry> range = range(fromExclusive, toInclusive);
+    NavigableSet<String> paths = new TreeSet<>(fresh.keySet());
+    paths.addAll(range.keySet());
+    for (String path : paths) {
+      Entry previous = range.get(path);
+      Entry current = fresh.get(path);
+      if (current == null) {
+        events.accept(FileChangeEvent.deleted(path, previous.directory()));
+      } else if (previous == null) {
+        events.accept(FileChangeEvent.created(path, current.directory()));
+      } else if (previous.directory() != current.directory()) {
+        events.accept(FileChangeEvent.deleted(path, previous.directory()));
+        events.accept(FileChangeEvent.created(path, current.directory()));
+      } else if (!current.directory() && !previous.equals(current)) {
+        events.accept(FileChangeEvent.modified(path, false));
+      }
+    }
+    range.clear();
+    entries.putAll(fresh);
+  }
+
+  private NavigableMap<String, Entry> range(String fromExclusive, String toInclusive) {
+    if (fromExclusive == null && toInclusive == null) {
+      return entries;
+    }
+    if (fromExclusive == null) {
+      return entries.headMap(toInclusive, true);
+    }
+    if (toInclusive == null) {
+      return entries.tailMap(fromExclusive, false);
+    }
+    return entries.subMap(fromExclusive, false, toInclusive, true);
+  }
+
+  /**
+   * Write the snapshot to a file. The file is replaced atomically where supported.
+   *
+   * @param file The file to write to
+   * @throws IOException when writing fails
+   */
+  public void write(Path file) throws IOException {
+    Properties properties = new Properties();
+    entries.forEach((path, entry) -> properties.setProperty(path, String.join(SEPARATOR,
+        entry.directory() ? "d" : "f", Long.toString(entry.size()),
+        Long.toString(entry.lastModified()), Objects.toString(entry.tag(), ""))));
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    try (OutputStream out = Files.newOutputStream(temporary)) {
+      properties.store(out, null);
+    }
+    try {
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Read a snapshot written by {@link #write(Path)}.
+   *
+   * @param file The file to read
+   * @return the snapshot
+   * @throws IOException when reading fails
+   */
+  public static ChangeSnapshot read(Path file) throws IOException {
+    Properties properties = new Properties();
+    try (InputStream in = Files.newInputStream(file)) {
+      properties.load(in);
+    }
+    ChangeSnapshot snapshot = new ChangeSnapshot();
+    for (Map.Entry<Object, Object> property : properties.entrySet()) {
+      String[] fields = property.getValue().toString().split("\\" + SEPARATOR, 4);
+      snapshot.entries.put(property.getKey().toString(), new Entry("d".equals(fields[0]),
+          Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+          fields[3].isEmpty() ? null : fields[3]));
+    }
+    return snapshot;
+  }
+}
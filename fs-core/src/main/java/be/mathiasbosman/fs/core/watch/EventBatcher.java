@@ -0,0 +1,112 @@
+package be.mathiasbosman.fs.core.watch;
+
+import be.mathiasbosman.fs.core.watch.FileChangeEvent.Kind;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects change events from any thread and delivers them in batches to a listener from a single
+ * daemon thread. A batch is delivered when the batch window since its first event has passed or
+ * when it is full. Events of the same path within a batch are coalesced, e.g. a file that is
+ * created and modified is reported as created, a file that is created and deleted is not
+ * reported at all.
+ */
+public class EventBatcher implements AutoCloseable {
+
+  private final BlockingQueue<FileChangeEvent> queue = new LinkedBlockingQueue<>();
+  private final FileChangeListener listener;
+  private final long windowNanos;
+  private final int maxBatchSize;
+  private final Thread thread;
+  private volatile boolean closed;
+
+  public EventBatcher(FileChangeListener listener, ChangeFeedOptions options, String name) {
+    if (options.getMaxBatchSize() < 1) {
+      throw new IllegalArgumentException("Batch size should be at least 1");
+    }
+    this.listener = listener;
+    this.windowNanos = options.getBatchWindow().toNanos();
+    this.maxBatchSize = options.getMaxBatchSize();
+    this.thread = new Thread(this::run, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public void add(FileChangeEvent event) {
+    if (!closed) {
+      queue.add(event);
+    }
+  }
+
+  /**
+   * Report a failure to the listener, from the calling thread.
+   *
+   * @param e The failure
+   */
+  public void error(RuntimeException e) {
+    if (!closed) {
+      listener.onError(e);
+    }
+  }
+
+  /**
+   * Stop delivering. Events that were not delivered yet are dropped.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    thread.interrupt();
+  }
+
+  private void run() {
+    try {
+      while (!closed) {
+        Map<String, FileChangeEvent> batch = new LinkedHashMap<>();
+        merge(batch, queue.take());
+        long deadline = System.nanoTime() + windowNanos;
+        while (batch.size() < maxBatchSize) {
+          FileChangeEvent event = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+          if (event == null) {
+            break;
+          }
+          merge(batch, event);
+        }
+        deliver(batch);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void deliver(Map<String, FileChangeEvent> batch) {
+    if (batch.isEmpty() || closed) {
+      return;
+    }
+    try {
+      listener.onChanges(new ArrayList<>(batch.values()));
+    } catch (RuntimeException e) {
+      listener.onError(e);
+    }
+  }
+
+  static void merge(Map<String, FileChangeEvent> batch, FileChangeEvent event) {
+    FileChangeEvent previous = batch.get(event.path());
+    if (previous == null) {
+      batch.put(event.path(), event);
+    } else if (previous.kind() == Kind.CREATE && event.kind() == Kind.DELETE) {
+      batch.remove(event.path());
+    } else if (previous.kind() == Kind.CREATE && event.kind() == Kind.MODIFY) {
+      // still a creation from the point of view of the listener
+      return;
+    } else if (previous.kind() == Kind.DELETE && event.kind() == Kind.CREATE
+        && previous.directory() == event.directory()) {
+      batch.put(event.path(), FileChangeEvent.modified(event.path(), event.directory()));
+    } else {
+      batch.put(event.path(), event);
+    }
+  }
+}
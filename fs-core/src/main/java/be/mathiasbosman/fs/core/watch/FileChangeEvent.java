@@ -0,0 +1,32 @@
+package be.mathiasbosman.fs.core.watch;
+
+/**
+ * A change of a file or directory.
+ *
+ * @param kind      The kind of change
+ * @param path      The path of the changed node
+ * @param directory If the node is (or was) a directory
+ */
+public record FileChangeEvent(Kind kind, String path, boolean directory) {
+
+  /**
+   * Kinds of changes.
+   */
+  public enum Kind {
+    CREATE,
+    MODIFY,
+    DELETE
+  }
+
+  public static FileChangeEvent created(String path, boolean directory) {
+    return new FileChangeEvent(Kind.CREATE, path, directory);
+  }
+
+  public static FileChangeEvent modified(String path, boolean directory) {
+    return new FileChangeEvent(Kind.MODIFY, path, directory);
+  }
+
+  public static FileChangeEvent deleted(String path, boolean directory) {
+    return new FileChangeEvent(Kind.DELETE, path, directory);
+  }
+}
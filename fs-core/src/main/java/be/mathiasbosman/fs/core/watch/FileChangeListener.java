@@ -0,0 +1,26 @@
+package be.mathiasbosman.fs.core.watch;
+
+import java.util.List;
+
+/**
+ * Listener of a change feed. Batches are delivered one at a time from a single thread.
+ */
+@FunctionalInterface
+public interface FileChangeListener {
+
+  /**
+   * Called with a batch of changes. A path occurs at most once per batch.
+   *
+   * @param events The changes, in the order they were detected
+   */
+  void onChanges(List<FileChangeEvent> events);
+
+  /**
+   * Called when detecting changes failed. The feed keeps running and retries.
+   *
+   * @param e The failure
+   */
+  default void onError(RuntimeException e) {
+    // ignored by default
+  }
+}
@@ -0,0 +1,67 @@
+package be.mathiasbosman.fs.core.watch;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Base of change feeds that detect changes by periodically comparing the current state with the
+ * previous one. The first scan is done when the feed is started, on the calling thread, so changes
+ * made after {@link #start()} returns are reported.
+ */
+public abstract class PollingChangeFeed implements Subscription {
+
+  protected final ChangeFeedOptions options;
+  private final EventBatcher batcher;
+  private final ScheduledExecutorService scheduler;
+
+  protected PollingChangeFeed(FileChangeListener listener, ChangeFeedOptions options,
+      String name) {
+    this.options = options;
+    this.batcher = new EventBatcher(listener, options, name + "-events");
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, name);
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Scan once and schedule the next scans.
+   *
+   * @return this feed
+   */
+  public PollingChangeFeed start() {
+    try {
+      poll(batcher::add);
+    } catch (RuntimeException e) {
+      close();
+      throw e;
+    }
+    long interval = options.getPollInterval().toMillis();
+    scheduler.scheduleWithFixedDelay(this::tick, interval, interval, TimeUnit.MILLISECONDS);
+    return this;
+  }
+
+  /**
+   * Detect the changes since the previous call.
+   *
+   * @param events Consumer of the detected changes
+   */
+  protected abstract void poll(Consumer<FileChangeEvent> events);
+
+  private void tick() {
+    try {
+      poll(batcher::add);
+    } catch (RuntimeException e) {
+      batcher.error(e);
+    }
+  }
+
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+    batcher.close();
+  }
+}
@@ -0,0 +1,10 @@
+package be.mathiasbosman.fs.core.watch;
+
+/**
+ * A running change feed. Closing it stops the detection of changes and the delivery of batches.
+ */
+public interface Subscription extends AutoCloseable {
+
+  @Override
+  void close();
+}
@@ -0,0 +1,82 @@
+package be.mathiasbosman.fs.core.watch;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.service.FileNodeVisitor;
+import be.mathiasbosman.fs.core.service.FileService;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Change feed for any {@link FileService}: every poll walks the watched directory and compares the
+ * result with the previous walk. Backends with a cheaper way to detect changes provide their own
+ * feed.
+ */
+public class WalkingChangeFeed extends PollingChangeFeed {
+
+  private final FileService fileService;
+  private final String path;
+  private ChangeSnapshot snapshot = new ChangeSnapshot();
+  private boolean baseline = true;
+
+  public WalkingChangeFeed(FileService fileService, String path, FileChangeListener listener,
+      ChangeFeedOptions options) {
+    super(listener, options, "fs-walk-changes");
+    this.fileService = fileService;
+    this.path = path;
+    if (options.getSnapshot() != null && Files.exists(options.getSnapshot())) {
+      try {
+        snapshot = ChangeSnapshot.read(options.getSnapshot());
+        baseline = false;
+      } catch (IOException e) {
+        throw new FileServiceException(e);
+      }
+    }
+  }
+
+  @Override
+  protected void poll(Consumer<FileChangeEvent> events) {
+    NavigableMap<String, ChangeSnapshot.Entry> fresh = new TreeMap<>();
+    FileSystemNode root = fileService.getOptionalFileNode(path);
+    if (root != null && root.isDirectory()) {
+      fileService.walk(root, new FileNodeVisitor() {
+        @Override
+        public void on(FileSystemNode node) {
+          fresh.put(node.getPath(), entry(node));
+        }
+
+        @Override
+        public void pre(FileSystemNode directory) {
+          if (!directory.getPath().equals(root.getPath())) {
+            fresh.put(directory.getPath(), entry(directory));
+          }
+        }
+
+        @Override
+        public void post(FileSystemNode directory) {
+          // entries are recorded on pre()
+        }
+      });
+    }
+    snapshot.replace(fresh, null, null, baseline ? event -> {
+    } : events);
+    baseline = false;
+    if (options.getSnapshot() != null) {
+      try {
+        snapshot.write(options.getSnapshot());
+      } catch (IOException e) {
+        throw new FileServiceException(e);
+      }
+    }
+  }
+
+  private static ChangeSnapshot.Entry entry(FileSystemNode node) {
+    long modified = node.getLastModified() != null ? node.getLastModified().getTime() : 0;
+    return node.isDirectory()
+        ? new ChangeSnapshot.Entry(true, 0, 0, null)
+        : new ChangeSnapshot.Entry(false, node.getSize(), modified, null);
+  }
+}
@@ -0,0 +1,424 @@
+package be.mathiasbosman.fs.core.writebehind;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.domain.FileSystemNodeType;
+import be.mathiasbosman.fs.core.domain.NodeMetadata;
+import be.mathiasbosman.fs.core.service.DelegatingFileService;
+import be.mathiasbosman.fs.core.service.FileService;
+import be.mathiasbosman.fs.core.util.FileServiceUtils;
+import be.mathiasbosman.fs.core.util.ParallelTasks;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Acknowledges saves once their content is stored in a local journal and uploads them to the
+ * wrapped file service in the background. The journal is another file service, usually a
+ * {@code NioFileService} on a local disk, so saves take a local write instead of a remote round
+ * trip.
+ *
+ * <p>Pending writes are visible to {@link #open(FileSystemNode)}, {@link #exists(String...)} and
+ * {@link #getFileNode(String...)} of this file service. Deleting, moving or copying a path with
+ * pending writes first waits for them. {@link #flush()} waits for all writes saved before it was
+ * called. Writes are uploaded in batches, failed uploads are retried with exponential backoff and
+ * an older write of a path is skipped once a newer one is pending.
+ *
+ * <p>Every write is journalled as a content file and a marker file holding its target path, the
+ * size of the content and a checksum of both. The marker is written last. On construction the
+ * writes found in the journal are uploaded again, writes without a complete marker or with
+ * content of another size are discarded. Writes are as durable as saves on the journal.
+ */
+public class WriteBehindFileService extends DelegatingFileService implements AutoCloseable {
+
+  private static final String CONTENT = ".content";
+  private static final String MARKER = ".path";
+  private static final long POLL_MS = 100;
+  private static final long BUSY_RETRY_MS = 10;
+
+  private final FileService journal;
+  private final WriteBehindOptions options;
+  private final AtomicLong sequence = new AtomicLong();
+  private final Map<String, PendingWrite> pending = new ConcurrentHashMap<>();
+  private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+  private final NavigableSet<Long> unfinished = new ConcurrentSkipListSet<>();
+  private final Map<Long, RuntimeException> failures = new ConcurrentHashMap<>();
+  private final Set<String> uploading = ConcurrentHashMap.newKeySet();
+  private final Object progress = new Object();
+  private final ScheduledExecutorService retries;
+  private final Thread uploader;
+  private volatile boolean closed;
+
+  /**
+   * A write that is stored in the journal but not yet uploaded.
+   *
+   * @param sequence     Position of the write in the journal
+   * @param path         The target path
+   * @param size         Size of the content
+   * @param lastModified Moment the write was saved
+   * @param attempt      Amount of failed uploads
+   */
+  private record PendingWrite(long sequence, String path, long size, Date lastModified,
+                              int attempt) {
+
+    PendingWrite retried() {
+      return new PendingWrite(sequence, path, size, lastModified, attempt + 1);
+    }
+  }
+
+  /**
+   * The marker of a journalled write: the size of the content, the target path and a CRC-32 of
+   * both, so a marker that was not written completely is recognized.
+   *
+   * @param path The target path
+   * @param size Size of the content
+   */
+  private record Marker(String path, long size) {
+
+    byte[] toBytes() {
+      byte[] target = path.getBytes(StandardCharsets.UTF_8);
+      ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + target.length + Long.BYTES)
+          .putLong(size).put(target);
+      CRC32 crc = new CRC32();
+      crc.update(buffer.array(), 0, buffer.position());
+      return buffer.putLong(crc.getValue()).array();
+    }
+
+    /**
+     * Read a marker, or return null if it is incomplete.
+     */
+    static Marker read(byte[] bytes) {
+      if (bytes.length < 2 * Long.BYTES) {
+        return null;
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      CRC32 crc = new CRC32();
+      crc.update(bytes, 0, bytes.length - Long.BYTES);
+      if (buffer.getLong(bytes.length - Long.BYTES) != crc.getValue()) {
+        return null;
+      }
+      return new Marker(new String(bytes, Long.BYTES, bytes.length - 2 * Long.BYTES,
+          StandardCharsets.UTF_8), buffer.getLong(0));
+    }
+  }
+
+  public WriteBehindFileService(FileService delegate, FileService journal) {
+    this(delegate, journal, WriteBehindOptions.builder().build());
+  }
+
+  public WriteBehindFileService(FileService delegate, FileService journal,
+      WriteBehindOptions options) {
+    super(delegate);
+    if (options.getBatchSize() < 1 || options.getParallelism() < 1
+        || options.getMaxAttempts() < 1) {
+      throw new IllegalArgumentException("Batch size, parallelism and attempts should be positive");
+    }
+    this.journal = journal;
+    this.options = options;
+    recover();
+    this.retries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "fs-write-behind-retry");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.uploader = new Thread(this::upload, "fs-write-behind");
+    uploader.setDaemon(true);
+    uploader.start();
+  }
+
+  /**
+   * Waits until all writes saved before this call are uploaded.
+   *
+   * @throws FileServiceException if some of the writes exhausted their upload attempts, they are
+   *                              still being retried
+   */
+  public void flush() {
+    long barrier = sequence.get();
+    synchronized (progress) {
+      while (unfinished.headSet(barrier, true).stream().anyMatch(s -> !failures.containsKey(s))) {
+        try {
+          progress.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new FileServiceException(e);
+        }
+      }
+    }
+    List<RuntimeException> failed = failures.entrySet().stream()
+        .filter(failure -> failure.getKey() <= barrier)
+        .map(Map.Entry::getValue)
+        .toList();
+    if (!failed.isEmpty()) {
+      throw new FileServiceException(failed.size() + " pending writes failed to upload",
+          failed.get(0));
+    }
+  }
+
+  /**
+   * The amount of writes that are not uploaded yet.
+   *
+   * @return the amount of pending writes
+   */
+  public int getPendingCount() {
+    return unfinished.size();
+  }
+
+  /**
+   * Uploads the pending writes and stops uploading.
+   */
+  @Override
+  public void close() {
+    try {
+      flush();
+    } finally {
+      closed = true;
+      uploader.interrupt();
+      retries.shutdownNow();
+    }
+  }
+
+  @Override
+  protected void save(InputStream is, String path, long size) {
+    if (closed) {
+      throw new IllegalStateException("Write-behind file service is closed");
+    }
+    long next = sequence.incrementAndGet();
+    String contentPath = getJournalPath(next, CONTENT);
+    journal.save(is, contentPath);
+    long stored = journal.getFileNode(contentPath).getSize();
+    journal.save(new Marker(path, stored).toBytes(), getJournalPath(next, MARKER));
+    enqueue(new PendingWrite(next, path, stored, new Date(), 0));
+  }
+
+  @Override
+  public InputStream open(FileSystemNode node) {
+    PendingWrite write = pending.get(node.getPath());
+    if (write != null) {
+      try {
+        return journal.open(journal.getFileNode(getJournalPath(write.sequence(), CONTENT)));
+      } catch (RuntimeException e) {
+        PendingWrite latest = pending.get(node.getPath());
+        if (latest != null && latest.sequence() == write.sequence()) {
+          throw e;
+        }
+        if (latest != null) {
+          // replaced by a newer write in the meantime
+          return open(node);
+        }
+        // uploaded in the meantime
+      }
+    }
+    return super.open(node);
+  }
+
+  @Override
+  protected long getSize(String path) {
+    PendingWrite write = pending.get(path);
+    return write != null ? write.size() : super.getSize(path);
+  }
+
+  @Override
+  protected boolean exists(String path) {
+    return pending.containsKey(path) || super.exists(path);
+  }
+
+  @Override
+  protected boolean isDirectory(String path) {
+    return !pending.containsKey(path) && super.isDirectory(path);
+  }
+
+  @Override
+  protected NodeMetadata getNodeMetadata(String path) {
+    PendingWrite write = pending.get(path);
+    if (write != null) {
+      return new NodeMetadata(FileSystemNodeType.FILE, write.size(), write.lastModified());
+    }
+    return super.getNodeMetadata(path);
+  }
+
+  @Override
+  public void delete(FileSystemNode node, boolean recursive) {
+    settle(node.getPath());
+    super.delete(node, recursive);
+  }
+
+  @Override
+  public void move(String from, String to) {
+    settle(from);
+    settle(to);
+    super.move(from, to);
+  }
+
+  @Override
+  protected void copyContent(FileSystemNode source, String to) {
+    settle(source.getPath());
+    settle(to);
+    super.copyContent(source, to);
+  }
+
+  /**
+   * Flushes if there are pending writes on or under a path.
+   */
+  private void settle(String path) {
+    String prefix = FileServiceUtils.appendSeparator(path);
+    if (pending.keySet().stream().anyMatch(p -> p.equals(path) || p.startsWith(prefix))) {
+      flush();
+    }
+  }
+
+  private void enqueue(PendingWrite write) {
+    unfinished.add(write.sequence());
+    pending.merge(write.path(), write,
+        (current, next) -> next.sequence() > current.sequence() ? next : current);
+    queue.add(write);
+  }
+
+  private void upload() {
+    while (!closed) {
+      try {
+        PendingWrite first = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        List<PendingWrite> batch = new ArrayList<>();
+        batch.add(first);
+        queue.drainTo(batch, options.getBatchSize() - 1);
+        List<Callable<Void>> uploads = new ArrayList<>();
+        for (PendingWrite write : batch) {
+          uploads.add(() -> {
+            upload(write);
+            return null;
+          });
+        }
+        ParallelTasks.invokeAll(uploads, options.getParallelism());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (RuntimeException e) {
+        if (!closed && !(e.getCause() instanceof InterruptedException)) {
+          throw e;
+        }
+        // interrupted or rejected by close, the remaining writes stay in the journal
+        return;
+      }
+    }
+  }
+
+  private void upload(PendingWrite write) {
+    if (!uploading.add(write.path())) {
+      // keep the writes of a path in order
+      schedule(write, BUSY_RETRY_MS);
+      return;
+    }
+    try {
+      // a write that is no longer the latest of its path, or of which a newer write has been
+      // uploaded already, must not overwrite it
+      PendingWrite latest = pending.get(write.path());
+      if (latest != null && latest.sequence() == write.sequence()) {
+        FileSystemNode content = journal.getFileNode(getJournalPath(write.sequence(), CONTENT));
+        try (InputStream inputStream = journal.open(content)) {
+          super.save(inputStream, write.path(), content.getSize());
+        }
+      }
+      finish(write);
+    } catch (IOException | RuntimeException e) {
+      retry(write, e instanceof RuntimeException runtimeException
+          ? runtimeException : new FileServiceException(e));
+    } finally {
+      uploading.remove(write.path());
+    }
+  }
+
+  private void finish(PendingWrite write) {
+    pending.computeIfPresent(write.path(),
+        (path, current) -> current.sequence() == write.sequence() ? null : current);
+    journal.delete(journal.getFileNode(getJournalPath(write.sequence(), MARKER)), false);
+    journal.delete(journal.getFileNode(getJournalPath(write.sequence(), CONTENT)), false);
+    failures.remove(write.sequence());
+    unfinished.remove(write.sequence());
+    synchronized (progress) {
+      progress.notifyAll();
+    }
+  }
+
+  private void retry(PendingWrite write, RuntimeException error) {
+    PendingWrite retried = write.retried();
+    if (retried.attempt() >= options.getMaxAttempts()) {
+      failures.put(write.sequence(), error);
+      synchronized (progress) {
+        progress.notifyAll();
+      }
+    }
+    long base = options.getBaseBackoff().toMillis();
+    long backoff = Math.min(options.getMaxBackoff().toMillis(),
+        base << Math.min(retried.attempt() - 1, 30));
+    schedule(retried, backoff);
+  }
+
+  private void schedule(PendingWrite write, long delayMs) {
+    try {
+      retries.schedule(() -> queue.add(write), delayMs, TimeUnit.MILLISECONDS);
+    } catch (RuntimeException e) {
+      // closed, the write stays in the journal
+    }
+  }
+
+  /**
+   * Queues the writes found in the journal again, in the order they were saved.
+   */
+  private void recover() {
+    String directory = options.getJournalDirectory();
+    journal.mkDirectories(directory);
+    List<FileSystemNode> entries = new ArrayList<>(
+        journal.list(journal.getFileNode(directory)));
+    entries.sort(Comparator.comparing(FileSystemNode::getName));
+    Set<Long> marked = ConcurrentHashMap.newKeySet();
+    for (FileSystemNode entry : entries) {
+      if (entry.getName().endsWith(MARKER)) {
+        long recovered = Long.parseLong(StringUtils.removeEnd(entry.getName(), MARKER));
+        sequence.accumulateAndGet(recovered, Math::max);
+        Marker marker = Marker.read(journal.getBytes(entry));
+        FileSystemNode content = journal.getOptionalFileNode(getJournalPath(recovered, CONTENT));
+        if (marker == null || content == null || content.getSize() != marker.size()) {
+          // interrupted while the marker was written
+          journal.delete(entry, false);
+          continue;
+        }
+        enqueue(new PendingWrite(recovered, marker.path(), marker.size(),
+            content.getLastModified(), 0));
+        marked.add(recovered);
+      }
+    }
+    for (FileSystemNode entry : entries) {
+      if (entry.getName().endsWith(CONTENT) && !marked.contains(
+          Long.parseLong(StringUtils.removeEnd(entry.getName(), CONTENT)))) {
+        // interrupted before the write was acknowledged
+        journal.delete(entry, false);
+      }
+    }
+  }
+
+  private String getJournalPath(long write, String extension) {
+    return FileServiceUtils.combine(options.getJournalDirectory(),
+        String.format("%019d", write) + extension);
+  }
+}
@@ -0,0 +1,45 @@
+package be.mathiasbosman.fs.core.writebehind;
+
+import java.time.Duration;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Options of a {@link WriteBehindFileService}.
+ */
+@Getter
+@Builder
+public class WriteBehindOptions {
+
+  /**
+   * Directory on the journal file service that holds the pending writes.
+   */
+  @Builder.Default
+  private final String journalDirectory = "write-behind";
+  /**
+   * Maximum amount of pending writes uploaded in one batch.
+   */
+  @Builder.Default
+  private final int batchSize = 64;
+  /**
+   * Amount of uploads of a batch running at the same time.
+   */
+  @Builder.Default
+  private final int parallelism = 8;
+  /**
+   * Attempts to upload a write after which {@link WriteBehindFileService#flush()} reports it as
+   * failed. Failed writes keep being retried at the maximum backoff.
+   */
+  @Builder.Default
+  private final int maxAttempts = 5;
+  /**
+   * Backoff before the first retry, doubled for every next retry.
+   */
+  @Builder.Default
+  private final Duration baseBackoff = Duration.ofMillis(100);
+  /**
+   * Maximum backoff between retries.
+   */
+  @Builder.Default
+  private final Duration maxBackoff = Duration.ofSeconds(30);
+}
@@ -0,0 +1,25 @@
+package be.mathiasbosman.fs.core.zip;
+
+import be.mathiasbosman.fs.core.util.Spool;
+
+/**
+ * A zip entry of which the content has been read, checksummed and possibly deflated.
+ *
+ * @param name           Name of the entry, ending with a slash for directories
+ * @param time           Modification time in milliseconds since the epoch
+ * @param method         {@link java.util.zip.ZipEntry#STORED} or
+ *                       {@link java.util.zip.ZipEntry#DEFLATED}
+ * @param crc            CRC-32 of the content
+ * @param size           Size of the content
+ * @param compressedSize Size of the data
+ * @param data           The data, null for directories
+ */
+record PreparedEntry(String name, long time, int method, long crc, long size,
+                     long compressedSize, Spool data) {
+
+  void discard() {
+    if (data != null) {
+      data.discard();
+    }
+  }
+}
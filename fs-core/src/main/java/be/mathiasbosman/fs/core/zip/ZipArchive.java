@@ -0,0 +1,333 @@
+package be.mathiasbosman.fs.core.zip;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.service.FileService;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Random access to a zip archive stored in a {@link FileService}. Only the end of the archive and
+ * the central directory are read to list the entries, opening an entry only reads that entry.
+ * Both use range reads, so on object stores an entry of a large archive is read without
+ * downloading the archive.
+ *
+ * <p>Parsed central directories are cached per file service, archive, size and modification
+ * time. The cache of a file service is dropped once the file service is no longer used.
+ */
+public class ZipArchive {
+
+  private static final int LOCAL_HEADER = 0x04034b50;
+  private static final int CENTRAL_HEADER = 0x02014b50;
+  private static final int END = 0x06054b50;
+  private static final int ZIP64_END = 0x06064b50;
+  private static final int ZIP64_LOCATOR = 0x07064b50;
+  private static final int ZIP64_EXTRA = 0x0001;
+  private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+  private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+  private static final int END_SIZE = 22;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int MAX_COMMENT_SIZE = 0xFFFF;
+  private static final int CACHE_SIZE = 64;
+  // weak keys, so a cache does not keep its file service alive
+  private static final LoadingCache<FileService, Cache<CacheKey, Map<String, ZipArchiveEntry>>>
+      CACHES = CacheBuilder.newBuilder().weakKeys().build(CacheLoader.from(
+          fileService -> CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).build()));
+
+  private final FileService fileService;
+  private final FileSystemNode node;
+  private final Map<String, ZipArchiveEntry> entries;
+
+  private record CacheKey(String path, long size, Date lastModified) {
+
+  }
+
+  private ZipArchive(FileService fileService, FileSystemNode node,
+      Map<String, ZipArchiveEntry> entries) {
+    this.fileService = fileService;
+    this.node = node;
+    this.entries = entries;
+  }
+
+  /**
+   * Open the archive at the given path.
+   *
+   * @param fileService The file service containing the archive
+   * @param parts       Path parts of the archive
+   * @return the archive
+   */
+  public static ZipArchive open(FileService fileService, String... parts) {
+    return open(fileService, fileService.getFileNode(parts));
+  }
+
+  /**
+   * Open the archive of the given node.
+   *
+   * @param fileService The file service containing the archive
+   * @param node        The node of the archive
+   * @return the archive
+   */
+  public static ZipArchive open(FileService fileService, FileSystemNode node) {
+    if (node.isDirectory()) {
+      throw new IllegalArgumentException("Not a zip archive: " + node.getPath());
+    }
+    long size = node.getSize();
+    CacheKey key = node.getLastModified() != null
+        ? new CacheKey(node.getPath(), size, node.getLastModified()) : null;
+    Cache<CacheKey, Map<String, ZipArchiveEntry>> cache = CACHES.getUnchecked(fileService);
+    Map<String, ZipArchiveEntry> entries = key != null ? cache.getIfPresent(key) : null;
+    if (entries == null) {
+      try {
+        entries = readCentralDirectory(fileService, node, size);
+      } catch (IOException e) {
+        throw new FileServiceException(e);
+      }
+      if (key != null) {
+        cache.put(key, entries);
+      }
+    }
+    return new ZipArchive(fileService, node, entries);
+  }
+
+  /**
+   * Get all entries, in the order of the central directory.
+   *
+   * @return the entries
+   */
+  public List<ZipArchiveEntry> getEntries() {
+    return new ArrayList<>(entries.values());
+  }
+
+  /**
+   * Get an entry.
+   *
+   * @param name Name of the entry
+   * @return the entry or null if the archive has no such entry
+   */
+  public ZipArchiveEntry getEntry(String name) {
+    return entries.get(name);
+  }
+
+  /**
+   * Open the content of an entry.
+   *
+   * @param name Name of the entry
+   * @return the content as stream
+   */
+  public InputStream open(String name) {
+    ZipArchiveEntry entry = getEntry(name);
+    if (entry == null || entry.isDirectory()) {
+      throw new IllegalArgumentException("No file entry " + name + " in " + node.getPath());
+    }
+    return open(entry);
+  }
+
+  /**
+   * Open the content of an entry.
+   *
+   * @param entry The entry
+   * @return the content as stream
+   */
+  public InputStream open(ZipArchiveEntry entry) {
+    if (entry.method() != ZipEntry.STORED && entry.method() != ZipEntry.DEFLATED) {
+      throw new FileServiceException("Unsupported compression method " + entry.method()
+          + " of " + entry.name());
+    }
+    ByteBuffer header;
+    try (InputStream in = fileService.open(node, entry.offset(), LOCAL_HEADER_SIZE)) {
+      header = read(in, LOCAL_HEADER_SIZE);
+    } catch (IOException e) {
+      throw new FileServiceException(e);
+    }
+    if (header.getInt(0) != LOCAL_HEADER) {
+      throw new FileServiceException("Invalid local header of " + entry.name());
+    }
+    long data = entry.offset() + LOCAL_HEADER_SIZE
+        + Short.toUnsignedInt(header.getShort(26)) + Short.toUnsignedInt(header.getShort(28));
+    InputStream in = fileService.open(node, data, entry.compressedSize());
+    return entry.method() == ZipEntry.STORED ? in : new EntryInflaterInputStream(in);
+  }
+
+  /**
+   * Mount the archive as a read-only file service.
+   *
+   * @return a file service with the entries of the archive
+   */
+  public FileService mount() {
+    return new ZipFileService(this);
+  }
+
+  private static Map<String, ZipArchiveEntry> readCentralDirectory(FileService fileService,
+      FileSystemNode node, long size) throws IOException {
+    int tailSize = (int) Math.min(size, END_SIZE + MAX_COMMENT_SIZE);
+    long tailOffset = size - tailSize;
+    ByteBuffer tail;
+    try (InputStream in = fileService.open(node, tailOffset, tailSize)) {
+      tail = read(in, tailSize);
+    }
+    int end = tailSize - END_SIZE;
+    while (end >= 0 && tail.getInt(end) != END) {
+      end--;
+    }
+    if (end < 0) {
+      throw new FileServiceException("Not a zip archive: " + node.getPath());
+    }
+    long count = Short.toUnsignedInt(tail.getShort(end + 10));
+    long directorySize = Integer.toUnsignedLong(tail.getInt(end + 12));
+    long directoryOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+    int locator = end - 20;
+    if (locator >= 0 && tail.getInt(locator) == ZIP64_LOCATOR) {
+      long zip64End = tail.getLong(locator + 8);
+      ByteBuffer record;
+      if (zip64End >= tailOffset) {
+        record = tail.slice((int) (zip64End - tailOffset), 56).order(ByteOrder.LITTLE_ENDIAN);
+      } else {
+        try (InputStream in = fileService.open(node, zip64End, 56)) {
+          record = read(in, 56);
+        }
+      }
+      if (record.getInt(0) != ZIP64_END) {
+        throw new FileServiceException("Invalid ZIP64 end of " + node.getPath());
+      }
+      count = record.getLong(32);
+      directorySize = record.getLong(40);
+      directoryOffset = record.getLong(48);
+    } else if (count == ZIP64_MAGIC_COUNT || directoryOffset == ZIP64_MAGIC) {
+      throw new FileServiceException("Missing ZIP64 end of " + node.getPath());
+    }
+    Map<String, ZipArchiveEntry> entries = new LinkedHashMap<>();
+    try (InputStream in = new BufferedInputStream(
+        fileService.open(node, directoryOffset, directorySize), 64 * 1024)) {
+      DataInputStream data = new DataInputStream(in);
+      for (long i = 0; i < count; i++) {
+        ZipArchiveEntry entry = readCentralEntry(data);
+        //some zip software adds folders twice.
+        if (entries.putIfAbsent(entry.name(), entry) != null && !entry.isDirectory()) {
+          throw new IllegalArgumentException(
+              "Zip file corrupt: entry '" + entry.name() + "' is not unique.");
+        }
+      }
+    } catch (EOFException e) {
+      throw new FileServiceException("Truncated central directory of " + node.getPath());
+    }
+    return Collections.unmodifiableMap(entries);
+  }
+
+  private static ZipArchiveEntry readCentralEntry(DataInputStream data) throws IOException {
+    ByteBuffer header = read(data, 46);
+    if (header.getInt(0) != CENTRAL_HEADER) {
+      throw new FileServiceException("Invalid central directory header");
+    }
+    int method = Short.toUnsignedInt(header.getShort(10));
+    int dosTime = header.getInt(12);
+    long crc = Integer.toUnsignedLong(header.getInt(16));
+    long compressedSize = Integer.toUnsignedLong(header.getInt(20));
+    long size = Integer.toUnsignedLong(header.getInt(24));
+    int nameLength = Short.toUnsignedInt(header.getShort(28));
+    int extraLength = Short.toUnsignedInt(header.getShort(30));
+    int commentLength = Short.toUnsignedInt(header.getShort(32));
+    long offset = Integer.toUnsignedLong(header.getInt(42));
+    byte[] name = data.readNBytes(nameLength);
+    ByteBuffer extra = read(data, extraLength);
+    data.skipNBytes(commentLength);
+    // values that do not fit are found in the ZIP64 extra field, in this order
+    int position = 0;
+    while (position + 4 <= extraLength) {
+      int id = Short.toUnsignedInt(extra.getShort(position));
+      int length = Short.toUnsignedInt(extra.getShort(position + 2));
+      if (id == ZIP64_EXTRA) {
+        int field = position + 4;
+        if (size == ZIP64_MAGIC) {
+          size = extra.getLong(field);
+          field += Long.BYTES;
+        }
+        if (compressedSize == ZIP64_MAGIC) {
+          compressedSize = extra.getLong(field);
+          field += Long.BYTES;
+        }
+        if (offset == ZIP64_MAGIC) {
+          offset = extra.getLong(field);
+        }
+      }
+      position += 4 + length;
+    }
+    return new ZipArchiveEntry(new String(name, StandardCharsets.UTF_8), method, crc, size,
+        compressedSize, fromDosTime(dosTime), offset);
+  }
+
+  private static ByteBuffer read(InputStream in, int length) throws IOException {
+    byte[] bytes = in.readNBytes(length);
+    if (bytes.length < length) {
+      throw new EOFException();
+    }
+    return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static long fromDosTime(int dosTime) {
+    try {
+      LocalDateTime time = LocalDateTime.of(((dosTime >> 25) & 0x7f) + 1980,
+          (dosTime >> 21) & 0x0f, (dosTime >> 16) & 0x1f, (dosTime >> 11) & 0x1f,
+          (dosTime >> 5) & 0x3f, (dosTime & 0x1f) * 2);
+      return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    } catch (DateTimeException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Inflates raw deflate data, feeding the dummy byte the inflater may need at the end.
+   */
+  private static class EntryInflaterInputStream extends InflaterInputStream {
+
+    private boolean eof;
+
+    private EntryInflaterInputStream(InputStream in) {
+      super(in, new Inflater(true), 64 * 1024);
+    }
+
+    @Override
+    protected void fill() throws IOException {
+      if (eof) {
+        throw new EOFException("Unexpected end of deflated entry");
+      }
+      len = in.read(buf, 0, buf.length);
+      if (len == -1) {
+        buf[0] = 0;
+        len = 1;
+        eof = true;
+      }
+      inf.setInput(buf, 0, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        inf.end();
+      }
+    }
+  }
+}
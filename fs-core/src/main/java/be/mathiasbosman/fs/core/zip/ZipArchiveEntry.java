@@ -0,0 +1,41 @@
+package be.mathiasbosman.fs.core.zip;
+
+import java.util.zip.ZipEntry;
+
+/**
+ * An entry of a {@link ZipArchive} as described by the central directory.
+ *
+ * @param name           Name of the entry, ending with a slash for directories
+ * @param method         Compression method, {@link java.util.zip.ZipEntry#STORED} or
+ *                       {@link java.util.zip.ZipEntry#DEFLATED}
+ * @param crc            CRC-32 of the content
+ * @param size           Size of the content
+ * @param compressedSize Size of the data in the archive
+ * @param time           Modification time in milliseconds since the epoch
+ * @param offset         Position of the local header in the archive
+ */
+public record ZipArchiveEntry(String name, int method, long crc, long size, long compressedSize,
+                              long time, long offset) {
+
+  public boolean isDirectory() {
+    return name.endsWith("/");
+  }
+
+  /**
+   * Describes this entry as a {@link ZipEntry}, as {@link java.util.zip.ZipInputStream} would.
+   * Nothing is read from the archive.
+   *
+   * @return the {@link ZipEntry}
+   */
+  public ZipEntry toZipEntry() {
+    ZipEntry entry = new ZipEntry(name);
+    if (method == ZipEntry.STORED || method == ZipEntry.DEFLATED) {
+      entry.setMethod(method);
+    }
+    entry.setCrc(crc);
+    entry.setSize(size);
+    entry.setCompressedSize(compressedSize);
+    entry.setTime(time);
+    return entry;
+  }
+}
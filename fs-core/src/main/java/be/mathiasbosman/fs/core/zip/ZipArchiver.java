@@ -0,0 +1,297 @@
+package be.mathiasbosman.fs.core.zip;
+
+import be.mathiasbosman.fs.core.codec.CompressionPolicy;
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.service.FileNodeVisitor;
+import be.mathiasbosman.fs.core.service.FileService;
+import be.mathiasbosman.fs.core.util.BufferPool;
+import be.mathiasbosman.fs.core.util.FileServiceUtils;
+import be.mathiasbosman.fs.core.util.Spool;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Zips a directory of a {@link FileService} according to {@link ZipOptions}.
+ *
+ * <p>With a parallelism of 1 entries are written with a {@link ZipOutputStream} on the calling
+ * thread. Otherwise a window of upcoming entries is read, checksummed and deflated on worker
+ * threads while the calling thread writes the finished entries in order. Stored entries are always
+ * read completely before they are written, as their checksum has to precede their content.
+ * Entries are zipped while the directory is walked.
+ */
+public class ZipArchiver {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final CompressionPolicy COMPRESSED_TYPES = CompressionPolicy.builder().build();
+
+  private final FileService fileService;
+  private final ZipOptions options;
+
+  public ZipArchiver(FileService fileService, ZipOptions options) {
+    if (options.getLevel() < Deflater.DEFAULT_COMPRESSION
+        || options.getLevel() > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("Invalid compression level " + options.getLevel());
+    }
+    if (options.getParallelism() < 1) {
+      throw new IllegalArgumentException("Parallelism should be at least 1");
+    }
+    this.fileService = fileService;
+    this.options = options;
+  }
+
+  /**
+   * An entry to zip.
+   *
+   * @param node The node
+   * @param name Name of the entry, ending with a slash for directories
+   */
+  private record Item(FileSystemNode node, String name) {
+
+    boolean isDirectory() {
+      return node.isDirectory();
+    }
+
+    long time() {
+      return node.getLastModified() != null ? node.getLastModified().getTime()
+          : System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * Zip all nodes under a path.
+   *
+   * @param path         The path to zip
+   * @param outputStream The stream to write the archive to
+   * @param prefix       Optional root folder inside the archive
+   */
+  public void zip(String path, OutputStream outputStream, String prefix) {
+    FileSystemNode root = fileService.getFileNode(path);
+    try (Entries entries = options.getParallelism() == 1 ? new SerialEntries(outputStream)
+        : new ParallelEntries(outputStream)) {
+      walk(root, path, prefix, entries);
+      entries.finish();
+    } catch (IOException e) {
+      throw new FileServiceException(e);
+    } catch (UncheckedIOException e) {
+      throw new FileServiceException(e.getCause());
+    }
+  }
+
+  /**
+   * Walk all nodes under a path, handing each to the archive as soon as it is found.
+   */
+  private void walk(FileSystemNode root, String path, String prefix, Entries entries) {
+    fileService.walk(root, new FileNodeVisitor() {
+      @Override
+      public void on(FileSystemNode node) {
+        add(node, true);
+      }
+
+      @Override
+      public void pre(FileSystemNode node) {
+        add(node, false);
+      }
+
+      @Override
+      public void post(FileSystemNode node) {
+        // no op
+      }
+
+      private void add(FileSystemNode node, boolean file) {
+        String inZipPath = FileServiceUtils.combine(prefix,
+            StringUtils.substringAfter(node.getPath(), path));
+        if (StringUtils.isEmpty(inZipPath)) {
+          return;
+        }
+        try {
+          entries.add(new Item(node,
+              file ? inZipPath : FileServiceUtils.appendSeparator(inZipPath)));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    });
+  }
+
+  private boolean isStored(Item item) {
+    return options.getLevel() == Deflater.NO_COMPRESSION
+        || options.isStoreCompressed() && COMPRESSED_TYPES.isCompressed(item.name());
+  }
+
+  /**
+   * Writes the entries of the archive in the order they are added.
+   */
+  private interface Entries extends Closeable {
+
+    void add(Item item) throws IOException;
+
+    /**
+     * Write the entries that were added but not written yet and complete the archive.
+     */
+    void finish() throws IOException;
+  }
+
+  /**
+   * Writes every entry with a {@link ZipOutputStream} on the calling thread.
+   */
+  private final class SerialEntries implements Entries {
+
+    private final ZipOutputStream zipStream;
+
+    private SerialEntries(OutputStream outputStream) {
+      this.zipStream = new ZipOutputStream(outputStream);
+      zipStream.setLevel(options.getLevel());
+    }
+
+    @Override
+    public void add(Item item) throws IOException {
+      if (item.isDirectory() || !isStored(item)) {
+        ZipEntry entry = new ZipEntry(item.name());
+        entry.setTime(item.time());
+        zipStream.putNextEntry(entry);
+        if (!item.isDirectory()) {
+          try (InputStream in = fileService.open(item.node())) {
+            BufferPool.shared().copy(in, zipStream);
+          } catch (IOException | RuntimeException e) {
+            throw new FileServiceException("Problem while zipping node " + item.name(), e);
+          }
+        }
+        return;
+      }
+      PreparedEntry prepared = prepare(item);
+      try {
+        ZipEntry entry = new ZipEntry(item.name());
+        entry.setTime(prepared.time());
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(prepared.size());
+        entry.setCompressedSize(prepared.compressedSize());
+        entry.setCrc(prepared.crc());
+        zipStream.putNextEntry(entry);
+        prepared.data().writeTo(zipStream);
+      } finally {
+        prepared.discard();
+      }
+    }
+
+    @Override
+    public void finish() throws IOException {
+      zipStream.finish();
+    }
+
+    @Override
+    public void close() throws IOException {
+      zipStream.close();
+    }
+  }
+
+  /**
+   * Prepares a window of upcoming entries on worker threads and writes the oldest one when the
+   * window is full.
+   */
+  private final class ParallelEntries implements Entries {
+
+    private final ZipWriter writer;
+    private final ExecutorService executor = Executors.newFixedThreadPool(
+        options.getParallelism(), runnable -> {
+          Thread thread = new Thread(runnable, "fs-zip");
+          thread.setDaemon(true);
+          return thread;
+        });
+    private final Deque<CompletableFuture<PreparedEntry>> window = new ArrayDeque<>();
+
+    private ParallelEntries(OutputStream outputStream) {
+      this.writer = new ZipWriter(outputStream);
+    }
+
+    @Override
+    public void add(Item item) throws IOException {
+      window.add(CompletableFuture.supplyAsync(() -> prepare(item), executor));
+      // keep one entry queued per thread so threads do not wait for the writer
+      if (window.size() >= options.getParallelism() * 2) {
+        writeNext();
+      }
+    }
+
+    @Override
+    public void finish() throws IOException {
+      while (!window.isEmpty()) {
+        writeNext();
+      }
+      writer.finish();
+    }
+
+    private void writeNext() throws IOException {
+      PreparedEntry entry = join(window.poll());
+      try {
+        writer.write(entry);
+      } finally {
+        entry.discard();
+      }
+    }
+
+    @Override
+    public void close() {
+      // release entries that were prepared in vain
+      window.forEach(future -> future.thenAccept(PreparedEntry::discard));
+      window.clear();
+      executor.shutdownNow();
+    }
+  }
+
+  private static PreparedEntry join(CompletableFuture<PreparedEntry> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new FileServiceException(e.getCause());
+    }
+  }
+
+  private PreparedEntry prepare(Item item) {
+    if (item.isDirectory()) {
+      return new PreparedEntry(item.name(), item.time(), ZipEntry.STORED, 0, 0, 0, null);
+    }
+    boolean stored = isStored(item);
+    CRC32 crc = new CRC32();
+    Spool spool = new Spool(options.getSpoolThreshold());
+    try (InputStream in = new CheckedInputStream(fileService.open(item.node()), crc)) {
+      long size;
+      if (stored) {
+        try (spool) {
+          size = BufferPool.shared().copy(in, spool);
+        }
+      } else {
+        Deflater deflater = new Deflater(options.getLevel(), true);
+        try (OutputStream deflated = new DeflaterOutputStream(spool, deflater, BUFFER_SIZE)) {
+          size = BufferPool.shared().copy(in, deflated);
+        } finally {
+          deflater.end();
+        }
+      }
+      return new PreparedEntry(item.name(), item.time(),
+          stored ? ZipEntry.STORED : ZipEntry.DEFLATED, crc.getValue(), size, spool.size(), spool);
+    } catch (IOException | RuntimeException e) {
+      spool.discard();
+      throw new FileServiceException("Problem while zipping node " + item.name(), e);
+    }
+  }
+}
@@ -0,0 +1,171 @@
+package be.mathiasbosman.fs.core.zip;
+
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.domain.FileSystemNodeType;
+import be.mathiasbosman.fs.core.domain.NodeMetadata;
+import be.mathiasbosman.fs.core.service.AbstractFileService;
+import be.mathiasbosman.fs.core.util.FileServiceUtils;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A {@link ZipArchive} mounted as a read-only file service. Directories that are only implied by
+ * the names of entries exist as well. Every modification throws an
+ * {@link UnsupportedOperationException}.
+ */
+class ZipFileService extends AbstractFileService {
+
+  private static final String READ_ONLY = "A mounted zip archive is read-only.";
+
+  private final ZipArchive archive;
+  private final Map<String, ZipArchiveEntry> files = new HashMap<>();
+  private final Map<String, ZipArchiveEntry> directories = new HashMap<>();
+  private final Map<String, TreeSet<String>> children = new TreeMap<>();
+
+  ZipFileService(ZipArchive archive) {
+    this.archive = archive;
+    children.put("", new TreeSet<>());
+    for (ZipArchiveEntry entry : archive.getEntries()) {
+      String path = FileServiceUtils.combine(entry.name());
+      if (path.isEmpty()) {
+        continue;
+      }
+      if (entry.isDirectory()) {
+        directories.put(path, entry);
+        children.computeIfAbsent(path, k -> new TreeSet<>());
+      } else {
+        files.put(path, entry);
+      }
+      // register the path with all its ancestors
+      String child = path;
+      String parent = parentOf(child);
+      while (children.computeIfAbsent(parent, k -> new TreeSet<>()).add(child)
+          && !parent.isEmpty()) {
+        directories.putIfAbsent(parent, null);
+        child = parent;
+        parent = parentOf(child);
+      }
+    }
+  }
+
+  private static String parentOf(String path) {
+    return StringUtils.defaultString(FileServiceUtils.getParentPath(path));
+  }
+
+  @Override
+  protected FileSystemNodeType getFileNodeType(String path) {
+    NodeMetadata metadata = getNodeMetadata(path);
+    return metadata != null ? metadata.getType() : null;
+  }
+
+  @Override
+  protected NodeMetadata getNodeMetadata(String path) {
+    ZipArchiveEntry file = files.get(path);
+    if (file != null) {
+      return new NodeMetadata(FileSystemNodeType.FILE, file.size(), new Date(file.time()));
+    }
+    if (!isDirectory(path)) {
+      return null;
+    }
+    ZipArchiveEntry directory = directories.get(path);
+    return new NodeMetadata(FileSystemNodeType.DIRECTORY, 0,
+        directory != null ? new Date(directory.time()) : null);
+  }
+
+  @Override
+  protected boolean exists(String path) {
+    return files.containsKey(path) || isDirectory(path);
+  }
+
+  @Override
+  protected boolean isDirectory(String path) {
+    return path.isEmpty() || directories.containsKey(path);
+  }
+
+  @Override
+  protected long getSize(String path) {
+    ZipArchiveEntry file = files.get(path);
+    if (file == null) {
+      throw new IllegalArgumentException("No file on path " + path);
+    }
+    return file.size();
+  }
+
+  @Override
+  public InputStream open(FileSystemNode node) {
+    ZipArchiveEntry file = files.get(node.getPath());
+    if (file == null) {
+      throw new IllegalArgumentException("No file on path " + node.getPath());
+    }
+    return archive.open(file);
+  }
+
+  @Override
+  public List<FileSystemNode> list(FileSystemNode root) {
+    List<FileSystemNode> nodes = new ArrayList<>();
+    for (String child : children.getOrDefault(root.getPath(), new TreeSet<>())) {
+      nodes.add(getFileNode(child));
+    }
+    return nodes;
+  }
+
+  /**
+   * Streams all files below the given directory.
+   */
+  @Override
+  public Stream<FileSystemNode> streamDirectory(FileSystemNode root) {
+    String prefix = root.getPath().isEmpty() ? "" : root.getPath() + "/";
+    return files.keySet().stream()
+        .filter(path -> path.startsWith(prefix))
+        .sorted()
+        .map(this::getFileNode);
+  }
+
+  @Override
+  public LocalDateTime getCreationTime(FileSystemNode node, ZoneId zoneId) {
+    return getLastModifiedTime(node, zoneId);
+  }
+
+  @Override
+  public LocalDateTime getLastModifiedTime(FileSystemNode node, ZoneId zoneId) {
+    Date lastModified = getFileNode(node.getPath()).getLastModified();
+    return lastModified != null
+        ? LocalDateTime.ofInstant(Instant.ofEpochMilli(lastModified.getTime()), zoneId) : null;
+  }
+
+  @Override
+  protected void copyContent(FileSystemNode source, String to) {
+    throw new UnsupportedOperationException(READ_ONLY);
+  }
+
+  @Override
+  protected void mkDirectories(String path) {
+    throw new UnsupportedOperationException(READ_ONLY);
+  }
+
+  @Override
+  protected void save(InputStream is, String path, long size) {
+    throw new UnsupportedOperationException(READ_ONLY);
+  }
+
+  @Override
+  public void delete(FileSystemNode node, boolean recursive) {
+    throw new UnsupportedOperationException(READ_ONLY);
+  }
+
+  @Override
+  public void move(String from, String to) {
+    throw new UnsupportedOperationException(READ_ONLY);
+  }
+}
@@ -0,0 +1,38 @@
+package be.mathiasbosman.fs.core.zip;
+
+import java.util.zip.Deflater;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Options for zipping a directory. The defaults deflate every entry at the default level on the
+ * calling thread.
+ */
+@Getter
+@Builder
+public class ZipOptions {
+
+  public static final ZipOptions DEFAULT = ZipOptions.builder().build();
+
+  /**
+   * Deflate level from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}.
+   */
+  @Builder.Default
+  private final int level = Deflater.DEFAULT_COMPRESSION;
+  /**
+   * Store entries of already compressed types (images, video, archives, ...) instead of
+   * deflating them.
+   */
+  private final boolean storeCompressed;
+  /**
+   * Amount of entries prepared at the same time. Above 1 upcoming entries are read and deflated
+   * on worker threads while the entries before them are written.
+   */
+  @Builder.Default
+  private final int parallelism = 1;
+  /**
+   * Size above which a prepared entry is kept in a temporary file instead of in memory.
+   */
+  @Builder.Default
+  private final int spoolThreshold = 8 * 1024 * 1024;
+}
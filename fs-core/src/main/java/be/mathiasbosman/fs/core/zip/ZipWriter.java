@@ -0,0 +1,177 @@
+package be.mathiasbosman.fs.core.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a zip archive of {@link PreparedEntry prepared entries}. As sizes and checksums are known
+ * before an entry is written, no data descriptors are needed. ZIP64 extensions are added to the
+ * entries and the end of the archive that need them.
+ */
+class ZipWriter {
+
+  private static final int LOCAL_HEADER = 0x04034b50;
+  private static final int CENTRAL_HEADER = 0x02014b50;
+  private static final int ZIP64_END = 0x06064b50;
+  private static final int ZIP64_LOCATOR = 0x07064b50;
+  private static final int END = 0x06054b50;
+  private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+  private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+  private static final int ZIP64_EXTRA = 0x0001;
+  private static final int VERSION = 20;
+  private static final int VERSION_ZIP64 = 45;
+  private static final int UTF8_FLAG = 0x0800;
+  private static final int DIRECTORY_ATTRIBUTE = 0x10;
+
+  private final OutputStream out;
+  private final List<CentralEntry> entries = new ArrayList<>();
+  private long offset;
+
+  private record CentralEntry(PreparedEntry entry, byte[] name, long offset) {
+
+  }
+
+  ZipWriter(OutputStream out) {
+    this.out = out;
+  }
+
+  void write(PreparedEntry entry) throws IOException {
+    byte[] name = entry.name().getBytes(StandardCharsets.UTF_8);
+    boolean zip64 = entry.size() >= ZIP64_MAGIC || entry.compressedSize() >= ZIP64_MAGIC;
+    ByteBuffer header = buffer(30 + name.length + (zip64 ? 20 : 0));
+    header.putInt(LOCAL_HEADER)
+        .putShort((short) (zip64 ? VERSION_ZIP64 : VERSION))
+        .putShort((short) UTF8_FLAG)
+        .putShort((short) entry.method())
+        .putInt(dosTime(entry.time()))
+        .putInt((int) entry.crc())
+        .putInt((int) (zip64 ? ZIP64_MAGIC : entry.compressedSize()))
+        .putInt((int) (zip64 ? ZIP64_MAGIC : entry.size()))
+        .putShort((short) name.length)
+        .putShort((short) (zip64 ? 20 : 0))
+        .put(name);
+    if (zip64) {
+      header.putShort((short) ZIP64_EXTRA).putShort((short) 16)
+          .putLong(entry.size())
+          .putLong(entry.compressedSize());
+    }
+    entries.add(new CentralEntry(entry, name, offset));
+    write(header);
+    if (entry.data() != null) {
+      entry.data().writeTo(out);
+      offset += entry.data().size();
+    }
+  }
+
+  /**
+   * Write the central directory and the end of the archive.
+   */
+  void finish() throws IOException {
+    long start = offset;
+    for (CentralEntry central : entries) {
+      writeCentral(central);
+    }
+    long size = offset - start;
+    boolean zip64 = entries.size() >= ZIP64_MAGIC_COUNT || start >= ZIP64_MAGIC
+        || size >= ZIP64_MAGIC;
+    if (zip64) {
+      long end = offset;
+      ByteBuffer record = buffer(56 + 20);
+      record.putInt(ZIP64_END)
+          .putLong(44)
+          .putShort((short) VERSION_ZIP64)
+          .putShort((short) VERSION_ZIP64)
+          .putInt(0)
+          .putInt(0)
+          .putLong(entries.size())
+          .putLong(entries.size())
+          .putLong(size)
+          .putLong(start);
+      record.putInt(ZIP64_LOCATOR)
+          .putInt(0)
+          .putLong(end)
+          .putInt(1);
+      write(record);
+    }
+    int count = Math.min(entries.size(), ZIP64_MAGIC_COUNT);
+    ByteBuffer end = buffer(22);
+    end.putInt(END)
+        .putShort((short) 0)
+        .putShort((short) 0)
+        .putShort((short) count)
+        .putShort((short) count)
+        .putInt((int) Math.min(size, ZIP64_MAGIC))
+        .putInt((int) Math.min(start, ZIP64_MAGIC))
+        .putShort((short) 0);
+    write(end);
+    out.flush();
+  }
+
+  private void writeCentral(CentralEntry central) throws IOException {
+    PreparedEntry entry = central.entry();
+    // only the values that do not fit are moved to the extra field, in this order
+    List<Long> extra = new ArrayList<>();
+    if (entry.size() >= ZIP64_MAGIC) {
+      extra.add(entry.size());
+    }
+    if (entry.compressedSize() >= ZIP64_MAGIC) {
+      extra.add(entry.compressedSize());
+    }
+    if (central.offset() >= ZIP64_MAGIC) {
+      extra.add(central.offset());
+    }
+    int extraLength = extra.isEmpty() ? 0 : 4 + extra.size() * Long.BYTES;
+    int version = extra.isEmpty() ? VERSION : VERSION_ZIP64;
+    ByteBuffer header = buffer(46 + central.name().length + extraLength);
+    header.putInt(CENTRAL_HEADER)
+        .putShort((short) version)
+        .putShort((short) version)
+        .putShort((short) UTF8_FLAG)
+        .putShort((short) entry.method())
+        .putInt(dosTime(entry.time()))
+        .putInt((int) entry.crc())
+        .putInt((int) Math.min(entry.compressedSize(), ZIP64_MAGIC))
+        .putInt((int) Math.min(entry.size(), ZIP64_MAGIC))
+        .putShort((short) central.name().length)
+        .putShort((short) extraLength)
+        .putShort((short) 0)
+        .putShort((short) 0)
+        .putShort((short) 0)
+        .putInt(entry.data() == null ? DIRECTORY_ATTRIBUTE : 0)
+        .putInt((int) Math.min(central.offset(), ZIP64_MAGIC))
+        .put(central.name());
+    if (!extra.isEmpty()) {
+      header.putShort((short) ZIP64_EXTRA).putShort((short) (extra.size() * Long.BYTES));
+      extra.forEach(header::putLong);
+    }
+    write(header);
+  }
+
+  private void write(ByteBuffer buffer) throws IOException {
+    out.write(buffer.array(), 0, buffer.position());
+    offset += buffer.position();
+  }
+
+  private static ByteBuffer buffer(int size) {
+    return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  static int dosTime(long millis) {
+    LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis),
+        ZoneId.systemDefault());
+    if (time.getYear() < 1980) {
+      return (1 << 21) | (1 << 16);
+    }
+    return (time.getYear() - 1980) << 25 | time.getMonthValue() << 21
+        | time.getDayOfMonth() << 16 | time.getHour() << 11 | time.getMinute() << 5
+        | time.getSecond() >> 1;
+  }
+}
@@ -0,0 +1,76 @@
+package be.mathiasbosman.fs.core.chunk;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class ChunkerUnitTest {
+
+  private static List<byte[]> chunk(byte[] content) {
+    List<byte[]> chunks = new ArrayList<>();
+    new Chunker(new ByteArrayInputStream(content), 256, 1024, 4096).forEachRemaining(chunks::add);
+    return chunks;
+  }
+
+  private static Set<String> contents(List<byte[]> chunks) {
+    Set<String> contents = new HashSet<>();
+    chunks.forEach(chunk -> contents.add(HexFormat.of().formatHex(chunk)));
+    return contents;
+  }
+
+  @Test
+  void chunkSizes() {
+    byte[] content = new byte[256 * 1024];
+    new Random(1).nextBytes(content);
+
+    List<byte[]> chunks = chunk(content);
+
+    ByteArrayOutputStream joined = new ByteArrayOutputStream();
+    chunks.forEach(joined::writeBytes);
+    assertThat(joined.toByteArray()).isEqualTo(content);
+    assertThat(chunks.subList(0, chunks.size() - 1))
+        .allSatisfy(chunk -> assertThat(chunk.length).isBetween(256, 4096));
+    assertThat(content.length / chunks.size()).isBetween(768, 2048);
+  }
+
+  @Test
+  void boundariesFollowContent() {
+    byte[] content = new byte[64 * 1024];
+    new Random(2).nextBytes(content);
+    byte[] edited = new byte[content.length + 10];
+    System.arraycopy(content, 0, edited, 0, 30_000);
+    System.arraycopy(content, 30_000, edited, 30_010, content.length - 30_000);
+
+    Set<String> original = contents(chunk(content));
+    List<byte[]> editedChunks = chunk(edited);
+    Set<String> changed = contents(editedChunks);
+    changed.removeAll(original);
+
+    // only the chunks around the insertion differ
+    assertThat(changed.size()).isLessThanOrEqualTo(2);
+    assertThat(editedChunks.size()).isGreaterThan(20);
+  }
+
+  @Test
+  void emptyContent() {
+    assertThat(chunk(new byte[0])).isEmpty();
+  }
+
+  @Test
+  void invalidSizes() {
+    ByteArrayInputStream in = new ByteArrayInputStream(new byte[0]);
+    assertThatThrownBy(() -> new Chunker(in, 256, 1000, 4096))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> new Chunker(in, 2048, 1024, 4096))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
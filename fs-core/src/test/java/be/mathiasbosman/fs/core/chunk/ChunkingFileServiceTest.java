@@ -0,0 +1,221 @@
+package be.mathiasbosman.fs.core.chunk;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.service.DelegatingFileServiceTest;
+import be.mathiasbosman.fs.core.service.FileService;
+import be.mathiasbosman.fs.core.service.MockFileService;
+import be.mathiasbosman.fs.core.zip.ZipOptions;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.ZipInputStream;
+import org.junit.jupiter.api.Test;
+
+class ChunkingFileServiceTest extends DelegatingFileServiceTest {
+
+  private static final ChunkingOptions OPTIONS = ChunkingOptions.builder()
+      .minChunkSize(256)
+      .averageChunkSize(1024)
+      .maxChunkSize(4096)
+      .parallelism(4)
+      .prefetch(2)
+      .build();
+
+  @Override
+  protected FileService decorate(FileService delegate) {
+    return new ChunkingFileService(delegate, OPTIONS);
+  }
+
+  @Test
+  void deduplicatesVersions() throws IOException {
+    byte[] content = new byte[64 * 1024];
+    new Random(3).nextBytes(content);
+    byte[] edited = content.clone();
+    edited[40_000] ^= 1;
+    FileService fs = getFs();
+
+    fs.save(content, "export/v1.bin");
+    long chunks = countChunks();
+    fs.save(edited, "export/v2.bin");
+    fs.save(content, "export/v3.bin");
+
+    assertThat(chunks).isGreaterThan(20);
+    assertThat(countChunks()).isBetween(chunks + 1, chunks + 2);
+    assertThat(Files.size(tempDir.resolve("export/v1.bin"))).isLessThan(content.length / 10);
+    assertThat(fs.getBytes("export/v1.bin")).isEqualTo(content);
+    assertThat(fs.getBytes("export/v2.bin")).isEqualTo(edited);
+    assertThat(fs.getSize(fs.getFileNode("export/v2.bin"))).isEqualTo(content.length);
+    assertThat(fs.list("")).extracting(FileSystemNode::getName).containsExactly("export");
+  }
+
+  @Test
+  void copySharesChunks() throws IOException {
+    byte[] content = new byte[16 * 1024];
+    new Random(4).nextBytes(content);
+    FileService fs = getFs();
+    fs.save(content, "a.bin");
+    long chunks = countChunks();
+
+    fs.copy("a.bin", "b.bin");
+
+    assertThat(countChunks()).isEqualTo(chunks);
+    assertThat(fs.getBytes("b.bin")).isEqualTo(content);
+  }
+
+  @Test
+  void collectGarbage() throws IOException {
+    byte[] content = new byte[16 * 1024];
+    new Random(5).nextBytes(content);
+    ChunkingFileService fs = new ChunkingFileService(new MockFileService(tempDir), OPTIONS);
+    fs.save(content, "a.bin");
+    fs.save(content, "b.bin");
+    fs.saveText("small", "c.txt");
+    long chunks = countChunks();
+
+    fs.delete("a.bin");
+    assertThat(fs.collectGarbage()).isZero();
+    fs.delete("b.bin");
+    assertThat(fs.collectGarbage()).isEqualTo(chunks - 1);
+    assertThat(fs.read("c.txt")).isEqualTo("small");
+
+    fs.save(content, "a.bin");
+    assertThat(fs.getBytes("a.bin")).isEqualTo(content);
+  }
+
+  @Test
+  void archivesContent() {
+    byte[] content = new byte[32 * 1024];
+    new Random(6).nextBytes(content);
+    FileService fs = getFs();
+    fs.save(content, "export/a.bin");
+    fs.saveText("small", "export/nested/b.txt");
+
+    assertThat(fs.list("export")).filteredOn(node -> !node.isDirectory()).singleElement()
+        .extracting(FileSystemNode::getSize).isEqualTo((long) content.length);
+    ByteArrayOutputStream tar = new ByteArrayOutputStream();
+    fs.tar("export", tar, "tar");
+    fs.untar(new ByteArrayInputStream(tar.toByteArray()), "restored");
+    ByteArrayOutputStream zip = new ByteArrayOutputStream();
+    fs.zip("export", zip, "zip", ZipOptions.builder().parallelism(2).build());
+    fs.unzip(new ZipInputStream(new ByteArrayInputStream(zip.toByteArray())), "restored");
+
+    assertThat(fs.getBytes("restored/tar/a.bin")).isEqualTo(content);
+    assertThat(fs.read("restored/tar/nested/b.txt")).isEqualTo("small");
+    assertThat(fs.getBytes("restored/zip/a.bin")).isEqualTo(content);
+    assertThat(fs.usage(fs.getFileNode("export")).size()).isEqualTo(content.length + 5L);
+  }
+
+  @Test
+  void readsPlainFiles() throws IOException {
+    Files.writeString(tempDir.resolve("plain.txt"), "plain");
+
+    assertThat(getContent("plain.txt")).isEqualTo("plain");
+    assertThat(getFs().getSize(getFs().getFileNode("plain.txt"))).isEqualTo(5);
+  }
+
+  @Test
+  void deduplicatesVersionedExports() throws IOException {
+    Random random = new Random(42);
+    StringBuilder export = new StringBuilder();
+    for (int row = 0; row < 5_000; row++) {
+      appendRow(export, random);
+    }
+    FileService fs = getFs();
+
+    long logicalBytes = 0;
+    for (int version = 0; version < 5; version++) {
+      for (int edit = 0; version > 0 && edit < 4; edit++) {
+        int position = export.indexOf("\n", random.nextInt(export.length() - 1)) + 1;
+        StringBuilder row = new StringBuilder();
+        appendRow(row, random);
+        export.replace(position, export.indexOf("\n", position) + 1, row.toString());
+      }
+      byte[] content = export.toString().getBytes(StandardCharsets.UTF_8);
+      fs.save(content, "exports/v" + version + ".csv");
+      logicalBytes += content.length;
+    }
+
+    assertThat((double) logicalBytes / storedBytes()).isGreaterThan(3);
+    assertThat(fs.read("exports/v4.csv")).isEqualTo(export.toString());
+  }
+
+  @Test
+  void sizesAreReadWithRangedReads() throws IOException {
+    AtomicInteger opened = new AtomicInteger();
+    AtomicInteger ranged = new AtomicInteger();
+    MockFileService counting = new MockFileService(tempDir) {
+      @Override
+      public InputStream open(FileSystemNode node) {
+        opened.incrementAndGet();
+        return super.open(node);
+      }
+
+      @Override
+      public InputStream open(FileSystemNode node, long offset, long length) {
+        ranged.incrementAndGet();
+        return super.open(node, offset, length);
+      }
+    };
+    ChunkingFileService fs = new ChunkingFileService(counting, OPTIONS);
+    byte[] content = new byte[16 * 1024];
+    new Random(5).nextBytes(content);
+    fs.save(content, "docs/chunked.bin");
+    Files.write(tempDir.resolve("docs/plain.bin"), content);
+    Files.writeString(tempDir.resolve("docs/small.txt"), "small");
+    // starts like a manifest but its length does not match
+    ByteArrayOutputStream lookalike = new ByteArrayOutputStream();
+    new ChunkManifest(1, List.of()).write(lookalike);
+    lookalike.write(content);
+    Files.write(tempDir.resolve("docs/lookalike.bin"), lookalike.toByteArray());
+
+    assertThat(fs.list(fs.getFileNode("docs")))
+        .extracting(FileSystemNode::getName, FileSystemNode::getSize)
+        .containsExactlyInAnyOrder(
+            tuple("chunked.bin", (long) content.length),
+            tuple("plain.bin", (long) content.length),
+            tuple("small.txt", 5L),
+            tuple("lookalike.bin", (long) lookalike.size()));
+    // too small to be a manifest is not read at all, the others only by their header
+    assertThat(ranged.get()).isEqualTo(3);
+    assertThat(opened.get()).isEqualTo(ranged.get());
+    assertThat(fs.collectGarbage()).isZero();
+    assertThat(fs.getBytes("docs/chunked.bin")).isEqualTo(content);
+  }
+
+  private long storedBytes() throws IOException {
+    try (Stream<Path> files = Files.walk(tempDir)) {
+      long size = 0;
+      for (Path file : files.filter(Files::isRegularFile).toList()) {
+        size += Files.size(file);
+      }
+      return size;
+    }
+  }
+
+  private static void appendRow(StringBuilder export, Random random) {
+    export.append(random.nextInt(1_000_000)).append(',')
+        .append(Long.toHexString(random.nextLong())).append(',')
+        .append(random.nextDouble()).append('\n');
+  }
+
+  private long countChunks() throws IOException {
+    Path chunks = tempDir.resolve(OPTIONS.getChunkDirectory());
+    if (!Files.exists(chunks)) {
+      return 0;
+    }
+    try (Stream<Path> files = Files.walk(chunks)) {
+      return files.filter(Files::isRegularFile).count();
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package be.mathiasbosman.fs.core.coalesce;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.domain.NodeMetadata;
+import be.mathiasbosman.fs.core.service.DelegatingFileServiceTest;
+import be.mathiasbosman.fs.core.service.FileService;
+import be.mathiasbosman.fs.core.service.MockFileService;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class CoalescingFileServiceTest extends DelegatingFileServiceTest {
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(10);
+
+  @AfterEach
+  void afterEach() {
+    executor.shutdownNow();
+  }
+
+  @Override
+  protected FileService decorate(FileService delegate) {
+    return new CoalescingFileService(delegate);
+  }
+
+  @Test
+  void concurrentReadsAreCoalesced() throws InterruptedException {
+    putObject("hot/config.json", "{}");
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger opens = new AtomicInteger();
+    MockFileService blocking = new MockFileService(tempDir) {
+      @Override
+      public InputStream open(FileSystemNode node) {
+        opens.incrementAndGet();
+        await(release);
+        return super.open(node);
+      }
+    };
+    CoalescingFileService fs = new CoalescingFileService(blocking);
+    FileSystemNode node = fs.getFileNode("hot/config.json");
+
+    List<CompletableFuture<String>> reads = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      reads.add(CompletableFuture.supplyAsync(
+          () -> new String(fs.getBytes(node), StandardCharsets.UTF_8), executor));
+    }
+    awaitCoalesced(fs, 9);
+    release.countDown();
+
+    assertThat(reads).allSatisfy(read -> assertThat(read.join()).isEqualTo("{}"));
+    assertThat(opens.get()).isEqualTo(1);
+  }
+
+  @Test
+  void failureIsDeliveredToEveryWaiter() throws InterruptedException {
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger lookups = new AtomicInteger();
+    MockFileService failing = new MockFileService(tempDir) {
+      @Override
+      protected NodeMetadata getNodeMetadata(String path) {
+        lookups.incrementAndGet();
+        await(release);
+        throw new FileServiceException("Mocked failure");
+      }
+    };
+    CoalescingFileService fs = new CoalescingFileService(failing);
+
+    List<CompletableFuture<Boolean>> lookupsInFlight = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      lookupsInFlight.add(CompletableFuture.supplyAsync(
+          () -> fs.getOptionalFileNode("hot/missing") != null, executor));
+    }
+    awaitCoalesced(fs, 4);
+    release.countDown();
+
+    assertThat(lookupsInFlight).allSatisfy(lookup -> assertThatThrownBy(lookup::join)
+        .hasCauseInstanceOf(FileServiceException.class)
+        .hasMessageContaining("Mocked failure"));
+    assertThat(lookups.get()).isEqualTo(1);
+    // nothing is cached
+    assertThatThrownBy(() -> fs.getOptionalFileNode("hot/missing"))
+        .isInstanceOf(FileServiceException.class);
+    assertThat(lookups.get()).isEqualTo(2);
+  }
+
+  @Test
+  void largeFilesAreNotShared() {
+    putObject("large.bin", "0123456789");
+    AtomicInteger opens = new AtomicInteger();
+    MockFileService counting = new MockFileService(tempDir) {
+      @Override
+      public InputStream open(FileSystemNode node) {
+        opens.incrementAndGet();
+        return super.open(node);
+      }
+    };
+    CoalescingFileService fs = new CoalescingFileService(counting, 5);
+    FileSystemNode node = fs.getFileNode("large.bin");
+
+    assertThat(fs.getBytes(node)).hasSize(10);
+    assertThat(fs.getBytes(node)).hasSize(10);
+    assertThat(opens.get()).isEqualTo(2);
+    assertThat(fs.getCoalescedCount()).isZero();
+  }
+
+  private static void awaitCoalesced(CoalescingFileService fs, long coalesced)
+      throws InterruptedException {
+    while (fs.getCoalescedCount() < coalesced) {
+      TimeUnit.MILLISECONDS.sleep(5);
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+  }
+}
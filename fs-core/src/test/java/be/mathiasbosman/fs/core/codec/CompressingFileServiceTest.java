@@ -0,0 +1,172 @@
+package be.mathiasbosman.fs.core.codec;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.domain.Usage;
+import be.mathiasbosman.fs.core.service.DelegatingFileServiceTest;
+import be.mathiasbosman.fs.core.service.FileService;
+import be.mathiasbosman.fs.core.service.MockFileService;
+import be.mathiasbosman.fs.core.zip.ZipOptions;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipInputStream;
+import org.junit.jupiter.api.Test;
+
+class CompressingFileServiceTest extends DelegatingFileServiceTest {
+
+  private static final String TEXT = "Lorem ipsum dolor sit amet. ".repeat(1000);
+
+  @Override
+  protected FileService decorate(FileService delegate) {
+    return new CompressingFileService(delegate);
+  }
+
+  @Test
+  void compressesOnSave() throws IOException {
+    FileService fs = getFs();
+    fs.saveText(TEXT, "docs/lorem.txt");
+
+    byte[] stored = Files.readAllBytes(tempDir.resolve("docs/lorem.txt"));
+    assertThat(stored.length).isLessThan(TEXT.length() / 10);
+    assertThat(ByteBuffer.wrap(stored).getInt()).isEqualTo(CompressingFileService.MAGIC);
+    FileSystemNode node = fs.getFileNode("docs/lorem.txt");
+    assertThat(node.getSize()).isEqualTo(TEXT.length());
+    assertThat(fs.list(fs.getFileNode("docs"))).singleElement()
+        .extracting(FileSystemNode::getSize).isEqualTo((long) TEXT.length());
+    assertThat(fs.getSize(node)).isEqualTo(TEXT.length());
+    assertThat(fs.getSize(fs.getFileNode("docs"))).isEqualTo(TEXT.length());
+    assertThat(getContent("docs/lorem.txt")).isEqualTo(TEXT);
+  }
+
+  @Test
+  void archivesOriginalContent() throws IOException {
+    FileService fs = getFs();
+    fs.saveText(TEXT, "docs/lorem.txt");
+    fs.save(new ByteArrayInputStream((TEXT + TEXT).getBytes(StandardCharsets.UTF_8)),
+        "docs/nested/lorem.txt");
+
+    ByteArrayOutputStream tar = new ByteArrayOutputStream();
+    fs.tar("docs", tar, "tar");
+    fs.untar(new ByteArrayInputStream(tar.toByteArray()), "restored");
+    ByteArrayOutputStream zip = new ByteArrayOutputStream();
+    fs.zip("docs", zip, "zip", ZipOptions.builder().parallelism(2).build());
+    fs.unzip(new ZipInputStream(new ByteArrayInputStream(zip.toByteArray())), "restored");
+
+    assertThat(getContent("restored/tar/lorem.txt")).isEqualTo(TEXT);
+    assertThat(getContent("restored/tar/nested/lorem.txt")).isEqualTo(TEXT + TEXT);
+    assertThat(getContent("restored/zip/nested/lorem.txt")).isEqualTo(TEXT + TEXT);
+    Usage usage = fs.usage(fs.getFileNode("docs"), true);
+    assertThat(usage.size()).isEqualTo(3L * TEXT.length());
+    assertThat(usage.files()).isEqualTo(2);
+    assertThat(usage.children().get("nested").size()).isEqualTo(2L * TEXT.length());
+    assertThat(fs.usage(fs.getFileNode("docs")).size()).isEqualTo(3L * TEXT.length());
+  }
+
+  @Test
+  void sizeOfStreamedContent() {
+    FileService fs = getFs();
+    fs.save(new ByteArrayInputStream(TEXT.getBytes(StandardCharsets.UTF_8)), "stream.txt");
+
+    assertThat(fs.getSize(fs.getFileNode("stream.txt"))).isEqualTo(TEXT.length());
+    assertThat(getContent("stream.txt")).isEqualTo(TEXT);
+  }
+
+  @Test
+  void sizesAreReadWithRangedReads() {
+    AtomicInteger opened = new AtomicInteger();
+    AtomicInteger ranged = new AtomicInteger();
+    MockFileService counting = new MockFileService(tempDir) {
+      @Override
+      public InputStream open(FileSystemNode node) {
+        opened.incrementAndGet();
+        return super.open(node);
+      }
+
+      @Override
+      public InputStream open(FileSystemNode node, long offset, long length) {
+        ranged.incrementAndGet();
+        return super.open(node, offset, length);
+      }
+    };
+    CompressionPolicy policy = CompressionPolicy.builder()
+        .extension("log", new GzipCodec(9))
+        .build();
+    FileService fs = new CompressingFileService(counting, policy);
+    byte[] content = TEXT.getBytes(StandardCharsets.UTF_8);
+    fs.save(new ByteArrayInputStream(content), "docs/deflate.txt");
+    fs.save(new ByteArrayInputStream(content), "docs/gzip.log");
+    fs.save(content, "docs/known.txt");
+    fs.saveText(TEXT, "docs/image.png");
+
+    assertThat(fs.list(fs.getFileNode("docs")))
+        .extracting(FileSystemNode::getSize)
+        .containsOnly((long) TEXT.length());
+    assertThat(fs.getSize(fs.getFileNode("docs"))).isEqualTo(4L * TEXT.length());
+    // every open was a ranged read of a header or trailer
+    assertThat(ranged.get()).isPositive();
+    assertThat(opened.get()).isEqualTo(ranged.get());
+    assertThat(fs.read("docs/deflate.txt")).isEqualTo(TEXT);
+    assertThat(fs.read("docs/gzip.log")).isEqualTo(TEXT);
+  }
+
+  @Test
+  void skipsCompressedTypes() throws IOException {
+    getFs().saveText(TEXT, "image.png");
+
+    assertThat(Files.readString(tempDir.resolve("image.png"))).isEqualTo(TEXT);
+    assertThat(getContent("image.png")).isEqualTo(TEXT);
+  }
+
+  @Test
+  void codecPerExtension() throws IOException {
+    CompressionPolicy policy = CompressionPolicy.builder()
+        .defaultCodec(null)
+        .extension("log", new GzipCodec(9))
+        .build();
+    FileService fs = new CompressingFileService(new MockFileService(tempDir), policy);
+    fs.saveText(TEXT, "app.log");
+    fs.saveText(TEXT, "app.txt");
+
+    byte[] stored = Files.readAllBytes(tempDir.resolve("app.log"));
+    assertThat(stored[CompressingFileService.HEADER_SIZE - Long.BYTES - 1])
+        .isEqualTo((byte) GzipCodec.ID);
+    assertThat(Files.readString(tempDir.resolve("app.txt"))).isEqualTo(TEXT);
+    assertThat(new String(fs.getBytes("app.log"), StandardCharsets.UTF_8)).isEqualTo(TEXT);
+  }
+
+  @Test
+  void failingSource() {
+    InputStream failing = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        throw new IOException("Mocked IOException");
+      }
+    };
+    FileService fs = getFs();
+
+    assertThatThrownBy(() -> fs.save(failing, "failing.txt"))
+        .isInstanceOf(RuntimeException.class);
+  }
+
+  @Test
+  void unknownCodec() throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(CompressingFileService.HEADER_SIZE)
+        .putInt(CompressingFileService.MAGIC).put((byte) 99).putLong(5);
+    Files.write(tempDir.resolve("unknown"), header.array());
+    FileService fs = getFs();
+    FileSystemNode node = fs.getFileNode("unknown");
+
+    assertThatThrownBy(() -> fs.open(node))
+        .isInstanceOf(FileServiceException.class)
+        .hasMessageContaining("99");
+  }
+}
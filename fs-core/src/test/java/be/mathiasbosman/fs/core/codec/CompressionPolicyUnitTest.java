@@ -0,0 +1,52 @@
+package be.mathiasbosman.fs.core.codec;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class CompressionPolicyUnitTest {
+
+  @Test
+  void select() {
+    CompressionCodec gzip = new GzipCodec();
+    CompressionCodec fast = new DeflateCodec(1);
+    CompressionPolicy policy = CompressionPolicy.builder()
+        .extension("png", gzip)
+        .contentType("text/", fast)
+        .build();
+
+    assertThat(policy.select("a/b.png")).isSameAs(gzip);
+    assertThat(policy.select("a/b.JPG")).isNull();
+    assertThat(policy.select("a/b.zip")).isNull();
+    assertThat(policy.select("a/b.txt")).isSameAs(fast);
+    assertThat(policy.select("a/b")).isSameAs(policy.getDefaultCodec());
+    assertThat(CompressionPolicy.builder().defaultCodec(null).build().select("a/b")).isNull();
+  }
+
+  @Test
+  void roundTrip() throws IOException {
+    byte[] content = "abc".repeat(10_000).getBytes(StandardCharsets.UTF_8);
+    for (CompressionCodec codec : new CompressionCodec[]{new DeflateCodec(), new GzipCodec(1)}) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try (OutputStream compressed = codec.compress(out)) {
+        compressed.write(content);
+      }
+      assertThat(out.size()).isLessThan(content.length / 10);
+      try (InputStream in = codec.decompress(new ByteArrayInputStream(out.toByteArray()))) {
+        assertThat(in.readAllBytes()).isEqualTo(content);
+      }
+    }
+  }
+
+  @Test
+  void invalidLevel() {
+    assertThatThrownBy(() -> new DeflateCodec(10)).isInstanceOf(IllegalArgumentException.class);
+  }
+}
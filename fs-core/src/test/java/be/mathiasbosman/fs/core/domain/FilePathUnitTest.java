@@ -0,0 +1,60 @@
+package be.mathiasbosman.fs.core.domain;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class FilePathUnitTest {
+
+  @Test
+  void of() {
+    assertThat(FilePath.of()).isSameAs(FilePath.ROOT);
+    assertThat(FilePath.of((String) null)).isSameAs(FilePath.ROOT);
+    assertThat(FilePath.of(" ", "/")).isSameAs(FilePath.ROOT);
+    assertThat(FilePath.of("x", " y", " ", "z")).hasToString("x/y/z");
+    assertThat(FilePath.of("/x/y/", "/z")).hasToString("x/y/z");
+    assertThat(FilePath.of("x//y")).hasToString("x/y");
+  }
+
+  @Test
+  void derivation() {
+    FilePath path = FilePath.of("a/b/c.txt");
+    assertThat(path.getName()).isEqualTo("c.txt");
+    assertThat(path.getDepth()).isEqualTo(3);
+    assertThat(path.getParent()).hasToString("a/b");
+    assertThat(path.getParentPath()).isEqualTo("a/b");
+    assertThat(FilePath.of("a").getParent()).isSameAs(FilePath.ROOT);
+    assertThat(FilePath.of("a").getParentPath()).isNull();
+    assertThat(FilePath.ROOT.getParent()).isNull();
+    assertThat(FilePath.ROOT.getParentPath()).isNull();
+    assertThat(FilePath.ROOT.getName()).isEmpty();
+    assertThat(FilePath.of("a").child("b").child("c.txt")).isEqualTo(path);
+    assertThat(FilePath.of("a").child("b/c.txt")).isEqualTo(path);
+    assertThat(FilePath.of("a").child("")).isEqualTo(FilePath.of("a"));
+  }
+
+  @Test
+  void equalsAndHashCode() {
+    FilePath left = FilePath.of("a", "b");
+    FilePath right = FilePath.of("a/b");
+    assertThat(left).isEqualTo(right).hasSameHashCodeAs(right);
+    assertThat(left).isNotEqualTo(FilePath.of("b/a")).isNotEqualTo(FilePath.of("a"));
+    assertThat(left.getName()).isSameAs(right.getName());
+  }
+
+  @Test
+  void startsWith() {
+    FilePath path = FilePath.of("a/b/c");
+    assertThat(path.startsWith(FilePath.ROOT)).isTrue();
+    assertThat(path.startsWith(FilePath.of("a/b"))).isTrue();
+    assertThat(path.startsWith(path)).isTrue();
+    assertThat(path.startsWith(FilePath.of("a/c"))).isFalse();
+    assertThat(FilePath.of("a").startsWith(path)).isFalse();
+  }
+
+  @Test
+  void compareTo() {
+    assertThat(FilePath.of("a/b")).isLessThan(FilePath.of("a/c"));
+    assertThat(FilePath.of("a")).isLessThan(FilePath.of("a/b"));
+  }
+}
@@ -0,0 +1,71 @@
+package be.mathiasbosman.fs.core.domain;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Date;
+import org.junit.jupiter.api.Test;
+
+class FileSystemNodeListUnitTest {
+
+  @Test
+  void buildSortsByName() {
+    FileSystemNodeList list = FileSystemNodeList.builder(FilePath.of("x/y"))
+        .add("c", false, 3, 30L)
+        .add("a", true, 0, (Date) null)
+        .add("bb", false, 2, new Date(20L))
+        .add("b", false, 1, 10L)
+        .build();
+
+    assertThat(list).extracting(FileSystemNode::getName).containsExactly("a", "b", "bb", "c");
+    assertThat(list.getSize(2)).isEqualTo(2);
+    assertThat(list.isDirectory(0)).isTrue();
+    assertThat(list.getLastModifiedMillis(3)).isEqualTo(30L);
+  }
+
+  @Test
+  void rowView() {
+    FileSystemNodeList list = FileSystemNodeList.builder(FilePath.of("x/y"))
+        .add("a", false, 5, 10L)
+        .add("b", true, 0, (Date) null)
+        .build();
+
+    FileSystemNode file = list.get(0);
+    assertThat(file.getName()).isEqualTo("a");
+    assertThat(file.getPath()).isEqualTo("x/y/a");
+    assertThat(file.getParentPath()).isEqualTo("x/y");
+    assertThat(file.getFilePath()).isEqualTo(FilePath.of("x/y/a"));
+    assertThat(file.getSize()).isEqualTo(5);
+    assertThat(file.isDirectory()).isFalse();
+    assertThat(file.getLastModified()).isEqualTo(new Date(10L));
+    FileSystemNode directory = list.get(1);
+    assertThat(directory.isDirectory()).isTrue();
+    assertThat(directory.getLastModified()).isNull();
+    assertThatThrownBy(() -> list.get(2)).isInstanceOf(IndexOutOfBoundsException.class);
+  }
+
+  @Test
+  void rootListing() {
+    FileSystemNodeList list = FileSystemNodeList.builder(FilePath.ROOT)
+        .add("a", false, 1, 1L)
+        .build();
+
+    assertThat(list.get(0).getPath()).isEqualTo("a");
+    assertThat(list.get(0).getParentPath()).isNull();
+  }
+
+  @Test
+  void growsBeyondInitialCapacity() {
+    FileSystemNodeList.Builder builder = FileSystemNodeList.builder(FilePath.ROOT);
+    for (int i = 999; i >= 0; i--) {
+      builder.add(String.format("node-%04d", i), false, i, i);
+    }
+    FileSystemNodeList list = builder.build();
+
+    assertThat(list).hasSize(1000);
+    for (int i = 0; i < 1000; i++) {
+      assertThat(list.getName(i)).isEqualTo(String.format("node-%04d", i));
+      assertThat(list.getSize(i)).isEqualTo(i);
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package be.mathiasbosman.fs.core.schedule;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class IoSchedulerUnitTest {
+
+  @Test
+  void tenantsAreServedRoundRobin() throws InterruptedException {
+    IoScheduler scheduler = new IoScheduler(SchedulingOptions.builder()
+        .maxConcurrency(1)
+        .build());
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch unblock = new CountDownLatch(1);
+    CompletableFuture<Object> blocking = CompletableFuture.supplyAsync(
+        () -> scheduler.run(IoClass.BATCH, "x", () -> {
+          blocked.countDown();
+          try {
+            return unblock.await(5, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+          }
+        }));
+    blocked.await();
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+    List<CompletableFuture<?>> queued = new ArrayList<>();
+    String[] tenants = {"a", "a", "a", "b", "c"};
+    for (String tenant : tenants) {
+      queued.add(CompletableFuture.runAsync(
+          () -> scheduler.run(IoClass.BATCH, tenant, () -> order.add(tenant))));
+      while (scheduler.getStatistics(IoClass.BATCH).queued() < queued.size()) {
+        TimeUnit.MILLISECONDS.sleep(5);
+      }
+    }
+    unblock.countDown();
+    blocking.join();
+    queued.forEach(CompletableFuture::join);
+
+    assertThat(order).containsExactly("a", "b", "c", "a", "a");
+    assertThat(scheduler.getStatistics(IoClass.BATCH).completed()).isEqualTo(6);
+  }
+
+  @Test
+  void nestedOperationsAreAdmitted() {
+    IoScheduler scheduler = new IoScheduler(SchedulingOptions.builder()
+        .maxConcurrency(1)
+        .build());
+
+    assertThat(scheduler.run(IoClass.BATCH, "a",
+        () -> scheduler.run(IoClass.INTERACTIVE, "b", () -> "nested"))).isEqualTo("nested");
+    assertThat(scheduler.getStatistics(IoClass.BATCH).running()).isZero();
+  }
+
+  @Test
+  void invalidConcurrency() {
+    SchedulingOptions options = SchedulingOptions.builder().batchConcurrency(0).build();
+
+    assertThatThrownBy(() -> new IoScheduler(options))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
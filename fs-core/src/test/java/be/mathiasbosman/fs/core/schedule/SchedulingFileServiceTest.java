@@ -0,0 +1,169 @@
+package be.mathiasbosman.fs.core.schedule;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.service.DelegatingFileServiceTest;
+import be.mathiasbosman.fs.core.service.FileService;
+import be.mathiasbosman.fs.core.service.MockFileService;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class SchedulingFileServiceTest extends DelegatingFileServiceTest {
+
+  @Override
+  protected FileService decorate(FileService delegate) {
+    return new SchedulingFileService(delegate);
+  }
+
+  @Test
+  void batchConcurrencyIsLimited() {
+    for (int i = 0; i < 8; i++) {
+      putObject("tenant/" + i, "-");
+    }
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    MockFileService slow = new MockFileService(tempDir) {
+      @Override
+      public InputStream open(FileSystemNode node) {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+          TimeUnit.MILLISECONDS.sleep(50);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } finally {
+          running.decrementAndGet();
+        }
+        return super.open(node);
+      }
+    };
+    SchedulingFileService fs = new SchedulingFileService(slow, SchedulingOptions.builder()
+        .batchConcurrency(2)
+        .build());
+    FileService batch = fs.batch();
+
+    List<CompletableFuture<byte[]>> reads = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      String path = "tenant/" + i;
+      reads.add(CompletableFuture.supplyAsync(() -> batch.getBytes(path)));
+    }
+    reads.forEach(CompletableFuture::join);
+
+    assertThat(maxRunning.get()).isEqualTo(2);
+    IoStatistics statistics = fs.getStatistics(IoClass.BATCH);
+    assertThat(statistics.completed()).isGreaterThanOrEqualTo(8);
+    assertThat(statistics.running()).isZero();
+    assertThat(statistics.queued()).isZero();
+    assertThat(statistics.maxWait()).isPositive();
+    assertThat(fs.getStatistics(IoClass.INTERACTIVE).completed()).isZero();
+  }
+
+  @Test
+  void interactiveGoesFirst() throws InterruptedException {
+    putObject("a/blocking", "-");
+    putObject("a/file", "-");
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch unblock = new CountDownLatch(1);
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+    MockFileService blocking = new MockFileService(tempDir) {
+      @Override
+      protected boolean exists(String path) {
+        if (path.equals("a/blocking")) {
+          blocked.countDown();
+          try {
+            unblock.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        return super.exists(path);
+      }
+
+      @Override
+      public List<FileSystemNode> list(FileSystemNode root) {
+        order.add(root.getPath());
+        return super.list(root);
+      }
+    };
+    SchedulingFileService fs = new SchedulingFileService(blocking, SchedulingOptions.builder()
+        .maxConcurrency(1)
+        .build());
+    FileService batch = fs.batch();
+    FileSystemNode root = fs.getFileNode("a");
+    CompletableFuture<Boolean> first = CompletableFuture.supplyAsync(
+        () -> batch.exists("a/blocking"));
+    blocked.await();
+    List<CompletableFuture<?>> queued = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      queued.add(CompletableFuture.runAsync(() -> batch.list(root)));
+      awaitQueued(fs, IoClass.BATCH, i + 1);
+    }
+    queued.add(CompletableFuture.runAsync(() -> fs.list(fs.getFileNode("/"))));
+    awaitQueued(fs, IoClass.INTERACTIVE, 1);
+    unblock.countDown();
+    first.join();
+    queued.forEach(CompletableFuture::join);
+
+    assertThat(order).containsExactly("", "a", "a", "a");
+  }
+
+  @Test
+  void openStreamHoldsSlotUntilClosed() throws IOException, InterruptedException {
+    putObject("a", "-");
+    putObject("b", "-");
+    SchedulingFileService fs = new SchedulingFileService(new MockFileService(tempDir),
+        SchedulingOptions.builder()
+            .batchConcurrency(1)
+            .build());
+    FileService batch = fs.batch();
+
+    InputStream first = batch.open("a");
+    assertThat(fs.getStatistics(IoClass.BATCH).running()).isOne();
+    // the thread holding the stream is not blocked by its own slot
+    assertThat(batch.exists("b")).isTrue();
+    CompletableFuture<byte[]> second = CompletableFuture.supplyAsync(() -> batch.getBytes("b"));
+    awaitQueued(fs, IoClass.BATCH, 1);
+    assertThat(second).isNotDone();
+    first.close();
+    first.close();
+
+    assertThat(second.join()).isEqualTo("-".getBytes());
+    IoStatistics statistics = fs.getStatistics(IoClass.BATCH);
+    assertThat(statistics.running()).isZero();
+    assertThat(statistics.queued()).isZero();
+  }
+
+  @Test
+  void bandwidthIsLimited() {
+    putObject("large", "x".repeat(100_000));
+    SchedulingFileService fs = new SchedulingFileService(new MockFileService(tempDir),
+        SchedulingOptions.builder()
+            .batchBandwidth(50_000)
+            .build());
+
+    long start = System.nanoTime();
+    assertThat(fs.getBytes("large")).hasSize(100_000);
+    long interactive = System.nanoTime() - start;
+    start = System.nanoTime();
+    assertThat(fs.batch().getBytes("large")).hasSize(100_000);
+    long batch = System.nanoTime() - start;
+
+    assertThat(TimeUnit.NANOSECONDS.toMillis(batch)).isGreaterThanOrEqualTo(800);
+    assertThat(interactive).isLessThan(batch);
+  }
+
+  private static void awaitQueued(SchedulingFileService fs, IoClass ioClass, int queued)
+      throws InterruptedException {
+    while (fs.getStatistics(ioClass).queued() < queued) {
+      TimeUnit.MILLISECONDS.sleep(5);
+    }
+  }
+}
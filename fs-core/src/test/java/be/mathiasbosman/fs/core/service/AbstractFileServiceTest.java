@@ -3,22 +3,39 @@ package be.mathiasbosman.fs.core.service;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 
 import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.domain.PathContent;
+import be.mathiasbosman.fs.core.domain.PathResult;
+import be.mathiasbosman.fs.core.domain.Usage;
+import be.mathiasbosman.fs.core.util.BufferPool;
 import be.mathiasbosman.fs.core.util.FileServiceUtils;
+import be.mathiasbosman.fs.core.tar.TarOptions;
+import be.mathiasbosman.fs.core.watch.ChangeFeedOptions;
+import be.mathiasbosman.fs.core.watch.FileChangeEvent;
+import be.mathiasbosman.fs.core.watch.FileChangeEvent.Kind;
+import be.mathiasbosman.fs.core.watch.Subscription;
+import be.mathiasbosman.fs.core.zip.ZipOptions;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -65,7 +82,7 @@ public abstract class AbstractFileServiceTest {
   }
 
   @Test
-  void getBytes() {
+  void getBytes() throws IOException {
     putObject("path/to/object", "content");
 
     FileService fs = getFs();
@@ -73,11 +90,12 @@ public abstract class AbstractFileServiceTest {
     assertThat(fs.getBytes(objectNode)).isEqualTo("content".getBytes());
     assertThat(fs.getBytes("path", "to", "object")).isEqualTo("content".getBytes());
 
-    try (MockedStatic<IOUtils> mockedIOUtils = Mockito.mockStatic(IOUtils.class)) {
-      mockedIOUtils.when(() -> IOUtils.toByteArray(any(InputStream.class)))
-          .thenThrow(new IOException("Mocked IOException"));
-
-      putObject("path/to/failingObject");
+    putObject("path/to/failingObject");
+    BufferPool failingPool = Mockito.mock(BufferPool.class);
+    Mockito.when(failingPool.toByteArray(any(InputStream.class), anyLong()))
+        .thenThrow(new IOException("Mocked IOException"));
+    try (MockedStatic<BufferPool> mockedPool = Mockito.mockStatic(BufferPool.class)) {
+      mockedPool.when(BufferPool::shared).thenReturn(failingPool);
 
       assertThatThrownBy(() -> fs.getBytes("path/to/failingObject"))
           .isInstanceOf(IllegalStateException.class)
@@ -248,6 +266,24 @@ public abstract class AbstractFileServiceTest {
     assertThat(fs.exists("folder/more.txt")).isFalse();
   }
 
+  @Test
+  void openRange() throws IOException {
+    putObject("path/to/object", "0123456789");
+    FileService fs = getFs();
+    FileSystemNode node = fs.getFileNode("path/to/object");
+
+    try (InputStream in = fs.open(node, 2, 5)) {
+      assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("23456");
+    }
+    try (InputStream in = fs.open(node, 8, 5)) {
+      assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("89");
+    }
+    try (InputStream in = fs.open(node, 0, 0)) {
+      assertThat(in.readAllBytes()).isEmpty();
+    }
+    assertThatThrownBy(() -> fs.open(node, -1, 5)).isInstanceOf(IllegalArgumentException.class);
+  }
+
   @Test
   void getSize() {
     putObject("path/to/objectA", "contentA");
@@ -261,6 +297,28 @@ public abstract class AbstractFileServiceTest {
     );
   }
 
+  @Test
+  void usage() {
+    putObject("u/a", "12");
+    putObject("u/b/c", "345");
+    putObject("u/b/d/e", "6");
+    putDirectory("u/f");
+
+    FileService fs = getFs();
+    Usage usage = fs.usage(fs.getFileNode("u"), true);
+    assertThat(usage.size()).isEqualTo(6);
+    assertThat(usage.files()).isEqualTo(3);
+    assertThat(usage.directories()).isEqualTo(3);
+    assertThat(usage.lastModified()).isNotNull();
+    assertThat(usage.children()).containsOnlyKeys("a", "b", "f");
+    assertThat(usage.children().get("b")).extracting(Usage::size, Usage::files,
+        Usage::directories).containsExactly(4L, 2L, 1L);
+    assertThat(usage.children().get("f").files()).isZero();
+    assertThat(fs.usage(fs.getFileNode("u/b")).children()).isEmpty();
+    assertThat(fs.usage(fs.getFileNode("u/a"))).extracting(Usage::size, Usage::files)
+        .containsExactly(2L, 1L);
+  }
+
   @Test
   void walk() {
     putDirectory("x");
@@ -291,6 +349,89 @@ public abstract class AbstractFileServiceTest {
     assertThat(getFs().countFiles(getFs().getFileNode("path/to"))).isEqualTo(3);
   }
 
+  @Test
+  void getFileNodes() {
+    putObject("x/a");
+    putDirectory("x/b");
+    List<String> paths = new ArrayList<>(List.of("x/a", "x/b", "x/c"));
+    for (int i = 0; i < 10; i++) {
+      putObject("y/" + i);
+      paths.add("y/" + i);
+    }
+    paths.add("y/missing");
+
+    Map<String, PathResult<FileSystemNode>> nodes = getFs().getFileNodes(paths, 4);
+
+    assertThat(nodes.keySet()).containsExactlyElementsOf(paths);
+    assertThat(nodes.values()).allMatch(PathResult::isSuccess);
+    assertThat(nodes.get("x/a").getOrThrow().isDirectory()).isFalse();
+    assertThat(nodes.get("x/b").getOrThrow().isDirectory()).isTrue();
+    assertThat(nodes.get("x/c").getOrThrow()).isNull();
+    assertThat(nodes.get("y/5").getOrThrow().getPath()).isEqualTo("y/5");
+    assertThat(nodes.get("y/missing").getOrThrow()).isNull();
+  }
+
+  @Test
+  void readAll() {
+    putObject("x/a", "a");
+    putObject("x/b", "b");
+
+    Map<String, PathResult<byte[]>> contents = getFs().readAll(List.of("x/a", "x/b", "x/c"));
+
+    assertThat(contents.keySet()).containsExactly("x/a", "x/b", "x/c");
+    assertThat(contents.get("x/a").getOrThrow()).isEqualTo("a".getBytes());
+    assertThat(contents.get("x/b").getOrThrow()).isEqualTo("b".getBytes());
+    assertThat(contents.get("x/c").isSuccess()).isFalse();
+  }
+
+  @Test
+  void saveAll() {
+    Stream<PathContent> items = Stream.concat(
+        IntStream.range(0, 50).mapToObj(i -> new PathContent("x/" + i % 5 + "/" + i,
+            String.valueOf(i).getBytes())),
+        Stream.of(new PathContent("x/invalid", null)));
+
+    List<PathResult<Void>> results = getFs().saveAll(items, 4);
+
+    assertThat(results).hasSize(51);
+    assertThat(results.subList(0, 50)).allMatch(PathResult::isSuccess);
+    assertThat(results.get(50).path()).isEqualTo("x/invalid");
+    assertThat(results.get(50).isSuccess()).isFalse();
+    assertThat(getContent("x/3/13")).isEqualTo("13");
+    assertDirectoryExists("x/4");
+  }
+
+  @Test
+  void subscribe() throws InterruptedException {
+    putDirectory("watched");
+    BlockingQueue<FileChangeEvent> events = new LinkedBlockingQueue<>();
+    ChangeFeedOptions options = ChangeFeedOptions.builder()
+        .pollInterval(Duration.ofMillis(50))
+        .batchWindow(Duration.ofMillis(20))
+        .build();
+
+    try (Subscription ignored = getFs().subscribe("watched", events::addAll, options)) {
+      getFs().save("a".getBytes(), "watched/sub/file.txt");
+      assertThat(awaitEvent(events, Kind.CREATE, "watched/sub/file.txt")).isTrue();
+      getFs().save("bb".getBytes(), "watched/sub/file.txt");
+      assertThat(awaitEvent(events, Kind.MODIFY, "watched/sub/file.txt")).isTrue();
+      getFs().delete("watched/sub/file.txt");
+      assertThat(awaitEvent(events, Kind.DELETE, "watched/sub/file.txt")).isTrue();
+    }
+  }
+
+  private static boolean awaitEvent(BlockingQueue<FileChangeEvent> events, Kind kind,
+      String path) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (System.currentTimeMillis() < deadline) {
+      FileChangeEvent event = events.poll(100, TimeUnit.MILLISECONDS);
+      if (event != null && event.kind() == kind && event.path().equals(path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   protected abstract void assertExists(String path);
 
   protected abstract void assertDirectoryExists(String path);
@@ -378,6 +519,60 @@ public abstract class AbstractFileServiceTest {
     assertThat(fs.exists("test/hello/b/a")).isTrue();
   }
 
+  @Test
+  void zipWithOptionsAndUnzip() {
+    putObject("x/a.txt", "contentA");
+    putObject("x/b/c.jpg", "contentC");
+    putObject("x/d/e.txt", "contentE");
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    final FileService fs = getFs();
+    fs.zip("x", outputStream, "hello", ZipOptions.builder()
+        .level(9)
+        .storeCompressed(true)
+        .parallelism(4)
+        .build());
+    ZipInputStream zipInputStream = new ZipInputStream(
+        new ByteArrayInputStream(outputStream.toByteArray()));
+    fs.unzip(zipInputStream, "test");
+    assertThat(getContent("test/hello/a.txt")).isEqualTo("contentA");
+    assertThat(getContent("test/hello/b/c.jpg")).isEqualTo("contentC");
+    assertThat(getContent("test/hello/d/e.txt")).isEqualTo("contentE");
+  }
+
+  @Test
+  void unzipArchiveInParallel() {
+    putObject("x/a", "contentA");
+    putObject("x/b/c", "contentC");
+    putObject("x/b/.d", "contentD");
+    putObject("x/.e/f", "contentF");
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    final FileService fs = getFs();
+    fs.zip("x", outputStream, "hello");
+    fs.save(outputStream.toByteArray(), "archive.zip");
+    fs.unzip(fs.getFileNode("archive.zip"), "test", FileServiceUtils.visible, 4);
+    assertThat(getContent("test/hello/a")).isEqualTo("contentA");
+    assertThat(getContent("test/hello/b/c")).isEqualTo("contentC");
+    assertThat(fs.exists("test/hello/b/.d")).isFalse();
+    assertThat(fs.exists("test/hello/.e/f")).isFalse();
+  }
+
+  @Test
+  void tarGzipAndUntar() {
+    putObject("x/a.txt", "contentA");
+    putObject("x/b/c.jpg", "contentC");
+    putObject("x/d/e.txt", "contentE");
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    final FileService fs = getFs();
+    fs.tar("x", outputStream, "hello", TarOptions.builder()
+        .gzip(true)
+        .parallelism(2)
+        .build());
+    fs.untar(new ByteArrayInputStream(outputStream.toByteArray()), "test");
+    assertThat(getContent("test/hello/a.txt")).isEqualTo("contentA");
+    assertThat(getContent("test/hello/b/c.jpg")).isEqualTo("contentC");
+    assertThat(getContent("test/hello/d/e.txt")).isEqualTo("contentE");
+  }
+
   @Test
   void zipUnzipHidden() {
     putObject("x/a");
@@ -0,0 +1,126 @@
+package be.mathiasbosman.fs.core.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Abstract test for decorators of a file service. The decorated file service is a
+ * {@link MockFileService} on a temporary directory, which is cleaned before every test.
+ */
+public abstract class DelegatingFileServiceTest extends AbstractFileServiceTest {
+
+  protected static Path tempDir;
+
+  private FileService fs;
+
+  @BeforeAll
+  static void createTempDir() throws IOException {
+    tempDir = Files.createTempDirectory(null);
+  }
+
+  @AfterAll
+  static void deleteTempDir() throws IOException {
+    FileUtils.deleteDirectory(tempDir.toFile());
+  }
+
+  @BeforeEach
+  void cleanTempDir() throws IOException {
+    FileUtils.cleanDirectory(tempDir.toFile());
+  }
+
+  @AfterEach
+  void closeFs() throws Exception {
+    if (fs instanceof AutoCloseable closeable) {
+      closeable.close();
+    }
+    fs = null;
+  }
+
+  /**
+   * Decorate the file service under test.
+   *
+   * @param delegate The file service to decorate
+   * @return the decorated file service
+   */
+  protected abstract FileService decorate(FileService delegate);
+
+  /**
+   * The decorated file service, created on first use and closed after the test.
+   */
+  @Override
+  protected FileService getFs() {
+    if (fs == null) {
+      fs = decorate(new MockFileService(tempDir));
+    }
+    return fs;
+  }
+
+  @Override
+  protected void assertExists(String path) {
+    assertThat(Files.exists(tempDir.resolve(path))).isTrue();
+  }
+
+  @Override
+  protected void assertDirectoryExists(String path) {
+    assertThat(Files.isDirectory(tempDir.resolve(path))).isTrue();
+  }
+
+  @Override
+  protected void assertNotExists(String path) {
+    assertThat(Files.exists(tempDir.resolve(path))).isFalse();
+  }
+
+  @Override
+  protected String getContent(String path) {
+    return new String(getFs().getBytes(path), StandardCharsets.UTF_8);
+  }
+
+  @Override
+  protected void putDirectory(String path) {
+    try {
+      Files.createDirectories(tempDir.resolve(path));
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  protected void putObject(String path, String data) {
+    Path resolvedPath = tempDir.resolve(path);
+    putDirectory(resolvedPath.getParent().toString());
+    try (OutputStream out = Files.newOutputStream(resolvedPath)) {
+      out.write(data.getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  @Override
+  protected void assertModifiedFolder(String path) {
+    final Date lastModified = getFs().getFileNode(path).getLastModified();
+    assertThat(lastModified).isNotNull();
+  }
+
+  @Test
+  @Override
+  public void stream() {
+    putObject("x/a", "-");
+    putObject("x/z", "-");
+    putObject("x/b/a", "-");
+    FileService fs = getFs();
+    // the mock file service streams recursively
+    assertThat(fs.streamDirectory(fs.getFileNode("x"))).hasSize(5);
+  }
+}
@@ -0,0 +1,150 @@
+package be.mathiasbosman.fs.core.sync;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+import be.mathiasbosman.fs.core.domain.PathResult;
+import be.mathiasbosman.fs.core.service.MockFileService;
+import be.mathiasbosman.fs.core.sync.SyncAction.Type;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TreeSyncUnitTest {
+
+  @TempDir
+  private Path sourceDir;
+  @TempDir
+  private Path targetDir;
+  private MockFileService source;
+  private MockFileService target;
+
+  @BeforeEach
+  void setUp() {
+    source = new MockFileService(sourceDir);
+    target = new MockFileService(targetDir);
+    source.saveText("a", "root/a.txt");
+    source.saveText("bb", "root/x/b.txt");
+    source.saveText("ccc", "root/x/y/c.txt");
+    source.saveText("dddd", "root/z/d.txt");
+    source.mkDirectories("root/empty");
+  }
+
+  @Test
+  void initialSync() {
+    TreeSync sync = new TreeSync(source, target);
+
+    SyncPlan plan = sync.plan("root", "copy");
+    assertThat(plan.getActions()).extracting(SyncAction::type, SyncAction::path)
+        .containsExactly(
+            tuple(Type.COPY, "a.txt"),
+            tuple(Type.CREATE_DIRECTORY, "empty"),
+            tuple(Type.CREATE_DIRECTORY, "x"),
+            tuple(Type.COPY, "x/b.txt"),
+            tuple(Type.CREATE_DIRECTORY, "x/y"),
+            tuple(Type.COPY, "x/y/c.txt"),
+            tuple(Type.CREATE_DIRECTORY, "z"),
+            tuple(Type.COPY, "z/d.txt"));
+    assertThat(target.exists("copy")).isFalse();
+
+    assertThat(sync.execute(plan)).allMatch(PathResult::isSuccess);
+    assertThat(target.read("copy/x/y/c.txt")).isEqualTo("ccc");
+    assertThat(target.isDirectory("copy/empty")).isTrue();
+    assertThat(sync.plan("root", "copy").isEmpty()).isTrue();
+  }
+
+  @Test
+  void onlyDifferencesAreSynced() {
+    TreeSync sync = new TreeSync(source, target);
+    sync.execute(sync.plan("root", "copy"));
+
+    source.saveText("changed", "root/x/b.txt");
+    source.delete("root/z/d.txt");
+    source.saveText("new", "root/z/e.txt");
+    target.saveText("stale", "copy/stale.txt");
+
+    SyncPlan plan = sync.plan("root", "copy");
+    assertThat(plan.getActions()).extracting(SyncAction::type, SyncAction::path)
+        .containsExactly(
+            tuple(Type.DELETE, "stale.txt"),
+            tuple(Type.REPLACE, "x/b.txt"),
+            tuple(Type.DELETE, "z/d.txt"),
+            tuple(Type.COPY, "z/e.txt"));
+    assertThat(sync.execute(plan)).allMatch(PathResult::isSuccess);
+    assertThat(target.read("copy/x/b.txt")).isEqualTo("changed");
+    assertThat(target.exists("copy/z/d.txt")).isFalse();
+    assertThat(target.exists("copy/stale.txt")).isFalse();
+    assertThat(target.read("copy/z/e.txt")).isEqualTo("new");
+  }
+
+  @Test
+  void keepExtraneous() {
+    TreeSync sync = new TreeSync(source, target,
+        SyncOptions.builder().deleteExtraneous(false).parallelism(1).build());
+    target.saveText("keep", "copy/keep.txt");
+
+    sync.execute(sync.plan("root", "copy"));
+
+    assertThat(target.read("copy/keep.txt")).isEqualTo("keep");
+    assertThat(sync.plan("root", "copy").isEmpty()).isTrue();
+  }
+
+  @Test
+  void typeMismatchIsReplaced() {
+    TreeSync sync = new TreeSync(source, target);
+    target.saveText("file", "copy/x");
+
+    SyncPlan plan = sync.plan("root", "copy");
+    assertThat(plan.getActions()).extracting(SyncAction::type, SyncAction::path)
+        .contains(tuple(Type.DELETE, "x"), tuple(Type.CREATE_DIRECTORY, "x"));
+    assertThat(sync.execute(plan)).allMatch(PathResult::isSuccess);
+    assertThat(target.read("copy/x/b.txt")).isEqualTo("bb");
+  }
+
+  @Test
+  void verifyContent() throws IOException {
+    TreeSync sync = new TreeSync(source, target,
+        SyncOptions.builder().verifyContent(true).build());
+    sync.execute(sync.plan("root", "copy"));
+    // same size, more recent target: only the content tells them apart
+    target.saveText("xx", "copy/x/b.txt");
+    Files.setLastModifiedTime(targetDir.resolve("copy/x/b.txt"),
+        FileTime.from(Instant.now().plusSeconds(60)));
+
+    assertThat(new TreeSync(source, target).plan("root", "copy").isEmpty()).isTrue();
+    assertThat(sync.plan("root", "copy").getActions())
+        .containsExactly(new SyncAction(Type.REPLACE, "x/b.txt", "content differs"));
+  }
+
+  @Test
+  void unchangedDirectoriesAreSkipped() throws IOException {
+    TreeSync sync = new TreeSync(source, target);
+    SyncState state = new SyncState();
+    assertThat(sync.sync("root", "copy", state)).allMatch(PathResult::isSuccess);
+    assertThat(state.size()).isEqualTo(5);
+
+    SyncPlan unchanged = sync.plan("root", "copy", state);
+    assertThat(unchanged.isEmpty()).isTrue();
+    assertThat(unchanged.getSkippedDirectories()).isEqualTo(1);
+
+    source.saveText("changed", "root/x/y/c.txt");
+    SyncPlan plan = sync.plan("root", "copy", state);
+    assertThat(plan.getActions()).extracting(SyncAction::path).containsExactly("x/y/c.txt");
+    // root, x and x/y changed, the others are skipped
+    assertThat(plan.getSkippedDirectories()).isEqualTo(2);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    state.write(out);
+    SyncState read = SyncState.read(new ByteArrayInputStream(out.toByteArray()));
+    assertThat(read.size()).isEqualTo(state.size());
+    assertThat(sync.plan("root", "copy", read).getActions()).hasSize(1);
+  }
+}
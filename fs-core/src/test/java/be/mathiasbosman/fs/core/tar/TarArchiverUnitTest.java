@@ -0,0 +1,179 @@
+package be.mathiasbosman.fs.core.tar;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.service.MockFileService;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TarArchiverUnitTest {
+
+  private static final String TEXT = "Lorem ipsum dolor sit amet. ".repeat(1000);
+  private static final String LONG_NAME = "d".repeat(120) + "/" + "f".repeat(110) + ".txt";
+
+  @TempDir
+  private Path tempDir;
+  private MockFileService fs;
+  private byte[] image;
+
+  @BeforeEach
+  void setUp() {
+    fs = new MockFileService(tempDir.resolve("fs"));
+    image = new byte[100_000];
+    new Random(1).nextBytes(image);
+    fs.saveText(TEXT, "root/a.txt");
+    fs.save(image, "root/b/photo.jpg");
+    fs.saveText("", "root/b/empty.txt");
+    fs.saveText(TEXT, "root/" + LONG_NAME);
+    for (int i = 0; i < 20; i++) {
+      fs.saveText(TEXT + i, "root/c/" + i + ".txt");
+    }
+  }
+
+  private byte[] tar(TarOptions options) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new TarArchiver(fs, options).tar("root", out, "prefix");
+    return out.toByteArray();
+  }
+
+  private static List<String> describe(byte[] archive) throws IOException {
+    List<String> entries = new ArrayList<>();
+    try (TarReader reader = new TarReader(new ByteArrayInputStream(archive))) {
+      TarEntry entry;
+      while ((entry = reader.getNextEntry()) != null) {
+        entries.add(entry.name() + ":" + entry.size() + ":"
+            + new String(reader.getContent().readAllBytes()).hashCode());
+      }
+    }
+    return entries;
+  }
+
+  @Test
+  void parallelGzipMatchesSerialTar() throws IOException {
+    byte[] serial = tar(TarOptions.DEFAULT);
+    byte[] parallel = tar(TarOptions.builder()
+        .gzip(true)
+        .parallelism(4)
+        .blockSize(4096)
+        .spoolThreshold(1024)
+        .build());
+
+    assertThat(serial.length % 512).isZero();
+    assertThat(parallel.length).isLessThan(serial.length / 2);
+    assertThat(new GZIPInputStream(new ByteArrayInputStream(parallel)).readAllBytes())
+        .isEqualTo(serial);
+    assertThat(describe(parallel)).isEqualTo(describe(serial))
+        .hasSize(28)
+        .contains("prefix/c/:0:0");
+  }
+
+  @Test
+  void untarRestoresContent() {
+    byte[] archive = tar(TarOptions.builder().gzip(true).build());
+
+    fs.untar(new ByteArrayInputStream(archive), "restored");
+
+    assertThat(fs.getBytes(fs.getFileNode("restored/prefix/b/photo.jpg"))).isEqualTo(image);
+    assertThat(fs.getBytes(fs.getFileNode("restored/prefix/b/empty.txt"))).isEmpty();
+    assertThat(new String(fs.getBytes(fs.getFileNode("restored/prefix/" + LONG_NAME))))
+        .isEqualTo(TEXT);
+    assertThat(fs.isDirectory("restored/prefix/c")).isTrue();
+  }
+
+  @Test
+  void untarAppliesPredicate() {
+    List<String> consumed = new ArrayList<>();
+
+    fs.untar(new ByteArrayInputStream(tar(TarOptions.DEFAULT)), "restored",
+        entry -> !entry.name().startsWith("prefix/c"), entry -> consumed.add(entry.name()));
+
+    assertThat(consumed).hasSize(7).doesNotContain("prefix/c/", "prefix/c/1.txt");
+    assertThat(fs.exists("restored/prefix/a.txt")).isTrue();
+    assertThat(fs.exists("restored/prefix/c")).isFalse();
+  }
+
+  @Test
+  void extractsWhileArchiving() throws IOException {
+    PipedInputStream in = new PipedInputStream(1024);
+    PipedOutputStream out = new PipedOutputStream(in);
+    CompletableFuture<Void> producer = CompletableFuture.runAsync(() -> {
+      try (out) {
+        new TarArchiver(fs, TarOptions.builder().gzip(true).parallelism(2).build())
+            .tar("root", out, null);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+
+    fs.untar(in, "streamed");
+
+    producer.join();
+    assertThat(fs.getBytes(fs.getFileNode("streamed/b/photo.jpg"))).isEqualTo(image);
+    assertThat(new String(fs.getBytes(fs.getFileNode("streamed/c/19.txt")))).isEqualTo(TEXT + 19);
+  }
+
+  @Test
+  void archivesWhileWalking() {
+    List<String> calls = new ArrayList<>();
+    MockFileService recording = new MockFileService(tempDir.resolve("fs")) {
+      @Override
+      public List<FileSystemNode> list(FileSystemNode root) {
+        calls.add("list");
+        return super.list(root);
+      }
+
+      @Override
+      public InputStream open(FileSystemNode node) {
+        calls.add("open");
+        return super.open(node);
+      }
+    };
+
+    new TarArchiver(recording, TarOptions.DEFAULT).tar("root", OutputStream.nullOutputStream(),
+        null);
+
+    assertThat(calls.indexOf("open")).isLessThan(calls.lastIndexOf("list"));
+  }
+
+  @Test
+  void failureKeepsItsCause() {
+    MockFileService failing = new MockFileService(tempDir.resolve("fs")) {
+      @Override
+      public InputStream open(FileSystemNode node) {
+        throw new IllegalStateException("Mocked failure");
+      }
+    };
+    TarArchiver archiver = new TarArchiver(failing, TarOptions.builder().parallelism(2).build());
+
+    assertThatThrownBy(() -> archiver.tar("root", OutputStream.nullOutputStream(), null))
+        .isInstanceOf(FileServiceException.class)
+        .hasRootCauseMessage("Mocked failure");
+  }
+
+  @Test
+  void corruptHeaderIsRejected() {
+    byte[] archive = tar(TarOptions.DEFAULT);
+    archive[10] ^= 1;
+
+    assertThatThrownBy(() -> fs.untar(new ByteArrayInputStream(archive), "restored"))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("checksum");
+  }
+}
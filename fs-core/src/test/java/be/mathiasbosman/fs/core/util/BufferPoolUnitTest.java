@@ -0,0 +1,117 @@
+package be.mathiasbosman.fs.core.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BufferPoolUnitTest {
+
+  private static final byte[] CONTENT = new byte[100_000];
+
+  static {
+    new Random(42).nextBytes(CONTENT);
+  }
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void buffersAreReused() {
+    BufferPool pool = new BufferPool(1024, 1);
+    byte[] first = pool.acquireHeap();
+    byte[] second = pool.acquireHeap();
+    byte[] third = pool.acquireHeap();
+    pool.release(first);
+    pool.release(second);
+    pool.release(third);
+    pool.release(new byte[16]);
+
+    assertThat(pool.acquireHeap()).isSameAs(first);
+    assertThat(pool.acquireHeap()).isSameAs(second);
+    assertThat(pool.acquireHeap()).isNotSameAs(third);
+    BufferPool.Statistics statistics = pool.getStatistics();
+    assertThat(statistics.hits()).isEqualTo(2);
+    assertThat(statistics.misses()).isEqualTo(4);
+    assertThat(statistics.pooled()).isZero();
+  }
+
+  @Test
+  void directBuffersAreReusedAcrossThreads() {
+    BufferPool pool = new BufferPool(1024, 4);
+    ByteBuffer local = pool.acquireDirect();
+    ByteBuffer shared = pool.acquireDirect();
+    pool.release(local);
+    pool.release(shared.position(10));
+    pool.release(ByteBuffer.allocate(1024));
+
+    ByteBuffer other = CompletableFuture.supplyAsync(pool::acquireDirect).join();
+    assertThat(other).isSameAs(shared);
+    assertThat(other.position()).isZero();
+    assertThat(pool.acquireDirect()).isSameAs(local);
+  }
+
+  @Test
+  void copy() throws IOException {
+    BufferPool pool = new BufferPool(1000, 4);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    assertThat(pool.copy(new ByteArrayInputStream(CONTENT), out)).isEqualTo(CONTENT.length);
+    assertThat(out.toByteArray()).isEqualTo(CONTENT);
+    out.reset();
+    assertThat(pool.copy(Channels.newChannel(new ByteArrayInputStream(CONTENT)),
+        Channels.newChannel(out))).isEqualTo(CONTENT.length);
+    assertThat(out.toByteArray()).isEqualTo(CONTENT);
+  }
+
+  @Test
+  void copyToFileChannel() throws IOException {
+    BufferPool pool = new BufferPool(1000, 4);
+    Path source = Files.write(tempDir.resolve("source"), CONTENT);
+    Path target = tempDir.resolve("target");
+
+    try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE)) {
+      assertThat(pool.copy(new ByteArrayInputStream(CONTENT), out)).isEqualTo(CONTENT.length);
+      try (InputStream in = new FileInputStream(source.toFile())) {
+        assertThat(in.skip(10)).isEqualTo(10);
+        assertThat(pool.copy(in, out)).isEqualTo(CONTENT.length - 10);
+      }
+    }
+
+    assertThat(Files.size(target)).isEqualTo(2L * CONTENT.length - 10);
+    // the transfer bypassed the pool
+    assertThat(pool.getStatistics().misses()).isEqualTo(1);
+  }
+
+  @Test
+  void toByteArray() throws IOException {
+    BufferPool pool = new BufferPool(1000, 4);
+
+    assertThat(pool.toByteArray(new ByteArrayInputStream(CONTENT), CONTENT.length))
+        .isEqualTo(CONTENT);
+    assertThat(pool.toByteArray(new ByteArrayInputStream(CONTENT), -1)).isEqualTo(CONTENT);
+    assertThat(pool.toByteArray(new ByteArrayInputStream(CONTENT), 10)).isEqualTo(CONTENT);
+    assertThat(pool.toByteArray(new ByteArrayInputStream(CONTENT), 200_000)).isEqualTo(CONTENT);
+    assertThat(pool.toByteArray(new ByteArrayInputStream(new byte[0]), 10)).isEmpty();
+  }
+
+  @Test
+  void invalidSize() {
+    assertThatThrownBy(() -> new BufferPool(0, 1)).isInstanceOf(IllegalArgumentException.class);
+  }
+}
@@ -0,0 +1,65 @@
+package be.mathiasbosman.fs.core.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import be.mathiasbosman.fs.core.domain.FilePath;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class KnownDirectoriesUnitTest {
+
+  @Test
+  void directoriesAreCreatedOnce() {
+    KnownDirectories knownDirectories = new KnownDirectories();
+    List<FilePath> created = new ArrayList<>();
+
+    knownDirectories.ensure(FilePath.of("a/b"), created::add);
+    knownDirectories.ensure(FilePath.of("a", "b"), created::add);
+    knownDirectories.ensure(FilePath.of("a"), created::add);
+
+    assertThat(created).containsExactly(FilePath.of("a/b"), FilePath.of("a"));
+    assertThat(knownDirectories.size()).isEqualTo(2);
+  }
+
+  @Test
+  void failuresAreNotRemembered() {
+    KnownDirectories knownDirectories = new KnownDirectories();
+    FilePath directory = FilePath.of("a");
+
+    assertThatThrownBy(() -> knownDirectories.ensure(directory, path -> {
+      throw new IllegalStateException("Mocked failure");
+    })).isInstanceOf(IllegalStateException.class);
+    assertThat(knownDirectories.contains(directory)).isFalse();
+  }
+
+  @Test
+  void invalidateForgetsSubdirectories() {
+    KnownDirectories knownDirectories = new KnownDirectories();
+    for (String path : new String[]{"a", "a/b", "a/b/c", "ab", "d"}) {
+      knownDirectories.ensure(FilePath.of(path), directory -> {
+      });
+    }
+
+    knownDirectories.invalidate(FilePath.of("a/b"));
+    assertThat(knownDirectories.contains(FilePath.of("a"))).isTrue();
+    assertThat(knownDirectories.contains(FilePath.of("a/b"))).isFalse();
+    assertThat(knownDirectories.contains(FilePath.of("a/b/c"))).isFalse();
+    knownDirectories.invalidate(FilePath.of("a"));
+    assertThat(knownDirectories.contains(FilePath.of("ab"))).isTrue();
+    assertThat(knownDirectories.size()).isEqualTo(2);
+  }
+
+  @Test
+  void capacityIsBounded() {
+    KnownDirectories knownDirectories = new KnownDirectories(10);
+    for (int i = 0; i < 100; i++) {
+      knownDirectories.ensure(FilePath.of("d" + i), directory -> {
+      });
+    }
+
+    assertThat(knownDirectories.size()).isLessThanOrEqualTo(10);
+    assertThat(new KnownDirectories(0).contains(FilePath.ROOT)).isFalse();
+  }
+}
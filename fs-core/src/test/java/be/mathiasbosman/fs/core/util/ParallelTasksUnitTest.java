@@ -0,0 +1,71 @@
+package be.mathiasbosman.fs.core.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class ParallelTasksUnitTest {
+
+  @Test
+  void invokeAllIsBounded() {
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maximum = new AtomicInteger();
+    List<Callable<Integer>> tasks = IntStream.range(0, 20).<Callable<Integer>>mapToObj(i -> () -> {
+      maximum.accumulateAndGet(running.incrementAndGet(), Math::max);
+      Thread.sleep(10);
+      running.decrementAndGet();
+      return i;
+    }).toList();
+
+    assertThat(ParallelTasks.invokeAll(tasks, 3))
+        .containsExactlyElementsOf(IntStream.range(0, 20).boxed().toList());
+    assertThat(maximum.get()).isLessThanOrEqualTo(3);
+  }
+
+  @Test
+  void mapKeepsOrderAndReadsLazily() {
+    AtomicInteger produced = new AtomicInteger();
+    AtomicInteger maximumAhead = new AtomicInteger();
+    AtomicInteger done = new AtomicInteger();
+    Iterator<Integer> items = IntStream.range(0, 40).peek(i -> {
+      produced.incrementAndGet();
+      maximumAhead.accumulateAndGet(produced.get() - done.get(), Math::max);
+    }).iterator();
+
+    List<Integer> results = ParallelTasks.map(items, i -> {
+      sleep();
+      done.incrementAndGet();
+      return i * 2;
+    }, 2);
+
+    assertThat(results).containsExactlyElementsOf(IntStream.range(0, 40).map(i -> i * 2)
+        .boxed().toList());
+    assertThat(maximumAhead.get()).isLessThanOrEqualTo(5);
+  }
+
+  private static void sleep() {
+    try {
+      Thread.sleep(5);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Test
+  void invokeAllRethrows() {
+    List<Callable<Integer>> tasks = List.of(() -> 1, () -> {
+      throw new IllegalStateException("Mocked failure");
+    });
+
+    assertThatThrownBy(() -> ParallelTasks.invokeAll(tasks, 2))
+        .isInstanceOf(IllegalStateException.class);
+    assertThatThrownBy(() -> ParallelTasks.invokeAll(tasks, 0))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
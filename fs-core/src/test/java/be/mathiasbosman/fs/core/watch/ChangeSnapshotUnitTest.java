@@ -0,0 +1,80 @@
+package be.mathiasbosman.fs.core.watch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import be.mathiasbosman.fs.core.watch.ChangeSnapshot.Entry;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ChangeSnapshotUnitTest {
+
+  private static final Entry FILE = new Entry(false, 1, 1, "a");
+  private static final Entry DIRECTORY = new Entry(true, 0, 0, null);
+
+  @TempDir
+  private Path tempDir;
+
+  @Test
+  void replaceRange() {
+    ChangeSnapshot snapshot = new ChangeSnapshot();
+    snapshot.replace(entries("a", FILE, "b", FILE, "c", FILE, "d", DIRECTORY), null, null,
+        e -> {
+        });
+
+    List<FileChangeEvent> events = new ArrayList<>();
+    // only b and c are in range, d is outside of it and must not be reported as deleted
+    snapshot.replace(entries("b", new Entry(false, 2, 1, "b"), "bb", FILE), "a", "c",
+        events::add);
+
+    assertThat(events).containsExactly(
+        FileChangeEvent.modified("b", false),
+        FileChangeEvent.created("bb", false),
+        FileChangeEvent.deleted("c", false));
+    assertThat(snapshot.size()).isEqualTo(4);
+    assertThat(snapshot.get("d")).isEqualTo(DIRECTORY);
+  }
+
+  @Test
+  void typeChange() {
+    ChangeSnapshot snapshot = new ChangeSnapshot();
+    snapshot.replace(entries("a", FILE), null, null, e -> {
+    });
+    List<FileChangeEvent> events = new ArrayList<>();
+
+    snapshot.replace(entries("a", DIRECTORY), null, null, events::add);
+
+    assertThat(events).containsExactly(FileChangeEvent.deleted("a", false),
+        FileChangeEvent.created("a", true));
+  }
+
+  @Test
+  void writeAndRead() throws IOException {
+    ChangeSnapshot snapshot = new ChangeSnapshot();
+    snapshot.replace(entries("a|b=c", FILE, "d", DIRECTORY, "e", new Entry(false, 3, 4, null)),
+        null, null, e -> {
+        });
+    Path file = tempDir.resolve("snapshot");
+
+    snapshot.write(file);
+    ChangeSnapshot read = ChangeSnapshot.read(file);
+
+    assertThat(read.size()).isEqualTo(3);
+    assertThat(read.get("a|b=c")).isEqualTo(FILE);
+    assertThat(read.get("d")).isEqualTo(DIRECTORY);
+    assertThat(read.get("e")).isEqualTo(new Entry(false, 3, 4, null));
+  }
+
+  private static NavigableMap<String, Entry> entries(Object... pathsAndEntries) {
+    NavigableMap<String, Entry> entries = new TreeMap<>();
+    for (int i = 0; i < pathsAndEntries.length; i += 2) {
+      entries.put((String) pathsAndEntries[i], (Entry) pathsAndEntries[i + 1]);
+    }
+    return entries;
+  }
+}
@@ -0,0 +1,51 @@
+package be.mathiasbosman.fs.core.watch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class EventBatcherUnitTest {
+
+  @Test
+  void coalesce() {
+    Map<String, FileChangeEvent> batch = new LinkedHashMap<>();
+    EventBatcher.merge(batch, FileChangeEvent.created("a", false));
+    EventBatcher.merge(batch, FileChangeEvent.modified("a", false));
+    EventBatcher.merge(batch, FileChangeEvent.created("b", false));
+    EventBatcher.merge(batch, FileChangeEvent.deleted("b", false));
+    EventBatcher.merge(batch, FileChangeEvent.deleted("c", false));
+    EventBatcher.merge(batch, FileChangeEvent.created("c", false));
+    EventBatcher.merge(batch, FileChangeEvent.modified("d", false));
+    EventBatcher.merge(batch, FileChangeEvent.deleted("d", false));
+
+    assertThat(batch.values()).containsExactly(
+        FileChangeEvent.created("a", false),
+        FileChangeEvent.modified("c", false),
+        FileChangeEvent.deleted("d", false));
+  }
+
+  @Test
+  void batches() throws InterruptedException {
+    BlockingQueue<List<FileChangeEvent>> batches = new LinkedBlockingQueue<>();
+    ChangeFeedOptions options = ChangeFeedOptions.builder()
+        .batchWindow(Duration.ofMillis(200))
+        .maxBatchSize(3)
+        .build();
+    try (EventBatcher batcher = new EventBatcher(batches::add, options, "test-events")) {
+      for (int i = 0; i < 5; i++) {
+        batcher.add(FileChangeEvent.created(String.valueOf(i), false));
+      }
+
+      assertThat(batches.poll(5, TimeUnit.SECONDS)).hasSize(3);
+      assertThat(batches.poll(5, TimeUnit.SECONDS)).extracting(FileChangeEvent::path)
+          .containsExactly("3", "4");
+    }
+  }
+}
@@ -0,0 +1,243 @@
+package be.mathiasbosman.fs.core.writebehind;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import be.mathiasbosman.fs.core.service.DelegatingFileServiceTest;
+import be.mathiasbosman.fs.core.service.FileService;
+import be.mathiasbosman.fs.core.service.MockFileService;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class WriteBehindFileServiceTest extends DelegatingFileServiceTest {
+
+  private static Path journalDir;
+
+  @BeforeAll
+  static void createJournalDir() throws IOException {
+    journalDir = Files.createTempDirectory(null);
+  }
+
+  @AfterAll
+  static void deleteJournalDir() throws IOException {
+    FileUtils.deleteDirectory(journalDir.toFile());
+  }
+
+  @BeforeEach
+  void cleanJournalDir() throws IOException {
+    FileUtils.cleanDirectory(journalDir.toFile());
+  }
+
+  @Override
+  protected FileService decorate(FileService delegate) {
+    return new WriteBehindFileService(delegate, new MockFileService(journalDir));
+  }
+
+  @Override
+  protected void assertExists(String path) {
+    flush();
+    super.assertExists(path);
+  }
+
+  @Override
+  protected void assertDirectoryExists(String path) {
+    flush();
+    super.assertDirectoryExists(path);
+  }
+
+  @Override
+  protected void assertNotExists(String path) {
+    flush();
+    super.assertNotExists(path);
+  }
+
+  @Test
+  void pendingWritesAreVisible() throws InterruptedException {
+    CountDownLatch release = new CountDownLatch(1);
+    MockFileService slow = new MockFileService(tempDir) {
+      @Override
+      public void save(InputStream in, String path, long size) {
+        await(release);
+        super.save(in, path, size);
+      }
+    };
+    try (WriteBehindFileService writeBehind = new WriteBehindFileService(slow,
+        new MockFileService(journalDir.resolve("slow")))) {
+      writeBehind.saveText("pending", "docs/a.txt");
+
+      assertThat(writeBehind.getPendingCount()).isEqualTo(1);
+      assertThat(writeBehind.exists("docs/a.txt")).isTrue();
+      assertThat(writeBehind.getFileNode("docs/a.txt").getSize()).isEqualTo(7);
+      assertThat(writeBehind.read("docs/a.txt")).isEqualTo("pending");
+      assertThat(Files.exists(tempDir.resolve("docs/a.txt"))).isFalse();
+      release.countDown();
+      writeBehind.flush();
+      assertThat(writeBehind.getPendingCount()).isZero();
+      assertThat(tempDir.resolve("docs/a.txt")).hasContent("pending");
+      assertThat(journalDir.resolve("slow/write-behind")).isEmptyDirectory();
+    }
+  }
+
+  @Test
+  void failedUploadsAreRetried() {
+    AtomicInteger attempts = new AtomicInteger();
+    MockFileService flaky = new MockFileService(tempDir) {
+      @Override
+      public void save(InputStream in, String path, long size) {
+        if (attempts.incrementAndGet() < 3) {
+          throw new FileServiceException("Mocked failure");
+        }
+        super.save(in, path, size);
+      }
+    };
+    try (WriteBehindFileService writeBehind = new WriteBehindFileService(flaky,
+        new MockFileService(journalDir.resolve("flaky")), WriteBehindOptions.builder()
+        .baseBackoff(Duration.ofMillis(1))
+        .build())) {
+      writeBehind.saveText("content", "a.txt");
+      writeBehind.flush();
+    }
+
+    assertThat(attempts.get()).isEqualTo(3);
+    assertThat(tempDir.resolve("a.txt")).hasContent("content");
+  }
+
+  @Test
+  void retriedWriteDoesNotOverwriteNewerWrite() {
+    CountDownLatch failed = new CountDownLatch(1);
+    CountDownLatch newerSaved = new CountDownLatch(1);
+    MockFileService flaky = new MockFileService(tempDir) {
+      @Override
+      public void save(InputStream in, String path, long size) {
+        byte[] content = readAllBytes(in);
+        if (failed.getCount() > 0) {
+          failed.countDown();
+          throw new FileServiceException("Mocked failure");
+        }
+        if ("older".equals(new String(content, StandardCharsets.UTF_8))
+            && newerSaved.getCount() > 0) {
+          // the older write can only be retried once the newer one was uploaded
+          throw new FileServiceException("Mocked failure");
+        }
+        super.save(new ByteArrayInputStream(content), path, size);
+        newerSaved.countDown();
+      }
+    };
+    try (WriteBehindFileService writeBehind = new WriteBehindFileService(flaky,
+        new MockFileService(journalDir.resolve("stale")), WriteBehindOptions.builder()
+        .maxAttempts(Integer.MAX_VALUE)
+        .baseBackoff(Duration.ofMillis(1))
+        .maxBackoff(Duration.ofMillis(10))
+        .build())) {
+      writeBehind.saveText("older", "a.txt");
+      await(failed);
+      writeBehind.saveText("newer", "a.txt");
+      writeBehind.flush();
+    }
+
+    assertThat(tempDir.resolve("a.txt")).hasContent("newer");
+  }
+
+  @Test
+  void journalIsRecovered() throws IOException {
+    MockFileService failing = new MockFileService(tempDir) {
+      @Override
+      public void save(InputStream in, String path, long size) {
+        throw new FileServiceException("Mocked failure");
+      }
+    };
+    MockFileService journal = new MockFileService(journalDir.resolve("journal"));
+    WriteBehindOptions options = WriteBehindOptions.builder()
+        .maxAttempts(1)
+        .baseBackoff(Duration.ofHours(1))
+        .build();
+    WriteBehindFileService crashing = new WriteBehindFileService(failing, journal, options);
+    crashing.saveText("first", "a.txt");
+    crashing.saveText("second", "b/c.txt");
+    crashing.saveText("third", "a.txt");
+    assertThatThrownBy(crashing::close)
+        .isInstanceOf(FileServiceException.class)
+        .hasMessageContaining("pending writes failed to upload");
+    // content of a write that was never acknowledged
+    Files.writeString(journalDir.resolve("journal/write-behind/0000000000000000099.content"), "-");
+
+    try (WriteBehindFileService recovered = new WriteBehindFileService(
+        new MockFileService(tempDir), journal, options)) {
+      assertThat(recovered.read("a.txt")).isEqualTo("third");
+      recovered.flush();
+    }
+
+    assertThat(tempDir.resolve("a.txt")).hasContent("third");
+    assertThat(tempDir.resolve("b/c.txt")).hasContent("second");
+    assertThat(journalDir.resolve("journal/write-behind")).isEmptyDirectory();
+  }
+
+  @Test
+  void truncatedMarkerIsDiscarded() throws IOException {
+    MockFileService failing = new MockFileService(tempDir) {
+      @Override
+      public void save(InputStream in, String path, long size) {
+        throw new FileServiceException("Mocked failure");
+      }
+    };
+    MockFileService journal = new MockFileService(journalDir.resolve("truncated"));
+    WriteBehindOptions options = WriteBehindOptions.builder()
+        .maxAttempts(1)
+        .baseBackoff(Duration.ofHours(1))
+        .build();
+    WriteBehindFileService crashing = new WriteBehindFileService(failing, journal, options);
+    crashing.saveText("first", "a.txt");
+    crashing.saveText("second", "b.txt");
+    assertThatThrownBy(crashing::close).isInstanceOf(FileServiceException.class);
+    // a crash while the marker of the second write was written
+    Path marker = journalDir.resolve("truncated/write-behind/0000000000000000002.path");
+    byte[] bytes = Files.readAllBytes(marker);
+    Files.write(marker, Arrays.copyOf(bytes, bytes.length - 3));
+
+    try (WriteBehindFileService recovered = new WriteBehindFileService(
+        new MockFileService(tempDir), journal, options)) {
+      assertThat(recovered.exists("b.txt")).isFalse();
+      recovered.flush();
+    }
+
+    assertThat(tempDir.resolve("a.txt")).hasContent("first");
+    assertThat(tempDir.resolve("b.txt")).doesNotExist();
+    assertThat(journalDir.resolve("truncated/write-behind")).isEmptyDirectory();
+  }
+
+  private void flush() {
+    ((WriteBehindFileService) getFs()).flush();
+  }
+
+  private static byte[] readAllBytes(InputStream in) {
+    try {
+      return in.readAllBytes();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,197 @@
+package be.mathiasbosman.fs.core.zip;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.service.FileService;
+import be.mathiasbosman.fs.core.service.MockFileService;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ZipArchiveUnitTest {
+
+  @TempDir
+  private Path tempDir;
+  private RangeCountingFileService fs;
+  private long archiveSize;
+
+  /**
+   * Reads ranges with a file channel and counts the bytes read. Complete reads are not allowed.
+   */
+  private static class RangeCountingFileService extends MockFileService {
+
+    private final Path workDir;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    private RangeCountingFileService(Path workDir) {
+      super(workDir);
+      this.workDir = workDir;
+    }
+
+    @Override
+    public InputStream open(FileSystemNode node, long offset, long length) {
+      requests.incrementAndGet();
+      bytes.addAndGet(length);
+      try {
+        FileChannel channel = FileChannel.open(workDir.resolve(node.getPath()));
+        channel.position(offset);
+        return BoundedInputStream.builder()
+            .setInputStream(Channels.newInputStream(channel))
+            .setMaxCount(length)
+            .get();
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    @Override
+    public InputStream open(FileSystemNode node) {
+      throw new AssertionError("Complete read of " + node.getPath());
+    }
+  }
+
+  @BeforeEach
+  void setUp() throws IOException {
+    fs = new RangeCountingFileService(tempDir);
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    byte[] noise = new byte[1024 * 1024];
+    new Random(1).nextBytes(noise);
+    try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+      zip.putNextEntry(new ZipEntry("docs/"));
+      zip.putNextEntry(new ZipEntry("docs/readme.txt"));
+      zip.write("read me".repeat(100).getBytes(StandardCharsets.UTF_8));
+      for (int i = 0; i < 5; i++) {
+        zip.putNextEntry(new ZipEntry("data/noise" + i + ".bin"));
+        zip.write(noise);
+      }
+      ZipEntry stored = new ZipEntry("data/sub/stored.txt");
+      stored.setMethod(ZipEntry.STORED);
+      stored.setSize(6);
+      stored.setCompressedSize(6);
+      CRC32 crc = new CRC32();
+      crc.update("stored".getBytes(StandardCharsets.UTF_8));
+      stored.setCrc(crc.getValue());
+      zip.putNextEntry(stored);
+      zip.write("stored".getBytes(StandardCharsets.UTF_8));
+    }
+    archiveSize = archive.size();
+    fs.save(archive.toByteArray(), "archive.zip");
+  }
+
+  private String read(InputStream in) throws IOException {
+    try (in) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  @Test
+  void listAndOpenWithRangeReads() throws IOException {
+    ZipArchive archive = ZipArchive.open(fs, "archive.zip");
+
+    assertThat(archive.getEntries()).extracting(ZipArchiveEntry::name).containsExactly(
+        "docs/", "docs/readme.txt", "data/noise0.bin", "data/noise1.bin", "data/noise2.bin",
+        "data/noise3.bin", "data/noise4.bin", "data/sub/stored.txt");
+    assertThat(read(archive.open("docs/readme.txt"))).isEqualTo("read me".repeat(100));
+    assertThat(read(archive.open("data/sub/stored.txt"))).isEqualTo("stored");
+    assertThat(archive.getEntry("data/noise3.bin").size()).isEqualTo(1024 * 1024);
+    assertThat(fs.bytes.get()).isLessThan(archiveSize / 20);
+    assertThatThrownBy(() -> archive.open("missing"))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void cachesCentralDirectory() {
+    ZipArchive.open(fs, "archive.zip");
+    long requests = fs.requests.get();
+
+    ZipArchive.open(fs, "archive.zip");
+
+    assertThat(fs.requests.get()).isEqualTo(requests);
+  }
+
+  @Test
+  void readsZipsOfZipArchiver() throws IOException {
+    fs.saveText("a", "tree/a.txt");
+    fs.saveText("b", "tree/x/b.txt");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new ZipArchiver(new MockFileService(tempDir), ZipOptions.builder().parallelism(2).build())
+        .zip("tree", out, null);
+    fs.save(out.toByteArray(), "tree.zip");
+
+    ZipArchive archive = ZipArchive.open(fs, "tree.zip");
+
+    assertThat(archive.getEntries()).extracting(ZipArchiveEntry::name)
+        .containsExactlyInAnyOrder("a.txt", "x/", "x/b.txt");
+    assertThat(read(archive.open("x/b.txt"))).isEqualTo("b");
+  }
+
+  @Test
+  void mount() throws IOException {
+    FileService mounted = ZipArchive.open(fs, "archive.zip").mount();
+
+    assertThat(mounted.list("")).extracting(FileSystemNode::getName)
+        .containsExactly("data", "docs");
+    assertThat(mounted.list("data")).extracting(FileSystemNode::getName)
+        .containsExactly("noise0.bin", "noise1.bin", "noise2.bin", "noise3.bin", "noise4.bin",
+            "sub");
+    assertThat(mounted.isDirectory("data/sub")).isTrue();
+    assertThat(mounted.exists("data/missing")).isFalse();
+    assertThat(mounted.read("data/sub/stored.txt")).isEqualTo("stored");
+    assertThat(mounted.getSize(mounted.getFileNode("data"))).isEqualTo(5 * 1024 * 1024 + 6);
+    assertThat(read(mounted.open("docs/readme.txt"))).startsWith("read me");
+    assertThatThrownBy(() -> mounted.saveText("x", "docs/new.txt"))
+        .isInstanceOf(UnsupportedOperationException.class);
+    assertThatThrownBy(() -> mounted.delete("docs"))
+        .isInstanceOf(UnsupportedOperationException.class);
+  }
+
+  @Test
+  void duplicateEntries() throws IOException {
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+      zip.putNextEntry(new ZipEntry("dir1/"));
+      zip.putNextEntry(new ZipEntry("dir2/"));
+      zip.putNextEntry(new ZipEntry("file1.txt"));
+      zip.write('1');
+      zip.putNextEntry(new ZipEntry("file2.txt"));
+      zip.write('2');
+    }
+    // the zip output stream refuses duplicates, so they are introduced afterwards
+    String content = archive.toString(StandardCharsets.ISO_8859_1);
+    fs.save(content.replace("dir2/", "dir1/").getBytes(StandardCharsets.ISO_8859_1),
+        "directories.zip");
+    fs.save(content.replace("file2.txt", "file1.txt").getBytes(StandardCharsets.ISO_8859_1),
+        "files.zip");
+
+    assertThat(ZipArchive.open(fs, "directories.zip").getEntries())
+        .extracting(ZipArchiveEntry::name)
+        .containsExactly("dir1/", "file1.txt", "file2.txt");
+    assertThatThrownBy(() -> ZipArchive.open(fs, "files.zip"))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("Zip file corrupt: entry 'file1.txt' is not unique.");
+  }
+
+  @Test
+  void notAZip() {
+    fs.saveText("plain text", "plain.txt");
+
+    assertThatThrownBy(() -> ZipArchive.open(fs, "plain.txt"))
+        .hasMessageContaining("Not a zip archive");
+  }
+}
@@ -0,0 +1,135 @@
+package be.mathiasbosman.fs.core.zip;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.service.MockFileService;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ZipArchiverUnitTest {
+
+  private static final String TEXT = "Lorem ipsum dolor sit amet. ".repeat(1000);
+
+  @TempDir
+  private Path tempDir;
+  private MockFileService fs;
+  private byte[] image;
+
+  @BeforeEach
+  void setUp() {
+    fs = new MockFileService(tempDir.resolve("fs"));
+    image = new byte[100_000];
+    new Random(1).nextBytes(image);
+    fs.saveText(TEXT, "root/a.txt");
+    fs.save(image, "root/b/photo.JPG");
+    fs.saveText("", "root/b/empty.txt");
+    for (int i = 0; i < 20; i++) {
+      fs.saveText(TEXT + i, "root/c/" + i + ".txt");
+    }
+  }
+
+  private Path zip(ZipOptions options) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new ZipArchiver(fs, options).zip("root", out, "prefix");
+    Path zip = tempDir.resolve("archive.zip");
+    Files.write(zip, out.toByteArray());
+    return zip;
+  }
+
+  @Test
+  void parallelZipMatchesSerialZip() throws IOException {
+    List<String> serial = describe(zip(ZipOptions.builder().storeCompressed(true).build()));
+    List<String> parallel = describe(zip(ZipOptions.builder()
+        .storeCompressed(true)
+        .parallelism(4)
+        .spoolThreshold(1024)
+        .build()));
+
+    assertThat(parallel).isEqualTo(serial).hasSize(26).contains("prefix/c/");
+  }
+
+  @Test
+  void storesCompressedTypes() throws IOException {
+    try (ZipFile zipFile = new ZipFile(zip(ZipOptions.builder()
+        .storeCompressed(true)
+        .parallelism(2)
+        .build()).toFile())) {
+      ZipEntry photo = zipFile.getEntry("prefix/b/photo.JPG");
+      CRC32 crc = new CRC32();
+      crc.update(image);
+      assertThat(photo.getMethod()).isEqualTo(ZipEntry.STORED);
+      assertThat(photo.getCrc()).isEqualTo(crc.getValue());
+      assertThat(zipFile.getInputStream(photo).readAllBytes()).isEqualTo(image);
+      ZipEntry text = zipFile.getEntry("prefix/a.txt");
+      assertThat(text.getMethod()).isEqualTo(ZipEntry.DEFLATED);
+      assertThat(text.getCompressedSize()).isLessThan(TEXT.length() / 10);
+      assertThat(new String(zipFile.getInputStream(text).readAllBytes(),
+          StandardCharsets.UTF_8)).isEqualTo(TEXT);
+    }
+  }
+
+  @Test
+  void level() throws IOException {
+    long fastest = Files.size(zip(ZipOptions.builder().level(1).build()));
+    long stored = Files.size(zip(ZipOptions.builder().level(0).parallelism(2).build()));
+
+    assertThat(stored).isGreaterThan(fastest + 20L * TEXT.length());
+    assertThatThrownBy(() -> new ZipArchiver(fs, ZipOptions.builder().level(10).build()))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void failureKeepsItsCause() {
+    MockFileService failing = new MockFileService(tempDir.resolve("fs")) {
+      @Override
+      public InputStream open(FileSystemNode node) {
+        return new InputStream() {
+          @Override
+          public int read() throws IOException {
+            throw new IOException("Mocked failure");
+          }
+        };
+      }
+    };
+
+    for (int parallelism : new int[]{1, 2}) {
+      ZipArchiver archiver = new ZipArchiver(failing,
+          ZipOptions.builder().parallelism(parallelism).build());
+      assertThatThrownBy(() -> archiver.zip("root", OutputStream.nullOutputStream(), null))
+          .isInstanceOf(FileServiceException.class)
+          .hasRootCauseMessage("Mocked failure");
+    }
+  }
+
+  private static List<String> describe(Path zip) throws IOException {
+    List<String> entries = new ArrayList<>();
+    try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+      for (ZipEntry entry : Collections.list(zipFile.entries())) {
+        entries.add(entry.getName() + (entry.isDirectory() ? ""
+            : " " + entry.getMethod() + " " + entry.getSize() + " " + entry.getCrc()));
+        if (!entry.isDirectory()) {
+          zipFile.getInputStream(entry).readAllBytes();
+        }
+      }
+    }
+    return entries;
+  }
+}
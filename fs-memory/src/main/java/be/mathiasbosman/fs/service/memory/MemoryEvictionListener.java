@@ -0,0 +1,18 @@
+package be.mathiasbosman.fs.service.memory;
+
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+
+/**
+ * Listener that is notified when a file is evicted from a {@link MemoryFileService} to make room
+ * for new content.
+ */
+@FunctionalInterface
+public interface MemoryEvictionListener {
+
+  /**
+   * Called after a file has been evicted. The node reflects the state right before eviction.
+   *
+   * @param node The evicted {@link FileSystemNode}
+   */
+  void onEviction(FileSystemNode node);
+}
@@ -0,0 +1,511 @@
+package be.mathiasbosman.fs.service.memory;
+
+import be.mathiasbosman.fs.core.domain.FilePath;
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.domain.FileSystemNodeList;
+import be.mathiasbosman.fs.core.domain.FileSystemNodeType;
+import be.mathiasbosman.fs.core.domain.NodeMetadata;
+import be.mathiasbosman.fs.core.service.AbstractFileService;
+import be.mathiasbosman.fs.core.service.FileNodeVisitor;
+import be.mathiasbosman.fs.core.util.BufferPool;
+import com.google.common.util.concurrent.Striped;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An implementation of the {@link be.mathiasbosman.fs.core.service.FileService} that keeps all
+ * content in memory. File contents are held off-heap in direct {@link ByteBuffer}s, the path index
+ * is a {@link ConcurrentHashMap} keyed by {@link FilePath} of which the structural changes are
+ * guarded by striped locks.
+ *
+ * <p>An optional capacity limits the amount of content memory used. When a save would exceed it,
+ * the least recently used files are evicted and reported to the {@link MemoryEvictionListener}.
+ */
+@Slf4j
+public class MemoryFileService extends AbstractFileService {
+
+  public static final long UNLIMITED = Long.MAX_VALUE;
+
+  private static final int LOCK_STRIPES = 64;
+  private static final MemoryEvictionListener NO_LISTENER = node -> {
+  };
+
+  private final Map<FilePath, MemoryNode> index = new ConcurrentHashMap<>();
+  private final Striped<Lock> locks = Striped.lock(LOCK_STRIPES);
+  // access ordered, guarded by itself
+  private final Map<FilePath, Boolean> recency = new LinkedHashMap<>(16, 0.75f, true);
+  private final AtomicLong usedBytes = new AtomicLong();
+  private final long capacity;
+  private final MemoryEvictionListener evictionListener;
+
+  /**
+   * Create the MemoryFileService.
+   *
+   * @param capacity         Maximum amount of content bytes to hold
+   * @param evictionListener Listener notified of evicted files
+   */
+  public MemoryFileService(long capacity, MemoryEvictionListener evictionListener) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity should be positive");
+    }
+    this.capacity = capacity;
+    this.evictionListener = evictionListener != null ? evictionListener : NO_LISTENER;
+    index.put(FilePath.ROOT, MemoryNode.directory());
+  }
+
+  public MemoryFileService(long capacity) {
+    this(capacity, NO_LISTENER);
+  }
+
+  public MemoryFileService() {
+    this(UNLIMITED);
+  }
+
+  /**
+   * Returns the amount of content bytes currently held.
+   *
+   * @return The used bytes
+   */
+  public long getUsedBytes() {
+    return usedBytes.get();
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  @Override
+  public void delete(FileSystemNode node, boolean recursive) {
+    if (!recursive) {
+      MemoryNode memoryNode = index.get(node.getFilePath());
+      if (memoryNode != null && memoryNode.isDirectory() && !memoryNode.children.isEmpty()) {
+        throw new IllegalStateException("Directory is not empty for deletion");
+      }
+      remove(node.getFilePath());
+      return;
+    }
+
+    walk(node, new FileNodeVisitor() {
+      @Override
+      public void on(FileSystemNode node) {
+        remove(node.getFilePath());
+      }
+
+      @Override
+      public void pre(FileSystemNode directory) {
+        // no operation on pre() when deleting
+      }
+
+      @Override
+      public void post(FileSystemNode directory) {
+        remove(directory.getFilePath());
+      }
+    });
+  }
+
+  @Override
+  public LocalDateTime getCreationTime(FileSystemNode node, ZoneId zoneId) {
+    MemoryNode memoryNode = getExisting(node.getFilePath());
+    return LocalDateTime.ofInstant(Instant.ofEpochMilli(memoryNode.created), zoneId);
+  }
+
+  @Override
+  public LocalDateTime getLastModifiedTime(FileSystemNode node, ZoneId zoneId) {
+    MemoryNode memoryNode = getExisting(node.getFilePath());
+    return LocalDateTime.ofInstant(Instant.ofEpochMilli(memoryNode.lastModified), zoneId);
+  }
+
+  @Override
+  public List<FileSystemNode> list(FileSystemNode root) {
+    FilePath path = root.getFilePath();
+    MemoryNode directory = index.get(path);
+    if (directory == null || !directory.isDirectory()) {
+      return Collections.emptyList();
+    }
+    FileSystemNodeList.Builder result = FileSystemNodeList.builder(path);
+    for (String name : directory.children) {
+      MemoryNode child = index.get(path.child(name));
+      if (child != null) {
+        result.add(name, child.isDirectory(), child.size(), child.lastModified);
+      }
+    }
+    return result.build();
+  }
+
+  @Override
+  public InputStream open(FileSystemNode node) {
+    FilePath path = node.getFilePath();
+    MemoryNode memoryNode = index.get(path);
+    if (memoryNode == null || memoryNode.isDirectory()) {
+      throw new IllegalStateException("No file found on path " + path);
+    }
+    log.debug("Getting {}", path);
+    touch(path);
+    return new ByteBufferInputStream(memoryNode.content.buffer.asReadOnlyBuffer());
+  }
+
+  @Override
+  public InputStream open(FileSystemNode node, long offset, long length) {
+    checkRange(offset, length);
+    FilePath path = node.getFilePath();
+    MemoryNode memoryNode = index.get(path);
+    if (memoryNode == null || memoryNode.isDirectory()) {
+      throw new IllegalStateException("No file found on path " + path);
+    }
+    touch(path);
+    ByteBuffer content = memoryNode.content.buffer.asReadOnlyBuffer();
+    int start = (int) Math.min(offset, content.limit());
+    content.position(start).limit((int) Math.min(content.limit(), start + length));
+    return new ByteBufferInputStream(content);
+  }
+
+  @Override
+  protected void save(InputStream is, String path, long size) {
+    FilePath key = FilePath.of(path);
+    ByteBuffer content;
+    try {
+      content = toBuffer(is, size, key);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    put(key, new Segment(content));
+  }
+
+  @Override
+  protected int getSaveParallelism() {
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+  @Override
+  public Stream<FileSystemNode> streamDirectory(FileSystemNode root) {
+    return list(root).stream()
+        .flatMap(node -> node.isDirectory() ? streamDirectory(node) : Stream.of(node));
+  }
+
+  @Override
+  protected void copyContent(FileSystemNode source, String to) {
+    MemoryNode memoryNode = getExisting(source.getFilePath());
+    // content buffers are never written after creation, so a copy can share the segment
+    put(FilePath.of(to), memoryNode.content);
+  }
+
+  @Override
+  protected boolean exists(String path) {
+    return index.containsKey(FilePath.of(path));
+  }
+
+  @Override
+  protected FileSystemNodeType getFileNodeType(String path) {
+    MemoryNode memoryNode = index.get(FilePath.of(path));
+    return memoryNode != null ? memoryNode.type() : null;
+  }
+
+  @Override
+  protected NodeMetadata getNodeMetadata(String path) {
+    MemoryNode memoryNode = index.get(FilePath.of(path));
+    if (memoryNode == null) {
+      return null;
+    }
+    return new NodeMetadata(memoryNode.type(), memoryNode.size(),
+        new Date(memoryNode.lastModified));
+  }
+
+  @Override
+  protected long getSize(String path) {
+    return getExisting(FilePath.of(path)).size();
+  }
+
+  @Override
+  protected boolean isDirectory(String path) {
+    MemoryNode memoryNode = index.get(FilePath.of(path));
+    return memoryNode != null && memoryNode.isDirectory();
+  }
+
+  @Override
+  protected void mkDirectories(String path) {
+    ensureDirectory(FilePath.of(path));
+  }
+
+  private void put(FilePath path, Segment content) {
+    if (path.isRoot()) {
+      throw new IllegalArgumentException("Cannot save content on the root path");
+    }
+    MemoryNode parent = ensureDirectory(path.getParent());
+    MemoryNode file = new MemoryNode(acquire(content, path));
+    Lock lock = locks.get(path);
+    lock.lock();
+    try {
+      MemoryNode previous = index.get(path);
+      if (previous != null && previous.isDirectory()) {
+        release(file);
+        throw new IllegalStateException("Cannot overwrite directory " + path + " with a file");
+      }
+      index.put(path, file);
+      parent.children.add(path.getName());
+      if (previous != null) {
+        release(previous);
+      }
+    } finally {
+      lock.unlock();
+    }
+    touch(path);
+  }
+
+  private MemoryNode ensureDirectory(FilePath path) {
+    MemoryNode existing = index.get(path);
+    if (existing != null) {
+      if (!existing.isDirectory()) {
+        throw new IllegalStateException("Path " + path + " is not a directory");
+      }
+      return existing;
+    }
+    MemoryNode parent = ensureDirectory(path.getParent());
+    Lock lock = locks.get(path);
+    lock.lock();
+    try {
+      MemoryNode directory = index.computeIfAbsent(path, k -> MemoryNode.directory());
+      if (!directory.isDirectory()) {
+        throw new IllegalStateException("Path " + path + " is not a directory");
+      }
+      parent.children.add(path.getName());
+      return directory;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private MemoryNode remove(FilePath path) {
+    if (path.isRoot()) {
+      // the root itself is never removed
+      return null;
+    }
+    Lock lock = locks.get(path);
+    lock.lock();
+    try {
+      MemoryNode removed = index.remove(path);
+      if (removed == null) {
+        return null;
+      }
+      MemoryNode parent = index.get(path.getParent());
+      if (parent != null) {
+        parent.children.remove(path.getName());
+      }
+      if (!removed.isDirectory()) {
+        release(removed);
+        synchronized (recency) {
+          recency.remove(path);
+        }
+      }
+      return removed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void reserve(long bytes, FilePath path) {
+    if (bytes > capacity) {
+      throw new FileServiceException(
+          "Content of " + path + " (" + bytes + " bytes) exceeds the capacity of " + capacity);
+    }
+    while (true) {
+      long used = usedBytes.get();
+      if (used + bytes <= capacity) {
+        if (usedBytes.compareAndSet(used, used + bytes)) {
+          return;
+        }
+      } else if (!evictEldest(path)) {
+        throw new FileServiceException("Unable to free enough memory to store " + path);
+      }
+    }
+  }
+
+  /**
+   * Holds a segment for a file. A segment already held by another file is shared without reserving
+   * its memory again.
+   */
+  private Segment acquire(Segment content, FilePath path) {
+    if (content.retain()) {
+      return content;
+    }
+    reserve(content.allocated(), path);
+    return new Segment(content.buffer, 1);
+  }
+
+  private void release(MemoryNode file) {
+    if (file.content != null && file.content.release()) {
+      usedBytes.addAndGet(-file.content.allocated());
+    }
+  }
+
+  private boolean evictEldest(FilePath excluded) {
+    FilePath eldest = null;
+    synchronized (recency) {
+      Iterator<FilePath> iterator = recency.keySet().iterator();
+      while (iterator.hasNext() && eldest == null) {
+        FilePath candidate = iterator.next();
+        if (!candidate.equals(excluded)) {
+          eldest = candidate;
+        }
+      }
+    }
+    if (eldest == null) {
+      return false;
+    }
+    MemoryNode evicted = remove(eldest);
+    if (evicted != null) {
+      log.debug("Evicted {} ({} bytes)", eldest, evicted.size());
+      evictionListener.onEviction(toFileNode(eldest, evicted));
+    }
+    return true;
+  }
+
+  private void touch(FilePath path) {
+    synchronized (recency) {
+      recency.put(path, Boolean.TRUE);
+    }
+  }
+
+  private MemoryNode getExisting(FilePath path) {
+    MemoryNode memoryNode = index.get(path);
+    if (memoryNode == null) {
+      throw new IllegalArgumentException("Path does not exist in memory: " + path);
+    }
+    return memoryNode;
+  }
+
+  private FileSystemNode toFileNode(FilePath path, MemoryNode memoryNode) {
+    return createFileNode(path, memoryNode.isDirectory(), memoryNode.size(),
+        new Date(memoryNode.lastModified));
+  }
+
+  private static ByteBuffer toBuffer(InputStream is, long size, FilePath path) throws IOException {
+    if (size > Integer.MAX_VALUE) {
+      throw new FileServiceException("Content of " + path + " is too large to keep in memory");
+    }
+    if (size < 0) {
+      byte[] bytes = BufferPool.shared().toByteArray(is, -1);
+      return ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+    }
+    ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+    byte[] chunk = BufferPool.shared().acquireHeap();
+    try {
+      int read;
+      while (buffer.hasRemaining()
+          && (read = is.read(chunk, 0, Math.min(chunk.length, buffer.remaining()))) != -1) {
+        buffer.put(chunk, 0, read);
+      }
+      if (!buffer.hasRemaining() && is.read() != -1) {
+        throw new FileServiceException(
+            "Content of " + path + " is larger than its declared size of " + size + " bytes");
+      }
+    } finally {
+      BufferPool.shared().release(chunk);
+    }
+    return buffer.flip();
+  }
+
+  private static final class MemoryNode {
+
+    private final Segment content;
+    private final Set<String> children;
+    private final long created;
+    private final long lastModified;
+
+    private MemoryNode(Segment content) {
+      this(content, null);
+    }
+
+    private MemoryNode(Segment content, Set<String> children) {
+      this.content = content;
+      this.children = children;
+      this.created = System.currentTimeMillis();
+      this.lastModified = created;
+    }
+
+    private static MemoryNode directory() {
+      return new MemoryNode(null, new ConcurrentSkipListSet<>());
+    }
+
+    private boolean isDirectory() {
+      return children != null;
+    }
+
+    private FileSystemNodeType type() {
+      return isDirectory() ? FileSystemNodeType.DIRECTORY : FileSystemNodeType.FILE;
+    }
+
+    private long size() {
+      return content != null ? content.buffer.limit() : 0L;
+    }
+  }
+
+  /**
+   * Content shared by a file and its copies. Its memory is reserved by the first file holding it
+   * and released when the last one is removed.
+   */
+  private static final class Segment {
+
+    private final ByteBuffer buffer;
+    private final AtomicInteger references;
+
+    /**
+     * A segment not held by any file yet.
+     */
+    private Segment(ByteBuffer buffer) {
+      this(buffer, 0);
+    }
+
+    private Segment(ByteBuffer buffer, int references) {
+      this.buffer = buffer;
+      this.references = new AtomicInteger(references);
+    }
+
+    /**
+     * Adds a reference, unless no file holds the segment (anymore).
+     *
+     * @return if the reference was added
+     */
+    private boolean retain() {
+      int count;
+      do {
+        count = references.get();
+        if (count == 0) {
+          return false;
+        }
+      } while (!references.compareAndSet(count, count + 1));
+      return true;
+    }
+
+    /**
+     * Removes a reference.
+     *
+     * @return if this was the last reference
+     */
+    private boolean release() {
+      return references.decrementAndGet() == 0;
+    }
+
+    private long allocated() {
+      return buffer.capacity();
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package be.mathiasbosman.fs.service.memory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import be.mathiasbosman.fs.core.chunk.ChunkingFileService;
+import be.mathiasbosman.fs.core.service.FileService;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Measures the deduplication ratio and throughput of a {@link ChunkingFileService} on a synthetic
+ * corpus of versioned exports: every version edits, inserts and removes a few rows of the previous
+ * one. The memory file service keeps disk noise out of the numbers.
+ *
+ * <p>Tagged as benchmark, so it only runs with the {@code benchmark} profile.
+ */
+@Slf4j
+@Tag("benchmark")
+class ChunkingBenchmarkTest {
+
+  private static final int ROWS = 400_000;
+  private static final int VERSIONS = 10;
+  private static final int EDITS_PER_VERSION = 4;
+
+  @Test
+  @SneakyThrows
+  void versionedExports() {
+    MemoryFileService memory = new MemoryFileService();
+    FileService fs = new ChunkingFileService(memory);
+    Random random = new Random(42);
+    StringBuilder export = new StringBuilder();
+    for (int row = 0; row < ROWS; row++) {
+      appendRow(export, random);
+    }
+
+    warmUp(export.toString().getBytes(StandardCharsets.UTF_8));
+
+    long logicalBytes = 0;
+    long saveNanos = 0;
+    for (int version = 0; version < VERSIONS; version++) {
+      if (version > 0) {
+        edit(export, random);
+      }
+      byte[] content = export.toString().getBytes(StandardCharsets.UTF_8);
+      long start = System.nanoTime();
+      fs.save(content, "exports", "v" + version + ".csv");
+      saveNanos += System.nanoTime() - start;
+      logicalBytes += content.length;
+    }
+
+    long openNanos = System.nanoTime();
+    for (int version = 0; version < VERSIONS; version++) {
+      try (InputStream in = fs.open("exports", "v" + version + ".csv")) {
+        in.transferTo(OutputStream.nullOutputStream());
+      }
+    }
+    openNanos = System.nanoTime() - openNanos;
+
+    double ratio = (double) logicalBytes / memory.getUsedBytes();
+    log.info("Stored {} MiB of {} versions in {} MiB: deduplication ratio {}",
+        logicalBytes >> 20, VERSIONS, memory.getUsedBytes() >> 20, String.format("%.1f", ratio));
+    log.info("Save {} MiB/s, open {} MiB/s", throughput(logicalBytes, saveNanos),
+        throughput(logicalBytes, openNanos));
+    assertThat(ratio).isGreaterThan(4);
+    assertThat(fs.read("exports", "v" + (VERSIONS - 1) + ".csv")).isEqualTo(export.toString());
+  }
+
+  private static void warmUp(byte[] content) {
+    FileService fs = new ChunkingFileService(new MemoryFileService());
+    for (int i = 0; i < 3; i++) {
+      fs.save(content, "warm-up");
+      fs.getBytes("warm-up");
+    }
+  }
+
+  private static void appendRow(StringBuilder export, Random random) {
+    export.append(random.nextInt(1_000_000)).append(',')
+        .append(Long.toHexString(random.nextLong())).append(',')
+        .append(random.nextDouble()).append('\n');
+  }
+
+  private static void edit(StringBuilder export, Random random) {
+    for (int i = 0; i < EDITS_PER_VERSION; i++) {
+      int position = export.indexOf("\n", random.nextInt(export.length() - 1)) + 1;
+      StringBuilder row = new StringBuilder();
+      appendRow(row, random);
+      switch (random.nextInt(3)) {
+        case 0 -> export.insert(position, row);
+        case 1 -> export.delete(position, export.indexOf("\n", position) + 1);
+        default -> export.replace(position, export.indexOf("\n", position) + 1, row.toString());
+      }
+    }
+  }
+
+  private static long throughput(long bytes, long nanos) {
+    return (bytes >> 20) * 1_000_000_000L / Math.max(1, nanos);
+  }
+}
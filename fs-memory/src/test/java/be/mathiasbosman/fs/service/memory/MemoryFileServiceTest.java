@@ -0,0 +1,155 @@
+package be.mathiasbosman.fs.service.memory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.service.AbstractFileServiceTest;
+import be.mathiasbosman.fs.core.service.FileService;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class MemoryFileServiceTest extends AbstractFileServiceTest {
+
+  private final MemoryFileService fs = new MemoryFileService();
+
+  @Override
+  protected FileService getFs() {
+    return fs;
+  }
+
+  @Override
+  protected void assertExists(String path) {
+    assertThat(fs.exists(path)).isTrue();
+  }
+
+  @Override
+  protected void assertDirectoryExists(String path) {
+    assertThat(fs.isDirectory(path)).isTrue();
+  }
+
+  @Override
+  protected void assertNotExists(String path) {
+    assertThat(fs.exists(path)).isFalse();
+  }
+
+  @Override
+  protected String getContent(String path) {
+    return new String(fs.getBytes(path), StandardCharsets.UTF_8);
+  }
+
+  @Override
+  protected void putDirectory(String path) {
+    fs.mkDirectories(path);
+  }
+
+  @Override
+  protected void putObject(String path, String data) {
+    fs.save(data.getBytes(StandardCharsets.UTF_8), path);
+  }
+
+  @Override
+  protected void assertModifiedFolder(String path) {
+    final FileSystemNode folderNode = getFs().getFileNode(path);
+    assertThat(folderNode.getLastModified()).isNotNull();
+  }
+
+  @Test
+  void saveWithUnknownSize() {
+    fs.save(new ByteArrayInputStream("content".getBytes()), "x/y");
+    assertThat(fs.read("x/y")).isEqualTo("content");
+    assertThat(fs.getUsedBytes()).isEqualTo("content".length());
+  }
+
+  @Test
+  void overwriteReleasesMemory() {
+    putObject("x", "content");
+    putObject("x", "-");
+    assertThat(fs.getUsedBytes()).isEqualTo(1);
+    fs.delete("x");
+    assertThat(fs.getUsedBytes()).isZero();
+  }
+
+  @Test
+  void copySharesMemory() {
+    putObject("x", "content");
+    fs.copy("x", "y");
+    fs.copy("y", "y");
+    assertThat(fs.getUsedBytes()).isEqualTo("content".length());
+    fs.delete("x");
+    assertThat(fs.getUsedBytes()).isEqualTo("content".length());
+    fs.delete("y");
+    assertThat(fs.getUsedBytes()).isZero();
+  }
+
+  @Test
+  void saveLongerThanDeclaredSize() {
+    ByteArrayInputStream content = new ByteArrayInputStream("content".getBytes());
+    assertThatThrownBy(() -> fs.save(content, "x", 3))
+        .isInstanceOf(FileServiceException.class);
+    assertThat(fs.exists("x")).isFalse();
+    assertThat(fs.getUsedBytes()).isZero();
+  }
+
+  @Test
+  void evictsLeastRecentlyUsed() {
+    List<String> evicted = new ArrayList<>();
+    MemoryFileService limited = new MemoryFileService(10, node -> evicted.add(node.getPath()));
+    limited.saveText("1234", "a");
+    limited.saveText("1234", "b");
+    limited.read("a");
+    limited.saveText("1234", "c");
+
+    assertThat(evicted).containsExactly("b");
+    assertThat(limited.exists("a")).isTrue();
+    assertThat(limited.exists("b")).isFalse();
+    assertThat(limited.exists("c")).isTrue();
+    assertThat(limited.getUsedBytes()).isEqualTo(8);
+  }
+
+  @Test
+  void saveExceedingCapacity() {
+    MemoryFileService limited = new MemoryFileService(2);
+    assertThatThrownBy(() -> limited.saveText("content", "x"))
+        .isInstanceOf(FileServiceException.class);
+    assertThat(limited.exists("x")).isFalse();
+  }
+
+  @Test
+  void saveOverDirectory() {
+    putDirectory("x");
+    assertThatThrownBy(() -> putObject("x", "-"))
+        .isInstanceOf(IllegalStateException.class);
+    assertThat(fs.getUsedBytes()).isZero();
+  }
+
+  @Test
+  void deleteOnMemory() {
+    putObject("x/y/z", "-");
+
+    FileSystemNode fileNode = fs.getFileNode("x/y");
+    assertThatThrownBy(() -> fs.delete(fileNode, false))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessage("Directory is not empty for deletion");
+  }
+
+  @Test
+  void getCreationTime() {
+    putObject("x", "-");
+
+    FileSystemNode fileNode = fs.getFileNode("x");
+    ZoneId zoneId = ZoneId.systemDefault();
+    assertThat(fs.getCreationTime(fileNode, zoneId))
+        .isNotNull()
+        .isBeforeOrEqualTo(LocalDateTime.now(zoneId));
+    assertThat(fs.getLastModifiedTime(fileNode, zoneId))
+        .isNotNull()
+        .isBeforeOrEqualTo(LocalDateTime.now(zoneId));
+  }
+}
@@ -0,0 +1,265 @@
+package be.mathiasbosman.fs.service.nio;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import be.mathiasbosman.fs.core.watch.ChangeFeedOptions;
+import be.mathiasbosman.fs.core.watch.ChangeSnapshot.Entry;
+import be.mathiasbosman.fs.core.watch.EventBatcher;
+import be.mathiasbosman.fs.core.watch.FileChangeEvent;
+import be.mathiasbosman.fs.core.watch.FileChangeListener;
+import be.mathiasbosman.fs.core.watch.Subscription;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Change feed of a {@link NioFileService} based on a {@link WatchService}. Every directory below
+ * the watched one is registered, directories that are created later on are registered (and their
+ * content reported) as soon as their creation is seen.
+ *
+ * <p>The entries of every registered directory are kept, so duplicate and spurious events are
+ * filtered out. When the watch service overflows for a directory only that directory is listed
+ * again and compared with the known entries.
+ */
+@Slf4j
+class NioChangeFeed implements Subscription {
+
+  private final Path workDir;
+  private final WatchService watchService;
+  private final EventBatcher batcher;
+  private final Map<WatchKey, Path> directories = new HashMap<>();
+  private final Map<Path, Map<String, Entry>> known = new HashMap<>();
+
+  NioChangeFeed(Path workDir, Path root, FileChangeListener listener,
+      ChangeFeedOptions options) {
+    this.workDir = workDir;
+    try {
+      this.watchService = root.getFileSystem().newWatchService();
+    } catch (IOException e) {
+      throw new FileServiceException(e);
+    }
+    this.batcher = new EventBatcher(listener, options, "nio-watch-events");
+    try {
+      register(root, null);
+    } catch (RuntimeException e) {
+      close();
+      throw e;
+    }
+    // the maps are only used by the watching thread from here on
+    Thread thread = new Thread(this::run, "nio-watch");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  public void close() {
+    try {
+      watchService.close();
+    } catch (IOException e) {
+      log.debug("Failed to close watch service", e);
+    }
+    batcher.close();
+  }
+
+  private void run() {
+    try {
+      while (true) {
+        WatchKey key = watchService.take();
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+          handle(directory, event);
+        }
+        if (!key.reset()) {
+          // the directory is gone, its deletion is reported through its parent
+          directories.remove(key);
+        }
+      }
+    } catch (ClosedWatchServiceException e) {
+      log.debug("Watch service closed");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void handle(Path directory, WatchEvent<?> event) {
+    if (directory == null || !known.containsKey(directory)) {
+      return;
+    }
+    try {
+      if (event.kind() == OVERFLOW) {
+        log.debug("Events of {} overflowed, rescanning", directory);
+        rescan(directory);
+      } else if (event.kind() == ENTRY_DELETE) {
+        removed(directory, event.context().toString());
+      } else {
+        changed(directory, event.context().toString());
+      }
+    } catch (RuntimeException e) {
+      batcher.error(e);
+    }
+  }
+
+  private void changed(Path directory, String name) {
+    Path child = directory.resolve(name);
+    Entry current = stat(child);
+    Entry previous = known.get(directory).get(name);
+    if (current == null) {
+      removed(directory, name);
+    } else if (previous != null && previous.directory() != current.directory()) {
+      removed(directory, name);
+      changed(directory, name);
+    } else if (previous == null && current.directory()) {
+      register(child, batcher::add);
+    } else if (previous == null) {
+      known.get(directory).put(name, current);
+      batcher.add(FileChangeEvent.created(path(child), false));
+    } else if (!current.directory() && !current.equals(previous)) {
+      known.get(directory).put(name, current);
+      batcher.add(FileChangeEvent.modified(path(child), false));
+    }
+  }
+
+  private void removed(Path directory, String name) {
+    Entry previous = known.get(directory).remove(name);
+    if (previous == null) {
+      return;
+    }
+    Path child = directory.resolve(name);
+    if (previous.directory()) {
+      forget(child);
+    }
+    batcher.add(FileChangeEvent.deleted(path(child), previous.directory()));
+  }
+
+  /**
+   * Report the deletion of everything known below a deleted directory and stop watching it.
+   */
+  private void forget(Path deleted) {
+    Map<String, Entry> children = known.remove(deleted);
+    if (children == null) {
+      return;
+    }
+    children.forEach((name, entry) -> {
+      Path child = deleted.resolve(name);
+      if (entry.directory()) {
+        forget(child);
+      }
+      batcher.add(FileChangeEvent.deleted(path(child), entry.directory()));
+    });
+    directories.entrySet().removeIf(watched -> {
+      if (watched.getValue().equals(deleted)) {
+        watched.getKey().cancel();
+        return true;
+      }
+      return false;
+    });
+  }
+
+  private void rescan(Path directory) {
+    if (!Files.isDirectory(directory)) {
+      return;
+    }
+    Set<String> present = new HashSet<>();
+    try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+      children.forEach(child -> present.add(child.getFileName().toString()));
+    } catch (IOException e) {
+      throw new FileServiceException(e);
+    }
+    present.forEach(name -> changed(directory, name));
+    List<String> absent = new ArrayList<>(known.get(directory).keySet());
+    absent.removeAll(present);
+    absent.forEach(name -> removed(directory, name));
+  }
+
+  /**
+   * Watch a directory and everything below it. When events are given, everything found is
+   * reported as created.
+   */
+  private void register(Path start, Consumer<FileChangeEvent> events) {
+    try {
+      Files.walkFileTree(start, new SimpleFileVisitor<>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+            throws IOException {
+          directories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY),
+              dir);
+          known.put(dir, new HashMap<>());
+          add(dir, attrs);
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          add(file, attrs);
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+          if (e instanceof NoSuchFileException) {
+            // deleted while registering
+            return FileVisitResult.CONTINUE;
+          }
+          throw e;
+        }
+
+        private void add(Path path, BasicFileAttributes attrs) {
+          Map<String, Entry> siblings = known.get(path.getParent());
+          if (siblings == null) {
+            // the watched directory itself
+            return;
+          }
+          siblings.put(path.getFileName().toString(), entry(attrs));
+          if (events != null) {
+            events.accept(FileChangeEvent.created(path(path), attrs.isDirectory()));
+          }
+        }
+      });
+    } catch (NoSuchFileException e) {
+      log.debug("{} was deleted while registering", start);
+    } catch (IOException e) {
+      throw new FileServiceException(e);
+    }
+  }
+
+  private String path(Path path) {
+    return workDir.relativize(path).toString();
+  }
+
+  private static Entry stat(Path path) {
+    try {
+      return entry(Files.readAttributes(path, BasicFileAttributes.class));
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException e) {
+      throw new FileServiceException(e);
+    }
+  }
+
+  private static Entry entry(BasicFileAttributes attrs) {
+    return attrs.isDirectory()
+        ? new Entry(true, 0, 0, null)
+        : new Entry(false, attrs.size(), attrs.lastModifiedTime().toMillis(), null);
+  }
+}
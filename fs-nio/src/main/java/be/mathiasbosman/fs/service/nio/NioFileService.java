@@ -1,14 +1,23 @@
 package be.mathiasbosman.fs.service.nio;
 
+import be.mathiasbosman.fs.core.domain.FilePath;
 import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.domain.FileSystemNodeList;
 import be.mathiasbosman.fs.core.domain.FileSystemNodeType;
 import be.mathiasbosman.fs.core.domain.NodeMetadata;
+import be.mathiasbosman.fs.core.domain.Usage;
 import be.mathiasbosman.fs.core.service.AbstractFileService;
 import be.mathiasbosman.fs.core.service.FileNodeVisitor;
+import be.mathiasbosman.fs.core.util.BufferPool;
 import be.mathiasbosman.fs.core.util.FileServiceUtils;
+import be.mathiasbosman.fs.core.util.KnownDirectories;
+import be.mathiasbosman.fs.core.watch.ChangeFeedOptions;
+import be.mathiasbosman.fs.core.watch.FileChangeListener;
+import be.mathiasbosman.fs.core.watch.Subscription;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
@@ -16,19 +25,19 @@ import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.function.Function;
 import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.function.IOFunction;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.lang3.StringUtils;
 
 /**
@@ -43,6 +52,7 @@ public class NioFileService extends AbstractFileService {
 
   private final Path workDir;
   private final Function<Path, FileSystemNode> toFile = this::file;
+  private final KnownDirectories knownDirectories = new KnownDirectories();
 
   public NioFileService(FileSystem fs, String prefix) {
     workDir = fs.getPath(prefix);
@@ -54,6 +64,16 @@ public class NioFileService extends AbstractFileService {
 
   @Override
   public void delete(FileSystemNode node, boolean recursive) {
+    try {
+      deletePath(node, recursive);
+    } finally {
+      if (node.isDirectory()) {
+        knownDirectories.invalidate(node.getFilePath());
+      }
+    }
+  }
+
+  private void deletePath(FileSystemNode node, boolean recursive) {
     if (!recursive) {
       if (node.isDirectory() && countFiles(node) > 0) {
         throw new IllegalStateException("Directory is not empty for deletion");
@@ -104,6 +124,44 @@ public class NioFileService extends AbstractFileService {
     }
   }
 
+  /**
+   * Gathers the usage of a directory with a single walk of its file tree, reading the attributes
+   * of every file while walking. Files that disappear during the walk are skipped.
+   */
+  @Override
+  protected Usage directoryUsage(FileSystemNode directory) {
+    Path root = path(directory);
+    Usage.Builder usage = Usage.builder();
+    try {
+      Files.walkFileTree(root, new SimpleFileVisitor<>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+          if (!dir.equals(root)) {
+            usage.addDirectory();
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          usage.addFile(attrs.size(), attrs.lastModifiedTime().toMillis());
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+          if (e instanceof NoSuchFileException) {
+            return FileVisitResult.CONTINUE;
+          }
+          throw e;
+        }
+      });
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return usage.build();
+  }
+
   @Override
   public boolean isDirectory(String path) {
     return Files.isDirectory(path(path));
@@ -113,13 +171,9 @@ public class NioFileService extends AbstractFileService {
   public List<FileSystemNode> list(FileSystemNode root) {
     try {
       Path path = path(root.getPath());
-      FileAccumulator accumulator = new FileAccumulator(path);
+      FileAccumulator accumulator = new FileAccumulator(path, root.getFilePath());
       Files.walkFileTree(path, Collections.emptySet(), 1, accumulator);
-      List<Path> fromIterable = accumulator.toList();
-      return fromIterable.stream()
-          .map(toFile)
-          .sorted((Comparator.comparing(FileSystemNode::getName)))
-          .toList();
+      return accumulator.toList();
     } catch (IOException e) {
       throw new IllegalStateException(e);
     }
@@ -135,10 +189,48 @@ public class NioFileService extends AbstractFileService {
     }
   }
 
+  @Override
+  public InputStream open(FileSystemNode node, long offset, long length) {
+    checkRange(offset, length);
+    try {
+      log.debug("Getting {} bytes of {} at {}", length, node.getPath(), offset);
+      FileChannel channel = FileChannel.open(path(node.getPath()), StandardOpenOption.READ);
+      channel.position(offset);
+      return BoundedInputStream.builder()
+          .setInputStream(Channels.newInputStream(channel))
+          .setMaxCount(length)
+          .get();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
   @Override
   public void save(InputStream in, String path, long size) {
-    try (OutputStream out = Files.newOutputStream(mkToPath(path))) {
-      IOUtils.copy(in, out);
+    try (FileChannel out = write(path, target -> FileChannel.open(target,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE))) {
+      BufferPool.shared().copy(in, out);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  protected int getSaveParallelism() {
+    // small writes mostly wait on metadata updates of the file system
+    return Math.max(4, Runtime.getRuntime().availableProcessors());
+  }
+
+  @Override
+  protected void prepareDirectory(FilePath directory) {
+    knownDirectories.ensure(directory, known -> mkDirectories(path(known.toString())));
+  }
+
+  @Override
+  protected void saveBulk(FilePath path, byte[] content) {
+    try {
+      write(path.toString(), target -> Files.write(target, content));
     } catch (IOException e) {
       throw new IllegalStateException(e);
     }
@@ -155,16 +247,53 @@ public class NioFileService extends AbstractFileService {
     }
   }
 
+  /**
+   * Subscribe to changes using a {@link java.nio.file.WatchService} registered on every directory
+   * below the given one. The poll interval of the options is not used.
+   */
+  @Override
+  public Subscription subscribe(String path, FileChangeListener listener,
+      ChangeFeedOptions options) {
+    Path root = path(FileServiceUtils.combine(path));
+    if (!Files.isDirectory(root)) {
+      throw new IllegalArgumentException(path + " is not a directory");
+    }
+    return new NioChangeFeed(workDir, root, listener, options);
+  }
+
   private Path mkToPath(String pad) {
     Path path = path(pad);
-    mkDirectories(path.getParent());
+    FilePath parent = FilePath.of(pad).getParent();
+    if (parent == null) {
+      mkDirectories(path.getParent());
+    } else {
+      knownDirectories.ensure(parent, known -> mkDirectories(path.getParent()));
+    }
     return path;
   }
 
+  /**
+   * Writes to a path after creating its parent directory. When the directory was known but got
+   * deleted by others in the meantime it is created again.
+   */
+  private <T> T write(String pad, IOFunction<Path, T> writer) throws IOException {
+    try {
+      return writer.apply(mkToPath(pad));
+    } catch (NoSuchFileException e) {
+      FilePath parent = FilePath.of(pad).getParent();
+      if (parent == null || !knownDirectories.contains(parent)) {
+        throw e;
+      }
+      knownDirectories.invalidate(parent);
+      return writer.apply(mkToPath(pad));
+    }
+  }
+
   @Override
   protected void copyContent(FileSystemNode source, String target) {
     try {
-      Files.copy(path(source.getPath()), mkToPath(target));
+      Path sourcePath = path(source.getPath());
+      write(target, targetPath -> Files.copy(sourcePath, targetPath));
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -211,6 +340,7 @@ public class NioFileService extends AbstractFileService {
 
   @Override
   protected void mkDirectories(String path) {
+    // requested explicitly, so it is not skipped for directories remembered from earlier saves
     mkDirectories(path(path));
   }
 
@@ -239,8 +369,11 @@ public class NioFileService extends AbstractFileService {
   }
 
   private FileSystemNode file(Path path) {
-    String subPath = path.toString().substring(workDir.toString().length());
-    return getFileNode(FileServiceUtils.strip(subPath));
+    FilePath filePath = FilePath.ROOT;
+    for (Path segment : workDir.relativize(path)) {
+      filePath = filePath.child(segment.toString());
+    }
+    return getForPath(filePath, true);
   }
 
   private BasicFileAttributes getAttributes(Path path) throws IOException {
@@ -249,30 +382,38 @@ public class NioFileService extends AbstractFileService {
 
   private static class FileAccumulator extends SimpleFileVisitor<Path> {
 
-    private final List<Path> files = new LinkedList<>();
+    private final FileSystemNodeList.Builder files;
     private final Path root;
 
-    private FileAccumulator(Path root) {
+    private FileAccumulator(Path root, FilePath rootPath) {
       this.root = root;
+      this.files = FileSystemNodeList.builder(rootPath);
     }
 
     @Override
     public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
         throws IOException {
       if (!dir.equals(root)) {
-        files.add(dir);
+        add(dir, attrs);
       }
       return super.preVisitDirectory(dir, attrs);
     }
 
     @Override
     public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-      files.add(file);
+      // with a max depth of 1 sub directories are visited as files
+      add(file, attrs);
       return super.visitFile(file, attrs);
     }
 
-    List<Path> toList() {
-      return files;
+    private void add(Path path, BasicFileAttributes attrs) {
+      boolean directory = attrs.isDirectory();
+      files.add(path.getFileName().toString(), directory, directory ? 0L : attrs.size(),
+          attrs.lastModifiedTime().toMillis());
+    }
+
+    List<FileSystemNode> toList() {
+      return files.build();
     }
   }
 }
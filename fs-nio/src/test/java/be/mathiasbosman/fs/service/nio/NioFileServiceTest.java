@@ -12,18 +12,26 @@ import be.mathiasbosman.fs.core.domain.FileSystemNode;
 import be.mathiasbosman.fs.core.domain.FileSystemNodeImpl;
 import be.mathiasbosman.fs.core.service.AbstractFileServiceTest;
 import be.mathiasbosman.fs.core.service.FileService;
+import be.mathiasbosman.fs.core.util.BufferPool;
+import be.mathiasbosman.fs.core.watch.ChangeFeedOptions;
+import be.mathiasbosman.fs.core.watch.FileChangeEvent;
+import be.mathiasbosman.fs.core.watch.Subscription;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.apache.commons.io.FileUtils;
@@ -150,10 +158,12 @@ class NioFileServiceTest extends AbstractFileServiceTest {
   }
 
   @Test
-  void saveWithException() {
-    try (MockedStatic<IOUtils> mockIOUtils = Mockito.mockStatic(IOUtils.class)) {
-      mockIOUtils.when(() -> IOUtils.copy(any(InputStream.class), any(OutputStream.class)))
-          .thenThrow(new IOException("Mocked IOException"));
+  void saveWithException() throws IOException {
+    BufferPool failingPool = Mockito.mock(BufferPool.class);
+    Mockito.when(failingPool.copy(any(InputStream.class), any(WritableByteChannel.class)))
+        .thenThrow(new IOException("Mocked IOException"));
+    try (MockedStatic<BufferPool> mockedPool = Mockito.mockStatic(BufferPool.class)) {
+      mockedPool.when(BufferPool::shared).thenReturn(failingPool);
 
       FileService fs = getFs();
       byte[] bytes = "content".getBytes();
@@ -281,6 +291,63 @@ class NioFileServiceTest extends AbstractFileServiceTest {
     assertThat(collected).hasSize(5);
   }
 
+  @Test
+  void subscribeReportsSubtrees() throws Exception {
+    createDirectories(workdir.resolve("w"));
+    Set<FileChangeEvent> events = ConcurrentHashMap.newKeySet();
+    ChangeFeedOptions options = ChangeFeedOptions.builder()
+        .batchWindow(Duration.ofMillis(20))
+        .build();
+
+    try (Subscription ignored = getFs().subscribe("w", events::addAll, options)) {
+      // created at once, the content of d may exist before d is registered
+      Path d = createDirectories(workdir.resolve("w/d/e"));
+      Files.writeString(d.resolve("f"), "-");
+      awaitEvents(events, FileChangeEvent.created("w/d", true),
+          FileChangeEvent.created("w/d/e", true), FileChangeEvent.created("w/d/e/f", false));
+
+      FileUtils.deleteDirectory(workdir.resolve("w/d").toFile());
+      awaitEvents(events, FileChangeEvent.deleted("w/d", true),
+          FileChangeEvent.deleted("w/d/e", true), FileChangeEvent.deleted("w/d/e/f", false));
+    }
+  }
+
+  @Test
+  void directoriesAreCreatedAgainAfterDeletion() throws IOException {
+    FileService fs = getFs();
+    fs.saveText("1", "a/b/c");
+    fs.delete(fs.getFileNode("a"), true);
+    fs.saveText("2", "a/b/c");
+    assertThat(workdir.resolve("a/b/c")).hasContent("2");
+
+    // deleted without the file service knowing
+    FileUtils.deleteDirectory(workdir.resolve("a").toFile());
+    fs.saveText("3", "a/b/c");
+    fs.copy("a/b/c", "a/d/e");
+    assertThat(workdir.resolve("a/b/c")).hasContent("3");
+    assertThat(workdir.resolve("a/d/e")).hasContent("3");
+  }
+
+  @Test
+  void mkDirectoriesIsNotSkippedForRememberedDirectories() throws IOException {
+    FileService fs = getFs();
+    fs.saveText("1", "a/b/c");
+
+    // deleted without the file service knowing
+    FileUtils.deleteDirectory(workdir.resolve("a").toFile());
+    fs.mkDirectories("a/b");
+    assertThat(workdir.resolve("a/b")).isDirectory();
+  }
+
+  private static void awaitEvents(Set<FileChangeEvent> events, FileChangeEvent... expected)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (!events.containsAll(List.of(expected)) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    assertThat(events).contains(expected);
+  }
+
   @Override
   protected void assertModifiedFolder(String path) {
     final FileSystemNode folderNode = getFs().getFileNode(path);
@@ -0,0 +1,76 @@
+package be.mathiasbosman.fs.service.s3.async;
+
+import be.mathiasbosman.fs.core.config.Generated;
+import java.net.URI;
+import java.util.concurrent.CompletionException;
+import lombok.experimental.UtilityClass;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
+
+/**
+ * Factory method for {@link S3AsyncClient} using a Netty based HTTP client. All requests share a
+ * small pool of event loop threads, the amount of requests in flight is bounded by the maximum
+ * concurrency of the connection pool.
+ *
+ * @see S3AsyncClient
+ * @see NettyNioAsyncHttpClient
+ */
+@Generated
+@UtilityClass
+public class S3AsyncClientFactory {
+
+  public static final int DEFAULT_MAX_CONCURRENCY = 512;
+
+  /**
+   * Factor an S3AsyncClient.
+   *
+   * @param serviceEndpoint        The service endpoint url
+   * @param region                 The AWS {@link Region} (optional)
+   * @param key                    The S3 key
+   * @param secret                 The S3 secret
+   * @param bucket                 Name of the bucket used
+   * @param pathStyleAccessEnabled If path style access should be enabled
+   * @param createBucketIfMissing  If the bucket should be created if missing
+   * @param maxConcurrency         Maximum amount of concurrent requests (and connections)
+   * @return instance of a Netty based {@link S3AsyncClient}
+   */
+  public static S3AsyncClient toS3AsyncClient(String serviceEndpoint, Region region, String key,
+      String secret, String bucket, boolean pathStyleAccessEnabled,
+      boolean createBucketIfMissing, int maxConcurrency) {
+    S3AsyncClient s3 = S3AsyncClient.builder()
+        .credentialsProvider(
+            StaticCredentialsProvider.create(AwsBasicCredentials.create(key, secret)))
+        .endpointOverride(URI.create(serviceEndpoint))
+        .region(region != null ? region : Region.US_EAST_1)
+        .forcePathStyle(pathStyleAccessEnabled)
+        .httpClientBuilder(NettyNioAsyncHttpClient.builder().maxConcurrency(maxConcurrency))
+        .build();
+    if (createBucketIfMissing && !bucketExists(s3, bucket)) {
+      s3.createBucket(b -> b.bucket(bucket)).join();
+    }
+    return s3;
+  }
+
+  private static boolean bucketExists(S3AsyncClient s3, String bucket) {
+    try {
+      s3.headBucket(b -> b.bucket(bucket)).join();
+      return true;
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof NoSuchBucketException) {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  public static S3AsyncClient toS3AsyncClient(String serviceEndpoint, Region region, String key,
+      String secret, String bucket, boolean pathStyleAccessEnabled,
+      boolean createBucketIfMissing) {
+    return toS3AsyncClient(serviceEndpoint, region, key, secret, bucket, pathStyleAccessEnabled,
+        createBucketIfMissing, DEFAULT_MAX_CONCURRENCY);
+  }
+}
@@ -0,0 +1,447 @@
+package be.mathiasbosman.fs.service.s3.async;
+
+import be.mathiasbosman.fs.core.domain.FilePath;
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.domain.FileSystemNodeList;
+import be.mathiasbosman.fs.core.domain.FileSystemNodeType;
+import be.mathiasbosman.fs.core.domain.NodeMetadata;
+import be.mathiasbosman.fs.core.service.AbstractFileService;
+import be.mathiasbosman.fs.core.service.AsyncFileService;
+import be.mathiasbosman.fs.core.util.FileServiceUtils;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.BlockingInputStreamAsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.Delete;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * An implementation of the {@link be.mathiasbosman.fs.core.service.FileService} for S3 on the
+ * non-blocking {@link S3AsyncClient} of the AWS SDK v2. Next to the blocking contract the
+ * {@link AsyncFileService} variants are offered, which do not hold a thread while a request is in
+ * flight. Objects are laid out the same way as by the fs-s3 module, so both can be used on the same
+ * bucket.
+ *
+ * @see S3AsyncClient
+ */
+@Slf4j
+public class S3AsyncFileService extends AbstractFileService implements AsyncFileService {
+
+  public static final String CONTENT_TYPE = "application/octet-stream";
+  public static final String DIRECTORY_MARKER_OBJECT_NAME = ".directory";
+  private static final String DELIMITER = "/";
+
+  private final S3AsyncClient s3;
+  private final String bucketName;
+  private final String bucketPrefix;
+
+  /**
+   * Create the S3AsyncFileService.
+   *
+   * @param s3           The {@link S3AsyncClient} to use
+   * @param bucketName   Name of the bucket used
+   * @param bucketPrefix Prefix of the bucket (optional)
+   */
+  public S3AsyncFileService(S3AsyncClient s3, String bucketName, String bucketPrefix) {
+    this.s3 = s3;
+    this.bucketName = bucketName;
+    this.bucketPrefix = bucketPrefix;
+  }
+
+  public S3AsyncFileService(S3AsyncClient s3, String bucketName) {
+    this(s3, bucketName, "");
+  }
+
+  @Override
+  public CompletableFuture<Boolean> existsAsync(String... parts) {
+    return getNodeAsync(FilePath.of(parts)).thenApply(Objects::nonNull);
+  }
+
+  @Override
+  public CompletableFuture<FileSystemNode> getOptionalFileNodeAsync(String... parts) {
+    return getNodeAsync(FilePath.of(parts));
+  }
+
+  @Override
+  public CompletableFuture<List<FileSystemNode>> listAsync(FileSystemNode root) {
+    return listAsync(root, false);
+  }
+
+  @Override
+  public CompletableFuture<InputStream> openAsync(FileSystemNode node) {
+    String key = toObjectKey(node.getPath());
+    log.debug("Getting {}/{}", bucketName, key);
+    return s3.getObject(getRequest(key), AsyncResponseTransformer.toBlockingInputStream())
+        .thenApply(InputStream.class::cast);
+  }
+
+  @Override
+  public CompletableFuture<byte[]> getBytesAsync(FileSystemNode node) {
+    String key = toObjectKey(node.getPath());
+    log.debug("Getting {}/{}", bucketName, key);
+    return s3.getObject(getRequest(key), AsyncResponseTransformer.toBytes())
+        .thenApply(ResponseBytes::asByteArrayUnsafe);
+  }
+
+  @Override
+  public CompletableFuture<Void> saveAsync(byte[] bytes, String... parts) {
+    if (parts.length == 0) {
+      throw new IllegalArgumentException("Operation only possible with path in second argument.");
+    }
+    return put(toObjectKey(FileServiceUtils.combine(parts)), AsyncRequestBody.fromBytes(bytes),
+        bytes.length).thenApply(response -> null);
+  }
+
+  @Override
+  public CompletableFuture<Void> deleteAsync(FileSystemNode node, boolean recursive) {
+    if (!node.isDirectory()) {
+      return deleteKey(toObjectKey(node.getPath()));
+    }
+    if (recursive) {
+      return deleteAll(toDirectoryPrefix(node.getPath()));
+    }
+    return listAsync(node, true).thenCompose(list -> {
+      if (list.size() == 1 && DIRECTORY_MARKER_OBJECT_NAME.equals(list.get(0).getName())) {
+        return deleteKey(toObjectKey(list.get(0).getPath()));
+      }
+      if (!list.isEmpty()) {
+        throw new IllegalArgumentException("Directory not empty for deletion");
+      }
+      return deleteKey(toObjectKey(node.getPath()));
+    });
+  }
+
+  @Override
+  public void delete(FileSystemNode node, boolean recursive) {
+    join(deleteAsync(node, recursive));
+  }
+
+  @Override
+  public LocalDateTime getCreationTime(FileSystemNode node, ZoneId zoneId) {
+    throw new UnsupportedOperationException("Amazon S3 does not support creation times.");
+  }
+
+  @Override
+  public LocalDateTime getLastModifiedTime(FileSystemNode node, ZoneId zoneId) {
+    HeadObjectResponse head = getExistingHead(node.getPath());
+    return LocalDateTime.ofInstant(head.lastModified(), zoneId);
+  }
+
+  @Override
+  public List<FileSystemNode> list(FileSystemNode root) {
+    return join(listAsync(root));
+  }
+
+  @Override
+  public InputStream open(FileSystemNode node) {
+    return join(openAsync(node));
+  }
+
+  @Override
+  public InputStream open(FileSystemNode node, long offset, long length) {
+    checkRange(offset, length);
+    // a range starting at or past the end is rejected with 416 instead of returning nothing
+    length = Math.min(length, Math.max(0, node.getSize() - offset));
+    if (length == 0) {
+      return InputStream.nullInputStream();
+    }
+    String key = toObjectKey(node.getPath());
+    log.debug("Getting {} bytes of {}/{} at {}", length, bucketName, key, offset);
+    GetObjectRequest request = GetObjectRequest.builder().bucket(bucketName).key(key)
+        .range("bytes=" + offset + "-" + (offset + length - 1))
+        .build();
+    return join(s3.getObject(request, AsyncResponseTransformer.toBlockingInputStream()));
+  }
+
+  @Override
+  protected void save(InputStream is, String path, long size) {
+    String key = toObjectKey(path);
+    if (size < 0) {
+      byte[] bytes = readAllBytes(is);
+      join(put(key, AsyncRequestBody.fromBytes(bytes), bytes.length));
+      return;
+    }
+    // the calling thread feeds the request body, the event loop only sends it
+    BlockingInputStreamAsyncRequestBody body = AsyncRequestBody.forBlockingInputStream(size);
+    CompletableFuture<PutObjectResponse> response = put(key, body, size);
+    body.writeInputStream(is);
+    join(response);
+  }
+
+  @Override
+  public Stream<FileSystemNode> streamDirectory(FileSystemNode root) {
+    List<FileSystemNode> files = new ArrayList<>();
+    join(forEachPage(listRequest(toDirectoryPrefix(root.getPath()), null), page -> {
+      for (S3Object object : page.contents()) {
+        FilePath path = FilePath.of(getLocation(object.key()));
+        if (!DIRECTORY_MARKER_OBJECT_NAME.equals(path.getName())) {
+          files.add(createFileNode(path, false, object.size(), Date.from(object.lastModified())));
+        }
+      }
+    }));
+    return files.stream();
+  }
+
+  @Override
+  protected void copyContent(FileSystemNode source, String to) {
+    String sourceKey = toObjectKey(source.getPath());
+    String destinationKey = toObjectKey(to);
+    log.debug("Copying object {}/{} to {}/{}", bucketName, sourceKey, bucketName, destinationKey);
+    join(s3.copyObject(CopyObjectRequest.builder()
+        .sourceBucket(bucketName)
+        .sourceKey(sourceKey)
+        .destinationBucket(bucketName)
+        .destinationKey(destinationKey)
+        .build()));
+  }
+
+  @Override
+  protected boolean exists(String path) {
+    return join(existsAsync(path));
+  }
+
+  @Override
+  protected FileSystemNodeType getFileNodeType(String path) {
+    NodeMetadata metadata = getNodeMetadata(path);
+    return metadata != null ? metadata.getType() : null;
+  }
+
+  @Override
+  protected NodeMetadata getNodeMetadata(String path) {
+    FileSystemNode node = join(getNodeAsync(FilePath.of(path)));
+    if (node == null) {
+      return null;
+    }
+    return node.isDirectory() ? new NodeMetadata(FileSystemNodeType.DIRECTORY)
+        : new NodeMetadata(FileSystemNodeType.FILE, node.getSize(), node.getLastModified());
+  }
+
+  @Override
+  protected FileSystemNode getForPath(FilePath filePath, boolean shouldExist) {
+    FileSystemNode node = join(getNodeAsync(filePath));
+    if (node == null && shouldExist) {
+      throw new IllegalArgumentException("Path does not exist on filesystem: " + filePath);
+    }
+    return node;
+  }
+
+  @Override
+  protected long getSize(String path) {
+    return getExistingHead(path).contentLength();
+  }
+
+  @Override
+  protected boolean isDirectory(String path) {
+    return join(isDirectoryAsync(path));
+  }
+
+  @Override
+  protected void mkDirectories(String path) {
+    String key = FileServiceUtils.combine(toObjectKey(path), DIRECTORY_MARKER_OBJECT_NAME);
+    join(put(key, AsyncRequestBody.fromBytes(new byte[]{1}), 1));
+  }
+
+  /**
+   * Resolves a node with a single HEAD request for files. Only when no object exists at the key a
+   * listing is done to check for a directory.
+   */
+  private CompletableFuture<FileSystemNode> getNodeAsync(FilePath filePath) {
+    if (filePath.isRoot()) {
+      return CompletableFuture.completedFuture(createFileNode(filePath, true, 0L, null));
+    }
+    String path = filePath.toString();
+    return head(toObjectKey(path)).thenCompose(head -> {
+      if (head != null) {
+        return CompletableFuture.completedFuture(createFileNode(filePath, false,
+            head.contentLength(), Date.from(head.lastModified())));
+      }
+      return isDirectoryAsync(path).thenApply(directory -> directory
+          ? createFileNode(filePath, true, 0L, null) : null);
+    });
+  }
+
+  private CompletableFuture<HeadObjectResponse> head(String key) {
+    HeadObjectRequest request = HeadObjectRequest.builder().bucket(bucketName).key(key).build();
+    return s3.headObject(request).handle((response, error) -> {
+      if (error == null) {
+        return response;
+      }
+      Throwable cause = unwrap(error);
+      if (cause instanceof S3Exception s3Exception && s3Exception.statusCode() == 404) {
+        return null;
+      }
+      throw new CompletionException(cause);
+    });
+  }
+
+  private HeadObjectResponse getExistingHead(String path) {
+    HeadObjectResponse head = join(head(toObjectKey(path)));
+    if (head == null) {
+      throw new IllegalArgumentException("Path does not exist on filesystem: " + path);
+    }
+    return head;
+  }
+
+  private CompletableFuture<Boolean> isDirectoryAsync(String path) {
+    String prefix = toDirectoryPrefix(path);
+    if (prefix.isEmpty()) {
+      return CompletableFuture.completedFuture(true);
+    }
+    ListObjectsV2Request request = ListObjectsV2Request.builder()
+        .bucket(bucketName)
+        .prefix(prefix)
+        .maxKeys(1)
+        .build();
+    return s3.listObjectsV2(request).thenApply(response -> !response.contents().isEmpty());
+  }
+
+  private CompletableFuture<List<FileSystemNode>> listAsync(FileSystemNode directory,
+      boolean includeHiddenDirectoryMarkers) {
+    String prefix = toDirectoryPrefix(directory.getPath());
+    FileSystemNodeList.Builder result = FileSystemNodeList.builder(directory.getFilePath());
+    // pages are handed over one at a time so the builder is never used concurrently
+    return forEachPage(listRequest(prefix, DELIMITER), page -> {
+      for (CommonPrefix commonPrefix : page.commonPrefixes()) {
+        String subDirectory = commonPrefix.prefix();
+        result.add(subDirectory.substring(prefix.length(), subDirectory.length() - 1), true, 0L,
+            null);
+      }
+      for (S3Object object : page.contents()) {
+        String name = object.key().substring(prefix.length());
+        if (includeHiddenDirectoryMarkers || !DIRECTORY_MARKER_OBJECT_NAME.equals(name)) {
+          result.add(name, false, object.size(), Date.from(object.lastModified()));
+        }
+      }
+    }).thenApply(done -> result.build());
+  }
+
+  private ListObjectsV2Request listRequest(String prefix, String delimiter) {
+    return ListObjectsV2Request.builder()
+        .bucket(bucketName)
+        .prefix(prefix)
+        .delimiter(delimiter)
+        .build();
+  }
+
+  /**
+   * Pages through a listing, handing every page to the consumer before the next page is
+   * requested.
+   */
+  private CompletableFuture<Void> forEachPage(ListObjectsV2Request request,
+      Consumer<ListObjectsV2Response> consumer) {
+    return s3.listObjectsV2(request).thenCompose(page -> {
+      consumer.accept(page);
+      if (!Boolean.TRUE.equals(page.isTruncated())) {
+        return CompletableFuture.completedFuture(null);
+      }
+      return forEachPage(request.toBuilder()
+          .continuationToken(page.nextContinuationToken())
+          .build(), consumer);
+    });
+  }
+
+  private CompletableFuture<PutObjectResponse> put(String key, AsyncRequestBody body, long size) {
+    log.debug("Putting object {}/{}", bucketName, key);
+    return s3.putObject(PutObjectRequest.builder()
+        .bucket(bucketName)
+        .key(key)
+        .contentType(CONTENT_TYPE)
+        .contentLength(size)
+        .build(), body);
+  }
+
+  private CompletableFuture<Void> deleteKey(String key) {
+    log.debug("Deleting {}/{}", bucketName, key);
+    return s3.deleteObject(DeleteObjectRequest.builder().bucket(bucketName).key(key).build())
+        .thenApply(response -> null);
+  }
+
+  /**
+   * Deletes everything under a prefix. Every listed page (at most 1000 keys, the limit of a
+   * multi-object delete) is deleted with one request while the next page is being listed.
+   */
+  private CompletableFuture<Void> deleteAll(String prefix) {
+    List<CompletableFuture<?>> deletes = new ArrayList<>();
+    return forEachPage(listRequest(prefix, null), page -> {
+      if (page.contents().isEmpty()) {
+        return;
+      }
+      List<ObjectIdentifier> keys = page.contents().stream()
+          .map(object -> ObjectIdentifier.builder().key(object.key()).build())
+          .toList();
+      log.debug("Deleting {} objects under {}/{}", keys.size(), bucketName, prefix);
+      deletes.add(s3.deleteObjects(DeleteObjectsRequest.builder()
+          .bucket(bucketName)
+          .delete(Delete.builder().objects(keys).quiet(true).build())
+          .build()));
+    }).thenCompose(done -> CompletableFuture.allOf(deletes.toArray(CompletableFuture[]::new)));
+  }
+
+  private GetObjectRequest getRequest(String key) {
+    return GetObjectRequest.builder().bucket(bucketName).key(key).build();
+  }
+
+  private String getLocation(String key) {
+    return key.substring(bucketPrefix.length());
+  }
+
+  private String toObjectKey(String path) {
+    return FileServiceUtils.combine(bucketPrefix, path);
+  }
+
+  private String toDirectoryPrefix(String path) {
+    String key = toObjectKey(path);
+    return key.isEmpty() ? "" : key + DELIMITER;
+  }
+
+  private static byte[] readAllBytes(InputStream is) {
+    try {
+      return is.readAllBytes();
+    } catch (IOException e) {
+      throw new FileServiceException(e);
+    }
+  }
+
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      Throwable cause = unwrap(e);
+      throw cause instanceof RuntimeException runtimeException
+          ? runtimeException : new FileServiceException(cause);
+    }
+  }
+
+  private static Throwable unwrap(Throwable error) {
+    return error instanceof CompletionException && error.getCause() != null
+        ? error.getCause() : error;
+  }
+}
@@ -0,0 +1,176 @@
+package be.mathiasbosman.fs.service.s3.async;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import be.mathiasbosman.fs.core.AbstractContainerTest;
+import be.mathiasbosman.fs.core.ContainerServiceDto;
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.service.FileService;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+class S3AsyncFileServiceTest extends AbstractContainerTest {
+
+  private static final String dockerComposeFile = "src/test/resources/docker/docker-compose-minio.yml";
+  private static final String dockerS3Service = "fs-test-minio";
+  private static final int dockerS3Port = 9000;
+
+  private final S3AsyncClient s3;
+  private final String bucketName = "test";
+  private final String prefix = "sandbox/";
+  private final S3AsyncFileService fs;
+
+  S3AsyncFileServiceTest() {
+    super(dockerComposeFile, new ContainerServiceDto(dockerS3Service, dockerS3Port));
+    // see docker compose
+    String endpoint = "http://localhost:" + dockerS3Port;
+    s3 = S3AsyncClientFactory.toS3AsyncClient(endpoint, Region.EU_WEST_2, "minio_key",
+        "minio_secret", bucketName, true, false);
+    fs = new S3AsyncFileService(s3, bucketName, prefix);
+  }
+
+  @BeforeEach
+  protected void setup() {
+    cleanUp();
+    s3.createBucket(b -> b.bucket(bucketName)).join();
+  }
+
+  @Override
+  protected FileService getFs() {
+    return fs;
+  }
+
+  @AfterEach
+  void cleanUp() {
+    try {
+      s3.headBucket(b -> b.bucket(bucketName)).join();
+    } catch (Exception e) {
+      if (e.getCause() instanceof NoSuchBucketException) {
+        return;
+      }
+      throw e;
+    }
+    s3.listObjectsV2Paginator(b -> b.bucket(bucketName))
+        .contents()
+        .subscribe(object -> s3.deleteObject(b -> b.bucket(bucketName).key(object.key())).join())
+        .join();
+    s3.deleteBucket(b -> b.bucket(bucketName)).join();
+  }
+
+  @Override
+  protected void putDirectory(String path) {
+    getFs().mkDirectories(path);
+  }
+
+  protected void putObject(String path, String data) {
+    s3.putObject(b -> b.bucket(bucketName).key(prefix + path).contentType("text/plain"),
+        AsyncRequestBody.fromString(data, StandardCharsets.UTF_8)).join();
+  }
+
+  @Override
+  protected void assertExists(String path) {
+    assertThat(objectExists(path)).isTrue();
+  }
+
+  @Override
+  protected void assertDirectoryExists(String path) {
+    assertThat(getFs().isDirectory(path)).isTrue();
+  }
+
+  @Override
+  protected void assertNotExists(String path) {
+    assertThat(objectExists(path)).isFalse();
+  }
+
+  private boolean objectExists(String path) {
+    return s3.headObject(b -> b.bucket(bucketName).key(prefix + path))
+        .thenApply(response -> true)
+        .exceptionally(e -> {
+          if (e.getCause() instanceof S3Exception s3Exception
+              && s3Exception.statusCode() == 404) {
+            return false;
+          }
+          throw new IllegalStateException(e);
+        })
+        .join();
+  }
+
+  @Override
+  protected String getContent(String path) {
+    return s3.getObject(b -> b.bucket(bucketName).key(prefix + path),
+        AsyncResponseTransformer.toBytes()).join().asUtf8String();
+  }
+
+  @Test
+  void delete() {
+    putDirectory("x");
+    putObject("x/a", "-");
+    FileSystemNode nodeToDelete = getFs().getFileNode("x");
+    FileService fs = getFs();
+    assertThatThrownBy(() -> fs.delete(nodeToDelete))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("Directory not empty for deletion");
+    fs.delete(nodeToDelete, true);
+    assertNotExists("x");
+    assertNotExists("x/a");
+  }
+
+  @Test
+  void getCreationTime() {
+    putObject("x", "-");
+    FileSystemNode node = getFs().getFileNode("x");
+    FileService fs = getFs();
+    ZoneId zoneId = ZoneId.systemDefault();
+    assertThatThrownBy(() -> fs.getCreationTime(node, zoneId))
+        .isInstanceOf(UnsupportedOperationException.class);
+  }
+
+  @Test
+  void getLastModifiedTime() {
+    putObject("x", "-");
+    FileSystemNode fileNode = getFs().getFileNode("x");
+    assertThat(getFs().getLastModifiedTime(fileNode, ZoneId.systemDefault())).isNotNull();
+  }
+
+  @Test
+  void concurrentAsyncRequests() {
+    List<CompletableFuture<Void>> saves = IntStream.range(0, 200)
+        .mapToObj(i -> fs.saveAsync(("content " + i).getBytes(), "x", "file" + i))
+        .toList();
+    CompletableFuture.allOf(saves.toArray(CompletableFuture[]::new)).join();
+
+    List<CompletableFuture<byte[]>> reads = IntStream.range(0, 200)
+        .mapToObj(i -> fs.getOptionalFileNodeAsync("x", "file" + i)
+            .thenCompose(fs::getBytesAsync))
+        .toList();
+    for (int i = 0; i < reads.size(); i++) {
+      assertThat(new String(reads.get(i).join())).isEqualTo("content " + i);
+    }
+    assertThat(fs.listAsync(getFs().getFileNode("x")).join()).hasSize(200);
+    assertThat(fs.existsAsync("x", "file0").join()).isTrue();
+
+    fs.deleteAsync(getFs().getFileNode("x"), true).join();
+    assertThat(fs.existsAsync("x").join()).isFalse();
+  }
+
+  @Override
+  public void assertModifiedFolder(String path) {
+    final FileSystemNode folderNode = getFs().getFileNode(path);
+    final Date lastModified = folderNode.getLastModified();
+    assertThat(lastModified).isNull();
+  }
+}
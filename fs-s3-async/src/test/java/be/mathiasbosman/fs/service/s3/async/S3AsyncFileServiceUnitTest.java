@@ -0,0 +1,138 @@
+package be.mathiasbosman.fs.service.s3.async;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.domain.FileSystemNodeImpl;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * Tests of the {@link S3AsyncFileService} against a mocked {@link S3AsyncClient}.
+ */
+class S3AsyncFileServiceUnitTest {
+
+  private static final String BUCKET = "bucket";
+  private static final String PREFIX = "sandbox/";
+
+  private final S3AsyncClient s3 = mock(S3AsyncClient.class);
+  private final S3AsyncFileService fs = new S3AsyncFileService(s3, BUCKET, PREFIX);
+
+  @Test
+  void getFileNodeWithSingleRequest() {
+    when(s3.headObject(any(HeadObjectRequest.class))).thenReturn(
+        CompletableFuture.completedFuture(HeadObjectResponse.builder()
+            .contentLength(3L)
+            .lastModified(Instant.now())
+            .build()));
+
+    FileSystemNode node = fs.getFileNode("x", "a");
+
+    assertThat(node.isDirectory()).isFalse();
+    assertThat(node.getSize()).isEqualTo(3);
+    verify(s3).headObject(HeadObjectRequest.builder().bucket(BUCKET).key(PREFIX + "x/a").build());
+    verify(s3, never()).listObjectsV2(any(ListObjectsV2Request.class));
+  }
+
+  @Test
+  void getFileNodeOfDirectory() {
+    when(s3.headObject(any(HeadObjectRequest.class))).thenReturn(notFound());
+    when(s3.listObjectsV2(any(ListObjectsV2Request.class)))
+        .thenReturn(CompletableFuture.completedFuture(page(null, "x/.directory")));
+
+    FileSystemNode node = fs.getFileNode("x");
+
+    assertThat(node.isDirectory()).isTrue();
+    assertThat(node.getLastModified()).isNull();
+  }
+
+  @Test
+  void openRangePastTheEndIsEmpty() throws IOException {
+    try (InputStream in = fs.open(new FileSystemNodeImpl(null, "x/a", false, 10), 10, 5)) {
+      assertThat(in.readAllBytes()).isEmpty();
+    }
+    verifyNoInteractions(s3);
+  }
+
+  @Test
+  void existsAsync() {
+    when(s3.headObject(any(HeadObjectRequest.class))).thenReturn(notFound());
+    when(s3.listObjectsV2(any(ListObjectsV2Request.class)))
+        .thenReturn(CompletableFuture.completedFuture(page(null)));
+
+    assertThat(fs.existsAsync("x").join()).isFalse();
+    assertThat(fs.exists("x")).isFalse();
+  }
+
+  @Test
+  void listPages() {
+    ListObjectsV2Request first = ListObjectsV2Request.builder()
+        .bucket(BUCKET).prefix(PREFIX + "x/").delimiter("/").build();
+    ListObjectsV2Request second = first.toBuilder().continuationToken("next").build();
+    ListObjectsV2Response firstPage = page("next", "x/.directory", "x/b")
+        .toBuilder()
+        .commonPrefixes(CommonPrefix.builder().prefix(PREFIX + "x/a/").build())
+        .build();
+    when(s3.listObjectsV2(first)).thenReturn(CompletableFuture.completedFuture(firstPage));
+    when(s3.listObjectsV2(second))
+        .thenReturn(CompletableFuture.completedFuture(page(null, "x/c")));
+
+    List<FileSystemNode> nodes = fs.list(new FileSystemNodeImpl(null, "x", true, 0));
+
+    assertThat(nodes).extracting(FileSystemNode::getPath).containsExactly("x/a", "x/b", "x/c");
+    assertThat(nodes).extracting(FileSystemNode::isDirectory).containsExactly(true, false, false);
+  }
+
+  @Test
+  void deleteRecursivePerPage() {
+    when(s3.listObjectsV2(any(ListObjectsV2Request.class)))
+        .thenReturn(CompletableFuture.completedFuture(page("next", "x/a", "x/b")))
+        .thenReturn(CompletableFuture.completedFuture(page(null, "x/c")));
+    when(s3.deleteObjects(any(DeleteObjectsRequest.class)))
+        .thenReturn(CompletableFuture.completedFuture(DeleteObjectsResponse.builder().build()));
+
+    fs.delete(new FileSystemNodeImpl(null, "x", true, 0), true);
+
+    verify(s3, times(2)).deleteObjects(any(DeleteObjectsRequest.class));
+  }
+
+  private static <T> CompletableFuture<T> notFound() {
+    return CompletableFuture.failedFuture(S3Exception.builder().statusCode(404).build());
+  }
+
+  private static ListObjectsV2Response page(String continuationToken, String... paths) {
+    return ListObjectsV2Response.builder()
+        .isTruncated(continuationToken != null)
+        .nextContinuationToken(continuationToken)
+        .contents(Arrays.stream(paths)
+            .map(path -> S3Object.builder()
+                .key(PREFIX + path)
+                .size(1L)
+                .lastModified(Instant.now())
+                .build())
+            .toList())
+        .build();
+  }
+}
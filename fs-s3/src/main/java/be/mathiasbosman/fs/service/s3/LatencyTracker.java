@@ -0,0 +1,62 @@
+package be.mathiasbosman.fs.service.s3;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the most recent latencies of an operation in a ring buffer and derives a percentile from
+ * them. The percentile is recomputed every few samples so reading it stays cheap.
+ */
+class LatencyTracker {
+
+  static final int WINDOW = 256;
+  static final int MINIMUM_SAMPLES = 20;
+  private static final int RECOMPUTE_INTERVAL = 16;
+
+  private final AtomicLongArray samples = new AtomicLongArray(WINDOW);
+  private final AtomicLong count = new AtomicLong();
+  private final double percentile;
+  private volatile long cachedNanos = -1;
+
+  LatencyTracker(double percentile) {
+    if (percentile <= 0 || percentile > 1) {
+      throw new IllegalArgumentException("Percentile should be in (0, 1]");
+    }
+    this.percentile = percentile;
+  }
+
+  void record(long nanos) {
+    long n = count.getAndIncrement();
+    samples.set((int) (n % WINDOW), nanos);
+    if ((n + 1) >= MINIMUM_SAMPLES && (n + 1) % RECOMPUTE_INTERVAL == 0) {
+      cachedNanos = compute(n + 1);
+    }
+  }
+
+  /**
+   * Returns the tracked percentile in nanoseconds.
+   *
+   * @param fallbackNanos Value to return while too few samples have been recorded
+   * @return the percentile
+   */
+  long getPercentileNanos(long fallbackNanos) {
+    long cached = cachedNanos;
+    if (cached >= 0) {
+      return cached;
+    }
+    long recorded = count.get();
+    return recorded < MINIMUM_SAMPLES ? fallbackNanos : compute(recorded);
+  }
+
+  private long compute(long recorded) {
+    int size = (int) Math.min(recorded, WINDOW);
+    long[] copy = new long[size];
+    for (int i = 0; i < size; i++) {
+      copy[i] = samples.get(i);
+    }
+    Arrays.sort(copy);
+    int index = (int) Math.ceil(percentile * size) - 1;
+    return copy[Math.max(0, Math.min(size - 1, index))];
+  }
+}
@@ -0,0 +1,43 @@
+package be.mathiasbosman.fs.service.s3;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket limiting the amount of extra requests (retries and hedges). Every successful
+ * request deposits a fraction of a token, every extra request withdraws a whole one. Tokens are
+ * kept in thousandths.
+ */
+class RetryBudget {
+
+  private static final long SCALE = 1000;
+
+  private final AtomicLong tokens;
+  private final long maximum;
+  private final long deposit;
+
+  RetryBudget(int maximumTokens, double ratio) {
+    this.maximum = maximumTokens * SCALE;
+    this.deposit = Math.round(ratio * SCALE);
+    this.tokens = new AtomicLong(maximum);
+  }
+
+  void onSuccess() {
+    tokens.updateAndGet(current -> Math.min(maximum, current + deposit));
+  }
+
+  boolean tryAcquire() {
+    while (true) {
+      long current = tokens.get();
+      if (current < SCALE) {
+        return false;
+      }
+      if (tokens.compareAndSet(current, current - SCALE)) {
+        return true;
+      }
+    }
+  }
+
+  double available() {
+    return (double) tokens.get() / SCALE;
+  }
+}
@@ -0,0 +1,117 @@
+package be.mathiasbosman.fs.service.s3;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import be.mathiasbosman.fs.core.watch.ChangeFeedOptions;
+import be.mathiasbosman.fs.core.watch.ChangeSnapshot;
+import be.mathiasbosman.fs.core.watch.ChangeSnapshot.Entry;
+import be.mathiasbosman.fs.core.watch.FileChangeEvent;
+import be.mathiasbosman.fs.core.watch.FileChangeListener;
+import be.mathiasbosman.fs.core.watch.PollingChangeFeed;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Change feed of a {@link S3FileService} based on listing diffs. Every pass lists the watched
+ * prefix and compares the objects with a snapshot of the previous pass on size, modification date
+ * and ETag. Directory marker objects are not reported.
+ *
+ * <p>A pass is listed page by page. Each page replaces the key range it covers in the snapshot and
+ * the next page starts after the last key seen ({@code StartAfter}). A poll lists at most
+ * {@code maxPagesPerPoll} pages and the next poll resumes where it stopped, so a large prefix is
+ * covered over several polls without one poll having to list all of it.
+ *
+ * <p>When the options hold a snapshot file the snapshot is stored after every complete pass and
+ * loaded on start, so changes made while nothing was subscribed are reported by the first pass.
+ * Without a stored snapshot the first pass only records the state and is completed on start.
+ */
+@Slf4j
+class S3ChangeFeed extends PollingChangeFeed {
+
+  static final int MAX_PAGES_PER_POLL = 100;
+
+  private final S3FileService fileService;
+  private final String prefix;
+  private final int pageSize;
+  private final int maxPagesPerPoll;
+  private ChangeSnapshot snapshot = new ChangeSnapshot();
+  private boolean baseline = true;
+  private String startAfter;
+
+  S3ChangeFeed(S3FileService fileService, String prefix, int pageSize, int maxPagesPerPoll,
+      FileChangeListener listener, ChangeFeedOptions options) {
+    super(listener, options, "s3-changes");
+    this.fileService = fileService;
+    this.prefix = prefix;
+    this.pageSize = pageSize;
+    this.maxPagesPerPoll = maxPagesPerPoll;
+    if (options.getSnapshot() != null && Files.exists(options.getSnapshot())) {
+      try {
+        snapshot = ChangeSnapshot.read(options.getSnapshot());
+        baseline = false;
+      } catch (IOException e) {
+        throw new FileServiceException(e);
+      }
+    }
+  }
+
+  @Override
+  protected void poll(Consumer<FileChangeEvent> events) {
+    // snapshot entries are keyed on object key, events carry the path
+    Consumer<FileChangeEvent> consumer = baseline ? event -> {
+    } : event -> events.accept(new FileChangeEvent(event.kind(),
+        fileService.toPath(event.path()), event.directory()));
+    int pages = 0;
+    while (baseline || pages++ < maxPagesPerPoll) {
+      ListObjectsV2Result page = fileService.listObjects(new ListObjectsV2Request()
+          .withBucketName(fileService.getBucketName())
+          .withPrefix(prefix)
+          .withStartAfter(startAfter)
+          .withMaxKeys(pageSize));
+      NavigableMap<String, Entry> fresh = new TreeMap<>();
+      String lastKey = null;
+      for (S3ObjectSummary summary : page.getObjectSummaries()) {
+        lastKey = summary.getKey();
+        if (!isMarker(lastKey)) {
+          fresh.put(lastKey, entry(summary));
+        }
+      }
+      boolean complete = !page.isTruncated() || lastKey == null;
+      snapshot.replace(fresh, startAfter, complete ? null : lastKey, consumer);
+      if (complete) {
+        completed();
+        return;
+      }
+      startAfter = lastKey;
+    }
+    log.debug("Listing of {} continues after {} on the next poll", prefix, startAfter);
+  }
+
+  private void completed() {
+    startAfter = null;
+    baseline = false;
+    if (options.getSnapshot() != null) {
+      try {
+        snapshot.write(options.getSnapshot());
+      } catch (IOException e) {
+        throw new FileServiceException(e);
+      }
+    }
+  }
+
+  private static boolean isMarker(String key) {
+    return key.endsWith(File.separatorChar + S3FileService.DIRECTORY_MARKER_OBJECT_NAME);
+  }
+
+  private static Entry entry(S3ObjectSummary summary) {
+    long modified = summary.getLastModified() != null ? summary.getLastModified().getTime() : 0;
+    return new Entry(false, summary.getSize(), modified, summary.getETag());
+  }
+}
@@ -1,40 +1,63 @@
 package be.mathiasbosman.fs.service.s3;
 
+import be.mathiasbosman.fs.core.domain.FilePath;
+import be.mathiasbosman.fs.core.domain.FileServiceException;
 import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.domain.FileSystemNodeList;
 import be.mathiasbosman.fs.core.domain.FileSystemNodeType;
-import be.mathiasbosman.fs.core.domain.FileSystemTree;
-import be.mathiasbosman.fs.core.domain.FileSystemTreeImpl;
 import be.mathiasbosman.fs.core.domain.NodeMetadata;
+import be.mathiasbosman.fs.core.domain.Usage;
 import be.mathiasbosman.fs.core.service.AbstractFileService;
 import be.mathiasbosman.fs.core.service.FileNodeVisitor;
 import be.mathiasbosman.fs.core.util.FileServiceUtils;
+import be.mathiasbosman.fs.core.watch.ChangeFeedOptions;
+import be.mathiasbosman.fs.core.watch.FileChangeListener;
+import be.mathiasbosman.fs.core.watch.Subscription;
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.model.AmazonS3Exception;
-import com.amazonaws.services.s3.model.ListObjectsRequest;
-import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.CopyObjectResult;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
-import org.apache.commons.lang3.StringUtils;
 
 /**
  * An implementation of the {@link be.mathiasbosman.fs.core.service.FileService} for AmazonS3 file
  * systems. A marker object name is used to mock directories.
  *
+ * <p>Requests per lookup: {@code exists}, {@code isDirectory}, {@code getFileNode} and
+ * {@code getOptionalFileNode} need one ListObjectsV2 request, two when more than one sibling key
+ * sorts between the key and its directory prefix (e.g. {@code key-1}, {@code key.txt}).
+ * {@code getSize} and {@code getLastModifiedTime} of a file need one HEAD request.
+ *
+ * <p>With a {@link S3ListingIndex} all of these, as well as listings and walks, are answered from
+ * the index without any request. The index only knows about changes made through this service
+ * and is brought up to date with {@link #refreshIndex(int)}.
+ *
  * @see AmazonS3
  */
 @Slf4j
@@ -44,21 +67,67 @@ public class S3FileService extends AbstractFileService {
   public static final String CONTENT_TYPE = "application/octet-stream";
   public static final String DIRECTORY_MARKER_OBJECT_NAME = ".directory";
 
+  static final String OPERATION_OPEN = "open";
+  static final String OPERATION_METADATA = "metadata";
+  public static final int DEFAULT_LISTING_PARALLELISM = 8;
+  private static final int RESOLVE_MAX_KEYS = 2;
+  private static final int LIST_PAGE_SIZE = 1000;
+  private static final int DELETE_BATCH_SIZE = 1000;
+  private static final int SAVE_PARALLELISM = 32;
+
   private final String bucketName;
   private final String bucketPrefix;
   private final AmazonS3 s3;
+  private final S3ReadExecutor readExecutor;
+  private final S3ParallelLister lister;
+  private final S3ListingIndex index;
+  private String indexCursor;
 
   /**
    * Create the S3FileService.
    *
-   * @param s3           The {@link AmazonS3} to use
-   * @param bucketName   Name of the bucket used
-   * @param bucketPrefix Prefix of the bucket (optional)
+   * @param s3                 The {@link AmazonS3} to use
+   * @param bucketName         Name of the bucket used
+   * @param bucketPrefix       Prefix of the bucket (optional)
+   * @param readPolicy         The {@link S3ReadPolicy} for opening objects and reading metadata
+   * @param listingParallelism Maximum amount of concurrent listing requests for listings that
+   *                           span more than one page, 1 to always list serially
    */
-  public S3FileService(AmazonS3 s3, String bucketName, String bucketPrefix) {
+  public S3FileService(AmazonS3 s3, String bucketName, String bucketPrefix,
+      S3ReadPolicy readPolicy, int listingParallelism) {
+    this(s3, bucketName, bucketPrefix, readPolicy, listingParallelism, null);
+  }
+
+  /**
+   * Create the S3FileService answering listings and existence checks from a local index.
+   *
+   * @param s3                 The {@link AmazonS3} to use
+   * @param bucketName         Name of the bucket used
+   * @param bucketPrefix       Prefix of the bucket (optional)
+   * @param readPolicy         The {@link S3ReadPolicy} for opening objects and reading metadata
+   * @param listingParallelism Maximum amount of concurrent listing requests for listings that
+   *                           span more than one page, 1 to always list serially
+   * @param index              The {@link S3ListingIndex} of the bucket prefix (optional), it is
+   *                           updated on every change made through this service and refreshed by
+   *                           {@link #refreshIndex(int)}
+   */
+  public S3FileService(AmazonS3 s3, String bucketName, String bucketPrefix,
+      S3ReadPolicy readPolicy, int listingParallelism, S3ListingIndex index) {
     this.s3 = s3;
     this.bucketName = bucketName;
     this.bucketPrefix = bucketPrefix;
+    this.readExecutor = new S3ReadExecutor(readPolicy);
+    this.lister = new S3ParallelLister(s3, bucketName, listingParallelism, LIST_PAGE_SIZE);
+    this.index = index;
+  }
+
+  public S3FileService(AmazonS3 s3, String bucketName, String bucketPrefix,
+      S3ReadPolicy readPolicy) {
+    this(s3, bucketName, bucketPrefix, readPolicy, DEFAULT_LISTING_PARALLELISM);
+  }
+
+  public S3FileService(AmazonS3 s3, String bucketName, String bucketPrefix) {
+    this(s3, bucketName, bucketPrefix, S3ReadPolicy.NONE);
   }
 
   public S3FileService(AmazonS3 s3, String bucketName) {
@@ -68,8 +137,17 @@ public class S3FileService extends AbstractFileService {
   @Override
   public void delete(FileSystemNode node, boolean recursive) {
     if (recursive) {
-      final List<S3ObjectSummary> objectSummaries = getObjectSummaries(node.getPath());
-      objectSummaries.forEach(s3ObjectSummary -> delete(s3ObjectSummary.getKey()));
+      List<KeyVersion> batch = new ArrayList<>(DELETE_BATCH_SIZE);
+      forEachObjectSummary(node.getPath(), false, summary -> {
+        batch.add(new KeyVersion(summary.getKey()));
+        if (batch.size() == DELETE_BATCH_SIZE) {
+          delete(batch);
+          batch.clear();
+        }
+      });
+      if (!batch.isEmpty()) {
+        delete(batch);
+      }
       return;
     }
 
@@ -92,6 +170,17 @@ public class S3FileService extends AbstractFileService {
   private void delete(String key) {
     log.debug("Deleting {}/{}", bucketName, key);
     s3.deleteObject(bucketName, key);
+    if (index != null) {
+      index.remove(key);
+    }
+  }
+
+  private void delete(List<KeyVersion> keys) {
+    log.debug("Deleting {} objects from {}", keys.size(), bucketName);
+    s3.deleteObjects(new DeleteObjectsRequest(bucketName).withKeys(keys).withQuiet(true));
+    if (index != null) {
+      keys.forEach(key -> index.remove(key.getKey()));
+    }
   }
 
   @Override
@@ -101,6 +190,10 @@ public class S3FileService extends AbstractFileService {
 
   @Override
   public LocalDateTime getLastModifiedTime(FileSystemNode node, ZoneId zoneId) {
+    if (index != null) {
+      S3ListingIndex.Entry entry = indexed(node.getPath());
+      return LocalDateTime.ofInstant(Instant.ofEpochMilli(entry.lastModified()), zoneId);
+    }
     ObjectMetadata metaData = getMetaData(node.getPath());
     return LocalDateTime.ofInstant(metaData.getLastModified().toInstant(), zoneId);
   }
@@ -112,34 +205,54 @@ public class S3FileService extends AbstractFileService {
 
   private List<FileSystemNode> list(FileSystemNode directory,
       boolean includeHiddenDirectoryMarkers) {
-    List<FileSystemNode> result = new LinkedList<>();
-    boolean root = StringUtils.isEmpty(directory.getPath());
-    String prefix = root ? "" : directory.getPath() + File.separatorChar;
-    Iterable<S3ObjectSummary> objectListing = getObjectSummaries(directory.getPath());
-    Set<String> subDirs = new HashSet<>();
-    objectListing.forEach(summary -> {
+    FilePath directoryPath = directory.getFilePath();
+    FileSystemNodeList.Builder result = FileSystemNodeList.builder(directoryPath);
+    int prefixLength = directoryPath.isRoot() ? 0 : directory.getPath().length() + 1;
+    String[] lastSubDir = {null};
+    // the sub directory detection below relies on key order
+    forEachObjectSummary(directory.getPath(), true, summary -> {
       String location = getLocation(summary);
-      String subPath = location.substring(prefix.length());
-      int firstSlash = subPath.indexOf(File.separatorChar);
+      int firstSlash = location.indexOf(File.separatorChar, prefixLength);
       if (firstSlash < 0) {
-        if (includeHiddenDirectoryMarkers || !DIRECTORY_MARKER_OBJECT_NAME.equals(subPath)) {
-          result.add(createFileNode(location, false, summary.getSize(),
-              summary.getLastModified()));
+        String name = location.substring(prefixLength);
+        if (includeHiddenDirectoryMarkers || !DIRECTORY_MARKER_OBJECT_NAME.equals(name)) {
+          result.add(name, false, summary.getSize(), summary.getLastModified());
         }
-      } else {
-        subDirs.add(prefix + subPath.substring(0, firstSlash));
+      } else if (lastSubDir[0] == null
+          || !location.regionMatches(prefixLength, lastSubDir[0], 0, lastSubDir[0].length())
+          || location.charAt(prefixLength + lastSubDir[0].length()) != File.separatorChar) {
+        // keys are listed in lexicographic order so all keys of a sub directory are adjacent
+        lastSubDir[0] = location.substring(prefixLength, firstSlash);
+        result.add(lastSubDir[0], true, 0L, null);
       }
     });
-    subDirs.forEach(subDir -> result.add(createFileNode(subDir, true, 0, null)));
-    result.sort(Comparator.comparing(FileSystemNode::getName));
-    return result;
+    return result.build();
   }
 
   @Override
   public InputStream open(FileSystemNode node) {
     String key = toObjectKey(node.getPath());
     log.debug("Getting {}/{}", bucketName, key);
-    return s3.getObject(bucketName, key).getObjectContent();
+    S3Object object = readExecutor.execute(OPERATION_OPEN, () -> s3.getObject(bucketName, key),
+        S3FileService::abort);
+    return object.getObjectContent();
+  }
+
+  @Override
+  public InputStream open(FileSystemNode node, long offset, long length) {
+    checkRange(offset, length);
+    // a range starting at or past the end is rejected with 416 instead of returning nothing
+    length = Math.min(length, Math.max(0, node.getSize() - offset));
+    if (length == 0) {
+      return InputStream.nullInputStream();
+    }
+    String key = toObjectKey(node.getPath());
+    log.debug("Getting {} bytes of {}/{} at {}", length, bucketName, key, offset);
+    GetObjectRequest request = new GetObjectRequest(bucketName, key)
+        .withRange(offset, offset + length - 1);
+    S3Object object = readExecutor.execute(OPERATION_OPEN, () -> s3.getObject(request),
+        S3FileService::abort);
+    return object.getObjectContent();
   }
 
   @Override
@@ -147,13 +260,71 @@ public class S3FileService extends AbstractFileService {
     put(toObjectKey(path), is, toMetadata(size));
   }
 
+  @Override
+  protected int getSaveParallelism() {
+    // a PUT is dominated by the round trip, not by local resources
+    return SAVE_PARALLELISM;
+  }
+
+  /**
+   * Gathers the usage of a directory from a single (partitioned) listing of its object summaries,
+   * without requesting the metadata of any object. Directories are derived from the keys.
+   */
+  @Override
+  public Usage usage(FileSystemNode node, boolean breakdown) {
+    if (!node.isDirectory()) {
+      return super.usage(node, breakdown);
+    }
+    String key = toObjectKey(node.getPath());
+    int prefixLength = key.isEmpty() ? 0 : key.length() + 1;
+    Map<String, Usage.Builder> directoryChildren = new HashMap<>();
+    Map<String, Usage> fileChildren = new HashMap<>();
+    Set<String> directories = new HashSet<>();
+    forEachObjectSummary(node.getPath(), false, summary -> {
+      String location = summary.getKey().substring(prefixLength);
+      int firstSlash = location.indexOf(File.separatorChar);
+      if (firstSlash < 0) {
+        if (isVisible(location)) {
+          fileChildren.put(location, Usage.ofFile(summary.getSize(), summary.getLastModified()));
+        }
+        return;
+      }
+      // register the directories of the key, the ancestors of a known directory are known
+      int slash = location.lastIndexOf(File.separatorChar);
+      while (slash > 0 && directories.add(location.substring(0, slash))) {
+        slash = location.lastIndexOf(File.separatorChar, slash - 1);
+      }
+      if (isVisible(location.substring(location.lastIndexOf(File.separatorChar) + 1))) {
+        directoryChildren.computeIfAbsent(location.substring(0, firstSlash),
+                child -> Usage.builder())
+            .addFile(summary.getSize(), summary.getLastModified());
+      }
+    });
+    for (String directory : directories) {
+      int firstSlash = directory.indexOf(File.separatorChar);
+      String child = firstSlash < 0 ? directory : directory.substring(0, firstSlash);
+      Usage.Builder childUsage = directoryChildren.computeIfAbsent(child, name -> Usage.builder());
+      if (firstSlash >= 0) {
+        childUsage.addDirectory();
+      }
+    }
+    Usage.Builder usage = Usage.builder();
+    fileChildren.forEach((name, fileUsage) -> usage.addChild(name, false, fileUsage, breakdown));
+    directoryChildren.forEach(
+        (name, childUsage) -> usage.addChild(name, true, childUsage.build(), breakdown));
+    return usage.build();
+  }
+
   @Override
   public Stream<FileSystemNode> streamDirectory(FileSystemNode root) {
-    List<S3ObjectSummary> objectSummaries = getObjectSummaries(root.getPath());
-    return objectSummaries.stream().map(s3ObjectSummary -> {
-      String location = getLocation(s3ObjectSummary);
-      return getFileNode(location);
+    List<FileSystemNode> files = new ArrayList<>();
+    forEachObjectSummary(root.getPath(), false, summary -> {
+      FilePath path = FilePath.of(getLocation(summary));
+      if (isVisible(path.getName())) {
+        files.add(createFileNode(path, false, summary.getSize(), summary.getLastModified()));
+      }
     });
+    return files.stream();
   }
 
   @Override
@@ -161,50 +332,108 @@ public class S3FileService extends AbstractFileService {
     String sourceKey = toObjectKey(source.getPath());
     String destinationKey = toObjectKey(to);
     log.debug("Copying object {}/{} to {}/{}", bucketName, source, bucketName, destinationKey);
-    s3.copyObject(bucketName, sourceKey, bucketName, destinationKey);
+    CopyObjectResult result = s3.copyObject(bucketName, sourceKey, bucketName, destinationKey);
+    S3ListingIndex.Entry sourceEntry = index != null ? index.get(sourceKey) : null;
+    if (sourceEntry != null) {
+      index.put(new S3ListingIndex.Entry(destinationKey, sourceEntry.size(),
+          result != null && result.getLastModifiedDate() != null
+              ? result.getLastModifiedDate().getTime() : System.currentTimeMillis(),
+          result != null ? result.getETag() : null));
+    }
   }
 
   @Override
   protected boolean exists(String path) {
-    return getFileNodeType(path) != null;
+    return getNodeMetadata(path) != null;
   }
 
   @Override
   protected FileSystemNodeType getFileNodeType(String path) {
-    if (isFile(path)) {
-      return FileSystemNodeType.FILE;
+    NodeMetadata metadata = getNodeMetadata(path);
+    return metadata != null ? metadata.getType() : null;
+  }
+
+  @Override
+  public boolean isDirectory(String... parts) {
+    return isDirectory(FileServiceUtils.combine(parts));
+  }
+
+  @Override
+  protected FileSystemNode getForPath(FilePath filePath, boolean shouldExist) {
+    if (filePath.isRoot()) {
+      return super.getForPath(filePath, shouldExist);
     }
-    if (isDirectory(path)) {
-      return FileSystemNodeType.DIRECTORY;
+    NodeMetadata metadata = getNodeMetadata(filePath.toString());
+    if (metadata == null) {
+      if (!shouldExist) {
+        return null;
+      }
+      throw new IllegalArgumentException("Path does not exist on filesystem: " + filePath);
     }
-    return null;
+    // the listing already holds the size, no need for another request
+    return createFileNode(filePath, metadata.isDirectory(), metadata.getSize(),
+        metadata.getLastModified());
   }
 
+  /**
+   * Resolves a path with a single ListObjectsV2 request (prefix = key, max-keys 2). Keys are listed
+   * in lexicographic order, so the object at the key itself comes first and directory keys
+   * ({@code key/...}) follow unless siblings sorting before the separator ({@code key-1},
+   * {@code key.txt}, ...) fill the page. Only in that case a second request lists the directory
+   * prefix.
+   */
   @Override
   protected NodeMetadata getNodeMetadata(String path) {
     final String key = toObjectKey(path);
-    try {
-      ObjectMetadata objectMetadata = s3.getObjectMetadata(bucketName, key);
-      return new NodeMetadata(FileSystemNodeType.FILE, objectMetadata.getContentLength(),
-          objectMetadata.getLastModified());
-    } catch (AmazonS3Exception e) {
-      if (404 == e.getStatusCode()) {
-        return isDirectory(path) ? new NodeMetadata(FileSystemNodeType.DIRECTORY) : null;
+    if (key.isEmpty()) {
+      return new NodeMetadata(FileSystemNodeType.DIRECTORY);
+    }
+    String directoryPrefix = key + File.separatorChar;
+    if (index != null) {
+      S3ListingIndex.Entry entry = index.get(key);
+      if (entry != null) {
+        return new NodeMetadata(FileSystemNodeType.FILE, entry.size(),
+            new Date(entry.lastModified()));
       }
-      throw amazonException(key, e);
-    } catch (Exception e) {
+      return index.containsPrefix(directoryPrefix)
+          ? new NodeMetadata(FileSystemNodeType.DIRECTORY) : null;
+    }
+    try {
+      // both listings share the deadline of the lookup
+      return readExecutor.operation(() -> resolve(path, key, directoryPrefix));
+    } catch (AmazonClientException e) {
       throw amazonException(key, e);
     }
   }
 
+  private NodeMetadata resolve(String path, String key, String directoryPrefix) {
+    ListObjectsV2Result result = listObjects(key, RESOLVE_MAX_KEYS);
+    for (S3ObjectSummary summary : result.getObjectSummaries()) {
+      if (summary.getKey().equals(key)) {
+        return new NodeMetadata(FileSystemNodeType.FILE, summary.getSize(),
+            summary.getLastModified());
+      }
+      if (summary.getKey().startsWith(directoryPrefix)) {
+        return new NodeMetadata(FileSystemNodeType.DIRECTORY);
+      }
+    }
+    if (!result.isTruncated()) {
+      return null;
+    }
+    return isDirectory(path) ? new NodeMetadata(FileSystemNodeType.DIRECTORY) : null;
+  }
+
   private RuntimeException amazonException(String key, Exception e) {
     return new RuntimeException(
-        "Error occurred while executing getObjectMetadata on s3 with key=" + key, e);
+        "Error occurred while resolving metadata on s3 with key=" + key, e);
   }
 
 
   @Override
   protected long getSize(String path) {
+    if (index != null) {
+      return indexed(path).size();
+    }
     ObjectMetadata objectMetadata;
     objectMetadata = getMetaData(path);
     return objectMetadata.getContentLength();
@@ -212,9 +441,45 @@ public class S3FileService extends AbstractFileService {
 
   @Override
   protected boolean isDirectory(String path) {
-    final ListObjectsRequest objectList = new ListObjectsRequest(bucketName, toObjectKey(path),
-        null, null, 1);
-    return CollectionUtils.isNotEmpty(s3.listObjects(objectList).getObjectSummaries());
+    final String key = toObjectKey(path);
+    if (key.isEmpty()) {
+      return true;
+    }
+    if (index != null) {
+      return index.containsPrefix(key + File.separatorChar);
+    }
+    return !listObjects(key + File.separatorChar, 1).getObjectSummaries().isEmpty();
+  }
+
+  private ListObjectsV2Result listObjects(String prefix, int maxKeys) {
+    return listObjects(new ListObjectsV2Request()
+        .withBucketName(bucketName)
+        .withPrefix(prefix)
+        .withMaxKeys(maxKeys));
+  }
+
+  ListObjectsV2Result listObjects(ListObjectsV2Request request) {
+    return readExecutor.execute(OPERATION_METADATA, () -> s3.listObjectsV2(request), null);
+  }
+
+  String getBucketName() {
+    return bucketName;
+  }
+
+  String toPath(String key) {
+    return FilePath.of(key.substring(bucketPrefix.length())).toString();
+  }
+
+  /**
+   * Subscribe to changes by periodically diffing listings of the directory, see
+   * {@link S3ChangeFeed}. Pass a snapshot file in the options to resume after a restart.
+   */
+  @Override
+  public Subscription subscribe(String path, FileChangeListener listener,
+      ChangeFeedOptions options) {
+    String key = toObjectKey(path);
+    return new S3ChangeFeed(this, key.isEmpty() ? "" : key + File.separatorChar, LIST_PAGE_SIZE,
+        S3ChangeFeed.MAX_PAGES_PER_POLL, listener, options).start();
   }
 
   @Override
@@ -230,18 +495,99 @@ public class S3FileService extends AbstractFileService {
       throw new IllegalArgumentException("Path should be set when walking");
     }
 
-    final List<S3ObjectSummary> objectSummaries = getObjectSummaries(node.getPath());
-    walk(toTree(node, objectSummaries), visitor);
+    if (!node.isDirectory()) {
+      visitor.on(node);
+      return;
+    }
+    visitor.pre(node);
+    StreamingWalk walk = new StreamingWalk(node, visitor);
+    forEachObjectSummary(node.getPath(), true, walk::accept);
+    walk.close();
+    visitor.post(node);
   }
 
   ObjectMetadata getMetaData(String path) {
-    final String key = toObjectKey(path);
-    return s3.getObjectMetadata(bucketName, key);
+    return getObjectMetadata(toObjectKey(path));
+  }
+
+  private ObjectMetadata getObjectMetadata(String key) {
+    return readExecutor.execute(OPERATION_METADATA, () -> s3.getObjectMetadata(bucketName, key),
+        null);
+  }
+
+  private static void abort(S3Object object) {
+    // closing an unread object would drain it, aborting drops the connection instead
+    object.getObjectContent().abort();
+    try {
+      object.close();
+    } catch (IOException e) {
+      log.debug("Failed to close discarded object {}", object.getKey(), e);
+    }
   }
 
   void put(String key, InputStream is, ObjectMetadata metadata) {
     log.debug("Putting object {}/{}", bucketName, key);
-    s3.putObject(bucketName, key, is, metadata);
+    PutObjectResult result = s3.putObject(bucketName, key, is, metadata);
+    if (index != null) {
+      long size = metadata.getRawMetadataValue(Headers.CONTENT_LENGTH) != null
+          ? metadata.getContentLength() : getObjectMetadata(key).getContentLength();
+      index.put(new S3ListingIndex.Entry(key, size, System.currentTimeMillis(),
+          result != null ? result.getETag() : null));
+    }
+  }
+
+  private S3ListingIndex.Entry indexed(String path) {
+    S3ListingIndex.Entry entry = index.get(toObjectKey(path));
+    if (entry == null) {
+      throw new IllegalArgumentException("No file found at " + path);
+    }
+    return entry;
+  }
+
+  /**
+   * Refresh the listing index by listing the bucket prefix page by page and replacing the key
+   * range of every page in the index. A call lists at most the given amount of pages, the next
+   * call continues after the last key seen. When a pass completes the index is persisted.
+   *
+   * @param maxPages Maximum amount of pages to list
+   * @return true if a pass was completed
+   */
+  public synchronized boolean refreshIndex(int maxPages) {
+    if (index == null) {
+      throw new IllegalStateException("No listing index configured");
+    }
+    for (int pages = 0; pages < maxPages; pages++) {
+      ListObjectsV2Result page = listObjects(new ListObjectsV2Request()
+          .withBucketName(bucketName)
+          .withPrefix(bucketPrefix)
+          .withStartAfter(indexCursor)
+          .withMaxKeys(LIST_PAGE_SIZE));
+      List<S3ListingIndex.Entry> entries = new ArrayList<>();
+      page.getObjectSummaries().forEach(summary -> entries.add(new S3ListingIndex.Entry(
+          summary.getKey(), summary.getSize(), summary.getLastModified().getTime(),
+          summary.getETag())));
+      String lastKey = entries.isEmpty() ? null : entries.get(entries.size() - 1).key();
+      boolean complete = !page.isTruncated() || lastKey == null;
+      index.replaceRange(bucketPrefix, indexCursor, complete ? null : lastKey, entries);
+      if (complete) {
+        indexCursor = null;
+        try {
+          index.persist();
+        } catch (IOException e) {
+          throw new FileServiceException(e);
+        }
+        return true;
+      }
+      indexCursor = lastKey;
+    }
+    return false;
+  }
+
+  /**
+   * Refresh the complete listing index, see {@link #refreshIndex(int)}.
+   */
+  public void refreshIndex() {
+    refreshIndex(Integer.MAX_VALUE);
   }
 
   ObjectMetadata toMetadata(long size) {
@@ -254,85 +600,106 @@ public class S3FileService extends AbstractFileService {
     return metadata;
   }
 
-  private <T extends FileNodeVisitor> void walk(FileSystemTree<FileSystemNode> tree, T visitor) {
-    final FileSystemNode file = tree.getNode();
-    if (file.isDirectory()) {
-      visitor.pre(file);
-      tree.getChildren().forEach(child -> walk(child, visitor));
-      visitor.post(file);
-    } else {
-      visitor.on(file);
+  /**
+   * Hands all objects under the given directory path to the consumer, in key order if required.
+   * Large listings are split over concurrent requests by the {@link S3ParallelLister}.
+   */
+  private void forEachObjectSummary(String path, boolean ordered,
+      Consumer<S3ObjectSummary> consumer) {
+    String key = toObjectKey(path);
+    String prefix = key.isEmpty() ? "" : key + File.separatorChar;
+    if (index != null) {
+      index.forEach(prefix, entry -> {
+        consumer.accept(toSummary(entry));
+        return true;
+      });
+      return;
     }
+    lister.forEach(prefix, ordered, consumer);
   }
 
-  private List<S3ObjectSummary> getObjectSummaries(String path) {
-    List<S3ObjectSummary> result = new ArrayList<>();
-    AtomicReference<ObjectListing> objectListing = new AtomicReference<>(
-        s3.listObjects(bucketName, toObjectKey(path) + File.separatorChar));
-    while (true) {
-      result.addAll(objectListing.get().getObjectSummaries());
-      if (!objectListing.get().isTruncated()) {
-        break;
-      }
-      objectListing.set(s3.listNextBatchOfObjects(objectListing.get()));
-    }
-    return result;
+  private S3ObjectSummary toSummary(S3ListingIndex.Entry entry) {
+    S3ObjectSummary summary = new S3ObjectSummary();
+    summary.setBucketName(bucketName);
+    summary.setKey(entry.key());
+    summary.setSize(entry.size());
+    summary.setLastModified(new Date(entry.lastModified()));
+    summary.setETag(entry.etag());
+    return summary;
   }
 
   private String getLocation(S3ObjectSummary s3ObjectSummary) {
     return s3ObjectSummary.getKey().substring(bucketPrefix.length());
   }
 
-  private boolean isFile(String path) {
-    return s3.doesObjectExist(bucketName, toObjectKey(path));
-  }
-
   private String toObjectKey(String path) {
     return FileServiceUtils.combine(bucketPrefix, path);
   }
 
-  private FileSystemTree<FileSystemNode> toTree(FileSystemNode root,
-      List<S3ObjectSummary> objectSummaries) {
-    int rootLength = root.getPath().length();
-    FileSystemTree<FileSystemNode> result = new FileSystemTreeImpl<>(root);
-    objectSummaries.forEach(summary -> {
-      final String key = pathWithoutPrefix(summary);
-      String subPath = key.substring(rootLength + 1);
-      add(subPath, summary, result);
-    });
-
-    return result;
+  private boolean isVisible(String name) {
+    return !DIRECTORY_MARKER_OBJECT_NAME.equals(name);
   }
 
-  private void add(String path, S3ObjectSummary summary, FileSystemTree<FileSystemNode> tree) {
-    final int index = path.indexOf(File.separatorChar);
-    if (index == -1) {
-      if (isVisible(path)) {
-        tree.addChild(path, createFileNode(summary));
-      }
-      return;
+  /**
+   * Emits the visitor events of a walk while the object summaries come in. As keys are listed in
+   * lexicographic order, all keys of a directory are adjacent and a directory can be closed as
+   * soon as a key outside of it shows up. Only the currently open directories are kept.
+   */
+  private class StreamingWalk {
+
+    private final FileNodeVisitor visitor;
+    private final FilePath rootPath;
+    private final int rootLength;
+    private final List<FileSystemNode> openDirectories = new ArrayList<>();
+
+    private StreamingWalk(FileSystemNode root, FileNodeVisitor visitor) {
+      this.visitor = visitor;
+      this.rootPath = root.getFilePath();
+      this.rootLength = rootPath.isRoot() ? 0 : root.getPath().length() + 1;
     }
-    String directoryName = path.substring(0, index);
-    String subPath = path.substring(index + 1);
-    add(subPath, summary, tree.add(directoryName, () -> createDirectoryNode(summary, subPath)));
-  }
 
-  private boolean isVisible(String name) {
-    return !DIRECTORY_MARKER_OBJECT_NAME.equals(name);
-  }
+    private void accept(S3ObjectSummary summary) {
+      String location = pathWithoutPrefix(summary);
+      int depth = 0;
+      int start = rootLength;
+      int end = location.indexOf(File.separatorChar, start);
+      // keep the open directories that are ancestors of this key
+      while (end >= 0 && depth < openDirectories.size()
+          && isSegment(location, start, end, openDirectories.get(depth).getName())) {
+        depth++;
+        start = end + 1;
+        end = location.indexOf(File.separatorChar, start);
+      }
+      closeUntil(depth);
+      FilePath parent = depth == 0 ? rootPath : openDirectories.get(depth - 1).getFilePath();
+      while (end >= 0) {
+        parent = parent.child(location.substring(start, end));
+        FileSystemNode directory = createFileNode(parent, true, 0L, summary.getLastModified());
+        openDirectories.add(directory);
+        visitor.pre(directory);
+        start = end + 1;
+        end = location.indexOf(File.separatorChar, start);
+      }
+      String name = location.substring(start);
+      if (isVisible(name)) {
+        visitor.on(createFileNode(parent.child(name), false, summary.getSize(),
+            summary.getLastModified()));
+      }
+    }
 
-  private FileSystemNode createDirectoryNode(S3ObjectSummary objectSummary, String subPath) {
-    final String fileNodePath = pathWithoutPrefix(objectSummary);
-    String directoryPath = StringUtils.substringBeforeLast(fileNodePath, subPath);
-    return createDirectoryNode(directoryPath, objectSummary.getLastModified());
-  }
+    private void close() {
+      closeUntil(0);
+    }
 
-  private FileSystemNode createFileNode(S3ObjectSummary summary) {
-    return createFileNode(pathWithoutPrefix(summary), summary);
-  }
+    private void closeUntil(int depth) {
+      for (int i = openDirectories.size() - 1; i >= depth; i--) {
+        visitor.post(openDirectories.remove(i));
+      }
+    }
 
-  private FileSystemNode createFileNode(String path, S3ObjectSummary summary) {
-    return createFileNode(path, false, summary.getSize(), summary.getLastModified());
+    private boolean isSegment(String location, int start, int end, String name) {
+      return end - start == name.length() && location.startsWith(name, start);
+    }
   }
 
   private String pathWithoutPrefix(S3ObjectSummary s3ObjectSummary) {
@@ -0,0 +1,453 @@
+package be.mathiasbosman.fs.service.s3;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * A persistent, sorted index of the object keys of a bucket with their size, modification date and
+ * ETag. The index file is memory-mapped when opened and searched in place, nothing is parsed up
+ * front, so opening is cheap regardless of its size.
+ *
+ * <p>The file holds a header, the records sorted on key and a table with the offset of every
+ * record. A record is the UTF-8 key (length prefixed), size, modification date and ETag (length
+ * prefixed). Keys are compared on their UTF-8 bytes, which is the order S3 lists them in.
+ *
+ * <p>Changes are kept in memory on top of the mapped file until {@link #persist()} writes the
+ * merged result to a new file and maps that one instead. A mapped file is limited to 2 GiB.
+ */
+public class S3ListingIndex {
+
+  /**
+   * Orders keys on their code points, which equals the order of their UTF-8 bytes.
+   */
+  static final Comparator<String> KEY_ORDER = (a, b) -> {
+    int i = 0;
+    int j = 0;
+    while (i < a.length() && j < b.length()) {
+      int ca = a.codePointAt(i);
+      int cb = b.codePointAt(j);
+      if (ca != cb) {
+        return Integer.compare(ca, cb);
+      }
+      i += Character.charCount(ca);
+      j += Character.charCount(cb);
+    }
+    return Integer.compare(a.length() - i, b.length() - j);
+  };
+
+  private static final int MAGIC = 0x46534958;
+  private static final int VERSION = 1;
+  // magic, version, record count, offset of the offset table
+  private static final int HEADER_SIZE = 16;
+
+  /**
+   * An indexed object.
+   *
+   * @param key          The object key
+   * @param size         The content length
+   * @param lastModified The modification date in milliseconds since the epoch
+   * @param etag         The ETag (optional)
+   */
+  public record Entry(String key, long size, long lastModified, String etag) {
+
+  }
+
+  private final Path file;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  // changes since the file was mapped, an empty optional marks a deleted key
+  private final ConcurrentSkipListMap<String, Optional<Entry>> changes =
+      new ConcurrentSkipListMap<>(KEY_ORDER);
+  private final LongAdder decoded = new LongAdder();
+  private MappedFile mapped;
+
+  private S3ListingIndex(Path file, MappedFile mapped) {
+    this.file = file;
+    this.mapped = mapped;
+  }
+
+  /**
+   * Open the index stored in the given file, or an empty index if the file does not exist yet.
+   *
+   * @param file The index file
+   * @return the index
+   */
+  public static S3ListingIndex open(Path file) {
+    try {
+      return new S3ListingIndex(file, Files.exists(file) ? MappedFile.map(file) : MappedFile.EMPTY);
+    } catch (IOException e) {
+      throw new FileServiceException(e);
+    }
+  }
+
+  /**
+   * Get the entry of a key.
+   *
+   * @param key The object key
+   * @return the entry or null if the key is not indexed
+   */
+  public Entry get(String key) {
+    Optional<Entry> changed = changes.get(key);
+    if (changed != null) {
+      return changed.orElse(null);
+    }
+    lock.readLock().lock();
+    try {
+      int i = mapped.lowerBound(key.getBytes(StandardCharsets.UTF_8));
+      if (i < mapped.count) {
+        Entry entry = decode(i);
+        return entry.key().equals(key) ? entry : null;
+      }
+      return null;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Check if any key starts with the prefix.
+   *
+   * @param prefix The prefix
+   * @return true if at least one key starts with it
+   */
+  public boolean containsPrefix(String prefix) {
+    boolean[] found = {false};
+    forEach(prefix, entry -> {
+      found[0] = true;
+      return false;
+    });
+    return found[0];
+  }
+
+  /**
+   * Hand the entries of all keys starting with the prefix to the consumer in key order until it
+   * returns false.
+   *
+   * @param prefix   The prefix
+   * @param consumer The consumer, returning if the iteration should continue
+   */
+  public void forEach(String prefix, Predicate<Entry> consumer) {
+    forEach(prefix, null, consumer);
+  }
+
+  /**
+   * Hand the entries of the keys starting with the prefix and following a key to the consumer in
+   * key order until it returns false. Both the mapped file and the changes are searched for the
+   * first key, so the keys before it are not visited.
+   */
+  private void forEach(String prefix, String fromExclusive, Predicate<Entry> consumer) {
+    boolean seek = fromExclusive != null && KEY_ORDER.compare(fromExclusive, prefix) >= 0;
+    lock.readLock().lock();
+    try {
+      Iterator<Map.Entry<String, Optional<Entry>>> changed =
+          (seek ? changes.tailMap(fromExclusive, false) : changes.tailMap(prefix, true))
+              .entrySet().iterator();
+      Map.Entry<String, Optional<Entry>> change = next(changed, prefix);
+      int i = seek ? mapped.upperBound(fromExclusive.getBytes(StandardCharsets.UTF_8))
+          : mapped.lowerBound(prefix.getBytes(StandardCharsets.UTF_8));
+      Entry base = decode(i, prefix);
+      while (base != null || change != null) {
+        int order = base == null ? 1 : change == null ? -1
+            : KEY_ORDER.compare(base.key(), change.getKey());
+        Entry current;
+        if (order < 0) {
+          current = base;
+        } else {
+          current = change.getValue().orElse(null);
+          change = next(changed, prefix);
+        }
+        if (order <= 0) {
+          base = decode(++i, prefix);
+        }
+        if (current != null && !consumer.test(current)) {
+          return;
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private Entry decode(int i) {
+    decoded.increment();
+    return mapped.entry(i);
+  }
+
+  /**
+   * Decode a record of the mapped file, or return null if there is none or its key does not start
+   * with the prefix.
+   */
+  private Entry decode(int i, String prefix) {
+    if (i >= mapped.count) {
+      return null;
+    }
+    Entry entry = decode(i);
+    return entry.key().startsWith(prefix) ? entry : null;
+  }
+
+  private static Map.Entry<String, Optional<Entry>> next(
+      Iterator<Map.Entry<String, Optional<Entry>>> iterator, String prefix) {
+    if (iterator.hasNext()) {
+      Map.Entry<String, Optional<Entry>> next = iterator.next();
+      return next.getKey().startsWith(prefix) ? next : null;
+    }
+    return null;
+  }
+
+  public void put(Entry entry) {
+    change(entry.key(), Optional.of(entry));
+  }
+
+  public void remove(String key) {
+    change(key, Optional.empty());
+  }
+
+  private void change(String key, Optional<Entry> entry) {
+    // shared with other changes, exclusive with persisting
+    lock.readLock().lock();
+    try {
+      changes.put(key, entry);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Replace the entries of all keys in a range with freshly listed ones.
+   *
+   * @param prefix        Only keys starting with this prefix are affected
+   * @param fromExclusive Lower bound of the range (null for unbounded)
+   * @param toInclusive   Upper bound of the range (null for unbounded)
+   * @param entries       The entries currently in the range
+   */
+  public void replaceRange(String prefix, String fromExclusive, String toInclusive,
+      Collection<Entry> entries) {
+    NavigableMap<String, Entry> fresh = new TreeMap<>(KEY_ORDER);
+    entries.forEach(entry -> fresh.put(entry.key(), entry));
+    List<String> removed = new ArrayList<>();
+    forEach(prefix, fromExclusive, entry -> {
+      if (toInclusive != null && KEY_ORDER.compare(entry.key(), toInclusive) > 0) {
+        return false;
+      }
+      if ((fromExclusive == null || KEY_ORDER.compare(entry.key(), fromExclusive) > 0)
+          && !fresh.containsKey(entry.key())) {
+        removed.add(entry.key());
+      }
+      return true;
+    });
+    removed.forEach(this::remove);
+    fresh.values().forEach(entry -> {
+      if (!entry.equals(get(entry.key()))) {
+        put(entry);
+      }
+    });
+  }
+
+  /**
+   * Amount of changes that are not persisted yet.
+   *
+   * @return the amount of changed keys
+   */
+  public int getPendingChanges() {
+    return changes.size();
+  }
+
+  /**
+   * Amount of records decoded from the mapped file since the index was opened.
+   *
+   * @return the amount of decoded records
+   */
+  long getDecodedCount() {
+    return decoded.sum();
+  }
+
+  /**
+   * Write the index including all changes to its file and map the new file.
+   *
+   * @throws IOException when writing fails
+   */
+  public void persist() throws IOException {
+    lock.writeLock().lock();
+    try {
+      Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+      write(temporary);
+      try {
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+      mapped = MappedFile.map(file);
+      changes.clear();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void write(Path target) throws IOException {
+    try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Channels.newOutputStream(channel)));
+      out.write(new byte[HEADER_SIZE]);
+      int[][] offsets = {new int[1024]};
+      int[] count = {0};
+      int[] position = {HEADER_SIZE};
+      IOException[] failure = {null};
+      forEach("", entry -> {
+        if (count[0] == offsets[0].length) {
+          offsets[0] = Arrays.copyOf(offsets[0], count[0] * 2);
+        }
+        offsets[0][count[0]++] = position[0];
+        try {
+          position[0] = Math.addExact(position[0], writeRecord(out, entry));
+          return true;
+        } catch (IOException e) {
+          failure[0] = e;
+          return false;
+        } catch (ArithmeticException e) {
+          failure[0] = new IOException("Index exceeds 2 GiB", e);
+          return false;
+        }
+      });
+      if (failure[0] != null) {
+        throw failure[0];
+      }
+      for (int i = 0; i < count[0]; i++) {
+        out.writeInt(offsets[0][i]);
+      }
+      out.flush();
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+          .putInt(MAGIC).putInt(VERSION).putInt(count[0]).putInt(position[0]);
+      header.flip();
+      channel.write(header, 0);
+    }
+  }
+
+  private static int writeRecord(DataOutputStream out, Entry entry) throws IOException {
+    byte[] key = entry.key().getBytes(StandardCharsets.UTF_8);
+    byte[] etag = entry.etag() != null ? entry.etag().getBytes(StandardCharsets.UTF_8)
+        : new byte[0];
+    out.writeShort(key.length);
+    out.write(key);
+    out.writeLong(entry.size());
+    out.writeLong(entry.lastModified());
+    out.writeByte(etag.length);
+    out.write(etag);
+    return 2 + key.length + 16 + 1 + etag.length;
+  }
+
+  /**
+   * A mapped index file. Only absolute reads are used, so it can be read concurrently.
+   */
+  private static final class MappedFile {
+
+    private static final MappedFile EMPTY = new MappedFile(null, 0, 0);
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int table;
+
+    private MappedFile(ByteBuffer buffer, int count, int table) {
+      this.buffer = buffer;
+      this.count = count;
+      this.table = table;
+    }
+
+    private static MappedFile map(Path file) throws IOException {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+            || buffer.getInt(4) != VERSION) {
+          throw new IOException(file + " is not a listing index");
+        }
+        return new MappedFile(buffer, buffer.getInt(8), buffer.getInt(12));
+      }
+    }
+
+    private int offset(int i) {
+      return buffer.getInt(table + i * Integer.BYTES);
+    }
+
+    /**
+     * Index of the first record with a key greater than or equal to the given one.
+     */
+    private int lowerBound(byte[] key) {
+      return search(key, false);
+    }
+
+    /**
+     * Index of the first record with a key greater than the given one.
+     */
+    private int upperBound(byte[] key) {
+      return search(key, true);
+    }
+
+    private int search(byte[] key, boolean skipEqual) {
+      int low = 0;
+      int high = count;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        int order = compare(offset(middle), key);
+        if (order < 0 || skipEqual && order == 0) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+
+    private int compare(int offset, byte[] key) {
+      int length = Short.toUnsignedInt(buffer.getShort(offset));
+      int common = Math.min(length, key.length);
+      for (int i = 0; i < common; i++) {
+        int order = Integer.compare(Byte.toUnsignedInt(buffer.get(offset + 2 + i)),
+            Byte.toUnsignedInt(key[i]));
+        if (order != 0) {
+          return order;
+        }
+      }
+      return Integer.compare(length, key.length);
+    }
+
+    private Entry entry(int i) {
+      int offset = offset(i);
+      byte[] key = new byte[Short.toUnsignedInt(buffer.getShort(offset))];
+      buffer.get(offset + 2, key);
+      offset += 2 + key.length;
+      long size = buffer.getLong(offset);
+      long lastModified = buffer.getLong(offset + 8);
+      byte[] etag = new byte[Byte.toUnsignedInt(buffer.get(offset + 16))];
+      buffer.get(offset + 17, etag);
+      return new Entry(new String(key, StandardCharsets.UTF_8), size, lastModified,
+          etag.length > 0 ? new String(etag, StandardCharsets.UTF_8) : null);
+    }
+  }
+}
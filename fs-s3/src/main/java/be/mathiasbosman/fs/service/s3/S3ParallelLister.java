@@ -0,0 +1,292 @@
+package be.mathiasbosman.fs.service.s3;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Lists all objects under a prefix. Small listings are paged through serially. When the first page
+ * turns out to be truncated, its objects are handed over and the rest of the key space is listed in
+ * partitions: every partition is listed from a start-after key up to and including the start-after
+ * key of the next partition. While a partition is listed and there is room for another one, it is
+ * split at a key halfway between its last listed key and its end, so the partitions adapt to where
+ * the keys are, whether the prefix is flat or deeply nested.
+ *
+ * <p>In ordered mode the partitions are handed over in key order, so the consumer sees exactly the
+ * sequence a serial listing would produce. In unordered mode pages are handed over as they arrive.
+ * In both modes at most {@code parallelism} partitions are listed or waiting to be handed over, each
+ * buffering a bounded amount of pages, and the consumer is only called from the calling thread.
+ */
+@Slf4j
+class S3ParallelLister {
+
+  // boundaries are made of ASCII, which S3 and String order the same way
+  private static final char MIN_CHAR = ' ';
+  private static final char MAX_CHAR = '~';
+  private static final int PAGE_BUFFER = 16;
+  private static final long OFFER_TIMEOUT_MS = 100;
+
+  private final AmazonS3 s3;
+  private final String bucketName;
+  private final int parallelism;
+  private final int pageSize;
+  private final ExecutorService executor;
+
+  S3ParallelLister(AmazonS3 s3, String bucketName, int parallelism, int pageSize) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Listing parallelism should be at least 1");
+    }
+    this.s3 = s3;
+    this.bucketName = bucketName;
+    this.parallelism = parallelism;
+    this.pageSize = pageSize;
+    this.executor = parallelism > 1 ? Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "s3-list");
+      thread.setDaemon(true);
+      return thread;
+    }) : null;
+  }
+
+  /**
+   * Hands every object under the prefix to the consumer.
+   *
+   * @param prefix   The prefix to list, ending with the delimiter or empty for the whole bucket
+   * @param ordered  If the summaries should be handed over in key order
+   * @param consumer The consumer of the summaries
+   */
+  void forEach(String prefix, boolean ordered, Consumer<S3ObjectSummary> consumer) {
+    ListObjectsV2Result first = s3.listObjectsV2(request(prefix));
+    List<S3ObjectSummary> summaries = first.getObjectSummaries();
+    summaries.forEach(consumer);
+    if (!first.isTruncated() || parallelism == 1 || summaries.isEmpty()) {
+      forEachPage(next(first), page -> page.getObjectSummaries().forEach(consumer));
+      return;
+    }
+    String after = summaries.get(summaries.size() - 1).getKey();
+    log.debug("Listing {}/{} in partitions after {}", bucketName, prefix, after);
+    new Listing(prefix, after, ordered, consumer).run();
+  }
+
+  private ListObjectsV2Request request(String prefix) {
+    return new ListObjectsV2Request()
+        .withBucketName(bucketName)
+        .withPrefix(prefix)
+        .withMaxKeys(pageSize);
+  }
+
+  private ListObjectsV2Request next(ListObjectsV2Result page) {
+    if (!page.isTruncated()) {
+      return null;
+    }
+    return request(page.getPrefix()).withContinuationToken(page.getNextContinuationToken());
+  }
+
+  private void forEachPage(ListObjectsV2Request request, Consumer<ListObjectsV2Result> consumer) {
+    while (request != null) {
+      ListObjectsV2Result page = s3.listObjectsV2(request);
+      consumer.accept(page);
+      request = next(page);
+    }
+  }
+
+  /**
+   * A key between two keys, or null if there is none within reach.
+   *
+   * @param low  The lower key, exclusive
+   * @param high The upper key, exclusive, null for the end of the prefix
+   * @param from Length of the prefix, the keys are equal before it
+   * @return a key after {@code low} and before {@code high}
+   */
+  static String midpoint(String low, String high, int from) {
+    int depth = from;
+    if (high != null) {
+      while (depth < low.length() && depth < high.length()
+          && low.charAt(depth) == high.charAt(depth)) {
+        depth++;
+      }
+    }
+    int upper = high != null && depth < high.length()
+        ? Math.min(high.charAt(depth), MAX_CHAR + 1) : MAX_CHAR + 1;
+    for (; depth <= low.length(); depth++) {
+      int lower = depth < low.length() ? low.charAt(depth) : MIN_CHAR - 1;
+      if (upper - lower > 1) {
+        return low.substring(0, depth) + (char) ((lower + upper) / 2);
+      }
+      // below the first difference only the alphabet bounds the key
+      upper = MAX_CHAR + 1;
+    }
+    return null;
+  }
+
+  /**
+   * A page of summaries of a partition, or the end of a partition possibly caused by an error.
+   */
+  private record Page(List<S3ObjectSummary> summaries, RuntimeException error) {
+
+    boolean isLast() {
+      return summaries == null;
+    }
+  }
+
+  /**
+   * The keys after {@code after} up to and including {@code until}, null for the end of the prefix.
+   * A partition is only split by the thread listing it, which also links the split off part as
+   * {@code next} before the end of the partition is queued.
+   */
+  private static final class Partition {
+
+    private final String after;
+    private final BlockingQueue<Page> queue;
+    private String until;
+    private Partition next;
+
+    private Partition(String after, String until, BlockingQueue<Page> queue) {
+      this.after = after;
+      this.until = until;
+      this.queue = queue;
+    }
+  }
+
+  /**
+   * The partitioned listing of the keys after the first page.
+   */
+  private class Listing {
+
+    private final String prefix;
+    private final boolean ordered;
+    private final Consumer<S3ObjectSummary> consumer;
+    private final Partition root;
+    // shared by all partitions in unordered mode
+    private final BlockingQueue<Page> shared;
+    // partitions that are listed or not handed over completely
+    private final AtomicInteger open = new AtomicInteger(1);
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+
+    private Listing(String prefix, String after, boolean ordered,
+        Consumer<S3ObjectSummary> consumer) {
+      this.prefix = prefix;
+      this.ordered = ordered;
+      this.consumer = consumer;
+      this.shared = ordered ? null : new LinkedBlockingQueue<>(PAGE_BUFFER * parallelism);
+      this.root = new Partition(after, null, queue());
+    }
+
+    private BlockingQueue<Page> queue() {
+      return ordered ? new LinkedBlockingQueue<>(PAGE_BUFFER) : shared;
+    }
+
+    void run() {
+      try {
+        launch(root);
+        if (ordered) {
+          for (Partition partition = root; partition != null; partition = partition.next) {
+            for (Page page = take(partition.queue); !page.isLast();
+                page = take(partition.queue)) {
+              page.summaries().forEach(consumer);
+            }
+            open.decrementAndGet();
+          }
+        } else {
+          while (open.get() > 0) {
+            Page page = take(shared);
+            if (page.isLast()) {
+              open.decrementAndGet();
+            } else {
+              page.summaries().forEach(consumer);
+            }
+          }
+        }
+      } finally {
+        cancelled.set(true);
+      }
+    }
+
+    private void launch(Partition partition) {
+      executor.execute(() -> {
+        try {
+          list(partition);
+          offer(partition.queue, new Page(null, null));
+        } catch (RuntimeException e) {
+          offer(partition.queue, new Page(null, e));
+        }
+      });
+    }
+
+    private void list(Partition partition) {
+      ListObjectsV2Request request = request(prefix).withStartAfter(partition.after);
+      while (request != null && !cancelled.get()) {
+        ListObjectsV2Result page = s3.listObjectsV2(request);
+        List<S3ObjectSummary> summaries = page.getObjectSummaries();
+        int within = summaries.size();
+        while (partition.until != null && within > 0
+            && summaries.get(within - 1).getKey().compareTo(partition.until) > 0) {
+          within--;
+        }
+        if (within > 0) {
+          offer(partition.queue, new Page(summaries.subList(0, within), null));
+        }
+        if (within < summaries.size() || summaries.isEmpty() || !page.isTruncated()) {
+          return;
+        }
+        split(partition, summaries.get(within - 1).getKey());
+        request = next(page);
+      }
+    }
+
+    /**
+     * Splits off the second half of the keys left in a partition, if another partition fits.
+     */
+    private void split(Partition partition, String last) {
+      int current = open.get();
+      if (current >= parallelism) {
+        return;
+      }
+      String middle = midpoint(last, partition.until, prefix.length());
+      if (middle == null || !open.compareAndSet(current, current + 1)) {
+        return;
+      }
+      Partition second = new Partition(middle, partition.until, queue());
+      second.next = partition.next;
+      partition.next = second;
+      partition.until = middle;
+      launch(second);
+    }
+
+    private void offer(BlockingQueue<Page> queue, Page page) {
+      try {
+        while (!queue.offer(page, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+          if (cancelled.get()) {
+            return;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private Page take(BlockingQueue<Page> queue) {
+      try {
+        Page page = queue.take();
+        if (page.error() != null) {
+          throw page.error();
+        }
+        return page;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new FileServiceException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,236 @@
+package be.mathiasbosman.fs.service.s3;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Executes S3 reads according to a {@link S3ReadPolicy}: with a deadline, hedged requests and
+ * budgeted, jittered retries. Latencies are tracked per operation name.
+ */
+@Slf4j
+class S3ReadExecutor {
+
+  private final S3ReadPolicy policy;
+  private final Executor executor;
+  private final RetryBudget budget;
+  private final Map<String, LatencyTracker> trackers = new ConcurrentHashMap<>();
+  // deadline of the read operation running on the thread, if any
+  private final ThreadLocal<Long> operationDeadline = new ThreadLocal<>();
+
+  S3ReadExecutor(S3ReadPolicy policy) {
+    this(policy, policy.isActive() ? Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "s3-read");
+      thread.setDaemon(true);
+      return thread;
+    }) : null);
+  }
+
+  S3ReadExecutor(S3ReadPolicy policy, Executor executor) {
+    this.policy = policy;
+    this.executor = executor;
+    this.budget = new RetryBudget(policy.getRetryBudget(), policy.getRetryBudgetRatio());
+  }
+
+  /**
+   * Run a read operation that may send more than one request. The deadline starts now and is shared
+   * by every read executed within the operation. Nested operations keep the outer deadline.
+   *
+   * @param operation The operation
+   * @param <T>       Type of the result
+   * @return the result of the operation
+   */
+  <T> T operation(Supplier<T> operation) {
+    if (policy.getDeadline() == null || operationDeadline.get() != null) {
+      return operation.get();
+    }
+    operationDeadline.set(System.nanoTime() + policy.getDeadline().toNanos());
+    try {
+      return operation.get();
+    } finally {
+      operationDeadline.remove();
+    }
+  }
+
+  /**
+   * Execute a read. Outside of an {@link #operation} the read has a deadline of its own.
+   *
+   * @param operation Name of the operation, latencies are tracked per name
+   * @param request   The request to send
+   * @param discard   Releases the result of a request that lost the race (optional)
+   * @param <T>       Type of the result
+   * @return the result of the first successful request
+   */
+  <T> T execute(String operation, Supplier<T> request, Consumer<T> discard) {
+    if (!policy.isActive()) {
+      return request.get();
+    }
+    long deadline = startDeadline();
+    LatencyTracker tracker = trackers.computeIfAbsent(operation,
+        k -> new LatencyTracker(policy.getHedgePercentile()));
+    int attempt = 0;
+    while (true) {
+      try {
+        return race(operation, request, discard, tracker, deadline);
+      } catch (RuntimeException e) {
+        if (!isRetryable(e) || attempt >= policy.getMaxRetries() || !budget.tryAcquire()) {
+          throw e;
+        }
+        long backoff = backoffNanos(attempt++);
+        if (backoff >= remaining(deadline)) {
+          throw e;
+        }
+        log.debug("Retrying {} after {}", operation, e.getMessage());
+        sleep(backoff);
+      }
+    }
+  }
+
+  private long startDeadline() {
+    Long current = operationDeadline.get();
+    if (current != null) {
+      return current;
+    }
+    return policy.getDeadline() != null
+        ? System.nanoTime() + policy.getDeadline().toNanos() : Long.MAX_VALUE;
+  }
+
+  LatencyTracker getTracker(String operation) {
+    return trackers.get(operation);
+  }
+
+  private <T> T race(String operation, Supplier<T> request, Consumer<T> discard,
+      LatencyTracker tracker, long deadline) {
+    if (remaining(deadline) <= 0) {
+      throw deadlineExceeded(operation);
+    }
+    Race<T> race = new Race<>(tracker, discard);
+    race.launch(request);
+    long hedgeDelay = policy.isHedged() ? Math.max(policy.getMinimumHedgeDelay().toNanos(),
+        tracker.getPercentileNanos(policy.getInitialHedgeDelay().toNanos())) : Long.MAX_VALUE;
+    if (!race.await(Math.min(hedgeDelay, remaining(deadline)))) {
+      if (policy.isHedged() && remaining(deadline) > 0 && budget.tryAcquire()) {
+        log.debug("Hedging {} after {} ms", operation, TimeUnit.NANOSECONDS.toMillis(hedgeDelay));
+        race.launch(request);
+      }
+      if (!race.await(remaining(deadline))) {
+        race.abandon();
+        throw deadlineExceeded(operation);
+      }
+    }
+    return race.result();
+  }
+
+  private FileServiceException deadlineExceeded(String operation) {
+    return new FileServiceException(new TimeoutException(
+        "Deadline of " + policy.getDeadline() + " exceeded for " + operation));
+  }
+
+  private long backoffNanos(int attempt) {
+    long base = policy.getBaseBackoff().toNanos();
+    long ceiling = Math.min(policy.getMaxBackoff().toNanos(),
+        base << Math.min(attempt, 30));
+    // full jitter
+    return ThreadLocalRandom.current().nextLong(Math.max(1, ceiling) + 1);
+  }
+
+  private static long remaining(long deadline) {
+    return deadline == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.nanoTime();
+  }
+
+  private static void sleep(long nanos) {
+    try {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new FileServiceException(e);
+    }
+  }
+
+  static boolean isRetryable(Throwable e) {
+    if (e instanceof AmazonServiceException serviceException) {
+      return serviceException.getStatusCode() >= 500
+          || RetryUtils.isRetryableServiceException(serviceException)
+          || RetryUtils.isThrottlingException(serviceException);
+    }
+    return e instanceof AmazonClientException clientException && clientException.isRetryable();
+  }
+
+  /**
+   * One or more identical requests of which the first successful reply wins. Replies that arrive
+   * after a winner has been chosen or the race has been abandoned are discarded.
+   */
+  private class Race<T> {
+
+    private final CompletableFuture<T> winner = new CompletableFuture<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LatencyTracker tracker;
+    private final Consumer<T> discard;
+
+    private Race(LatencyTracker tracker, Consumer<T> discard) {
+      this.tracker = tracker;
+      this.discard = discard;
+    }
+
+    private void launch(Supplier<T> request) {
+      pending.incrementAndGet();
+      long start = System.nanoTime();
+      CompletableFuture.supplyAsync(request, executor).whenComplete((result, error) -> {
+        if (error == null) {
+          tracker.record(System.nanoTime() - start);
+          budget.onSuccess();
+          if (!winner.complete(result) && discard != null) {
+            discard.accept(result);
+          }
+        } else if (pending.decrementAndGet() == 0) {
+          winner.completeExceptionally(error);
+        }
+      });
+    }
+
+    private boolean await(long nanos) {
+      try {
+        winner.get(nanos, TimeUnit.NANOSECONDS);
+        return true;
+      } catch (TimeoutException e) {
+        return false;
+      } catch (ExecutionException e) {
+        return true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        abandon();
+        throw new FileServiceException(e);
+      }
+    }
+
+    private void abandon() {
+      winner.completeExceptionally(new TimeoutException("Abandoned"));
+    }
+
+    private T result() {
+      try {
+        return winner.join();
+      } catch (RuntimeException e) {
+        Throwable cause = e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof RuntimeException runtimeException) {
+          throw runtimeException;
+        }
+        throw new FileServiceException(cause);
+      }
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package be.mathiasbosman.fs.service.s3;
+
+import java.time.Duration;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Policy for latency sensitive reads ({@link S3FileService#open} and the metadata lookups) of an
+ * {@link S3FileService}.
+ *
+ * <ul>
+ *   <li>A deadline bounds the total time of an operation, including retries and every request
+ *   the operation sends. It starts when the operation starts.</li>
+ *   <li>When hedging is enabled and a request has not answered within the observed latency
+ *   percentile, a duplicate request is sent and the first reply wins.</li>
+ *   <li>Failed requests that are retryable are retried with jittered exponential backoff.</li>
+ *   <li>Retries and hedges draw from a token budget that is refilled by successful requests, so
+ *   they cannot multiply the load on a struggling service.</li>
+ * </ul>
+ *
+ * <p>The AWS client performs its own retries as well. When using this policy consider lowering the
+ * retries of the client's {@link com.amazonaws.ClientConfiguration}.
+ */
+@Getter
+@Builder(toBuilder = true)
+public class S3ReadPolicy {
+
+  /**
+   * Policy that sends every request once, without deadline. This is the default.
+   */
+  public static final S3ReadPolicy NONE = S3ReadPolicy.builder()
+      .hedged(false)
+      .maxRetries(0)
+      .build();
+
+  /**
+   * Maximum total duration of an operation, counted from its start. Null means no deadline.
+   */
+  private final Duration deadline;
+  @Builder.Default
+  private final boolean hedged = true;
+  /**
+   * The latency percentile after which a hedged request is sent.
+   */
+  @Builder.Default
+  private final double hedgePercentile = 0.95;
+  /**
+   * Lower bound of the hedge delay.
+   */
+  @Builder.Default
+  private final Duration minimumHedgeDelay = Duration.ofMillis(10);
+  /**
+   * Hedge delay used until enough latencies have been observed.
+   */
+  @Builder.Default
+  private final Duration initialHedgeDelay = Duration.ofMillis(100);
+  @Builder.Default
+  private final int maxRetries = 2;
+  @Builder.Default
+  private final Duration baseBackoff = Duration.ofMillis(25);
+  @Builder.Default
+  private final Duration maxBackoff = Duration.ofSeconds(1);
+  /**
+   * Maximum amount of retry and hedge tokens that can be saved up.
+   */
+  @Builder.Default
+  private final int retryBudget = 10;
+  /**
+   * Amount of tokens a successful request adds to the budget.
+   */
+  @Builder.Default
+  private final double retryBudgetRatio = 0.1;
+
+  boolean isActive() {
+    return deadline != null || hedged || maxRetries > 0;
+  }
+}
@@ -0,0 +1,90 @@
+package be.mathiasbosman.fs.service.s3;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import be.mathiasbosman.fs.core.watch.ChangeFeedOptions;
+import be.mathiasbosman.fs.core.watch.FileChangeEvent;
+import be.mathiasbosman.fs.core.watch.FileChangeEvent.Kind;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of the {@link S3ChangeFeed} against a mocked {@link AmazonS3} client. Polls are triggered
+ * by the tests.
+ */
+class S3ChangeFeedUnitTest {
+
+  private final AmazonS3 s3 = mock(AmazonS3.class);
+  private final S3FileService fs = new S3FileService(s3, "bucket", "sandbox/");
+  private final S3ListingStub stub = new S3ListingStub("sandbox/w/.directory", "sandbox/w/a",
+      "sandbox/w/b", "sandbox/w/c", "sandbox/w/d", "sandbox/w/e", "sandbox/x/a");
+  private final List<FileChangeEvent> events = new ArrayList<>();
+
+  @TempDir
+  private Path tempDir;
+
+  S3ChangeFeedUnitTest() {
+    when(s3.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(stub);
+  }
+
+  @Test
+  void pollsResumeAfterLastKey() {
+    try (S3ChangeFeed feed = new S3ChangeFeed(fs, "sandbox/w/", 2, 1, e -> {
+    }, ChangeFeedOptions.builder().build())) {
+      // the baseline is completed regardless of the page limit and reports nothing
+      feed.poll(events::add);
+      assertThat(events).isEmpty();
+
+      stub.put("sandbox/w/b", "changed");
+      stub.remove("sandbox/w/d");
+      stub.put("sandbox/w/f", "etag");
+      stub.put("sandbox/x/b", "etag");
+
+      // pages of two keys: [.directory, a], [b, c], [e, f]
+      feed.poll(events::add);
+      assertThat(events).isEmpty();
+      feed.poll(events::add);
+      assertThat(events).extracting(FileChangeEvent::kind, FileChangeEvent::path)
+          .containsExactly(tuple(Kind.MODIFY, "w/b"));
+      feed.poll(events::add);
+      assertThat(events).extracting(FileChangeEvent::kind, FileChangeEvent::path)
+          .containsExactly(tuple(Kind.MODIFY, "w/b"), tuple(Kind.DELETE, "w/d"),
+              tuple(Kind.CREATE, "w/f"));
+
+      events.clear();
+      feed.poll(events::add);
+      feed.poll(events::add);
+      feed.poll(events::add);
+      assertThat(events).isEmpty();
+    }
+  }
+
+  @Test
+  void snapshotReportsChangesSinceLastRun() throws Exception {
+    Path snapshot = tempDir.resolve("w.snapshot");
+    ChangeFeedOptions options = ChangeFeedOptions.builder().snapshot(snapshot).build();
+    try (S3ChangeFeed feed = new S3ChangeFeed(fs, "sandbox/w/", 2, 10, e -> {
+    }, options)) {
+      feed.poll(events::add);
+    }
+    assertThat(Files.exists(snapshot)).isTrue();
+
+    stub.remove("sandbox/w/a");
+    stub.put("sandbox/w/.hidden/.directory", "etag");
+    try (S3ChangeFeed feed = new S3ChangeFeed(fs, "sandbox/w/", 2, 10, e -> {
+    }, options)) {
+      feed.poll(events::add);
+    }
+    assertThat(events).containsExactly(FileChangeEvent.deleted("w/a", false));
+  }
+}
@@ -0,0 +1,321 @@
+package be.mathiasbosman.fs.service.s3;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import be.mathiasbosman.fs.core.domain.FileSystemNode;
+import be.mathiasbosman.fs.core.domain.FileSystemNodeImpl;
+import be.mathiasbosman.fs.core.domain.Usage;
+import be.mathiasbosman.fs.core.service.FileNodeVisitor;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Tests of the {@link S3FileService} against a mocked {@link AmazonS3} client.
+ */
+class S3FileServiceUnitTest {
+
+  private static final String BUCKET = "bucket";
+  private static final String PREFIX = "sandbox/";
+
+  private final AmazonS3 s3 = mock(AmazonS3.class);
+  private final S3FileService fs = new S3FileService(s3, BUCKET, PREFIX);
+
+  @TempDir
+  private Path tempDir;
+
+  @Test
+  void walkStreamsSummaries() {
+    when(s3.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(new S3ListingStub(
+        prefixed("x/.directory", "x/a", "x/b", "x/c/.directory", "x/c/1", "x/c/d/.directory",
+            "x/c/d/e/f", "x/g")));
+
+    List<String> events = new ArrayList<>();
+    fs.walk(new FileSystemNodeImpl(null, "x", true, 0), new FileNodeVisitor() {
+      @Override
+      public void on(FileSystemNode node) {
+        events.add(node.getPath());
+      }
+
+      @Override
+      public void pre(FileSystemNode node) {
+        events.add("> " + node.getPath());
+      }
+
+      @Override
+      public void post(FileSystemNode node) {
+        events.add("< " + node.getPath());
+      }
+    });
+
+    assertThat(events).containsExactly("> x", "x/a", "x/b", "> x/c", "x/c/1", "> x/c/d",
+        "> x/c/d/e", "x/c/d/e/f", "< x/c/d/e", "< x/c/d", "< x/c", "x/g", "< x");
+  }
+
+  @Test
+  void list() {
+    when(s3.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(new S3ListingStub(
+        prefixed("x/.directory", "x/a", "x/b-c", "x/b/1", "x/b/2", "x/c/d/e")));
+
+    List<FileSystemNode> nodes = fs.list(new FileSystemNodeImpl(null, "x", true, 0));
+
+    assertThat(nodes).extracting(FileSystemNode::getPath)
+        .containsExactly("x/a", "x/b", "x/b-c", "x/c");
+    assertThat(nodes).extracting(FileSystemNode::isDirectory)
+        .containsExactly(false, true, false, true);
+  }
+
+  @Test
+  void listRoot() {
+    S3FileService unprefixed = new S3FileService(s3, BUCKET);
+    when(s3.listObjectsV2(any(ListObjectsV2Request.class)))
+        .thenAnswer(new S3ListingStub("a", "b/c"));
+
+    assertThat(unprefixed.list()).extracting(FileSystemNode::getPath).containsExactly("a", "b");
+    verify(s3).listObjectsV2(
+        argThat((ListObjectsV2Request request) -> "".equals(request.getPrefix())));
+  }
+
+  @Test
+  void streamDirectory() {
+    when(s3.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(new S3ListingStub(
+        prefixed("x/.directory", "x/a", "x/b/c")));
+
+    assertThat(fs.streamDirectory(new FileSystemNodeImpl(null, "x", true, 0)))
+        .extracting(FileSystemNode::getPath)
+        .containsExactly("x/a", "x/b/c");
+    verify(s3, times(1)).listObjectsV2(any(ListObjectsV2Request.class));
+    verifyNoMoreInteractions(s3);
+  }
+
+  @Test
+  void openRangeSendsRangeRequest() throws IOException {
+    S3Object object = new S3Object();
+    object.setObjectContent(new ByteArrayInputStream(new byte[]{1, 2, 3}));
+    when(s3.getObject(any(GetObjectRequest.class))).thenReturn(object);
+
+    try (InputStream in = fs.open(new FileSystemNodeImpl(null, "x/a", false, 10), 4, 3)) {
+      assertThat(in.readAllBytes()).containsExactly(1, 2, 3);
+    }
+    verify(s3).getObject(argThat((GetObjectRequest request) ->
+        "sandbox/x/a".equals(request.getKey()) && request.getRange()[0] == 4
+            && request.getRange()[1] == 6));
+  }
+
+  @Test
+  void openRangeIsClampedToTheSize() throws IOException {
+    S3Object object = new S3Object();
+    object.setObjectContent(new ByteArrayInputStream(new byte[]{1, 2}));
+    when(s3.getObject(any(GetObjectRequest.class))).thenReturn(object);
+    FileSystemNode node = new FileSystemNodeImpl(null, "x/a", false, 10);
+
+    try (InputStream in = fs.open(node, 10, 5)) {
+      assertThat(in.readAllBytes()).isEmpty();
+    }
+    try (InputStream in = fs.open(node, 8, 5)) {
+      assertThat(in.readAllBytes()).containsExactly(1, 2);
+    }
+    verify(s3).getObject(argThat((GetObjectRequest request) ->
+        request.getRange()[0] == 8 && request.getRange()[1] == 9));
+    verifyNoMoreInteractions(s3);
+  }
+
+  @Test
+  void deleteRecursiveInBatch() {
+    when(s3.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(new S3ListingStub(
+        prefixed("x/.directory", "x/a", "x/b/c")));
+
+    fs.delete(new FileSystemNodeImpl(null, "x", true, 0), true);
+
+    ArgumentCaptor<DeleteObjectsRequest> request =
+        ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+    verify(s3).deleteObjects(request.capture());
+    assertThat(request.getValue().getKeys()).extracting(KeyVersion::getKey)
+        .containsExactly(prefixed("x/.directory", "x/a", "x/b/c"));
+  }
+
+  @Test
+  void usageFromOneListing() {
+    when(s3.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(new S3ListingStub(
+        prefixed("x/.directory", "x/a", "x/b/.directory", "x/b/c", "x/b/d/e", "x/f/.directory",
+            "x/g/h/i")));
+
+    Usage usage = fs.usage(new FileSystemNodeImpl(null, "x", true, 0), true);
+
+    assertThat(usage.size()).isEqualTo(4);
+    assertThat(usage.files()).isEqualTo(4);
+    assertThat(usage.directories()).isEqualTo(5);
+    assertThat(usage.lastModified()).isNotNull();
+    assertThat(usage.children()).containsOnlyKeys("a", "b", "f", "g");
+    assertThat(usage.children().get("b")).extracting(Usage::size, Usage::files,
+        Usage::directories).containsExactly(2L, 2L, 1L);
+    assertThat(usage.children().get("f")).extracting(Usage::size, Usage::files,
+        Usage::directories, Usage::lastModified).containsExactly(0L, 0L, 0L, null);
+    assertThat(usage.children().get("g").directories()).isEqualTo(1);
+    verify(s3).listObjectsV2(any(ListObjectsV2Request.class));
+    verifyNoMoreInteractions(s3);
+  }
+
+  @Test
+  void directoryMarkerIsPutOnEveryCall() {
+    fs.mkDirectories("x", "y");
+    fs.mkDirectories("x/y");
+    verify(s3, times(2)).putObject(eq(BUCKET), eq(PREFIX + "x/y/.directory"),
+        any(InputStream.class), any(ObjectMetadata.class));
+  }
+
+  @Test
+  void getFileNodeOfFileInOneRequest() {
+    when(s3.listObjectsV2(any(ListObjectsV2Request.class)))
+        .thenReturn(listingV2(PREFIX, true, "x", "x-1"));
+
+    FileSystemNode node = fs.getFileNode("x");
+
+    assertThat(node.isDirectory()).isFalse();
+    assertThat(node.getSize()).isEqualTo(1);
+    verify(s3, times(1)).listObjectsV2(any(ListObjectsV2Request.class));
+    verifyNoMoreInteractions(s3);
+  }
+
+  @Test
+  void getFileNodeOfDirectoryInOneRequest() {
+    when(s3.listObjectsV2(any(ListObjectsV2Request.class)))
+        .thenReturn(listingV2(PREFIX, true, "x/.directory", "x/a"));
+
+    assertThat(fs.getFileNode("x").isDirectory()).isTrue();
+    assertThat(fs.isDirectory("x")).isTrue();
+    verify(s3, times(2)).listObjectsV2(any(ListObjectsV2Request.class));
+    verifyNoMoreInteractions(s3);
+  }
+
+  @Test
+  void missingInOneRequest() {
+    when(s3.listObjectsV2(any(ListObjectsV2Request.class)))
+        .thenReturn(listingV2(PREFIX, false, "x-1"));
+
+    assertThat(fs.exists("x")).isFalse();
+    verify(s3, times(1)).listObjectsV2(any(ListObjectsV2Request.class));
+    verifyNoMoreInteractions(s3);
+  }
+
+  @Test
+  void optionalFileNodeOfMissingPathInOneRequest() {
+    when(s3.listObjectsV2(any(ListObjectsV2Request.class)))
+        .thenReturn(listingV2(PREFIX, false, "x-1"));
+
+    assertThat(fs.getOptionalFileNode("x")).isNull();
+    verify(s3, times(1)).listObjectsV2(any(ListObjectsV2Request.class));
+    assertThatThrownBy(() -> fs.getFileNode("x")).isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("x");
+    verify(s3, times(2)).listObjectsV2(any(ListObjectsV2Request.class));
+    verifyNoMoreInteractions(s3);
+  }
+
+  @Test
+  void siblingsSortingBeforeSeparator() {
+    when(s3.listObjectsV2(any(ListObjectsV2Request.class)))
+        .thenReturn(listingV2(PREFIX, true, "x-1", "x.txt"))
+        .thenReturn(listingV2(PREFIX, false, "x/a"));
+
+    assertThat(fs.getFileNode("x").isDirectory()).isTrue();
+    ArgumentCaptor<ListObjectsV2Request> requests =
+        ArgumentCaptor.forClass(ListObjectsV2Request.class);
+    verify(s3, times(2)).listObjectsV2(requests.capture());
+    assertThat(requests.getAllValues()).extracting(ListObjectsV2Request::getPrefix)
+        .containsExactly(PREFIX + "x", PREFIX + "x/");
+  }
+
+  @Test
+  void indexAnswersLookupsWithoutRequests() {
+    S3ListingStub stub = new S3ListingStub(prefixed("x/.directory", "x/a", "x/b/c"));
+    when(s3.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(stub);
+    S3FileService indexed = new S3FileService(s3, BUCKET, PREFIX, S3ReadPolicy.NONE, 1,
+        S3ListingIndex.open(tempDir.resolve("index")));
+
+    indexed.refreshIndex();
+    verify(s3, times(1)).listObjectsV2(any(ListObjectsV2Request.class));
+
+    assertThat(indexed.exists("x/a")).isTrue();
+    assertThat(indexed.exists("x/z")).isFalse();
+    assertThat(indexed.isDirectory("x/b")).isTrue();
+    assertThat(indexed.list(indexed.getFileNode("x"))).extracting(FileSystemNode::getPath)
+        .containsExactly("x/a", "x/b");
+    assertThat(indexed.getSize(indexed.getFileNode("x"))).isEqualTo(2);
+
+    indexed.save(new byte[]{1, 2}, "x/d");
+    indexed.delete(indexed.getFileNode("x/a"));
+    assertThat(indexed.list(indexed.getFileNode("x"))).extracting(FileSystemNode::getPath)
+        .containsExactly("x/b", "x/d");
+    assertThat(indexed.getFileNode("x/d").getSize()).isEqualTo(2);
+    verify(s3, times(1)).listObjectsV2(any(ListObjectsV2Request.class));
+  }
+
+  @Test
+  void refreshIndexIncrementally() {
+    S3ListingStub stub = new S3ListingStub(prefixed("a", "b", "c"));
+    when(s3.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(stub);
+    S3FileService indexed = new S3FileService(s3, BUCKET, PREFIX, S3ReadPolicy.NONE, 1,
+        S3ListingIndex.open(tempDir.resolve("index")));
+    indexed.refreshIndex();
+
+    stub.remove(PREFIX + "b");
+    stub.put(PREFIX + "d", "etag");
+    assertThat(indexed.refreshIndex(1)).isTrue();
+
+    assertThat(indexed.list()).extracting(FileSystemNode::getPath)
+        .containsExactly("a", "c", "d");
+    ArgumentCaptor<ListObjectsV2Request> requests =
+        ArgumentCaptor.forClass(ListObjectsV2Request.class);
+    verify(s3, times(2)).listObjectsV2(requests.capture());
+    assertThat(requests.getValue().getStartAfter()).isNull();
+  }
+
+  private static ListObjectsV2Result listingV2(String prefix, boolean truncated,
+      String... paths) {
+    ListObjectsV2Result result = new ListObjectsV2Result();
+    result.setTruncated(truncated);
+    for (String path : paths) {
+      result.getObjectSummaries().add(summary(prefix + path));
+    }
+    return result;
+  }
+
+  private static S3ObjectSummary summary(String key) {
+    S3ObjectSummary summary = new S3ObjectSummary();
+    summary.setBucketName(BUCKET);
+    summary.setKey(key);
+    summary.setSize(1);
+    summary.setLastModified(new Date());
+    return summary;
+  }
+
+  private static String[] prefixed(String... paths) {
+    return Arrays.stream(paths).map(path -> PREFIX + path).toArray(String[]::new);
+  }
+}
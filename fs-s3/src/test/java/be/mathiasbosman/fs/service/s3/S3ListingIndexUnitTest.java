@@ -0,0 +1,117 @@
+package be.mathiasbosman.fs.service.s3;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import be.mathiasbosman.fs.service.s3.S3ListingIndex.Entry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class S3ListingIndexUnitTest {
+
+  @TempDir
+  private Path tempDir;
+
+  @Test
+  void persistAndReopen() throws IOException {
+    Path file = tempDir.resolve("index");
+    S3ListingIndex index = S3ListingIndex.open(file);
+    for (String key : List.of("b/2", "a", "b/1", "c", "😀", "�", "b-1")) {
+      index.put(entry(key));
+    }
+    index.persist();
+    assertThat(index.getPendingChanges()).isZero();
+
+    S3ListingIndex reopened = S3ListingIndex.open(file);
+
+    // code point order: a supplementary character sorts after U+FFFD, unlike in UTF-16
+    assertThat(keys(reopened, "")).containsExactly("a", "b-1", "b/1", "b/2", "c", "�",
+        "😀");
+    assertThat(reopened.get("b/1")).isEqualTo(entry("b/1"));
+    assertThat(reopened.get("b")).isNull();
+    assertThat(reopened.containsPrefix("b/")).isTrue();
+    assertThat(reopened.containsPrefix("d")).isFalse();
+  }
+
+  @Test
+  void changesOverlayTheFile() throws IOException {
+    S3ListingIndex index = S3ListingIndex.open(tempDir.resolve("index"));
+    index.put(entry("x/a"));
+    index.put(entry("x/c"));
+    index.persist();
+
+    index.remove("x/a");
+    index.put(entry("x/b"));
+    index.put(new Entry("x/c", 5, 6, "changed"));
+
+    assertThat(keys(index, "x/")).containsExactly("x/b", "x/c");
+    assertThat(index.get("x/a")).isNull();
+    assertThat(index.get("x/c").size()).isEqualTo(5);
+    assertThat(index.getPendingChanges()).isEqualTo(3);
+
+    index.persist();
+    assertThat(keys(S3ListingIndex.open(tempDir.resolve("index")), ""))
+        .containsExactly("x/b", "x/c");
+  }
+
+  @Test
+  void replaceRange() {
+    S3ListingIndex index = S3ListingIndex.open(tempDir.resolve("index"));
+    List.of("p/a", "p/b", "p/c", "p/d", "q").forEach(key -> index.put(entry(key)));
+
+    index.replaceRange("p/", "p/a", "p/c", List.of(entry("p/bb"), entry("p/c")));
+
+    assertThat(keys(index, "")).containsExactly("p/a", "p/bb", "p/c", "p/d", "q");
+  }
+
+  @Test
+  void replaceRangeSeeksToThePage() throws IOException {
+    S3ListingIndex index = S3ListingIndex.open(tempDir.resolve("index"));
+    List<Entry> listed = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      Entry entry = entry(String.format("p/%04d", i));
+      listed.add(entry);
+      if (i % 100 != 0) {
+        index.put(entry);
+      }
+    }
+    index.put(entry("p/gone"));
+    index.persist();
+
+    String cursor = null;
+    for (int page = 0; page < 100; page++) {
+      List<Entry> entries = listed.subList(page * 10, page * 10 + 10);
+      String lastKey = entries.get(entries.size() - 1).key();
+      index.replaceRange("p/", cursor, page == 99 ? null : lastKey, entries);
+      cursor = lastKey;
+    }
+
+    assertThat(keys(index, "p/")).hasSize(1000).doesNotContain("p/gone");
+    assertThat(index.getPendingChanges()).isEqualTo(11);
+    // every page only decodes its own records, not those of the pages before it
+    assertThat(index.getDecodedCount()).isLessThan(4000);
+  }
+
+  @Test
+  void openEmpty() {
+    S3ListingIndex index = S3ListingIndex.open(tempDir.resolve("missing"));
+
+    assertThat(index.get("a")).isNull();
+    assertThat(keys(index, "")).isEmpty();
+    assertThat(Files.exists(tempDir.resolve("missing"))).isFalse();
+  }
+
+  private static Entry entry(String key) {
+    return new Entry(key, key.length(), 1000L, "etag-" + key);
+  }
+
+  private static List<String> keys(S3ListingIndex index, String prefix) {
+    List<String> keys = new ArrayList<>();
+    index.forEach(prefix, entry -> keys.add(entry.key()));
+    return keys;
+  }
+}
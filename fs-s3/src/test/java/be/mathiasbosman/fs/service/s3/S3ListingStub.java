@@ -0,0 +1,86 @@
+package be.mathiasbosman.fs.service.s3;
+
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import java.util.Date;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Answers ListObjectsV2 requests from a fixed set of keys, honouring prefix, delimiter, max-keys
+ * start-after and continuation tokens like S3 does. Keys can be added and removed between requests.
+ */
+class S3ListingStub implements Answer<ListObjectsV2Result> {
+
+  private static final Date LAST_MODIFIED = new Date();
+
+  private final NavigableMap<String, String> keys = new ConcurrentSkipListMap<>();
+
+  S3ListingStub(String... keys) {
+    for (String key : keys) {
+      put(key, "etag");
+    }
+  }
+
+  void put(String key, String etag) {
+    keys.put(key, etag);
+  }
+
+  void remove(String key) {
+    keys.remove(key);
+  }
+
+  @Override
+  public ListObjectsV2Result answer(InvocationOnMock invocation) {
+    ListObjectsV2Request request = invocation.getArgument(0);
+    String prefix = request.getPrefix() != null ? request.getPrefix() : "";
+    String delimiter = request.getDelimiter();
+    int maxKeys = request.getMaxKeys() != null ? request.getMaxKeys() : 1000;
+    String token = request.getContinuationToken();
+    String startAfter = request.getStartAfter();
+    ListObjectsV2Result result = new ListObjectsV2Result();
+    result.setBucketName(request.getBucketName());
+    result.setPrefix(request.getPrefix());
+    result.setDelimiter(delimiter);
+    int count = 0;
+    String last = null;
+    boolean lastIsPrefix = false;
+    NavigableMap<String, String> remaining = token != null ? keys.tailMap(token, false)
+        : startAfter != null && startAfter.compareTo(prefix) >= 0
+            ? keys.tailMap(startAfter, false) : keys.tailMap(prefix, true);
+    for (String key : remaining.keySet()) {
+      if (!key.startsWith(prefix)) {
+        break;
+      }
+      int separator = delimiter != null ? key.indexOf(delimiter, prefix.length()) : -1;
+      String next = separator < 0 ? key : key.substring(0, separator + 1);
+      if (next.equals(last)) {
+        continue;
+      }
+      if (count == maxKeys) {
+        result.setTruncated(true);
+        // skip all keys rolled up in a common prefix
+        result.setNextContinuationToken(lastIsPrefix ? last + Character.MAX_VALUE : last);
+        return result;
+      }
+      if (separator < 0) {
+        S3ObjectSummary summary = new S3ObjectSummary();
+        summary.setBucketName(request.getBucketName());
+        summary.setKey(key);
+        summary.setSize(1);
+        summary.setETag(keys.get(key));
+        summary.setLastModified(LAST_MODIFIED);
+        result.getObjectSummaries().add(summary);
+      } else {
+        result.getCommonPrefixes().add(next);
+      }
+      last = next;
+      lastIsPrefix = separator >= 0;
+      count++;
+    }
+    return result;
+  }
+}
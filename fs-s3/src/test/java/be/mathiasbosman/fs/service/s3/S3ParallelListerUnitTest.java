@@ -0,0 +1,130 @@
+package be.mathiasbosman.fs.service.s3;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class S3ParallelListerUnitTest {
+
+  private static final String BUCKET = "bucket";
+
+  private final AmazonS3 s3 = mock(AmazonS3.class);
+  private final String[] keys = IntStream.range(0, 50)
+      .mapToObj(i -> "p/" + (char) ('a' + i % 5) + (i % 3 == 0 ? "-" + i : "/" + i))
+      .sorted()
+      .toArray(String[]::new);
+
+  @Test
+  void smallListingIsSerial() {
+    when(s3.listObjectsV2(any(ListObjectsV2Request.class)))
+        .thenAnswer(new S3ListingStub("p/a", "p/b/c"));
+
+    assertThat(list(new S3ParallelLister(s3, BUCKET, 4, 10), true))
+        .containsExactly("p/a", "p/b/c");
+    verify(s3, times(1)).listObjectsV2(any(ListObjectsV2Request.class));
+  }
+
+  @Test
+  void orderedListingMatchesSerialListing() {
+    when(s3.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(new S3ListingStub(keys));
+
+    List<String> serial = list(new S3ParallelLister(s3, BUCKET, 1, 4), true);
+    List<String> parallel = list(new S3ParallelLister(s3, BUCKET, 3, 4), true);
+
+    assertThat(serial).containsExactly(keys);
+    assertThat(parallel).containsExactly(keys);
+    verify(s3, never()).listObjectsV2(
+        argThat((ListObjectsV2Request request) -> request.getDelimiter() != null));
+  }
+
+  @Test
+  void flatPrefixIsSplitAndStreamed() {
+    String[] flat = IntStream.range(0, 500)
+        .mapToObj(i -> String.format("p/file-%04d", i))
+        .toArray(String[]::new);
+    when(s3.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(new S3ListingStub(flat));
+    S3ParallelLister lister = new S3ParallelLister(s3, BUCKET, 4, 10);
+    List<Integer> requestsBeforeFirst = new ArrayList<>();
+    List<String> ordered = new ArrayList<>();
+
+    lister.forEach("p/", true, summary -> {
+      if (ordered.isEmpty()) {
+        requestsBeforeFirst.add(mockingDetails(s3).getInvocations().size());
+      }
+      ordered.add(summary.getKey());
+    });
+
+    // the first page is handed over before anything else is listed
+    assertThat(requestsBeforeFirst).containsExactly(1);
+    assertThat(ordered).containsExactly(flat);
+    assertThat(list(lister, false)).containsExactlyInAnyOrder(flat);
+    // partitions start after keys between the listed ones
+    verify(s3, atLeast(2)).listObjectsV2(argThat((ListObjectsV2Request request) ->
+        request.getStartAfter() != null && request.getContinuationToken() == null
+            && !Arrays.asList(flat).contains(request.getStartAfter())));
+  }
+
+  @Test
+  void midpoint() {
+    assertThat(S3ParallelLister.midpoint("p/a", null, 2)).isEqualTo("p/p");
+    assertThat(S3ParallelLister.midpoint("p/a", "p/c", 2)).isEqualTo("p/b");
+    assertThat(S3ParallelLister.midpoint("p/a", "p/b", 2)).isEqualTo("p/aO");
+    assertThat(S3ParallelLister.midpoint("p/a~~", "p/b", 2)).isEqualTo("p/a~~O");
+    assertThat(S3ParallelLister.midpoint("p/a", "p/a ", 2)).isNull();
+  }
+
+  @Test
+  void unorderedListingContainsAllKeys() {
+    when(s3.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(new S3ListingStub(keys));
+
+    assertThat(list(new S3ParallelLister(s3, BUCKET, 2, 4), false))
+        .containsExactlyInAnyOrder(keys);
+  }
+
+  @Test
+  void partitionFailurePropagates() {
+    S3ListingStub stub = new S3ListingStub(keys);
+    when(s3.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(invocation -> {
+      ListObjectsV2Request request = invocation.getArgument(0);
+      if (request.getStartAfter() != null && request.getStartAfter().compareTo("p/c") > 0) {
+        throw new AmazonServiceException("Mocked failure");
+      }
+      return stub.answer(invocation);
+    });
+    S3ParallelLister lister = new S3ParallelLister(s3, BUCKET, 2, 4);
+
+    assertThatThrownBy(() -> list(lister, true))
+        .isInstanceOf(AmazonServiceException.class);
+    assertThatThrownBy(() -> list(lister, false))
+        .isInstanceOf(AmazonServiceException.class);
+  }
+
+  @Test
+  void parallelismShouldBePositive() {
+    assertThatThrownBy(() -> new S3ParallelLister(s3, BUCKET, 0, 4))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private static List<String> list(S3ParallelLister lister, boolean ordered) {
+    List<String> result = new ArrayList<>();
+    lister.forEach("p/", ordered, summary -> result.add(summary.getKey()));
+    return result;
+  }
+}
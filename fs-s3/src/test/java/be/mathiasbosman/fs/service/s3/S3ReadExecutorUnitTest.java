@@ -0,0 +1,178 @@
+package be.mathiasbosman.fs.service.s3;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import be.mathiasbosman.fs.core.domain.FileServiceException;
+import com.amazonaws.AmazonServiceException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class S3ReadExecutorUnitTest {
+
+  @Test
+  void passThroughWithoutPolicy() {
+    S3ReadExecutor executor = new S3ReadExecutor(S3ReadPolicy.NONE);
+    assertThat(executor.execute("op", () -> "result", null)).isEqualTo("result");
+    assertThat(executor.getTracker("op")).isNull();
+  }
+
+  @Test
+  void hedgesSlowRequests() {
+    S3ReadPolicy policy = S3ReadPolicy.builder()
+        .initialHedgeDelay(Duration.ofMillis(20))
+        .maxRetries(0)
+        .build();
+    S3ReadExecutor executor = new S3ReadExecutor(policy);
+    AtomicInteger calls = new AtomicInteger();
+    List<String> discarded = new CopyOnWriteArrayList<>();
+
+    String result = executor.execute("op", () -> {
+      if (calls.incrementAndGet() == 1) {
+        sleep(500);
+        return "slow";
+      }
+      return "fast";
+    }, discarded::add);
+
+    assertThat(result).isEqualTo("fast");
+    assertThat(calls).hasValue(2);
+    sleep(700);
+    assertThat(discarded).containsExactly("slow");
+  }
+
+  @Test
+  void retriesRetryableFailures() {
+    S3ReadPolicy policy = S3ReadPolicy.builder()
+        .hedged(false)
+        .baseBackoff(Duration.ofMillis(1))
+        .build();
+    S3ReadExecutor executor = new S3ReadExecutor(policy);
+    AtomicInteger calls = new AtomicInteger();
+
+    String result = executor.execute("op", () -> {
+      if (calls.incrementAndGet() < 3) {
+        throw serviceException(503);
+      }
+      return "result";
+    }, null);
+
+    assertThat(result).isEqualTo("result");
+    assertThat(calls).hasValue(3);
+  }
+
+  @Test
+  void doesNotRetryClientErrors() {
+    S3ReadPolicy policy = S3ReadPolicy.builder().hedged(false).build();
+    S3ReadExecutor executor = new S3ReadExecutor(policy);
+    AtomicInteger calls = new AtomicInteger();
+
+    assertThatThrownBy(() -> executor.execute("op", () -> {
+      calls.incrementAndGet();
+      throw serviceException(404);
+    }, null)).isInstanceOf(AmazonServiceException.class);
+    assertThat(calls).hasValue(1);
+  }
+
+  @Test
+  void retriesAreBudgeted() {
+    S3ReadPolicy policy = S3ReadPolicy.builder()
+        .hedged(false)
+        .maxRetries(5)
+        .retryBudget(1)
+        .retryBudgetRatio(0)
+        .baseBackoff(Duration.ofMillis(1))
+        .build();
+    S3ReadExecutor executor = new S3ReadExecutor(policy);
+    AtomicInteger calls = new AtomicInteger();
+
+    assertThatThrownBy(() -> executor.execute("op", () -> {
+      calls.incrementAndGet();
+      throw serviceException(500);
+    }, null)).isInstanceOf(AmazonServiceException.class);
+    assertThat(calls).hasValue(2);
+  }
+
+  @Test
+  void deadlineExceeded() {
+    S3ReadPolicy policy = S3ReadPolicy.builder()
+        .deadline(Duration.ofMillis(50))
+        .hedged(false)
+        .build();
+    S3ReadExecutor executor = new S3ReadExecutor(policy);
+
+    assertThatThrownBy(() -> executor.execute("op", () -> {
+      sleep(500);
+      return "late";
+    }, null))
+        .isInstanceOf(FileServiceException.class)
+        .hasCauseInstanceOf(TimeoutException.class);
+  }
+
+  @Test
+  void deadlineIsSharedWithinAnOperation() {
+    S3ReadPolicy policy = S3ReadPolicy.builder()
+        .deadline(Duration.ofMillis(150))
+        .hedged(false)
+        .build();
+    S3ReadExecutor executor = new S3ReadExecutor(policy);
+    AtomicInteger calls = new AtomicInteger();
+
+    // every request fits the deadline on its own
+    assertThat(executor.execute("op", () -> sleepAndCount(calls), null)).isEqualTo(1);
+    assertThat(executor.execute("op", () -> sleepAndCount(calls), null)).isEqualTo(2);
+    assertThatThrownBy(() -> executor.operation(() -> {
+      executor.execute("op", () -> sleepAndCount(calls), null);
+      return executor.execute("op", () -> sleepAndCount(calls), null);
+    }))
+        .isInstanceOf(FileServiceException.class)
+        .hasCauseInstanceOf(TimeoutException.class);
+    // the next operation starts a new deadline
+    assertThat(executor.operation(() -> executor.execute("op", () -> sleepAndCount(calls), null)))
+        .isGreaterThan(3);
+  }
+
+  @Test
+  void latencyPercentile() {
+    LatencyTracker tracker = new LatencyTracker(0.95);
+    assertThat(tracker.getPercentileNanos(-1)).isEqualTo(-1);
+    for (int i = 1; i <= 160; i++) {
+      tracker.record(i);
+    }
+    assertThat(tracker.getPercentileNanos(-1)).isEqualTo(152);
+  }
+
+  @Test
+  void retryBudget() {
+    RetryBudget budget = new RetryBudget(1, 0.5);
+    assertThat(budget.tryAcquire()).isTrue();
+    assertThat(budget.tryAcquire()).isFalse();
+    budget.onSuccess();
+    budget.onSuccess();
+    assertThat(budget.tryAcquire()).isTrue();
+  }
+
+  private static AmazonServiceException serviceException(int status) {
+    AmazonServiceException exception = new AmazonServiceException("Mocked " + status);
+    exception.setStatusCode(status);
+    return exception;
+  }
+
+  private static int sleepAndCount(AtomicInteger calls) {
+    sleep(100);
+    return calls.incrementAndGet();
+  }
+
+  private static void sleep(long millis) {
+    try {
+      TimeUnit.MILLISECONDS.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}